@@ -0,0 +1,125 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothDevice;
+import android.content.Context;
+import android.opengl.GLSurfaceView;
+
+/**
+ * Custom View-Class that draws the ball with OpenGL ES 2.0 (see BallRenderer), as an alternative to the AccelerationSurfaceView.
+ * The view renders continuously (once per vsync) only while the ball is moving and until its trail has faded out afterwards,
+ * otherwise it doesn't draw at all. onResume() and onPause() have to be called by the Activity.
+ */
+public class AccelerationGLSurfaceView extends GLSurfaceView {
+    //Time without samples after which rendering stops (if fading is disabled, otherwise after the trail has faded out)
+    private static final long IDLE_TIMEOUT = 100000000L;
+
+    private AccelerationSource source;
+    private BallRenderer renderer;
+
+    //Render mode, changed by the thread delivering the samples and by the GL-Thread
+    private final Object renderModeLock = new Object();
+    private volatile boolean isRenderingContinuously;
+    private volatile long lastMoveTime;
+
+    /**
+     * Constructor
+     * @param context ApplicationContext used to inflate layout components
+     */
+    public AccelerationGLSurfaceView(Context context) {
+        super(context);
+    }
+
+    /**
+     * Creates the renderer, must be called before the View is displayed
+     * @param device The BluetoothDevice to connect to (or null)
+     * @param replay ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording that is replayed instead of connecting (or null)
+     * @param replaySpeed 1 for real-time, 0 for as fast as possible
+     * @param cpuStatistics Records the CPU time of each frame
+     */
+    public void initialize(BluetoothDevice device, String replay, float replaySpeed, FrameTimeStatistics cpuStatistics) {
+        this.source = new AccelerationSource(this.getContext(), device, replay, replaySpeed, this.ballListener);
+        this.renderer = new BallRenderer(this, this.source, cpuStatistics);
+
+        setEGLContextClientVersion(2);
+        setPreserveEGLContextOnPause(true);
+        setRenderer(this.renderer);
+        setRenderMode(RENDERMODE_WHEN_DIRTY);
+    }
+
+    /**
+     * Resumes rendering and starts the replay or initiates the connection process
+     */
+    @Override
+    public void onResume() {
+        super.onResume();
+        this.source.start();
+    }
+
+    /**
+     * Stops the replay or disconnects from blueIOT and pauses rendering
+     */
+    @Override
+    public void onPause() {
+        this.source.stop();
+        super.onPause();
+    }
+
+    /**
+     * @return The LatencyTracer measuring the time from the notification to the drawn frame (disabled by default)
+     */
+    public LatencyTracer getTracer() {
+        return this.source.getTracer();
+    }
+
+    /**
+     * Setter-method without parameter: reverts the boolean for fading
+     */
+    public void setFadingEnabled() {
+        this.renderer.setFadingEnabled();
+        requestRender();
+    }
+
+    /**
+     * Starts rendering continuously as soon as the ball moves
+     */
+    private final AccelerationSource.Listener ballListener = new AccelerationSource.Listener() {
+        @Override
+        public void onBallMoved() {
+            lastMoveTime = System.nanoTime();
+
+            //Only the first notification after a pause has to change the render mode
+            if (!isRenderingContinuously) {
+                synchronized (renderModeLock) {
+                    if (!isRenderingContinuously) {
+                        isRenderingContinuously = true;
+                        setRenderMode(RENDERMODE_CONTINUOUSLY);
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * Called by the BallRenderer on the GL-Thread after each frame, stops rendering once the ball has stopped and its trail has faded out
+     */
+    void onFrameDrawn() {
+        if (!this.isRenderingContinuously) {
+            return;
+        }
+
+        long idleTimeout = this.renderer.isFadingEnabled() ? (long) (BallRenderer.TRAIL_DURATION * 1000000000L) : IDLE_TIMEOUT;
+        long moveTime = this.lastMoveTime;
+        if (System.nanoTime() - moveTime > idleTimeout) {
+            synchronized (this.renderModeLock) {
+                this.isRenderingContinuously = false;
+                setRenderMode(RENDERMODE_WHEN_DIRTY);
+
+                //A sample that has arrived in the meantime might not have seen the change
+                if (this.lastMoveTime != moveTime) {
+                    this.isRenderingContinuously = true;
+                    setRenderMode(RENDERMODE_CONTINUOUSLY);
+                }
+            }
+        }
+    }
+}
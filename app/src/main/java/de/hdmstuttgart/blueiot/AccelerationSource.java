@@ -0,0 +1,220 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.widget.Toast;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Moves the ball of the DrawActivity: receives the notifications from blueIOT via the BleConnectionService (or from a replay),
+ * integrates every sample into the position of the ball and tells the renderer that the ball has moved.
+ * Shared by both ways of drawing the ball (Canvas: AccelerationSurfaceThread, OpenGL ES: AccelerationGLSurfaceView).
+ */
+public class AccelerationSource {
+    /**
+     * Callback used to tell the renderer that the ball has to be drawn again
+     */
+    public interface Listener {
+        /**
+         * Called on the thread delivering the notifications (or the replay thread) after the samples of a notification have been integrated
+         */
+        void onBallMoved();
+    }
+
+    private final Context context;
+    private final Listener listener;
+
+    //Position of the circle, bounded by the surface size that is set by the renderer
+    private final BallPhysics ball = new BallPhysics();
+
+    //Decodes and ingests every notification, only ever accessed from the Binder-Thread delivering onCharacteristicChanged() (or the replay thread)
+    private final SensorPipeline pipeline;
+
+    //Bluetooth-components
+    private final BluetoothDevice device;
+
+    //Binding of the current start() (null if not connected), every start() binds anew, so a release that is still pending can't affect it
+    private volatile BlueIOTConnection blueIOTConnection;
+
+    //Replays notifications instead of receiving them from blueIOT (null if not replaying)
+    private final String replay;
+    private final float replaySpeed;
+    private ReplayEngine replayEngine;
+
+    //The BleConnectionService has to be used from the main thread
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Constructor
+     * @param context The Context used to connect to blueIOT from
+     * @param device The BluetoothDevice to connect to
+     * @param replay ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording to replay instead of connecting (or null)
+     * @param replaySpeed 1 for real-time, 0 for as fast as possible
+     * @param listener Is told whenever the ball has moved
+     */
+    public AccelerationSource(Context context, BluetoothDevice device, String replay, float replaySpeed, Listener listener) {
+        this.context = context;
+        this.device = device;
+        this.replay = replay;
+        this.replaySpeed = replaySpeed;
+        this.listener = listener;
+        this.pipeline = new SensorPipeline(this.positionIntegrator);
+    }
+
+    public BallPhysics getBall() {
+        return this.ball;
+    }
+
+    /**
+     * @return The LatencyTracer measuring the time from the notification to the posted frame (disabled by default)
+     */
+    public LatencyTracer getTracer() {
+        return this.pipeline.getTracer();
+    }
+
+    /**
+     * Starts the replay or initiates the connection process. Must be called from the main thread.
+     */
+    public void start() {
+        if (this.replay != null) {
+            if (this.replayEngine == null) {
+                try {
+                    this.replayEngine = ReplayEngine.create(this.replay, this.replaySpeed, this.frameHandler);
+                    this.replayEngine.start();
+                } catch (IOException | IllegalArgumentException ex) {
+                    Toast.makeText(this.context, "Can't replay " + this.replay + ": " + ex.getMessage(), Toast.LENGTH_LONG).show();
+                }
+            }
+        }
+        else if (this.device != null && this.blueIOTConnection == null) {
+            connectToBlueIOT();
+        }
+    }
+
+    /**
+     * Stops the replay or disconnects from blueIOT, can be called from any thread
+     */
+    public void stop() {
+        if (this.replayEngine != null) {
+            this.replayEngine.stop();
+            this.replayEngine = null;
+        }
+        disconnectFromBlueIOT();
+    }
+
+    /**
+     * Binding to the BleConnectionService and subscription to blueIOT of a single start().
+     * Receives every notification containing the sensor-values. Only accessed from the main thread.
+     */
+    private final class BlueIOTConnection implements ServiceConnection, BleConnectionService.Listener {
+        private BleConnectionService bleConnectionService;
+        private boolean isReleased;
+
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            if (this.isReleased) {
+                return;
+            }
+            this.bleConnectionService = ((BleConnectionService.LocalBinder) service).getService();
+            this.bleConnectionService.subscribe(device, this, ConnectionGovernor.PROFILE_INTERACTIVE);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            this.bleConnectionService = null;
+        }
+
+        @Override
+        public void onConnectionStateChanged(BluetoothDevice device, boolean isConnected) {}
+
+        @Override
+        public void onServicesDiscovered(BluetoothDevice device, List<BluetoothGattService> services) {}
+
+        @Override
+        public void onCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+            /*
+             *    The Value contains X,Y and Z from the Accelerometer and the Altitude from the Barometer, either as comma-separated String
+             *    or as packed binary frame with several samples (see SensorFrameFormat). The format is negotiated when connecting.
+             *    The raw bytes are decoded directly, without creating any objects (this is called for every single notification)
+             */
+            frameHandler.onFrame(characteristic.getValue(), System.nanoTime());
+        }
+
+        /**
+         * Unsubscribes and unbinds, the Service closes the connection once nobody else is using it
+         */
+        private void release() {
+            this.isReleased = true;
+            if (this.bleConnectionService != null) {
+                this.bleConnectionService.unsubscribe(device, this);
+                this.bleConnectionService = null;
+            }
+            context.unbindService(this);
+        }
+    }
+
+    /**
+     * Processes the notifications from blueIOT or the ReplayEngine and tells the renderer if the ball has moved
+     */
+    private final ReplayEngine.FrameListener frameHandler = new ReplayEngine.FrameListener() {
+        @Override
+        public int onFrame(byte[] data, long receivedTime) {
+            //Duplicated samples are skipped by the SensorIngest, so they don't move the ball twice
+            int sampleCount = pipeline.onFrame(data, receivedTime);
+            if (sampleCount > 0) {
+                //Stay within the Display-Bounds for X and Y when drawing the circle
+                ball.constrain();
+                listener.onBallMoved();
+            }
+            return sampleCount;
+        }
+    };
+
+    /**
+     * Updates X and Y with each new sample
+     */
+    private final SensorIngest.Sink positionIntegrator = new SensorIngest.Sink() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+            ball.integrate(values[offset], values[offset + 1]);
+        }
+    };
+
+    /**
+     * Binds to the BleConnectionService and subscribes to blueIOT as soon as the Service is available
+     */
+    private void connectToBlueIOT() {
+        if (this.blueIOTConnection == null) {
+            this.blueIOTConnection = new BlueIOTConnection();
+            this.context.bindService(new Intent(this.context, BleConnectionService.class), this.blueIOTConnection, Context.BIND_AUTO_CREATE);
+        }
+    }
+
+    /**
+     * Unsubscribes from blueIOT, the Service closes the connection once nobody else is using it
+     */
+    private void disconnectFromBlueIOT() {
+        final BlueIOTConnection connection = this.blueIOTConnection;
+        if (connection != null) {
+            this.blueIOTConnection = null;
+
+            //Might be called from a drawing-Thread --> switch to the main thread
+            this.mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    connection.release();
+                }
+            });
+        }
+    }
+}
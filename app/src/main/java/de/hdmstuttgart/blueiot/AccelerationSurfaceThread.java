@@ -1,19 +1,14 @@
 package de.hdmstuttgart.blueiot;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Debug;
 import android.view.SurfaceHolder;
-
-import java.util.UUID;
+import android.view.WindowManager;
 
 /**
  * Custom Thread-Class that is used to draw onto the SurfaceView that is being passed over in the Constructor.
@@ -22,57 +17,84 @@ import java.util.UUID;
  */
 public class AccelerationSurfaceThread extends Thread {
     private SurfaceHolder surfaceHolder;
-    private Context context;
 
     //Paint-Object used to draw the circle
     private Paint paint = new Paint();
 
-    private boolean run = false;
-    private boolean isConnected;
-    private boolean isFadingEnabled = false;
+    //Paint-Object used to draw the latency overlay (while tracing is enabled)
+    private final Paint overlayPaint = new Paint();
+
+    //Lines of the latency overlay, refreshed once per second (only accessed by this Thread)
+    private static final long LATENCY_OVERLAY_INTERVAL = 1000000000L;
+    private String[] latencyOverlayLines = new String[0];
+    private long latencyOverlayTime;
+
+    private volatile boolean run = false;
+    private volatile boolean isFadingEnabled = false;
+
+    //Number of frames it takes until the translucent background (alpha = 10) has completely covered the previous circles
+    private static final int FADE_STEPS = 140;
+
+    //Decides when a new frame has to be drawn
+    private RenderScheduler renderScheduler;
+    public RenderScheduler getRenderScheduler() {
+        return this.renderScheduler;
+    }
+
+    /**
+     * @return The LatencyTracer measuring the time from the notification to the posted frame (disabled by default)
+     */
+    public LatencyTracer getTracer() {
+        return this.source.getTracer();
+    }
 
     /**
      * Setter-method without parameter: reverts the boolean for fading
      */
     public void setFadingEnabled() {
         this.isFadingEnabled = !this.isFadingEnabled;
+        this.renderScheduler.requestRender();
     }
 
-    //Display size, initially set within setSurfaceSize(width, height)
-    private int canvasWidth;
-    private int canvasHeight;
+    //Receives the samples and moves the ball, whose position is bounded by the display size that is set within setSurfaceSize(width, height)
+    private final AccelerationSource source;
 
-    //X and Y values, used for drawing onto the Canvas
-    private float x;
-    private float y;
-
-    //Bluetooth-components
-    private BluetoothDevice device;
-    private BluetoothGatt bluetoothGatt;
+    //CPU time of the drawing-Thread per frame, for comparing with the OpenGL ES renderer (see AccelerationGLSurfaceView)
+    private final FrameTimeStatistics cpuStatistics;
 
     /**
      * Constructor
      * @param surfaceHolder The SurfaceHolder that encapsulates the underlying Canvas-Element
      * @param context The Context used to connect to blueIOT from
      * @param device The BluetoothDevice to connect to
+     * @param replay ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording to replay instead of connecting (or null)
+     * @param replaySpeed 1 for real-time, 0 for as fast as possible
+     * @param cpuStatistics Records the CPU time it takes to draw and post each frame
      */
-    public AccelerationSurfaceThread(SurfaceHolder surfaceHolder, Context context, BluetoothDevice device) {
+    public AccelerationSurfaceThread(SurfaceHolder surfaceHolder, Context context, BluetoothDevice device, String replay, float replaySpeed,
+                                     FrameTimeStatistics cpuStatistics) {
         this.surfaceHolder = surfaceHolder;
-        this.context = context;
+        this.cpuStatistics = cpuStatistics;
+        this.source = new AccelerationSource(context, device, replay, replaySpeed, this.ballListener);
 
         this.paint.setColor(Color.GREEN);
         this.paint.setStyle(Paint.Style.FILL);
 
-        this.device = device;
+        this.overlayPaint.setColor(Color.WHITE);
+        this.overlayPaint.setTextSize(28);
+        this.overlayPaint.setTypeface(Typeface.MONOSPACE);
 
-        //Initiate connection process
-        if (this.device != null && !this.isConnected) {
-            connectToBlueIOT();
-        }
+        //Never draw more frames than the display is able to show
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        this.renderScheduler = new RenderScheduler(windowManager.getDefaultDisplay().getRefreshRate());
+
+        //Start the replay or initiate connection process
+        this.source.start();
     }
 
     /**
-     * Is called continuously while the Thread is running
+     * Is called continuously while the Thread is running.
+     * A frame is only drawn if the RenderScheduler requests it (i.e. a new sensor value has arrived or the fading-effect is still in progress), otherwise the Thread sleeps.
      */
     @Override
     public void run() {
@@ -80,23 +102,47 @@ public class AccelerationSurfaceThread extends Thread {
 
         //Infinite loop until the Thread is being stopped
         while (this.run) {
+            try {
+                if (!this.renderScheduler.awaitFrame()) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            LatencyTracer tracer = this.source.getTracer();
+            tracer.recordPending(LatencyTracer.STAGE_DRAIN);
+
+            long frameStart = System.nanoTime();
+            long frameCpuStart = Debug.threadCpuTimeNanos();
             Canvas canvas = null;
             try {
                 //Lock the Canvas, then draw onto it
                 canvas = this.surfaceHolder.lockCanvas();
-                synchronized (this.surfaceHolder) {
-                    doDraw(canvas);
+                if (canvas != null) {
+                    synchronized (this.surfaceHolder) {
+                        doDraw(canvas);
+                    }
+                    tracer.recordPending(LatencyTracer.STAGE_DRAW);
                 }
             }
             finally {
                 //Unlock Canvas and post it back
                 if (canvas != null) {
                     this.surfaceHolder.unlockCanvasAndPost(canvas);
+                    tracer.completePending(LatencyTracer.STAGE_POST);
+                }
+            }
+
+            if (canvas != null) {
+                this.renderScheduler.onFrameRendered(System.nanoTime() - frameStart);
+                if (frameCpuStart >= 0) {
+                    this.cpuStatistics.record(Debug.threadCpuTimeNanos() - frameCpuStart);
                 }
             }
         }
 
-        disconnectFromBlueIOT();
+        this.source.stop();
     }
 
     /**
@@ -116,20 +162,30 @@ public class AccelerationSurfaceThread extends Thread {
         }
 
         //Draw Circle
-        canvas.drawCircle(this.x, this.y, 50, this.paint);
+        BallPhysics ball = this.source.getBall();
+        canvas.drawCircle(ball.getX(), ball.getY(), 50, this.paint);
+
+        //Draw the latencies on top (only while tracing)
+        if (this.source.getTracer().isEnabled()) {
+            drawLatencyOverlay(canvas);
+        }
 
         canvas.restore();
     }
 
     /**
-     * Called initially (e.g. when the surface size is being set)
-     * Positions the x- and y-value for the circle in the middle
+     * Draws the summary of the LatencyTracer into the top left corner, the summary is only created once per second
      */
-    private void doStart() {
-        //Put the circle in the middle of the Canvas
-        synchronized (this.surfaceHolder) {
-            this.x = this.canvasWidth / 2;
-            this.y = this.canvasHeight / 2;
+    private void drawLatencyOverlay(Canvas canvas) {
+        long now = System.nanoTime();
+        if (now - this.latencyOverlayTime >= LATENCY_OVERLAY_INTERVAL) {
+            this.latencyOverlayLines = this.source.getTracer().getSummary().split("\n");
+            this.latencyOverlayTime = now;
+        }
+
+        float lineHeight = this.overlayPaint.getTextSize() * 1.2f;
+        for (int i = 0; i < this.latencyOverlayLines.length; i++) {
+            canvas.drawText(this.latencyOverlayLines[i], 10, (i + 1) * lineHeight, this.overlayPaint);
         }
     }
 
@@ -141,12 +197,11 @@ public class AccelerationSurfaceThread extends Thread {
     public void setSurfaceSize(int width, int height) {
         //Initial Setup for the Surface
         synchronized (this.surfaceHolder) {
-            this.canvasWidth = width;
-            this.canvasHeight = height;
-
-            //Setup Circle
-            doStart();
+            //Setup Circle in the middle of the Canvas
+            this.source.getBall().setBounds(width, height);
         }
+
+        this.renderScheduler.requestRender();
     }
 
     /**
@@ -155,140 +210,24 @@ public class AccelerationSurfaceThread extends Thread {
      */
     public void setRunning(boolean doRun) {
         this.run = doRun;
+
+        //Wake up the Thread, so it can terminate
+        if (!doRun) {
+            this.renderScheduler.stop();
+        }
     }
 
     /**
-     * BluetoothGattCallback that is used to connect to a remote BLE-Device.
-     * Defines callback-methods that are used for each step in the process of connecting/reading/writing for that device.
+     * Requests a new frame if the ball has moved
      */
-    private BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                //Start discovering all Services on the BLE-Remote-Device (i.e. blueIOT)
-                gatt.discoverServices();
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            BluetoothGattService gattService = gatt.getService(UUID.fromString(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE_UUID));
-            if (gattService != null) {
-                BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(UUID.fromString(BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION_UUID));
-                if (characteristic != null) {
-                    //Enable local notifications (i.e. Android-Application)
-                    gatt.setCharacteristicNotification(characteristic, true);
-
-                    //Enable remote notifications on the BLE-Server (i.e. blueIOT)
-                    BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(BlueIOTHelper.BLUEIOT_DESCRIPTOR_NOTIFICATION_UUID));
-                    if (descriptor != null) {
-                        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                        gatt.writeDescriptor(descriptor);
-
-                        /*
-                         *   After both types of notifications have been set, the BLE-Remote-Device will continuously push new values
-                         *   into the Android-App. These push notifications will be dealt with inside regular calls to onCharacteristicChanged()
-                         */
-                    }
-                }
-            }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-        }
-
+    private final AccelerationSource.Listener ballListener = new AccelerationSource.Listener() {
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            //Read the String value from the Characteristic with Offset = 0
-            String value = characteristic.getStringValue(0);
-            try {
-                /*
-                 *    The Value will be one String, containing X,Y and Z from the Accelerometer and the Altitude from the Barometer
-                 *    All Values will be separated by a comma (",") in the above mentioned order
-                 */
-
-                String[] values = value.split(",");
-                if (values.length == 4) {
-                    final float xAcceleration = Float.parseFloat(values[0].trim());
-                    final float yAcceleration = Float.parseFloat(values[1].trim());
-                    //final float zAcceleration = Float.parseFloat(values[2].trim());
-                    //final float height = Float.parseFloat(values[3].trim());
-
-                    //Update X and Y
-                    x += xAcceleration / 10;
-                    y += yAcceleration / 10;
-
-                    //Stay within the Display-Bounds for X and Y when drawing the circle
-                    if (x < 25) {
-                        x = 25;
-                    }
-                    if (x > canvasWidth - 25) {
-                        x = canvasWidth - 25;
-                    }
-
-                    if (y < 25) {
-                        y = 25;
-                    }
-                    if (y > canvasHeight - 25) {
-                        y = canvasHeight - 25;
-                    }
-                }
+        public void onBallMoved() {
+            //Draw the new position, keep drawing afterwards until the old positions have faded out
+            renderScheduler.requestRender();
+            if (isFadingEnabled) {
+                renderScheduler.requestFadeSteps(FADE_STEPS);
             }
-            catch (Exception ex) {}
-        }
-
-        @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorRead(gatt, descriptor, status);
-        }
-
-        @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
-        }
-
-        @Override
-        public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-            super.onReliableWriteCompleted(gatt, status);
-        }
-
-        @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            super.onReadRemoteRssi(gatt, rssi, status);
-        }
-
-        /*
-        @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
         }
-        */
     };
-
-    /**
-     * Connects to the blueIOT with the predefined BluetoothGattCallback
-     */
-    private void connectToBlueIOT() {
-        if (!this.isConnected) {
-            this.bluetoothGatt = this.device.connectGatt(this.context, false, this.gattCallback);
-            this.isConnected = true;
-        }
-    }
-
-    /**
-     * Disconnects from blueIOT
-     */
-    private void disconnectFromBlueIOT() {
-        if (this.isConnected && this.bluetoothGatt != null) {
-            this.bluetoothGatt.disconnect();
-            this.isConnected = false;
-        }
-    }
-}
\ No newline at end of file
+}
@@ -28,14 +28,17 @@ public class AccelerationSurfaceView extends SurfaceView {
     /**
      * Initializes the SurfaceView by implementing all of its lifecycle-callback-methods that are used in order to draw (surfaceCreated|surfaceChanged|surfaceDestroyed)
      * @param device The BluetoothDevice that is passed over to the background-thread in order to connect to it
+     * @param replay ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording that is replayed instead of connecting (or null)
+     * @param replaySpeed 1 for real-time, 0 for as fast as possible
+     * @param cpuStatistics Records the CPU time of each frame, kept across the background-threads
      */
-    public void initialize(final BluetoothDevice device) {
+    public void initialize(final BluetoothDevice device, final String replay, final float replaySpeed, final FrameTimeStatistics cpuStatistics) {
         SurfaceHolder surfaceHolder = this.getHolder();
         surfaceHolder.addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
-                //Start new 'Drawing'-Thread, pass over the SurfaceHolder, the Context and the BluetoothDevice to connect to
-                thread = new AccelerationSurfaceThread(holder, context, device);
+                //Start new 'Drawing'-Thread, pass over the SurfaceHolder, the Context and the BluetoothDevice to connect to (or the replay)
+                thread = new AccelerationSurfaceThread(holder, context, device, replay, replaySpeed, cpuStatistics);
                 thread.setRunning(true);
                 thread.start();
             }
@@ -0,0 +1,305 @@
+package de.hdmstuttgart.blueiot;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Parser for the AD structures of a scan record (advertisement and scan response: [length][type][data] each).
+ * parse() only remembers where the interesting structures are (offsets into the scan record), nothing is copied or allocated, so the same
+ * parser can be used for every advertisement. The values are only converted into objects (name, UUIDs) when they are asked for.
+ * Recognized: flags, local name, TX power level, 128 bit service UUIDs, 16 bit service data, manufacturer specific data,
+ * iBeacon frames (Apple manufacturer data 0x02 0x15) and blueIOT sensor frames (see SensorFrameFormat.ADVERTISEMENT_COMPANY_ID).
+ * Independent of the Android framework (android.bluetooth.le.ScanRecord is only available on Lollipop and allocates all structures).
+ */
+public final class AdvertisementParser {
+    //AD types
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_UUID128_INCOMPLETE = 0x06;
+    public static final int TYPE_UUID128_COMPLETE = 0x07;
+    public static final int TYPE_NAME_SHORT = 0x08;
+    public static final int TYPE_NAME_COMPLETE = 0x09;
+    public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    public static final int TYPE_SERVICE_DATA_UUID16 = 0x16;
+    public static final int TYPE_MANUFACTURER_DATA = 0xFF;
+
+    //iBeacon: Apple manufacturer data with type 0x02 and 21 Bytes (UUID, major, minor, measured power)
+    public static final int COMPANY_APPLE = 0x004C;
+    private static final int IBEACON_TYPE = 0x02;
+    private static final int IBEACON_LENGTH = 0x15;
+
+    //Returned if a value is not contained in the scan record
+    public static final int NOT_PRESENT = Integer.MIN_VALUE;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] record;
+
+    private int flags;
+    private int txPowerLevel;
+    private int nameOffset;
+    private int nameLength;
+    private int uuid128Offset;
+    private int uuid128Length;
+    private int serviceDataUuid;
+    private int serviceDataOffset;
+    private int serviceDataLength;
+    private int manufacturerId;
+    private int manufacturerOffset;
+    private int manufacturerLength;
+    private int sensorFrameOffset;
+    private int sensorFrameLength;
+
+    private boolean isIBeacon;
+    private int iBeaconUuidOffset;
+    private int iBeaconMajor;
+    private int iBeaconMinor;
+    private int iBeaconMeasuredPower;
+
+    /**
+     * Parses a scan record, the results are valid until the next call (the scan record must not be changed in the meantime)
+     * @param scanRecord The raw advertisement data (e.g. as passed to LeScanCallback.onLeScan())
+     * @return false if the scan record is malformed (the structures before the error are still available)
+     */
+    public boolean parse(byte[] scanRecord) {
+        this.record = scanRecord;
+        this.flags = NOT_PRESENT;
+        this.txPowerLevel = NOT_PRESENT;
+        this.nameLength = -1;
+        this.uuid128Length = -1;
+        this.serviceDataLength = -1;
+        this.manufacturerLength = -1;
+        this.sensorFrameLength = -1;
+        this.isIBeacon = false;
+
+        if (scanRecord == null) {
+            return false;
+        }
+
+        int position = 0;
+        while (position < scanRecord.length) {
+            int length = scanRecord[position] & 0xFF;
+            if (length == 0) {
+                //Padding, some stacks pad the advertisement to 31 Bytes before appending the scan response
+                position++;
+                continue;
+            }
+            if (position + 1 + length > scanRecord.length) {
+                return false;
+            }
+
+            int type = scanRecord[position + 1] & 0xFF;
+            int offset = position + 2;
+            int dataLength = length - 1;
+            switch (type) {
+                case TYPE_FLAGS:
+                    if (dataLength >= 1) {
+                        this.flags = scanRecord[offset] & 0xFF;
+                    }
+                    break;
+                case TYPE_TX_POWER_LEVEL:
+                    if (dataLength >= 1) {
+                        this.txPowerLevel = scanRecord[offset];
+                    }
+                    break;
+                case TYPE_NAME_SHORT:
+                case TYPE_NAME_COMPLETE:
+                    //Prefer the complete name
+                    if (this.nameLength < 0 || type == TYPE_NAME_COMPLETE) {
+                        this.nameOffset = offset;
+                        this.nameLength = dataLength;
+                    }
+                    break;
+                case TYPE_UUID128_INCOMPLETE:
+                case TYPE_UUID128_COMPLETE:
+                    this.uuid128Offset = offset;
+                    this.uuid128Length = dataLength;
+                    break;
+                case TYPE_SERVICE_DATA_UUID16:
+                    if (dataLength >= 2) {
+                        this.serviceDataUuid = readUInt16(scanRecord, offset);
+                        this.serviceDataOffset = offset + 2;
+                        this.serviceDataLength = dataLength - 2;
+                    }
+                    break;
+                case TYPE_MANUFACTURER_DATA:
+                    if (dataLength >= 2) {
+                        parseManufacturerData(readUInt16(scanRecord, offset), offset + 2, dataLength - 2);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            position += 1 + length;
+        }
+        return true;
+    }
+
+    /**
+     * Recognizes iBeacon and blueIOT sensor frames, other manufacturer specific data is kept as is
+     */
+    private void parseManufacturerData(int companyId, int offset, int length) {
+        if (companyId == COMPANY_APPLE && length >= 2 + IBEACON_LENGTH
+                && (this.record[offset] & 0xFF) == IBEACON_TYPE && (this.record[offset + 1] & 0xFF) == IBEACON_LENGTH) {
+            this.isIBeacon = true;
+            this.iBeaconUuidOffset = offset + 2;
+            this.iBeaconMajor = ((this.record[offset + 18] & 0xFF) << 8) | (this.record[offset + 19] & 0xFF);
+            this.iBeaconMinor = ((this.record[offset + 20] & 0xFF) << 8) | (this.record[offset + 21] & 0xFF);
+            this.iBeaconMeasuredPower = this.record[offset + 22];
+        }
+        else if (companyId == SensorFrameFormat.ADVERTISEMENT_COMPANY_ID) {
+            this.sensorFrameOffset = offset;
+            this.sensorFrameLength = length;
+        }
+        else if (this.manufacturerLength < 0) {
+            this.manufacturerId = companyId;
+            this.manufacturerOffset = offset;
+            this.manufacturerLength = length;
+        }
+    }
+
+    /**
+     * Reads an unsigned 16 bit value (little endian, as all values of the AD structures except for the iBeacon fields)
+     */
+    private static int readUInt16(byte[] data, int position) {
+        return (data[position] & 0xFF) | ((data[position + 1] & 0xFF) << 8);
+    }
+
+    /**
+     * @return The scan record that has been parsed last, all offsets refer to it
+     */
+    public byte[] getScanRecord() {
+        return this.record;
+    }
+
+    /**
+     * @return The flags (e.g. 0x06: general discoverable, BR/EDR not supported) or NOT_PRESENT
+     */
+    public int getFlags() {
+        return this.flags;
+    }
+
+    /**
+     * @return The advertised TX power level in dBm or NOT_PRESENT
+     */
+    public int getTxPowerLevel() {
+        return this.txPowerLevel;
+    }
+
+    /**
+     * @return The local name (complete or shortened), null if not advertised. Allocates a new String.
+     */
+    public String getName() {
+        return this.nameLength >= 0 ? new String(this.record, this.nameOffset, this.nameLength, UTF_8) : null;
+    }
+
+    /**
+     * Checks whether a 128 bit service UUID is advertised, without allocating anything
+     * @param uuid The UUID of the service
+     * @return true if the UUID is contained in the list of 128 bit service UUIDs
+     */
+    public boolean hasServiceUuid(UUID uuid) {
+        long leastSignificant = uuid.getLeastSignificantBits();
+        long mostSignificant = uuid.getMostSignificantBits();
+        for (int offset = this.uuid128Offset; offset + 16 <= this.uuid128Offset + this.uuid128Length; offset += 16) {
+            boolean isEqual = true;
+            for (int i = 0; i < 16 && isEqual; i++) {
+                //Little endian: least significant byte first
+                long bits = i < 8 ? leastSignificant >>> (8 * i) : mostSignificant >>> (8 * (i - 8));
+                isEqual = this.record[offset + i] == (byte) bits;
+            }
+            if (isEqual) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The 16 bit UUID of the service data or NOT_PRESENT
+     */
+    public int getServiceDataUuid() {
+        return this.serviceDataLength >= 0 ? this.serviceDataUuid : NOT_PRESENT;
+    }
+
+    public int getServiceDataOffset() {
+        return this.serviceDataOffset;
+    }
+
+    /**
+     * @return The length of the service data (without the UUID), -1 if not present
+     */
+    public int getServiceDataLength() {
+        return this.serviceDataLength;
+    }
+
+    /**
+     * @return The company ID of the (first) manufacturer specific data that is neither iBeacon nor a sensor frame, or NOT_PRESENT
+     */
+    public int getManufacturerId() {
+        return this.manufacturerLength >= 0 ? this.manufacturerId : NOT_PRESENT;
+    }
+
+    public int getManufacturerDataOffset() {
+        return this.manufacturerOffset;
+    }
+
+    /**
+     * @return The length of the manufacturer specific data (without the company ID), -1 if not present
+     */
+    public int getManufacturerDataLength() {
+        return this.manufacturerLength;
+    }
+
+    /**
+     * @return true if the scan record contains a blueIOT sensor frame
+     */
+    public boolean hasSensorFrame() {
+        return this.sensorFrameLength >= 0;
+    }
+
+    /**
+     * @return Index of the sensor frame in the scan record (see BinaryFrameDecoder.decode(byte[], int, int, SensorFrame))
+     */
+    public int getSensorFrameOffset() {
+        return this.sensorFrameOffset;
+    }
+
+    /**
+     * @return The length of the sensor frame, -1 if not present
+     */
+    public int getSensorFrameLength() {
+        return this.sensorFrameLength;
+    }
+
+    public boolean isIBeacon() {
+        return this.isIBeacon;
+    }
+
+    /**
+     * @return The proximity UUID of the iBeacon (allocates a new UUID)
+     */
+    public UUID getIBeaconUuid() {
+        long mostSignificant = 0;
+        long leastSignificant = 0;
+        for (int i = 0; i < 8; i++) {
+            mostSignificant = (mostSignificant << 8) | (this.record[this.iBeaconUuidOffset + i] & 0xFF);
+            leastSignificant = (leastSignificant << 8) | (this.record[this.iBeaconUuidOffset + 8 + i] & 0xFF);
+        }
+        return new UUID(mostSignificant, leastSignificant);
+    }
+
+    public int getIBeaconMajor() {
+        return this.iBeaconMajor;
+    }
+
+    public int getIBeaconMinor() {
+        return this.iBeaconMinor;
+    }
+
+    /**
+     * @return The RSSI measured at a distance of 1 m in dBm
+     */
+    public int getIBeaconMeasuredPower() {
+        return this.iBeaconMeasuredPower;
+    }
+}
@@ -0,0 +1,117 @@
+package de.hdmstuttgart.blueiot;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * GattClient that executes the operations on a BluetoothGatt of the Android framework.
+ * Resolved characteristics are kept in a handle table, so the linear lookups in getService()/getCharacteristic() are only done once per connection.
+ */
+public class AndroidGattClient implements GattClient {
+    private final BluetoothGatt bluetoothGatt;
+
+    //Handle table: characteristic UUID --> resolved characteristic, guarded by itself
+    private final HashMap<UUID, BluetoothGattCharacteristic> characteristics = new HashMap<>();
+
+    /**
+     * Constructor
+     * @param bluetoothGatt The BluetoothGatt of an established connection
+     */
+    public AndroidGattClient(BluetoothGatt bluetoothGatt) {
+        this.bluetoothGatt = bluetoothGatt;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        BluetoothGattCharacteristic gattCharacteristic = getCharacteristic(service, characteristic);
+        return gattCharacteristic != null && this.bluetoothGatt.readCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse) {
+        BluetoothGattCharacteristic gattCharacteristic = getCharacteristic(service, characteristic);
+        if (gattCharacteristic == null) {
+            return false;
+        }
+
+        gattCharacteristic.setWriteType(withResponse ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        gattCharacteristic.setValue(value);
+        return this.bluetoothGatt.writeCharacteristic(gattCharacteristic);
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        BluetoothGattCharacteristic gattCharacteristic = getCharacteristic(service, characteristic);
+        if (gattCharacteristic == null) {
+            return false;
+        }
+
+        BluetoothGattDescriptor gattDescriptor = gattCharacteristic.getDescriptor(descriptor);
+        if (gattDescriptor == null) {
+            return false;
+        }
+
+        gattDescriptor.setValue(value);
+        return this.bluetoothGatt.writeDescriptor(gattDescriptor);
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        BluetoothGattCharacteristic gattCharacteristic = getCharacteristic(service, characteristic);
+        return gattCharacteristic != null && this.bluetoothGatt.setCharacteristicNotification(gattCharacteristic, enable);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean requestMtu(int mtu) {
+        //Not available on KitKat
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && this.bluetoothGatt.requestMtu(mtu);
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public boolean requestConnectionPriority(int priority) {
+        //Not available on KitKat
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && this.bluetoothGatt.requestConnectionPriority(priority);
+    }
+
+    /**
+     * Discards all resolved characteristics, e.g. after a new service discovery delivered a different layout
+     */
+    public void invalidateHandles() {
+        synchronized (this.characteristics) {
+            this.characteristics.clear();
+        }
+    }
+
+    /**
+     * Looks up a characteristic of a discovered service, using the handle table if it has been resolved before
+     * @return The BluetoothGattCharacteristic or null, if the service or the characteristic does not exist
+     */
+    private BluetoothGattCharacteristic getCharacteristic(UUID service, UUID characteristic) {
+        synchronized (this.characteristics) {
+            BluetoothGattCharacteristic cached = this.characteristics.get(characteristic);
+            if (cached != null && cached.getService().getUuid().equals(service)) {
+                return cached;
+            }
+
+            BluetoothGattService gattService = this.bluetoothGatt.getService(service);
+            if (gattService == null) {
+                return null;
+            }
+
+            BluetoothGattCharacteristic gattCharacteristic = gattService.getCharacteristic(characteristic);
+            if (gattCharacteristic != null) {
+                this.characteristics.put(characteristic, gattCharacteristic);
+            }
+            return gattCharacteristic;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Decoder for the comma-separated ASCII format.
+ * Accepts the original frames ("X,Y,Z,Height", one sample per notification) as well as batched frames with a sample counter
+ * ("#Sequence:X,Y,Z,Height;X,Y,Z,Height;...", see SensorFrameFormat).
+ */
+public final class AsciiFrameDecoder implements SensorFrameDecoder {
+    @Override
+    public boolean decode(byte[] data, SensorFrame frame) {
+        frame.clear();
+        if (data == null || data.length == 0) {
+            return false;
+        }
+
+        if (data[0] != SensorFrameFormat.ASCII_SEQUENCE_PREFIX) {
+            if (SensorFrameParser.parse(data, frame.values) != SensorFrameParser.VALUE_COUNT) {
+                return false;
+            }
+
+            frame.sampleCount = 1;
+            return true;
+        }
+
+        //The firmware pads the payload with zeros --> ignore everything after the first NUL-character
+        int end = 0;
+        while (end < data.length && data[end] != 0) {
+            end++;
+        }
+
+        //Sample counter
+        int position = 1;
+        int sequence = 0;
+        while (position < end && data[position] >= '0' && data[position] <= '9') {
+            sequence = sequence * 10 + (data[position] - '0');
+            if (sequence >= SensorFrame.SEQUENCE_MODULUS) {
+                return false;
+            }
+            position++;
+        }
+
+        if (position == 1 || position >= end || data[position] != SensorFrameFormat.ASCII_SEQUENCE_SEPARATOR) {
+            return false;
+        }
+        position++;
+
+        //Samples, separated by semicolons
+        int sampleCount = 0;
+        while (position < end) {
+            if (sampleCount == frame.getMaxSamples()) {
+                return false;
+            }
+
+            int sampleEnd = position;
+            while (sampleEnd < end && data[sampleEnd] != SensorFrameFormat.ASCII_SAMPLE_SEPARATOR) {
+                sampleEnd++;
+            }
+
+            if (SensorFrameParser.parse(data, position, sampleEnd - position, frame.values, sampleCount * SensorFrame.CHANNELS)
+                    != SensorFrameParser.VALUE_COUNT) {
+                return false;
+            }
+            sampleCount++;
+            position = sampleEnd + 1;
+        }
+
+        if (sampleCount == 0) {
+            return false;
+        }
+
+        frame.sequence = sequence;
+        frame.sampleCount = sampleCount;
+        return true;
+    }
+
+    @Override
+    public int getFormat() {
+        return SensorFrameFormat.FORMAT_ASCII;
+    }
+}
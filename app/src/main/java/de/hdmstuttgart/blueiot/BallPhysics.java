@@ -0,0 +1,87 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Position of the ball that is moved by the acceleration values (see AccelerationSource).
+ * Every sample moves the ball by a tenth of its X and Y acceleration, the ball stays within the bounds of the surface.
+ * Not synchronized: the samples are integrated on the thread delivering the notifications, the position is read by the drawing-Thread.
+ * Only the integrating thread changes the position. New bounds (set by the drawing-Thread) are handed over and applied by constrain(),
+ * until then the ball is reported in the middle of the new bounds.
+ */
+public final class BallPhysics {
+    //Distance the center of the ball keeps from the edges
+    private static final float MARGIN = 25;
+
+    //Acceleration values are divided by this to get the distance in pixels
+    private static final float SCALE = 10;
+
+    //Marks that no new bounds are pending
+    private static final long NO_BOUNDS = -1;
+
+    private volatile float x;
+    private volatile float y;
+
+    //Bounds of the surface, only accessed by the integrating thread
+    private int width;
+    private int height;
+
+    //Bounds that haven't been applied by the integrating thread yet (width in the upper, height in the lower half)
+    private final AtomicLong pendingBounds = new AtomicLong(NO_BOUNDS);
+
+    /**
+     * Sets the size of the surface and puts the ball in the middle, with the next call of constrain()
+     * @param width Pixel Width of the surface
+     * @param height Pixel Height of the surface
+     */
+    public void setBounds(int width, int height) {
+        this.pendingBounds.set(((long) width << 32) | (height & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Moves the ball by a single sample, call constrain() once the samples of a notification have been integrated
+     * @param accelerationX Acceleration along the X-Axis
+     * @param accelerationY Acceleration along the Y-Axis
+     */
+    public void integrate(float accelerationX, float accelerationY) {
+        this.x += accelerationX / SCALE;
+        this.y += accelerationY / SCALE;
+    }
+
+    /**
+     * Applies new bounds, if set in the meantime, and moves the ball back into the bounds of the surface
+     */
+    public void constrain() {
+        long bounds = this.pendingBounds.getAndSet(NO_BOUNDS);
+        if (bounds != NO_BOUNDS) {
+            this.width = (int) (bounds >> 32);
+            this.height = (int) bounds;
+            this.x = this.width / 2;
+            this.y = this.height / 2;
+        }
+
+        this.x = clamp(this.x, MARGIN, this.width - MARGIN);
+        this.y = clamp(this.y, MARGIN, this.height - MARGIN);
+    }
+
+    public float getX() {
+        long bounds = this.pendingBounds.get();
+        return bounds != NO_BOUNDS ? (int) (bounds >> 32) / 2 : this.x;
+    }
+
+    public float getY() {
+        long bounds = this.pendingBounds.get();
+        return bounds != NO_BOUNDS ? (int) bounds / 2 : this.y;
+    }
+
+    private static float clamp(float value, float minimum, float maximum) {
+        //Checked in this order, so a surface smaller than the margins keeps the ball at the right/bottom margin
+        if (value < minimum) {
+            value = minimum;
+        }
+        if (value > maximum) {
+            value = maximum;
+        }
+        return value;
+    }
+}
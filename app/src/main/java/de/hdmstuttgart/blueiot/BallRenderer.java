@@ -0,0 +1,261 @@
+package de.hdmstuttgart.blueiot;
+
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import android.os.Debug;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * OpenGL ES 2.0 renderer drawing the ball of the DrawActivity and its fading trail (alternative to AccelerationSurfaceThread).
+ * The ball and every past position of the trail are drawn as round point sprites. The past positions are kept in a vertex buffer
+ * on the GPU (see BallTrail), each frame only uploads the new position; the vertex shader fades each position by its age.
+ * So the CPU neither fills the screen with a translucent color every frame nor redraws the old circles, the GPU does all the blending.
+ * All methods are called on the GL-Thread of the AccelerationGLSurfaceView.
+ */
+public class BallRenderer implements GLSurfaceView.Renderer {
+    //Radius of the ball in pixels, as drawn by AccelerationSurfaceThread
+    private static final float BALL_RADIUS = 50;
+
+    //The Canvas-renderer covers the previous frame with alpha = 10 every frame, i.e. it keeps 245/255 of the trail per frame:
+    //at 60 frames per second, that's a time constant of ~0.42 seconds and invisible after FADE_STEPS (140) frames
+    public static final float TRAIL_DURATION = 140 / 60f;
+    private static final float TRAIL_TIME_CONSTANT = 0.42f;
+
+    //Positions of the trail, enough for TRAIL_DURATION at a refresh rate of 120 Hz
+    private static final int TRAIL_CAPACITY = 512;
+
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int VERTEX_STRIDE = BallTrail.FLOATS_PER_VERTEX * BYTES_PER_FLOAT;
+
+    private static final String VERTEX_SHADER =
+            "uniform vec2 uSize;\n"
+            + "uniform float uNow;\n"
+            + "uniform float uDuration;\n"
+            + "uniform float uTimeConstant;\n"
+            + "uniform float uPointSize;\n"
+            + "attribute vec3 aVertex;\n"
+            + "varying float vAlpha;\n"
+            + "void main() {\n"
+            + "    float age = max(uNow - aVertex.z, 0.0);\n"
+            + "    vAlpha = age < uDuration ? exp(-age / uTimeConstant) : 0.0;\n"
+            //Faded out completely --> move outside of the clip space
+            + "    gl_Position = vAlpha > 0.0 ? vec4(aVertex.x / uSize.x * 2.0 - 1.0, 1.0 - aVertex.y / uSize.y * 2.0, 0.0, 1.0) : vec4(2.0, 2.0, 2.0, 1.0);\n"
+            + "    gl_PointSize = uPointSize;\n"
+            + "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform vec3 uColor;\n"
+            + "varying float vAlpha;\n"
+            + "void main() {\n"
+            + "    vec2 offset = gl_PointCoord - vec2(0.5);\n"
+            + "    if (dot(offset, offset) > 0.25) {\n"
+            + "        discard;\n"
+            + "    }\n"
+            + "    gl_FragColor = vec4(uColor, vAlpha);\n"
+            + "}\n";
+
+    private final AccelerationGLSurfaceView view;
+    private final AccelerationSource source;
+
+    //CPU time of the GL-Thread per frame, for comparing with the Canvas-renderer
+    private final FrameTimeStatistics cpuStatistics;
+
+    //Past positions of the ball and their copy for uploading (allocated once, outside of the Java heap as required by OpenGL)
+    private final BallTrail trail = new BallTrail(TRAIL_CAPACITY);
+    private final FloatBuffer trailBuffer;
+    private final FloatBuffer ballBuffer;
+
+    private volatile boolean isFadingEnabled = false;
+
+    //The times passed to the shaders are relative to this (in seconds, a float can't hold System.nanoTime() precisely enough)
+    private final long startTime = System.nanoTime();
+
+    //OpenGL-objects, recreated with every new OpenGL context
+    private int program;
+    private int trailBufferId;
+    private int vertexLocation;
+    private int sizeLocation;
+    private int nowLocation;
+    private int durationLocation;
+    private int timeConstantLocation;
+    private int pointSizeLocation;
+    private int colorLocation;
+    private float pointSize;
+
+    private int width;
+    private int height;
+
+    /**
+     * Constructor
+     * @param view The view that is drawn onto, decides when to render continuously
+     * @param source Moves the ball
+     * @param cpuStatistics Records the CPU time it takes to draw each frame
+     */
+    public BallRenderer(AccelerationGLSurfaceView view, AccelerationSource source, FrameTimeStatistics cpuStatistics) {
+        this.view = view;
+        this.source = source;
+        this.cpuStatistics = cpuStatistics;
+
+        this.trailBuffer = ByteBuffer.allocateDirect(TRAIL_CAPACITY * VERTEX_STRIDE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        this.ballBuffer = ByteBuffer.allocateDirect(VERTEX_STRIDE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    public boolean isFadingEnabled() {
+        return this.isFadingEnabled;
+    }
+
+    /**
+     * Setter-method without parameter: reverts the boolean for fading
+     */
+    public void setFadingEnabled() {
+        this.isFadingEnabled = !this.isFadingEnabled;
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 unused, EGLConfig config) {
+        this.program = createProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        this.vertexLocation = GLES20.glGetAttribLocation(this.program, "aVertex");
+        this.sizeLocation = GLES20.glGetUniformLocation(this.program, "uSize");
+        this.nowLocation = GLES20.glGetUniformLocation(this.program, "uNow");
+        this.durationLocation = GLES20.glGetUniformLocation(this.program, "uDuration");
+        this.timeConstantLocation = GLES20.glGetUniformLocation(this.program, "uTimeConstant");
+        this.pointSizeLocation = GLES20.glGetUniformLocation(this.program, "uPointSize");
+        this.colorLocation = GLES20.glGetUniformLocation(this.program, "uColor");
+
+        //Vertex buffer of the trail, filled with the next frame
+        int[] buffers = new int[1];
+        GLES20.glGenBuffers(1, buffers, 0);
+        this.trailBufferId = buffers[0];
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, this.trailBufferId);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, TRAIL_CAPACITY * VERTEX_STRIDE, null, GLES20.GL_DYNAMIC_DRAW);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        this.trail.markDirty();
+
+        //Not every GPU draws points as large as the ball
+        float[] pointSizeRange = new float[2];
+        GLES20.glGetFloatv(GLES20.GL_ALIASED_POINT_SIZE_RANGE, pointSizeRange, 0);
+        this.pointSize = Math.min(2 * BALL_RADIUS, pointSizeRange[1]);
+
+        GLES20.glClearColor(0, 0, 0, 1);
+        GLES20.glEnable(GLES20.GL_BLEND);
+        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 unused, int width, int height) {
+        GLES20.glViewport(0, 0, width, height);
+        this.width = width;
+        this.height = height;
+
+        //Setup Circle in the middle of the surface, the old positions don't fit anymore
+        this.source.getBall().setBounds(width, height);
+        this.trail.clear();
+    }
+
+    @Override
+    public void onDrawFrame(GL10 unused) {
+        long frameCpuStart = Debug.threadCpuTimeNanos();
+        LatencyTracer tracer = this.source.getTracer();
+        tracer.recordPending(LatencyTracer.STAGE_DRAIN);
+
+        float now = (System.nanoTime() - this.startTime) / 1000000000f;
+        BallPhysics ball = this.source.getBall();
+        float x = ball.getX();
+        float y = ball.getY();
+
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        GLES20.glUseProgram(this.program);
+        GLES20.glUniform2f(this.sizeLocation, this.width, this.height);
+        GLES20.glUniform1f(this.nowLocation, now);
+        GLES20.glUniform1f(this.durationLocation, TRAIL_DURATION);
+        GLES20.glUniform1f(this.timeConstantLocation, TRAIL_TIME_CONSTANT);
+        GLES20.glUniform1f(this.pointSizeLocation, this.pointSize);
+        GLES20.glUniform3f(this.colorLocation, 0, 1, 0);
+        GLES20.glEnableVertexAttribArray(this.vertexLocation);
+
+        //Draw the trail, oldest positions first
+        if (this.isFadingEnabled) {
+            this.trail.add(x, y, now);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, this.trailBufferId);
+            if (this.trail.isDirty()) {
+                uploadTrail();
+            }
+            GLES20.glVertexAttribPointer(this.vertexLocation, BallTrail.FLOATS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE, 0);
+            int head = this.trail.getHead();
+            GLES20.glDrawArrays(GLES20.GL_POINTS, head, TRAIL_CAPACITY - head);
+            if (head > 0) {
+                GLES20.glDrawArrays(GLES20.GL_POINTS, 0, head);
+            }
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        }
+
+        //Draw Circle on top
+        this.ballBuffer.put(0, x).put(1, y).put(2, now).position(0);
+        GLES20.glVertexAttribPointer(this.vertexLocation, BallTrail.FLOATS_PER_VERTEX, GLES20.GL_FLOAT, false, VERTEX_STRIDE, this.ballBuffer);
+        GLES20.glDrawArrays(GLES20.GL_POINTS, 0, 1);
+        GLES20.glDisableVertexAttribArray(this.vertexLocation);
+
+        //The frame is posted by the GLSurfaceView after returning, so STAGE_POST is not measured here
+        tracer.completePending(LatencyTracer.STAGE_DRAW);
+        if (frameCpuStart >= 0) {
+            this.cpuStatistics.record(Debug.threadCpuTimeNanos() - frameCpuStart);
+        }
+
+        this.view.onFrameDrawn();
+    }
+
+    /**
+     * Uploads the positions that have been added since the last upload into the bound vertex buffer
+     */
+    private void uploadTrail() {
+        int start = this.trail.getDirtyStart() * BallTrail.FLOATS_PER_VERTEX;
+        int length = (this.trail.getDirtyEnd() - this.trail.getDirtyStart()) * BallTrail.FLOATS_PER_VERTEX;
+        this.trailBuffer.position(start);
+        this.trailBuffer.put(this.trail.getVertices(), start, length);
+        this.trailBuffer.position(start);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, start * BYTES_PER_FLOAT, length * BYTES_PER_FLOAT, this.trailBuffer);
+        this.trail.markUploaded();
+    }
+
+    /**
+     * Compiles and links the shaders
+     * @throws IllegalStateException If a shader can't be compiled or the program can't be linked (the log of the driver is the message)
+     */
+    private static int createProgram(String vertexShaderSource, String fragmentShaderSource) {
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_VERTEX_SHADER, vertexShaderSource));
+        GLES20.glAttachShader(program, compileShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderSource));
+        GLES20.glLinkProgram(program);
+
+        int[] status = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            throw new IllegalStateException("Can't link program: " + log);
+        }
+        return program;
+    }
+
+    private static int compileShader(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+
+        int[] status = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Can't compile shader: " + log);
+        }
+        return shader;
+    }
+}
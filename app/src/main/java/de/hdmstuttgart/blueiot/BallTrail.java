@@ -0,0 +1,132 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Ring of the past positions of the ball, used as vertex buffer by the OpenGL ES renderer (see BallRenderer).
+ * Every vertex consists of X, Y and the time the ball was there; the fading is computed from the age of the vertices by the vertex shader,
+ * so a frame only has to upload the vertices that have been added since the last frame (see getDirtyStart()/getDirtyEnd()),
+ * instead of fading the whole screen like the Canvas-renderer does.
+ * Vertices that haven't been written yet lie in the far past, so they are completely faded out.
+ * Independent of the Android framework, only accessed by the rendering thread.
+ */
+public final class BallTrail {
+    public static final int FLOATS_PER_VERTEX = 3;
+
+    //Time of the vertices that haven't been written yet (in seconds, anything older than the fade duration will do)
+    public static final float FAR_PAST = -1000000f;
+
+    private final float[] vertices;
+    private final int capacity;
+
+    //Slot of the next vertex, the oldest vertex is at head as well once the ring is full
+    private int head;
+
+    //Range of slots written since the last upload
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    private float lastX = Float.NaN;
+    private float lastY = Float.NaN;
+
+    /**
+     * Constructor
+     * @param capacity Number of positions kept (e.g. the number of frames it takes to fade out completely)
+     */
+    public BallTrail(int capacity) {
+        this.capacity = capacity;
+        this.vertices = new float[capacity * FLOATS_PER_VERTEX];
+        clear();
+    }
+
+    /**
+     * Adds a position, unless the ball is still at the last position
+     * @param x X-Coordinate in pixels
+     * @param y Y-Coordinate in pixels
+     * @param time Current time in seconds
+     * @return true if the position has been added
+     */
+    public boolean add(float x, float y, float time) {
+        if (x == this.lastX && y == this.lastY) {
+            return false;
+        }
+        this.lastX = x;
+        this.lastY = y;
+
+        int offset = this.head * FLOATS_PER_VERTEX;
+        this.vertices[offset] = x;
+        this.vertices[offset + 1] = y;
+        this.vertices[offset + 2] = time;
+
+        this.dirtyStart = Math.min(this.dirtyStart, this.head);
+        this.dirtyEnd = Math.max(this.dirtyEnd, this.head + 1);
+        this.head = (this.head + 1) % this.capacity;
+        return true;
+    }
+
+    /**
+     * Removes all positions, i.e. moves them into the far past
+     */
+    public void clear() {
+        for (int slot = 0; slot < this.capacity; slot++) {
+            this.vertices[slot * FLOATS_PER_VERTEX + 2] = FAR_PAST;
+        }
+        this.head = 0;
+        this.lastX = Float.NaN;
+        this.lastY = Float.NaN;
+        markDirty();
+    }
+
+    /**
+     * Marks all vertices to be uploaded again (e.g. the OpenGL context has been recreated)
+     */
+    public void markDirty() {
+        this.dirtyStart = 0;
+        this.dirtyEnd = this.capacity;
+    }
+
+    /**
+     * Has to be called after the dirty range has been uploaded
+     */
+    public void markUploaded() {
+        this.dirtyStart = this.capacity;
+        this.dirtyEnd = 0;
+    }
+
+    /**
+     * @return true if vertices have been written since the last upload
+     */
+    public boolean isDirty() {
+        return this.dirtyStart < this.dirtyEnd;
+    }
+
+    /**
+     * @return The first slot that has to be uploaded
+     */
+    public int getDirtyStart() {
+        return this.dirtyStart;
+    }
+
+    /**
+     * @return The slot after the last one that has to be uploaded
+     */
+    public int getDirtyEnd() {
+        return this.dirtyEnd;
+    }
+
+    /**
+     * @return The vertices of all slots (FLOATS_PER_VERTEX floats each)
+     */
+    public float[] getVertices() {
+        return this.vertices;
+    }
+
+    /**
+     * @return The slot of the oldest vertex, drawing the slots from here to the end and then from 0 to here draws the newest vertices on top
+     */
+    public int getHead() {
+        return this.head;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+}
@@ -0,0 +1,60 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Decoder for the packed binary format (see SensorFrameFormat for the layout), which batches several samples per notification
+ */
+public final class BinaryFrameDecoder implements SensorFrameDecoder {
+    @Override
+    public boolean decode(byte[] data, SensorFrame frame) {
+        return decode(data, 0, data != null ? data.length : 0, frame);
+    }
+
+    /**
+     * Decodes a frame that is embedded in a larger array (e.g. the manufacturer specific data of an advertisement), without copying it
+     * @param data Array containing the frame
+     * @param offset Index of the first byte of the frame
+     * @param length Number of bytes available for the frame
+     * @param frame The frame receiving the decoded samples
+     * @return true if the frame has been decoded, false if it is malformed
+     */
+    public boolean decode(byte[] data, int offset, int length, SensorFrame frame) {
+        frame.clear();
+        if (data == null || length < SensorFrameFormat.BINARY_V1_HEADER_SIZE || data[offset] != SensorFrameFormat.BINARY_V1_MAGIC) {
+            return false;
+        }
+
+        int sampleCount = data[offset + 1] & 0xFF;
+        if (sampleCount == 0 || sampleCount > frame.getMaxSamples()
+                || length < SensorFrameFormat.BINARY_V1_HEADER_SIZE + sampleCount * SensorFrameFormat.BINARY_V1_SAMPLE_SIZE) {
+            return false;
+        }
+
+        frame.sequence = (data[offset + 2] & 0xFF) | ((data[offset + 3] & 0xFF) << 8);
+
+        float[] values = frame.values;
+        int position = offset + SensorFrameFormat.BINARY_V1_HEADER_SIZE;
+        int index = 0;
+        for (int sample = 0; sample < sampleCount; sample++) {
+            values[index++] = readInt16(data, position) / SensorFrameFormat.BINARY_V1_AXIS_SCALE;
+            values[index++] = readInt16(data, position + 2) / SensorFrameFormat.BINARY_V1_AXIS_SCALE;
+            values[index++] = readInt16(data, position + 4) / SensorFrameFormat.BINARY_V1_AXIS_SCALE;
+            values[index++] = readInt16(data, position + 6) / SensorFrameFormat.BINARY_V1_HEIGHT_SCALE;
+            position += SensorFrameFormat.BINARY_V1_SAMPLE_SIZE;
+        }
+
+        frame.sampleCount = sampleCount;
+        return true;
+    }
+
+    @Override
+    public int getFormat() {
+        return SensorFrameFormat.FORMAT_BINARY_V1;
+    }
+
+    /**
+     * Reads a signed 16 bit value (little endian)
+     */
+    private static int readInt16(byte[] data, int position) {
+        return (short) ((data[position] & 0xFF) | (data[position + 1] << 8));
+    }
+}
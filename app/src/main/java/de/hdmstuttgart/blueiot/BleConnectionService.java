@@ -0,0 +1,631 @@
+package de.hdmstuttgart.blueiot;
+
+import android.app.Service;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Bound Service that owns the connections to remote BLE-Devices and shares them between all Activities.
+ * There is exactly one BluetoothGatt per device. Every component that is interested in a device subscribes with a Listener,
+ * the connection is reference-counted by its subscribers and notifications are forwarded to all of them.
+ * When the last subscriber is gone, the connection is kept open for a short grace period, so that switching between
+ * Activities (e.g. from the graph to the ball) does not require connecting and discovering the services again.
+ * Every connection to blueIOT goes through a negotiation phase (see ConnectionNegotiator): high connection priority and a larger MTU,
+ * on Lollipop and above. Afterwards a ConnectionGovernor picks priority and samples per notification for the most demanding subscriber
+ * (see the PROFILE-constants) and adjusts them to the measured latency.
+ * If the connection is lost while there are subscribers (e.g. blueIOT is out of range), it is re-established according to a ReconnectPolicy:
+ * right away with the same BluetoothGatt first (no service discovery, see GattAttributeCache), then with new direct connections after
+ * an exponential backoff. The notifications are enabled again automatically, the subscribers only see the change of the connection state.
+ */
+public class BleConnectionService extends Service {
+    //Time a connection stays open after its last subscriber is gone
+    public static final long IDLE_GRACE_PERIOD = 10000;
+
+    //Maximum length of a characteristic value (ATT), i.e. the largest notification that can ever be delivered
+    public static final int MAX_PAYLOAD_SIZE = SensorFrameFormat.MAX_PAYLOAD_SIZE;
+
+    //All connections, only accessed from the main thread
+    private final HashMap<String, DeviceConnection> connections = new HashMap<>();
+
+    //Used to close idle connections and to switch to the main thread
+    private Handler handler;
+
+    //Used for timeouts and retries of the GATT operations
+    private ScheduledExecutorService commandScheduler;
+
+    //Persistent attribute layouts of the devices, used to skip the service discovery on reconnects
+    private GattAttributeCache attributeCache;
+
+    private final IBinder binder = new LocalBinder();
+
+    /**
+     * Binder that gives Activities in the same process direct access to the Service
+     */
+    public class LocalBinder extends Binder {
+        public BleConnectionService getService() {
+            return BleConnectionService.this;
+        }
+    }
+
+    /**
+     * Callback-Interface for components that subscribe to a device.
+     * All methods except for onCharacteristicChanged() are called on the main thread,
+     * onCharacteristicChanged() is called directly on the Binder-Thread delivering the notification.
+     */
+    public interface Listener {
+        /**
+         * Called when the connection to the device has been established or lost.
+         * Also called right after subscribing, if the device is already connected.
+         */
+        void onConnectionStateChanged(BluetoothDevice device, boolean isConnected);
+
+        /**
+         * Called when the services of the device have been discovered.
+         * Also called right after subscribing, if the services have already been discovered.
+         */
+        void onServicesDiscovered(BluetoothDevice device, List<BluetoothGattService> services);
+
+        /**
+         * Called for every notification of the device (on the Binder-Thread)
+         */
+        void onCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        this.handler = new Handler(Looper.getMainLooper());
+        this.commandScheduler = Executors.newSingleThreadScheduledExecutor();
+        this.attributeCache = new GattAttributeCache(this);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return this.binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        //Started by itself while connections are open, so they survive while no Activity is bound (e.g. during the grace period)
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        //Release all GATT client slots
+        for (DeviceConnection connection : this.connections.values()) {
+            this.handler.removeCallbacks(connection.closeRunnable);
+            connection.close();
+        }
+        this.connections.clear();
+        this.commandScheduler.shutdownNow();
+    }
+
+    /**
+     * Subscribes to a device with ConnectionGovernor.PROFILE_GRAPH. Connects to the device if there is no open connection yet.
+     * Must be called from the main thread.
+     * @param device The BluetoothDevice to subscribe to
+     * @param listener The Listener receiving the callbacks for this device
+     */
+    public void subscribe(BluetoothDevice device, Listener listener) {
+        subscribe(device, listener, ConnectionGovernor.PROFILE_GRAPH);
+    }
+
+    /**
+     * Subscribes to a device. Connects to the device if there is no open connection yet.
+     * Must be called from the main thread.
+     * @param device The BluetoothDevice to subscribe to
+     * @param listener The Listener receiving the callbacks for this device
+     * @param profile What the listener does with the samples (one of the PROFILE-constants in ConnectionGovernor)
+     */
+    public void subscribe(BluetoothDevice device, Listener listener, int profile) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        if (connection == null) {
+            connection = new DeviceConnection(device);
+            this.connections.put(device.getAddress(), connection);
+
+            //Keep the Service alive as long as there are connections, even if no Activity is bound
+            startService(new Intent(this, BleConnectionService.class));
+        }
+
+        //A subscriber is back --> cancel closing the connection
+        this.handler.removeCallbacks(connection.closeRunnable);
+
+        if (!connection.listeners.contains(listener)) {
+            connection.listeners.add(listener);
+        }
+        connection.profiles.put(listener, profile);
+        connection.updateProfile();
+
+        if (connection.isConnected) {
+            //Already connected: bring the new subscriber up to date
+            listener.onConnectionStateChanged(device, true);
+            if (connection.isServicesDiscovered) {
+                listener.onServicesDiscovered(device, connection.bluetoothGatt.getServices());
+            }
+        }
+        else if (connection.reconnectPolicy.getState() == ReconnectPolicy.STATE_IDLE) {
+            //New connection or lost without subscribers (during the grace period) --> connect, reusing the existing BluetoothGatt if there is one
+            connection.connect();
+        }
+        //Otherwise an attempt is in progress or due, the subscriber is informed once connected
+    }
+
+    /**
+     * Removes a subscription. The connection is closed after the grace period if there are no subscribers left.
+     * Must be called from the main thread.
+     * @param device The BluetoothDevice the listener has been subscribed to
+     * @param listener The Listener to remove
+     */
+    public void unsubscribe(BluetoothDevice device, Listener listener) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        if (connection != null) {
+            connection.listeners.remove(listener);
+            connection.profiles.remove(listener);
+            connection.updateProfile();
+            if (connection.listeners.isEmpty()) {
+                this.handler.removeCallbacks(connection.closeRunnable);
+                this.handler.postDelayed(connection.closeRunnable, IDLE_GRACE_PERIOD);
+            }
+        }
+    }
+
+    /**
+     * Changes what a subscriber does with the samples, e.g. when an Activity keeps recording in the background
+     * Must be called from the main thread.
+     * @param device The BluetoothDevice the listener has been subscribed to
+     * @param listener The subscribed Listener
+     * @param profile One of the PROFILE-constants in ConnectionGovernor
+     */
+    public void setProfile(BluetoothDevice device, Listener listener, int profile) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        if (connection != null && connection.listeners.contains(listener)) {
+            connection.profiles.put(listener, profile);
+            connection.updateProfile();
+        }
+    }
+
+    /**
+     * @param device The BluetoothDevice to check
+     * @return true if there is an established connection to the device
+     */
+    public boolean isConnected(BluetoothDevice device) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        return connection != null && connection.isConnected;
+    }
+
+    /**
+     * @param device The BluetoothDevice to check
+     * @return The negotiated parameters of the connection to the device (MTU, priority, estimated interval), null if there is no connection
+     */
+    public ConnectionNegotiator getConnectionNegotiator(BluetoothDevice device) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        return connection != null ? connection.negotiator : null;
+    }
+
+    /**
+     * @param device The BluetoothDevice to check
+     * @return The governor of the connection to the device (profile, priority, batch size, latency), null if there is no connection
+     */
+    public ConnectionGovernor getConnectionGovernor(BluetoothDevice device) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        return connection != null ? connection.governor : null;
+    }
+
+    /**
+     * @param device The BluetoothDevice to check
+     * @return The state of the reconnects to the device and the time to first sample, null if there is no connection
+     */
+    public ReconnectPolicy getReconnectPolicy(BluetoothDevice device) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        return connection != null ? connection.reconnectPolicy : null;
+    }
+
+    /**
+     * Enqueues a GATT operation for a device. The operations of each device are executed one after another.
+     * @param device The BluetoothDevice to execute the operation on
+     * @param command The operation
+     * @return true if the operation has been enqueued, false if there is no connection to the device
+     */
+    public boolean enqueue(BluetoothDevice device, GattCommandQueue.Command command) {
+        DeviceConnection connection = this.connections.get(device.getAddress());
+        if (connection == null || connection.commandQueue == null) {
+            return false;
+        }
+
+        connection.commandQueue.enqueue(command);
+        return true;
+    }
+
+    /**
+     * @return The time base of the ReconnectPolicies in milliseconds (same as System.nanoTime(), like the times of the notifications)
+     */
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Closes an idle connection and stops the Service if it was the last one
+     */
+    private void closeConnection(DeviceConnection connection) {
+        if (!connection.listeners.isEmpty()) {
+            return;
+        }
+
+        connection.close();
+        this.connections.remove(connection.device.getAddress());
+        if (this.connections.isEmpty()) {
+            stopSelf();
+        }
+    }
+
+    /**
+     * A single connection to a remote BLE-Device, shared by all of its subscribers
+     */
+    private class DeviceConnection {
+        private final BluetoothDevice device;
+
+        //Replaced by the main thread for every attempt that doesn't reuse it, the callbacks of older ones are ignored
+        private volatile BluetoothGatt bluetoothGatt;
+
+        //Executes the GATT operations of this connection one after another
+        private volatile AndroidGattClient gattClient;
+        private volatile GattCommandQueue commandQueue;
+
+        private volatile boolean isConnected;
+        private volatile boolean isServicesDiscovered;
+
+        //MTU and connection priority of this connection
+        private final ConnectionNegotiator negotiator = new ConnectionNegotiator(Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP);
+        private final ConnectionGovernor governor = new ConnectionGovernor(this.negotiator);
+
+        //Decides when to connect again after the connection has been lost, attempts are made on the main thread
+        private final ReconnectPolicy reconnectPolicy = new ReconnectPolicy(new Random());
+
+        //Profile of every subscriber, only accessed from the main thread
+        private final HashMap<Listener, Integer> profiles = new HashMap<>();
+
+        //Subscribers, notified from the main thread and from Binder-Threads
+        private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+        //Closes the connection once the grace period is over
+        private final Runnable closeRunnable = new Runnable() {
+            @Override
+            public void run() {
+                closeConnection(DeviceConnection.this);
+            }
+        };
+
+        //Makes the next attempt once it is due
+        private final Runnable attemptRunnable = new Runnable() {
+            @Override
+            public void run() {
+                attemptConnection();
+            }
+        };
+
+        //Gives up an attempt that has taken too long
+        private final Runnable attemptTimeoutRunnable = new Runnable() {
+            @Override
+            public void run() {
+                long delay = reconnectPolicy.onAttemptTimeout(now());
+                if (delay >= 0) {
+                    //Cancels the pending connection, the next attempt starts over with a new BluetoothGatt
+                    closeGatt();
+                    handler.postDelayed(attemptRunnable, delay);
+                }
+            }
+        };
+
+        DeviceConnection(BluetoothDevice device) {
+            this.device = device;
+        }
+
+        /**
+         * Lets the governor know the most demanding profile of the subscribers (PROFILE_IDLE if there are none)
+         */
+        void updateProfile() {
+            int profile = ConnectionGovernor.PROFILE_IDLE;
+            for (int subscriberProfile : this.profiles.values()) {
+                profile = Math.max(profile, subscriberProfile);
+            }
+            this.governor.setProfile(profile);
+        }
+
+        /**
+         * Initiates the connection process, attempts are made until the connection is established or closed
+         */
+        void connect() {
+            handler.removeCallbacks(this.attemptRunnable);
+            handler.postDelayed(this.attemptRunnable, this.reconnectPolicy.start(now()));
+        }
+
+        /**
+         * Makes a single attempt to connect, on the main thread
+         */
+        private void attemptConnection() {
+            if (this.reconnectPolicy.getState() != ReconnectPolicy.STATE_WAITING) {
+                return;
+            }
+
+            boolean isFastPath = this.reconnectPolicy.isFastPath() && this.bluetoothGatt != null;
+            long timeout = this.reconnectPolicy.onAttemptStarted(now());
+            if (isFastPath) {
+                //Right after the loss: the same BluetoothGatt keeps its attribute table, so the service discovery can be skipped
+                this.bluetoothGatt.connect();
+            }
+            else {
+                //Start over with a new BluetoothGatt (also releases a connection the stack has got stuck with) and connect directly
+                closeGatt();
+                BluetoothGatt gatt = this.device.connectGatt(BleConnectionService.this, false, this.gattCallback);
+                if (gatt != null) {
+                    this.gattClient = new AndroidGattClient(gatt);
+                    this.commandQueue = new GattCommandQueue(this.gattClient, commandScheduler);
+                    this.bluetoothGatt = gatt;
+                }
+            }
+            handler.postDelayed(this.attemptTimeoutRunnable, timeout);
+        }
+
+        /**
+         * Disconnects, releases the GATT client slot and stops reconnecting
+         */
+        void close() {
+            this.reconnectPolicy.stop();
+            handler.removeCallbacks(this.attemptRunnable);
+            handler.removeCallbacks(this.attemptTimeoutRunnable);
+            closeGatt();
+        }
+
+        /**
+         * Disconnects and releases the GATT client slot, pending operations are cancelled
+         */
+        private void closeGatt() {
+            if (this.commandQueue != null) {
+                this.commandQueue.clear();
+                this.commandQueue = null;
+                this.gattClient = null;
+            }
+            BluetoothGatt gatt = this.bluetoothGatt;
+            if (gatt != null) {
+                this.bluetoothGatt = null;
+                gatt.disconnect();
+                gatt.close();
+            }
+            this.isConnected = false;
+            this.isServicesDiscovered = false;
+        }
+
+        /**
+         * Called on the main thread when the connection has been lost or an attempt has failed: schedules the next attempt,
+         * unless nobody is subscribed anymore (the connection is closed after the grace period then)
+         */
+        private void onDisconnected(long time) {
+            handler.removeCallbacks(this.attemptTimeoutRunnable);
+            if (this.listeners.isEmpty()) {
+                this.reconnectPolicy.stop();
+                return;
+            }
+
+            long delay = this.reconnectPolicy.onDisconnected(time);
+            if (delay >= 0) {
+                handler.removeCallbacks(this.attemptRunnable);
+                handler.postDelayed(this.attemptRunnable, delay);
+            }
+        }
+
+        /**
+         * Forwards a change of the connection state to all subscribers on the main thread
+         */
+        private void dispatchConnectionState(final boolean isConnected) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.onConnectionStateChanged(device, isConnected);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Called once the attributes of the device are known (either discovered or reused from a previous connection).
+         * Registers for the sensor values if this is blueIOT and informs the subscribers.
+         * @param isFromCache true if the service discovery has been skipped
+         */
+        private void onServicesReady(final BluetoothGatt gatt, final boolean isFromCache) {
+            this.isServicesDiscovered = true;
+
+            //If this is blueIOT, register for the sensor values right away
+            GattCommandQueue queue = this.commandQueue;
+            if (gatt.getService(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE) != null && queue != null) {
+                //Enable local notifications (i.e. Android-Application)
+                queue.enqueue(GattCommandQueue.Command.setNotification(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION, true));
+
+                //Enable remote notifications on the BLE-Server (i.e. blueIOT)
+                queue.enqueue(GattCommandQueue.Command.writeDescriptor(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION,
+                        BlueIOTHelper.BLUEIOT_DESCRIPTOR_NOTIFICATION, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE)
+                        .setCallback(new GattCommandQueue.Callback() {
+                            @Override
+                            public void onCommandCompleted(GattCommandQueue.Command command, int status, byte[] value) {
+                                //The reused layout is outdated (e.g. new firmware) --> forget it and discover the services again
+                                if (isFromCache && status != GattClient.GATT_SUCCESS && status != GattCommandQueue.STATUS_CANCELLED) {
+                                    attributeCache.invalidate(device.getAddress());
+                                    gatt.discoverServices();
+                                }
+                            }
+                        }));
+
+                //Negotiate priority and MTU once the samples are coming (keeps the time to first sample short after a reconnect),
+                //blueIOT sizes every notification to the current MTU
+                this.negotiator.negotiate(queue);
+
+                //Ask for the packed binary format if the firmware supports it, otherwise the comma-separated Strings keep coming
+                boolean hasControl = gatt.getService(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE).getCharacteristic(BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL) != null;
+                if (hasControl) {
+                    queue.enqueue(GattCommandQueue.Command.write(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL,
+                            SensorFrameFormat.createSetFormatCommand(SensorFrameFormat.FORMAT_BINARY_V1))
+                            .setRetries(0));
+                }
+
+                //From now on, the parameters follow the subscribers and the measurements
+                this.governor.start(queue, hasControl);
+            }
+
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Listener listener : listeners) {
+                        listener.onServicesDiscovered(device, gatt.getServices());
+                    }
+                }
+            });
+        }
+
+        /**
+         * BluetoothGattCallback that is shared by all subscribers of this device.
+         */
+        private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+                if (gatt != bluetoothGatt) {
+                    //Late callback of a BluetoothGatt that has already been closed
+                    return;
+                }
+
+                if (newState == BluetoothProfile.STATE_CONNECTED) {
+                    handler.removeCallbacks(attemptTimeoutRunnable);
+                    reconnectPolicy.onConnected(now());
+                    isConnected = true;
+                    dispatchConnectionState(true);
+
+                    if (attributeCache.matches(device.getAddress(), gatt.getServices())) {
+                        //Reconnected with the same BluetoothGatt and the layout is still known --> skip the service discovery
+                        onServicesReady(gatt, true);
+                    }
+                    else {
+                        //Start discovering all Services on the BLE-Remote-Device
+                        gatt.discoverServices();
+                    }
+                }
+                else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                    //Either the connection has been lost or an attempt has failed (e.g. status 133 after ~30 seconds)
+                    final long time = now();
+                    boolean wasConnected = isConnected;
+                    isConnected = false;
+                    isServicesDiscovered = false;
+                    negotiator.reset();
+                    governor.stop();
+
+                    //Operations that are still pending can't complete anymore
+                    GattCommandQueue queue = commandQueue;
+                    if (queue != null) {
+                        queue.clear();
+                    }
+                    if (wasConnected) {
+                        dispatchConnectionState(false);
+                    }
+
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            DeviceConnection.this.onDisconnected(time);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+                if (gatt != bluetoothGatt) {
+                    //Late callback of a BluetoothGatt that has already been closed
+                    return;
+                }
+
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    //The attribute table is incomplete --> don't reuse any layout, drop the link and let the ReconnectPolicy try again
+                    attributeCache.invalidate(device.getAddress());
+                    gatt.disconnect();
+                    return;
+                }
+
+                //A discovery creates new attribute objects, so previously resolved handles are stale
+                AndroidGattClient client = gattClient;
+                if (client != null) {
+                    client.invalidateHandles();
+                }
+
+                //Remember the layout for the next reconnect (a different layout means the firmware has changed)
+                attributeCache.update(device.getAddress(), gatt.getServices());
+
+                onServicesReady(gatt, false);
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                completeCommand(GattCommandQueue.TYPE_READ, characteristic.getUuid(), status, characteristic.getValue());
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+                //Writes without response are reported here as well, the write type tells them apart from the ones with response
+                completeCommand(GattCommandQueue.getWriteCommandType(characteristic.getWriteType()), characteristic.getUuid(), status, null);
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+                completeCommand(GattCommandQueue.TYPE_WRITE_DESCRIPTOR, descriptor.getCharacteristic().getUuid(), status, null);
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+                //Only called on Lollipop and above
+                negotiator.onMtuChanged(mtu, status);
+                completeCommand(GattCommandQueue.TYPE_MTU, null, status, null);
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+                //Forward directly on the Binder-Thread, the subscribers decide how to hand over the values
+                long receivedTime = System.nanoTime();
+                reconnectPolicy.onNotification(receivedTime / 1000000);
+                negotiator.onNotification(receivedTime);
+                governor.onNotification(receivedTime, SensorFrameFormat.getSampleCount(characteristic.getValue()));
+                for (Listener listener : listeners) {
+                    listener.onCharacteristicChanged(device, characteristic);
+                }
+            }
+        };
+
+        /**
+         * Reports the completion of a GATT operation to the command queue, so the next operation can be started
+         */
+        private void completeCommand(int type, UUID characteristic, int status, byte[] value) {
+            GattCommandQueue queue = this.commandQueue;
+            if (queue != null) {
+                queue.onCommandCompleted(type, characteristic, status, value);
+            }
+        }
+    }
+}
@@ -2,43 +2,159 @@ package de.hdmstuttgart.blueiot;
 
 import android.bluetooth.BluetoothDevice;
 import android.content.Context;
+import android.os.SystemClock;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 
 /**
- * Custom ListAdapter that is used to scan for BLE-Devices nearby
+ * Custom ListAdapter that is used to scan for BLE-Devices nearby, nearest device (strongest smoothed RSSI) first.
+ * Scan results are collected in a hash-indexed DeviceList and applied to the ListView at most once per frame:
+ * if devices have been added or removed, the ListView is notified (it only rebinds the visible rows), otherwise only the visible rows of the
+ * devices that have changed (e.g. their RSSI) or moved are rebound directly. Devices only move once their RSSI differs by more than
+ * DeviceList.REORDER_HYSTERESIS, so a fluctuating RSSI doesn't reshuffle the list every frame.
+ * Rows are recycled, so scrolling through hundreds of devices doesn't inflate anything.
+ * While resumed, devices that haven't been seen for DEVICE_TIME_TO_LIVE are removed, so the list can be kept across scans.
  */
 public class BleDeviceListAdapter extends BaseAdapter {
-    //Internal Collection
-    private ArrayList<BluetoothDevice> bleDevices;
+    //Devices that haven't been seen for this time (in milliseconds) are removed, checked once per tick
+    public static final long DEVICE_TIME_TO_LIVE = 30000;
+    private static final long AGING_TICK = 1000;
+
+    //Internal Collection, without duplicates
+    private DeviceList<BluetoothDevice> bleDevices;
 
     private LayoutInflater inflater;
 
+    //Reads the iBeacon-Fields of the advertisements, only used by the UI-Thread
+    private final AdvertisementParser advertisementParser = new AdvertisementParser();
+
+    //The ListView displaying the devices, used to rebind single rows
+    private final ListView listView;
+
+    /*
+     *    Scan results and expiries are applied to the DeviceList with the next frame, right before the ListView is notified.
+     *    Changing the DeviceList earlier would change the number of rows without the ListView knowing (e.g. while scrolling).
+     */
+    private final ArrayList<BleScanner.Result> pendingResults = new ArrayList<>();
+    private boolean isExpiryPending;
+    private boolean isUpdatePosted;
+
+    /**
+     * Holds the references to the UI-Components of a row, so they are only looked up once per recycled row
+     */
+    private static class ViewHolder {
+        TextView textView_Name;
+        TextView textView_Address;
+        TextView textView_Rssi;
+    }
+
     /**
      * Constructor
      * @param context ApplicationContext used to inflate layout components
+     * @param listView The ListView displaying the devices
      */
-    public BleDeviceListAdapter(Context context) {
+    public BleDeviceListAdapter(Context context, ListView listView) {
         super();
-        this.bleDevices = new ArrayList<>();
+        this.bleDevices = new DeviceList<>(DEVICE_TIME_TO_LIVE, AGING_TICK);
         this.inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        this.listView = listView;
+    }
+
+    /**
+     * Adds a device to the collection or updates it with the next frame
+     * @param result The latest advertisement of the device
+     */
+    public void update(BleScanner.Result result) {
+        this.pendingResults.add(result);
+        postUpdate();
     }
 
     /**
-     * Adds a device to the collection
-     * @param device The BluetoothDevice to be added
+     * Applies the changes with the next frame, if not already requested
      */
-    public void addDevice(BluetoothDevice device) {
-        if (!this.bleDevices.contains(device)) {
-            this.bleDevices.add(device);
+    private void postUpdate() {
+        if (!this.isUpdatePosted) {
+            this.isUpdatePosted = true;
+            Choreographer.getInstance().postFrameCallback(this.updateCallback);
         }
     }
 
+    /**
+     * Starts removing devices that haven't been seen for DEVICE_TIME_TO_LIVE, e.g. when the Activity is resumed
+     */
+    public void resume() {
+        this.listView.removeCallbacks(this.agingRunnable);
+        this.listView.postDelayed(this.agingRunnable, AGING_TICK);
+    }
+
+    /**
+     * Stops removing devices, e.g. when the Activity is paused (they are removed once resumed, if they still haven't been seen)
+     */
+    public void pause() {
+        this.listView.removeCallbacks(this.agingRunnable);
+    }
+
+    /**
+     * Advances the timer wheel of the DeviceList once per tick
+     */
+    private final Runnable agingRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isExpiryPending = true;
+            postUpdate();
+            listView.postDelayed(this, AGING_TICK);
+        }
+    };
+
+    /**
+     * Applies all changes since the previous frame to the ListView
+     */
+    private final Choreographer.FrameCallback updateCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isUpdatePosted = false;
+
+            for (int i = 0; i < pendingResults.size(); i++) {
+                BleScanner.Result result = pendingResults.get(i);
+                bleDevices.update(result.device.getAddress(), result.device, result.rssi, result.scanRecord, result.timestamp);
+            }
+            pendingResults.clear();
+            if (isExpiryPending) {
+                isExpiryPending = false;
+                bleDevices.expire(SystemClock.elapsedRealtime());
+            }
+
+            if (bleDevices.isCountChanged()) {
+                //Rows have been added or removed
+                notifyDataSetChanged();
+            }
+            else {
+                //Only rebind the rows that are visible and have changed or now show another device
+                int first = listView.getFirstVisiblePosition();
+                int last = listView.getLastVisiblePosition();
+                ArrayList<DeviceList.Entry<BluetoothDevice>> changedEntries = bleDevices.getChangedEntries();
+                for (int i = 0; i < changedEntries.size(); i++) {
+                    DeviceList.Entry<BluetoothDevice> entry = changedEntries.get(i);
+                    int position = entry.getPosition();
+                    if (position >= first && position <= last) {
+                        View row = listView.getChildAt(position - first);
+                        if (row != null && row.getTag() instanceof ViewHolder) {
+                            bind((ViewHolder) row.getTag(), entry);
+                        }
+                    }
+                }
+            }
+            bleDevices.clearChanges();
+        }
+    };
+
     /**
      * Allows retrieving a device from the adapter
      * @param position The position in the adapter
@@ -49,10 +165,15 @@ public class BleDeviceListAdapter extends BaseAdapter {
     }
 
     /**
-     * Clears the internal collection
+     * Clears the internal collection and the ListView, changes that have not been applied yet are discarded
      */
     public void clear() {
+        Choreographer.getInstance().removeFrameCallback(this.updateCallback);
+        this.isUpdatePosted = false;
+        this.pendingResults.clear();
         this.bleDevices.clear();
+        this.bleDevices.clearChanges();
+        notifyDataSetChanged();
     }
 
     @Override
@@ -67,7 +188,13 @@ public class BleDeviceListAdapter extends BaseAdapter {
 
     @Override
     public long getItemId(int position) {
-        return position;
+        return this.bleDevices.getEntry(position).getId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        //Devices keep their ID while they move through the list
+        return true;
     }
 
     /**
@@ -79,24 +206,41 @@ public class BleDeviceListAdapter extends BaseAdapter {
      */
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        //Inflate custom layout resource
-        convertView = this.inflater.inflate(R.layout.listitem_device, null);
+        ViewHolder holder;
+        if (convertView == null) {
+            //Inflate custom layout resource and get References to UI-Components
+            convertView = this.inflater.inflate(R.layout.listitem_device, parent, false);
+            holder = new ViewHolder();
+            holder.textView_Name = (TextView) convertView.findViewById(R.id.device_name);
+            holder.textView_Address = (TextView) convertView.findViewById(R.id.device_address);
+            holder.textView_Rssi = (TextView) convertView.findViewById(R.id.device_rssi);
+            convertView.setTag(holder);
+        }
+        else {
+            holder = (ViewHolder) convertView.getTag();
+        }
 
-        //Get References to UI-Components
-        TextView textView_Name = (TextView) convertView.findViewById(R.id.device_name);
-        TextView textView_Address = (TextView) convertView.findViewById(R.id.device_address);
+        bind(holder, this.bleDevices.getEntry(position));
+        return convertView;
+    }
 
-        //Customize TextViews
-        BluetoothDevice device = this.bleDevices.get(position);
+    /**
+     * Customizes the TextViews of a row
+     */
+    private void bind(ViewHolder holder, DeviceList.Entry<BluetoothDevice> entry) {
+        BluetoothDevice device = entry.getDevice();
         String deviceName = device.getName();
         if (deviceName != null && deviceName.length() > 0 ) {
-            textView_Name.setText(deviceName);
+            holder.textView_Name.setText(deviceName);
         }
         else {
-            textView_Name.setText("Unknown Device");
+            holder.textView_Name.setText("Unknown Device");
         }
-        textView_Address.setText(device.getAddress());
-
-        return convertView;
+        holder.textView_Address.setText(device.getAddress());
+        String rssi = Math.round(entry.getSmoothedRssi()) + " dBm";
+        if (this.advertisementParser.parse(entry.getScanRecord()) && this.advertisementParser.isIBeacon()) {
+            rssi += ", iBeacon " + this.advertisementParser.getIBeaconMajor() + "/" + this.advertisementParser.getIBeaconMinor();
+        }
+        holder.textView_Rssi.setText(rssi);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,357 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Build;
+import android.os.Handler;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * Scans for BLE-Devices and delivers the results in batches on the main thread instead of once per advertisement.
+ * create() returns the BluetoothLeScanner-based implementation on Lollipop and above (filters and batching in the Bluetooth controller,
+ * if supported) and the deprecated BluetoothAdapter.startLeScan() on KitKat. If the controller can't batch, the results are batched here:
+ * all devices found within the report delay are handed over with a single Runnable, so the UI is updated at most once per report delay.
+ * An AdvertisementListener additionally receives every single advertisement right away, e.g. for reading sensor values from them.
+ */
+public abstract class BleScanner {
+    //Scan modes (duty cycle of the radio), ignored on KitKat
+    public static final int SCAN_MODE_LOW_POWER = 0;
+    public static final int SCAN_MODE_BALANCED = 1;
+    public static final int SCAN_MODE_LOW_LATENCY = 2;
+
+    //Default time the results are collected before they are delivered
+    public static final long DEFAULT_REPORT_DELAY = 1000;
+
+    /**
+     * Receives the results of a scan
+     */
+    public interface Callback {
+        /**
+         * Called on the main thread with all devices that have been found since the previous call (each device at most once)
+         * @param results The latest advertisement of each device found, the List must not be kept
+         */
+        void onScanResults(ArrayList<Result> results);
+    }
+
+    /**
+     * Receives every advertisement as it arrives, without batching (e.g. for the connectionless mode of the DashboardActivity)
+     */
+    public interface AdvertisementListener {
+        /**
+         * Called on the thread of the scan callback (a Binder-Thread) for every advertisement that passes the filter
+         * @param device The device that has sent the advertisement
+         * @param rssi Signal strength of the advertisement in dBm
+         * @param scanRecord Raw data of the advertisement (see AdvertisementParser)
+         * @param receivedTime Time the advertisement has been received (System.nanoTime())
+         */
+        void onAdvertisement(BluetoothDevice device, int rssi, byte[] scanRecord, long receivedTime);
+    }
+
+    /**
+     * The latest advertisement of a device
+     */
+    public static final class Result {
+        public final BluetoothDevice device;
+        public int rssi;
+        public byte[] scanRecord;
+
+        //Time of the advertisement (SystemClock.elapsedRealtime())
+        public long timestamp;
+
+        Result(BluetoothDevice device) {
+            this.device = device;
+        }
+    }
+
+    protected final BluetoothAdapter bluetoothAdapter;
+    private final Handler handler;
+
+    protected int scanMode = SCAN_MODE_LOW_LATENCY;
+    protected long reportDelay = DEFAULT_REPORT_DELAY;
+    protected boolean isFilterEnabled;
+
+    //Duty cycle of a continuous scan: the radio scans for the window at the start of every interval (0: scans all the time)
+    private long scanWindow;
+    private long scanInterval;
+
+    //Read by the scan callback, no batching without a Callback
+    private volatile Callback callback;
+    private volatile AdvertisementListener advertisementListener;
+    private boolean isScanning;
+    private boolean isPaused;
+
+    //Devices found since the last delivery (by address), guarded by itself
+    private final LinkedHashMap<String, Result> pendingResults = new LinkedHashMap<>();
+    private boolean isDeliveryPosted;
+
+    //Delivered to the callback, only accessed from the main thread
+    private final ArrayList<Result> deliveredResults = new ArrayList<>();
+
+    //Statistics since the scan has been started
+    private volatile long wakeupCount;
+    private volatile long resultCount;
+    private long deliveryCount;
+    private long startTime;
+
+    /**
+     * Constructor
+     * @param bluetoothAdapter The BluetoothAdapter of the device
+     * @param handler Handler of the main thread
+     */
+    protected BleScanner(BluetoothAdapter bluetoothAdapter, Handler handler) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.handler = handler;
+    }
+
+    /**
+     * Creates the best scanner for the API-Level of the device
+     * @param bluetoothAdapter The BluetoothAdapter of the device
+     * @param handler Handler of the main thread
+     * @return A BluetoothLeScanner-based scanner on Lollipop and above, otherwise one based on BluetoothAdapter.startLeScan()
+     */
+    public static BleScanner create(BluetoothAdapter bluetoothAdapter, Handler handler) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new LollipopBleScanner(bluetoothAdapter, handler);
+        }
+        else {
+            return new LegacyBleScanner(bluetoothAdapter, handler);
+        }
+    }
+
+    /**
+     * Sets the scan mode, applied with the next start()
+     * @param scanMode One of the SCAN_MODE-constants
+     */
+    public void setScanMode(int scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public int getScanMode() {
+        return this.scanMode;
+    }
+
+    /**
+     * Sets how long results are collected before they are delivered, applied with the next start()
+     * @param reportDelay Delay in milliseconds (0 delivers every result right away)
+     */
+    public void setReportDelay(long reportDelay) {
+        this.reportDelay = Math.max(0, reportDelay);
+    }
+
+    /**
+     * Only reports blueIOTs (service UUID, address or name of BlueIOTHelper), applied with the next start().
+     * On Lollipop and above the filters are evaluated by the Bluetooth controller, other advertisements don't wake up the application.
+     * @param isFilterEnabled true to only report blueIOTs
+     */
+    public void setFilterEnabled(boolean isFilterEnabled) {
+        this.isFilterEnabled = isFilterEnabled;
+    }
+
+    public boolean isFilterEnabled() {
+        return this.isFilterEnabled;
+    }
+
+    /**
+     * Scans only part of the time until stop() is called, e.g. for scanning continuously in the background.
+     * Devices are still found as long as they advertise more often than the window is long, but the radio and the application sleep in between.
+     * Applied with the next start().
+     * @param scanWindow Time the radio scans at the start of every interval in milliseconds (0 to scan all the time)
+     * @param scanInterval Time between the starts of two windows in milliseconds
+     */
+    public void setDutyCycle(long scanWindow, long scanInterval) {
+        this.scanWindow = scanWindow;
+        this.scanInterval = scanInterval;
+    }
+
+    /**
+     * Sets the listener receiving every single advertisement, can be changed while scanning
+     * @param advertisementListener The listener or null
+     */
+    public void setAdvertisementListener(AdvertisementListener advertisementListener) {
+        this.advertisementListener = advertisementListener;
+    }
+
+    /**
+     * Starts scanning, must be called from the main thread
+     * @param callback Receives the results (null if only the AdvertisementListener is used, the results aren't batched then)
+     */
+    public void start(Callback callback) {
+        if (this.isScanning) {
+            stop();
+        }
+
+        this.callback = callback;
+        this.isScanning = true;
+        this.wakeupCount = 0;
+        this.resultCount = 0;
+        this.deliveryCount = 0;
+        this.startTime = System.nanoTime();
+        startScan();
+
+        this.isPaused = false;
+        if (this.scanWindow > 0 && this.scanInterval > this.scanWindow) {
+            this.handler.postDelayed(this.pauseRunnable, this.scanWindow);
+        }
+    }
+
+    /**
+     * Stops scanning, must be called from the main thread. Results that haven't been delivered yet are discarded.
+     */
+    public void stop() {
+        if (this.isScanning) {
+            this.isScanning = false;
+            if (!this.isPaused) {
+                stopScan();
+            }
+        }
+
+        this.handler.removeCallbacks(this.pauseRunnable);
+        this.handler.removeCallbacks(this.resumeRunnable);
+        this.handler.removeCallbacks(this.deliveryRunnable);
+        synchronized (this.pendingResults) {
+            this.pendingResults.clear();
+            this.isDeliveryPosted = false;
+        }
+    }
+
+    public boolean isScanning() {
+        return this.isScanning;
+    }
+
+    /**
+     * Stops the radio at the end of a scan window
+     */
+    private final Runnable pauseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isScanning) {
+                isPaused = true;
+                stopScan();
+                handler.postDelayed(resumeRunnable, scanInterval - scanWindow);
+            }
+        }
+    };
+
+    /**
+     * Starts the radio at the beginning of a scan window
+     */
+    private final Runnable resumeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (isScanning) {
+                isPaused = false;
+                startScan();
+                handler.postDelayed(pauseRunnable, scanWindow);
+            }
+        }
+    };
+
+    /**
+     * Starts the platform-specific scan
+     */
+    protected abstract void startScan();
+
+    /**
+     * Stops the platform-specific scan
+     */
+    protected abstract void stopScan();
+
+    /**
+     * @return true if the results are batched by the Bluetooth controller, i.e. they are delivered right away when they arrive
+     */
+    protected abstract boolean isHardwareBatching();
+
+    /**
+     * Called by the implementations for every call of the platform's scan callback (i.e. every time the application is woken up)
+     * @param resultCount Number of results contained in the call
+     */
+    protected void onWakeup(int resultCount) {
+        this.wakeupCount = this.wakeupCount + 1;
+        this.resultCount = this.resultCount + resultCount;
+    }
+
+    /**
+     * Called by the implementations for every device found, on any thread. Only the latest advertisement of each device is delivered.
+     * @param device The device found
+     * @param rssi Signal strength of the advertisement in dBm
+     * @param scanRecord Raw data of the advertisement
+     */
+    protected void onDeviceFound(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        AdvertisementListener listener = this.advertisementListener;
+        if (listener != null) {
+            listener.onAdvertisement(device, rssi, scanRecord, System.nanoTime());
+        }
+        if (this.callback == null) {
+            return;
+        }
+
+        synchronized (this.pendingResults) {
+            Result result = this.pendingResults.get(device.getAddress());
+            if (result == null) {
+                result = new Result(device);
+                this.pendingResults.put(device.getAddress(), result);
+            }
+            result.rssi = rssi;
+            result.scanRecord = scanRecord;
+            result.timestamp = SystemClock.elapsedRealtime();
+
+            //The first device of a batch schedules the delivery, all others are delivered with it
+            if (!this.isDeliveryPosted) {
+                this.isDeliveryPosted = true;
+                this.handler.postDelayed(this.deliveryRunnable, isHardwareBatching() ? 0 : this.reportDelay);
+            }
+        }
+    }
+
+    /**
+     * Hands over the collected devices to the callback on the main thread
+     */
+    private final Runnable deliveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            deliveredResults.clear();
+            synchronized (pendingResults) {
+                deliveredResults.addAll(pendingResults.values());
+                pendingResults.clear();
+                isDeliveryPosted = false;
+            }
+
+            if (isScanning && callback != null && !deliveredResults.isEmpty()) {
+                deliveryCount++;
+                callback.onScanResults(deliveredResults);
+            }
+        }
+    };
+
+    /**
+     * @return The number of times the application has been woken up by the scan since it has been started
+     */
+    public long getWakeupCount() {
+        return this.wakeupCount;
+    }
+
+    /**
+     * @return The number of advertisements reported since the scan has been started
+     */
+    public long getResultCount() {
+        return this.resultCount;
+    }
+
+    /**
+     * @return The number of batches delivered to the callback (i.e. UI-updates) since the scan has been started
+     */
+    public long getDeliveryCount() {
+        return this.deliveryCount;
+    }
+
+    /**
+     * @return The wakeups per minute since the scan has been started
+     */
+    public double getWakeupsPerMinute() {
+        double minutes = (System.nanoTime() - this.startTime) / 60000000000d;
+        return minutes > 0 ? this.wakeupCount / minutes : 0;
+    }
+}
@@ -1,5 +1,7 @@
 package de.hdmstuttgart.blueiot;
 
+import java.util.UUID;
+
 /**
  * Helper class that provides static references for the specific blueIOT-Device that is being used
  */
@@ -8,5 +10,22 @@ public class BlueIOTHelper {
     public static final String BLUEIOT_DEVICE_ADDRESS = "00:07:80:7F:A6:E0";
     public static final String BLUEIOT_PRIMARY_SERVICE_UUID = "06CCE3A0-AF8C-11E3-A5E2-0800200C9A66";
     public static final String BLUEIOT_CHARACTERISTIC_NOTIFICATION_UUID = "06CCE3A2-AF8C-11E3-A5E2-0800200C9A66";
+    public static final String BLUEIOT_CHARACTERISTIC_CONTROL_UUID = "06CCE3A3-AF8C-11E3-A5E2-0800200C9A66";
     public static final String BLUEIOT_DESCRIPTOR_NOTIFICATION_UUID = "00002902-0000-1000-8000-00805f9b34fb";
+
+    //Parsed once, use these instead of calling UUID.fromString() for every lookup
+    public static final UUID BLUEIOT_PRIMARY_SERVICE = UUID.fromString(BLUEIOT_PRIMARY_SERVICE_UUID);
+    public static final UUID BLUEIOT_CHARACTERISTIC_NOTIFICATION = UUID.fromString(BLUEIOT_CHARACTERISTIC_NOTIFICATION_UUID);
+    public static final UUID BLUEIOT_CHARACTERISTIC_CONTROL = UUID.fromString(BLUEIOT_CHARACTERISTIC_CONTROL_UUID);
+    public static final UUID BLUEIOT_DESCRIPTOR_NOTIFICATION = UUID.fromString(BLUEIOT_DESCRIPTOR_NOTIFICATION_UUID);
+
+    /**
+     * Checks whether a device found by a scan is a blueIOT (any device advertising the blueIOT-Name, or the original blueIOT itself)
+     * @param name The advertised name of the device (may be null)
+     * @param address The MAC-Address of the device
+     * @return true if the device is a blueIOT
+     */
+    public static boolean isBlueIOT(String name, String address) {
+        return (name != null && name.contains(BLUEIOT_DEVICE_NAME)) || BLUEIOT_DEVICE_ADDRESS.equals(address);
+    }
 }
@@ -0,0 +1,283 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Locale;
+
+/**
+ * Picks the connection parameters of a connection to blueIOT according to the consumers of its samples, trading latency for energy
+ * (on the phone and on the coin cell of blueIOT, whose radio is on for every connection event and every notification).
+ * Every subscriber declares a profile, the most demanding one decides:
+ * - PROFILE_INTERACTIVE (ball): lowest latency, high connection priority, few samples per notification, UI-update every frame
+ * - PROFILE_GRAPH (graph): batching is fine, balanced priority, UI-update every second frame
+ * - PROFILE_BACKGROUND (recording without UI) and PROFILE_IDLE (no subscribers): low power priority, full notifications, no UI
+ * The governor measures the throughput and the latency of the stream once per window. The latency is estimated as the time the first
+ * sample of a notification waits for the notification to be full plus the connection interval (see ConnectionNegotiator).
+ * If it misses the target of the profile (or the link is saturated, i.e. several notifications per connection event), the priority is
+ * raised; if it stays well below the target for a while, the priority is lowered again, but never below the base of the profile.
+ * The samples per notification are limited with CONTROL_SET_BATCH (see SensorFrameFormat), so that filling a notification fits into the target.
+ * Independent of the Android framework, the requests are executed by a GattCommandQueue.
+ */
+public final class ConnectionGovernor {
+    //Profiles of the consumers, ordered by their demands
+    public static final int PROFILE_IDLE = 0;
+    public static final int PROFILE_BACKGROUND = 1;
+    public static final int PROFILE_GRAPH = 2;
+    public static final int PROFILE_INTERACTIVE = 3;
+
+    private static final String[] PROFILE_NAMES = { "idle", "background", "graph", "interactive" };
+
+    //Latency each profile aims for, in milliseconds
+    private static final double[] TARGET_LATENCY = { 2000, 1000, 100, 20 };
+
+    //Lowest priority level of each profile (index into PRIORITY_LEVELS)
+    private static final int[] BASE_LEVEL = { 0, 0, 1, 2 };
+
+    //Frames between two UI-updates of each profile (0: no UI)
+    private static final int[] FRAMES_PER_DRAIN = { 0, 0, 2, 1 };
+
+    //Connection priorities from low power to low latency, with their nominal connection interval in milliseconds
+    private static final int[] PRIORITY_LEVELS = {
+            GattClient.CONNECTION_PRIORITY_LOW_POWER, GattClient.CONNECTION_PRIORITY_BALANCED, GattClient.CONNECTION_PRIORITY_HIGH
+    };
+    private static final String[] PRIORITY_NAMES = { "low power", "balanced", "high" };
+    private static final double[] NOMINAL_INTERVAL = { 100, 50, 15 };
+
+    //The stream is evaluated once per window
+    private static final long EVALUATION_WINDOW = 1000000000;
+
+    //Number of windows well below the target before the priority is lowered
+    private static final int STABLE_WINDOWS = 3;
+
+    //More notifications per connection event than this mean that the link can hardly keep up
+    private static final double SATURATED_NOTIFICATIONS_PER_EVENT = 2;
+
+    private final ConnectionNegotiator negotiator;
+
+    //State, guarded by this
+    private GattCommandQueue queue;
+    private boolean isBatchSupported;
+    private int profile = PROFILE_IDLE;
+    private int level = BASE_LEVEL[PROFILE_IDLE];
+    private int batchSize;
+    private int stableWindows;
+    private long adjustmentCount;
+
+    //Current window, only accessed by the thread delivering the notifications
+    private long windowStart;
+    private long windowSamples;
+    private long windowNotifications;
+    private long windowEventCount;
+
+    //Results of the last window
+    private volatile double sampleRate;
+    private volatile double latency;
+
+    /**
+     * Constructor
+     * @param negotiator The negotiated parameters of the connection, used for requesting the priority and estimating the interval
+     */
+    public ConnectionGovernor(ConnectionNegotiator negotiator) {
+        this.negotiator = negotiator;
+    }
+
+    /**
+     * @param profile One of the PROFILE-constants
+     * @return The number of frames between two UI-updates of a consumer with this profile (0 if it has no UI)
+     */
+    public static int getFramesPerDrain(int profile) {
+        return FRAMES_PER_DRAIN[profile];
+    }
+
+    /**
+     * Starts governing a connection, must be called after ConnectionNegotiator.negotiate() has been enqueued
+     * @param queue The command queue of the connection
+     * @param isBatchSupported true if blueIOT has the control characteristic (i.e. understands CONTROL_SET_BATCH)
+     */
+    public synchronized void start(GattCommandQueue queue, boolean isBatchSupported) {
+        this.queue = queue;
+        this.isBatchSupported = isBatchSupported;
+        this.level = BASE_LEVEL[this.profile];
+        this.batchSize = 0;
+        this.stableWindows = 0;
+        this.windowStart = 0;
+        this.sampleRate = 0;
+        this.latency = 0;
+        apply(true);
+    }
+
+    /**
+     * Stops governing, e.g. when the connection has been lost (the queue can't execute anything anymore)
+     */
+    public synchronized void stop() {
+        this.queue = null;
+    }
+
+    /**
+     * Sets the profile of the most demanding consumer, the parameters are changed right away
+     * @param profile One of the PROFILE-constants
+     */
+    public synchronized void setProfile(int profile) {
+        if (profile == this.profile) {
+            return;
+        }
+
+        this.profile = profile;
+        this.level = BASE_LEVEL[profile];
+        this.stableWindows = 0;
+        apply(true);
+    }
+
+    public synchronized int getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Called for every notification, on the thread delivering them
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     * @param sampleCount Number of samples in the notification (see SensorFrameFormat.getSampleCount())
+     */
+    public void onNotification(long receivedTime, int sampleCount) {
+        if (this.windowStart == 0) {
+            this.windowStart = receivedTime;
+            this.windowSamples = 0;
+            this.windowNotifications = 0;
+            this.windowEventCount = this.negotiator.getConnectionEventCount();
+            return;
+        }
+
+        this.windowSamples += sampleCount;
+        this.windowNotifications++;
+        if (receivedTime - this.windowStart >= EVALUATION_WINDOW) {
+            evaluate(receivedTime);
+            this.windowStart = receivedTime;
+            this.windowSamples = 0;
+            this.windowNotifications = 0;
+            this.windowEventCount = this.negotiator.getConnectionEventCount();
+        }
+    }
+
+    /**
+     * Measures the last window and adjusts the parameters if necessary
+     */
+    private synchronized void evaluate(long now) {
+        if (this.windowNotifications == 0) {
+            return;
+        }
+
+        double seconds = (now - this.windowStart) / 1000000000d;
+        this.sampleRate = this.windowSamples / seconds;
+        double samplesPerNotification = this.windowSamples / (double) this.windowNotifications;
+        long events = this.negotiator.getConnectionEventCount() - this.windowEventCount;
+        double notificationsPerEvent = events > 0 ? this.windowNotifications / (double) events : 1;
+
+        this.latency = Math.max(0, samplesPerNotification - 1) * getSamplePeriod() + getInterval();
+
+        double target = TARGET_LATENCY[this.profile];
+        if ((this.latency > target || notificationsPerEvent > SATURATED_NOTIFICATIONS_PER_EVENT) && this.level < PRIORITY_LEVELS.length - 1) {
+            this.level++;
+            this.stableWindows = 0;
+            this.adjustmentCount++;
+            apply(true);
+        }
+        else if (this.latency < target / 2 && this.level > BASE_LEVEL[this.profile]) {
+            this.stableWindows++;
+            if (this.stableWindows >= STABLE_WINDOWS) {
+                this.level--;
+                this.stableWindows = 0;
+                this.adjustmentCount++;
+                apply(true);
+            }
+        }
+        else {
+            this.stableWindows = 0;
+            apply(false);
+        }
+    }
+
+    /**
+     * Requests the priority of the current level and the batch size that fits into the target latency
+     * @param isChanged true if profile or level have changed, otherwise the batch size is only adjusted for larger deviations
+     */
+    private void apply(boolean isChanged) {
+        if (this.queue == null) {
+            return;
+        }
+
+        this.negotiator.requestConnectionPriority(this.queue, PRIORITY_LEVELS[this.level]);
+
+        //The batch size is only chosen once MTU and sample rate are known, i.e. with the first evaluation
+        if (this.isBatchSupported && this.sampleRate > 0) {
+            //Filling the notification and waiting for the next connection event must fit into the target
+            int maxSamples = Math.max(1, SensorFrameFormat.getMaxBinarySamples(this.negotiator.getPayloadSize()));
+            int size = (int) ((TARGET_LATENCY[this.profile] - getInterval()) / getSamplePeriod());
+            size = Math.max(1, Math.min(maxSamples, size));
+
+            //The measurements fluctuate, don't rewrite the batch size for every small deviation
+            if (size != this.batchSize && (isChanged || this.batchSize == 0 || Math.abs(size - this.batchSize) > this.batchSize / 4)) {
+                this.batchSize = size;
+                this.queue.enqueue(GattCommandQueue.Command.write(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL,
+                        SensorFrameFormat.createSetBatchCommand(size))
+                        .setRetries(0));
+            }
+        }
+    }
+
+    /**
+     * @return The measured time between two samples in milliseconds, the nominal one until it has been measured
+     */
+    private double getSamplePeriod() {
+        double rate = this.sampleRate;
+        return rate > 0 ? 1000 / rate : SensorIngest.DEFAULT_SAMPLE_PERIOD / 1000000d;
+    }
+
+    /**
+     * @return The estimated connection interval in milliseconds, the nominal one of the current priority until it has been measured
+     */
+    private double getInterval() {
+        double interval = this.negotiator.getEstimatedInterval();
+        return interval > 0 ? interval : NOMINAL_INTERVAL[this.level];
+    }
+
+    /**
+     * @return The connection priority currently requested (one of the CONNECTION_PRIORITY-constants in GattClient)
+     */
+    public synchronized int getConnectionPriority() {
+        return PRIORITY_LEVELS[this.level];
+    }
+
+    /**
+     * @return The maximum number of samples per notification that has been requested (0 if not requested)
+     */
+    public synchronized int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * @return The estimated latency of the last window in milliseconds
+     */
+    public double getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return The samples per second of the last window
+     */
+    public double getSampleRate() {
+        return this.sampleRate;
+    }
+
+    /**
+     * @return The number of times the priority has been raised or lowered because of the measurements
+     */
+    public synchronized long getAdjustmentCount() {
+        return this.adjustmentCount;
+    }
+
+    /**
+     * @return A single line describing the choices of the governor, e.g. for the statistics
+     */
+    public synchronized String getSummary() {
+        return String.format(Locale.US, "Profile: %s, Priority: %s, Batch: %s, Latency: ~%.0f ms (target %.0f ms), %.0f samples/s, Adjustments: %d",
+                PROFILE_NAMES[this.profile], PRIORITY_NAMES[this.level], this.batchSize > 0 ? String.valueOf(this.batchSize) : "-",
+                this.latency, TARGET_LATENCY[this.profile], this.sampleRate, this.adjustmentCount);
+    }
+}
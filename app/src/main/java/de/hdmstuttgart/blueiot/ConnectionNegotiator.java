@@ -0,0 +1,198 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Locale;
+
+/**
+ * Negotiation phase of a connection to blueIOT, run right after the notifications have been enabled, and the resulting connection parameters.
+ * The first samples arrive in the meantime (with the default MTU), so the exchange doesn't delay the time to first sample after a reconnect.
+ * - Connection priority: CONNECTION_PRIORITY_HIGH during the negotiation (shortest connection interval, 7.5-15 ms instead of
+ *   up to 50 ms), afterwards the ConnectionGovernor picks the priority that suits the consumers (see requestConnectionPriority()).
+ * - MTU: PREFERRED_MTU instead of 23 Bytes, so a single notification carries up to 30 binary samples instead of 2
+ *   (blueIOT sizes its frames to the negotiated MTU, see SensorFrameFormat).
+ * Both requests only exist on Lollipop and above; on KitKat nothing is requested and the defaults are reported.
+ * Android does not report the connection interval (before API-Level 26), so it is estimated from the arrival times of the notifications:
+ * notifications of the same connection event arrive back to back, the shortest gap between two events is the interval
+ * (or a multiple of it, if blueIOT doesn't send a notification in every connection event).
+ * Independent of the Android framework, the requests are executed by a GattCommandQueue.
+ */
+public final class ConnectionNegotiator {
+    //Default ATT_MTU of every connection
+    public static final int DEFAULT_MTU = SensorFrameFormat.DEFAULT_PAYLOAD_SIZE + 3;
+
+    //Largest ATT_MTU whose notifications still fit into a single link layer packet with data length extension (251 Bytes - 4 Bytes L2CAP)
+    public static final int PREFERRED_MTU = 247;
+
+    //Notifications closer together than this belong to the same connection event (the shortest interval is 7.5 ms)
+    private static final long CONNECTION_EVENT_GAP = 2000000;
+
+    //The estimated interval is updated once per window
+    private static final long ESTIMATION_WINDOW = 1000000000;
+
+    private final boolean isSupported;
+
+    //Written by the GATT callbacks, read by the UI
+    private volatile int mtu = DEFAULT_MTU;
+    private volatile int connectionPriority = GattClient.CONNECTION_PRIORITY_BALANCED;
+    private volatile int requestedPriority = GattClient.CONNECTION_PRIORITY_BALANCED;
+
+    //Estimation of the connection interval, only written by the thread delivering the notifications
+    private long lastNotificationTime;
+    private long windowStart;
+    private long shortestEventGap = Long.MAX_VALUE;
+    private volatile long notificationCount;
+    private volatile long connectionEventCount;
+    private volatile double estimatedInterval;
+
+    /**
+     * Constructor
+     * @param isSupported true if the platform supports MTU and connection priority requests (Lollipop and above)
+     */
+    public ConnectionNegotiator(boolean isSupported) {
+        this.isSupported = isSupported;
+    }
+
+    /**
+     * Enqueues the negotiation, must be called on every connection, right after enabling the notifications has been enqueued
+     * @param queue The command queue of the connection
+     */
+    public void negotiate(GattCommandQueue queue) {
+        reset();
+        if (!this.isSupported) {
+            return;
+        }
+
+        requestConnectionPriority(queue, GattClient.CONNECTION_PRIORITY_HIGH);
+        queue.enqueue(GattCommandQueue.Command.requestMtu(PREFERRED_MTU).setRetries(0));
+    }
+
+    /**
+     * Requests a connection priority, unless it has already been requested
+     * @param queue The command queue of the connection
+     * @param priority One of the CONNECTION_PRIORITY-constants in GattClient
+     */
+    public void requestConnectionPriority(GattCommandQueue queue, final int priority) {
+        if (!this.isSupported || priority == this.requestedPriority) {
+            return;
+        }
+
+        this.requestedPriority = priority;
+        queue.enqueue(GattCommandQueue.Command.requestConnectionPriority(priority)
+                .setCallback(new GattCommandQueue.Callback() {
+                    @Override
+                    public void onCommandCompleted(GattCommandQueue.Command command, int status, byte[] value) {
+                        if (status == GattClient.GATT_SUCCESS) {
+                            connectionPriority = priority;
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Called by the GATT callback once the MTU exchange has completed
+     * @param mtu The MTU of the connection
+     * @param status GattClient.GATT_SUCCESS or an error status (the MTU stays at the default then)
+     */
+    public void onMtuChanged(int mtu, int status) {
+        if (status == GattClient.GATT_SUCCESS) {
+            this.mtu = mtu;
+        }
+    }
+
+    /**
+     * Called for every notification, on the thread delivering them
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     */
+    public void onNotification(long receivedTime) {
+        this.notificationCount = this.notificationCount + 1;
+        if (this.lastNotificationTime != 0) {
+            long gap = receivedTime - this.lastNotificationTime;
+            if (gap >= CONNECTION_EVENT_GAP) {
+                this.connectionEventCount = this.connectionEventCount + 1;
+                this.shortestEventGap = Math.min(this.shortestEventGap, gap);
+            }
+        }
+        else {
+            this.windowStart = receivedTime;
+        }
+        this.lastNotificationTime = receivedTime;
+
+        if (receivedTime - this.windowStart >= ESTIMATION_WINDOW) {
+            if (this.shortestEventGap != Long.MAX_VALUE) {
+                this.estimatedInterval = this.shortestEventGap / 1000000d;
+            }
+            this.shortestEventGap = Long.MAX_VALUE;
+            this.windowStart = receivedTime;
+        }
+    }
+
+    /**
+     * Forgets the negotiated parameters, e.g. when the connection has been lost (every connection starts with the defaults)
+     */
+    public void reset() {
+        this.mtu = DEFAULT_MTU;
+        this.connectionPriority = GattClient.CONNECTION_PRIORITY_BALANCED;
+        this.requestedPriority = GattClient.CONNECTION_PRIORITY_BALANCED;
+        this.lastNotificationTime = 0;
+        this.shortestEventGap = Long.MAX_VALUE;
+        this.notificationCount = 0;
+        this.connectionEventCount = 0;
+        this.estimatedInterval = 0;
+    }
+
+    /**
+     * @return true if MTU and connection priority can be requested on this platform
+     */
+    public boolean isSupported() {
+        return this.isSupported;
+    }
+
+    public int getMtu() {
+        return this.mtu;
+    }
+
+    /**
+     * @return The usable payload of a notification (MTU - 3 Bytes ATT-header)
+     */
+    public int getPayloadSize() {
+        return this.mtu - 3;
+    }
+
+    /**
+     * @return The connection priority that has been granted (one of the CONNECTION_PRIORITY-constants in GattClient)
+     */
+    public int getConnectionPriority() {
+        return this.connectionPriority;
+    }
+
+    /**
+     * @return The estimated connection interval in milliseconds (0 until it has been measured)
+     */
+    public double getEstimatedInterval() {
+        return this.estimatedInterval;
+    }
+
+    /**
+     * @return The number of notifications received since the negotiation
+     */
+    public long getNotificationCount() {
+        return this.notificationCount;
+    }
+
+    /**
+     * @return The number of connection events that delivered notifications
+     */
+    public long getConnectionEventCount() {
+        return this.connectionEventCount;
+    }
+
+    /**
+     * @return A single line describing the negotiated parameters, e.g. for the statistics
+     */
+    public String getSummary() {
+        String priority = this.connectionPriority == GattClient.CONNECTION_PRIORITY_HIGH ? "high"
+                : this.connectionPriority == GattClient.CONNECTION_PRIORITY_LOW_POWER ? "low power" : "balanced";
+        return String.format(Locale.US, "MTU: %d (%d samples per notification), Priority: %s%s, Interval: ~%.1f ms",
+                this.mtu, Math.max(1, SensorFrameFormat.getMaxBinarySamples(getPayloadSize())), priority,
+                this.isSupported ? "" : " (not supported)", this.estimatedInterval);
+    }
+}
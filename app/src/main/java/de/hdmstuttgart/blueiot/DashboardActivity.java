@@ -0,0 +1,445 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.graphics.Color;
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.support.v7.app.ActionBarActivity;
+import android.util.TypedValue;
+import android.view.Choreographer;
+import android.view.View;
+import android.widget.LinearLayout;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.jjoe64.graphview.GraphView;
+import com.jjoe64.graphview.LegendRenderer;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Activity showing the sensor-values of several blueIOTs at once, one graph per device.
+ * Every device has its own connection (shared via the BleConnectionService) and its own SensorStream, so the notifications of the devices
+ * are decoded and ingested independently of each other on the Binder-Threads. The UI-Thread only drains the ring buffers of all streams
+ * in a single Choreographer-Callback per frame and redraws the graphs that have received new samples, i.e. its work per frame grows with
+ * the number of new samples and not with the number of notifications. Throughput and loss of every device are updated once per second.
+ * Connectionless mode (extra "connectionless"): instead of connecting, the samples are read from the advertisements of the devices
+ * (see SensorFrameFormat), so any number of devices can be monitored without occupying a GATT connection each. Suited for slowly changing
+ * values like the height, the rate is limited by the advertising interval of the blueIOTs.
+ * Intent extras: "devices" (ArrayList of BluetoothDevices) or "replay" (see DetailActivity) with "replayCount" simulated devices.
+ */
+public class DashboardActivity extends ActionBarActivity {
+    //Number of samples per device that are kept in full resolution (~40 seconds at 100 Hz) and levels of the min/max-summary
+    private static final int SERIES_CAPACITY = 4096;
+    private static final int HISTORY_LEVELS = 6;
+    private static final int HISTORY_FAN_OUT = 4;
+
+    //Height of each graph in dp
+    private static final int GRAPH_HEIGHT = 150;
+
+    //Interval of the throughput updates
+    private static final long STATUS_INTERVAL = 1000;
+
+    //Devices shown on the dashboard, in the order of the graphs (empty when replaying)
+    private ArrayList<BluetoothDevice> devices;
+
+    //One stream and one graph per device
+    private SensorStream[] streams;
+    private GraphView[] graphViews;
+    private TextView[] statusViews;
+    private boolean[] isConnected;
+
+    //Streams by the address of their device, only filled in onCreate(), read by the Binder-Threads
+    private final HashMap<String, SensorStream> streamsByAddress = new HashMap<>();
+
+    //Shared connections to the blueIOTs, available while the Activity is bound to the Service
+    private BleConnectionService bleConnectionService;
+    private boolean isSubscribed;
+
+    //Reads the samples from the advertisements instead of connecting (connectionless mode)
+    private boolean isConnectionless;
+    private BleScanner bleScanner;
+
+    //Simulated devices instead of blueIOTs (one ReplayEngine per stream)
+    private String replay;
+    private float replaySpeed;
+    private ReplayEngine[] replayEngines;
+
+    private TextView summaryView;
+
+    //Time the UI-Thread spends draining the streams, only accessed by the UI-Thread
+    private long drainTime;
+    private long drainFrameCount;
+    private int framesUntilDrain;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_dashboard);
+
+        //Initialize the devices or the simulated devices
+        this.devices = this.getIntent().getParcelableArrayListExtra("devices");
+        if (this.devices == null) {
+            this.devices = new ArrayList<>();
+        }
+        this.isConnectionless = this.getIntent().getBooleanExtra("connectionless", false);
+        this.replay = this.getIntent().getStringExtra("replay");
+        this.replaySpeed = this.getIntent().getFloatExtra("replaySpeed", 1);
+        int count = this.replay != null ? this.getIntent().getIntExtra("replayCount", 1) : this.devices.size();
+
+        //Setup one stream and one graph per device
+        this.summaryView = (TextView) this.findViewById(R.id.dashboardSummary);
+        LinearLayout dashboard = (LinearLayout) this.findViewById(R.id.dashboard);
+        this.streams = new SensorStream[count];
+        this.graphViews = new GraphView[count];
+        this.statusViews = new TextView[count];
+        this.isConnected = new boolean[count];
+        this.replayEngines = new ReplayEngine[count];
+
+        for (int i = 0; i < count; i++) {
+            String name = this.replay != null ? this.replay + " #" + (i + 1) : this.devices.get(i).getAddress();
+            this.streams[i] = new SensorStream(name, new SensorSeriesStore(SERIES_CAPACITY, SensorFrame.CHANNELS, HISTORY_LEVELS, HISTORY_FAN_OUT));
+            if (this.replay == null) {
+                this.streamsByAddress.put(this.devices.get(i).getAddress(), this.streams[i]);
+            }
+
+            this.statusViews[i] = new TextView(this);
+            this.statusViews[i].setTypeface(Typeface.MONOSPACE);
+            this.statusViews[i].setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+            this.statusViews[i].setText(name);
+            dashboard.addView(this.statusViews[i]);
+
+            this.graphViews[i] = createGraphView(this.streams[i].getSeriesStore(), i == 0);
+            int height = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, GRAPH_HEIGHT, this.getResources().getDisplayMetrics());
+            dashboard.addView(this.graphViews[i], new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, height));
+        }
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        //Replay without blueIOTs or bind to the Service owning the connections, the devices are subscribed once the Service is available
+        if (this.replay != null) {
+            startReplay();
+        }
+        else if (this.isConnectionless) {
+            startAdvertisementScan();
+        }
+        else if (!this.devices.isEmpty()) {
+            this.bindService(new Intent(this, BleConnectionService.class), this.serviceConnection, Context.BIND_AUTO_CREATE);
+        }
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        //Start draining the streams once per frame and updating the throughput once per second
+        for (SensorStream stream : this.streams) {
+            stream.reset();
+        }
+        Choreographer.getInstance().postFrameCallback(this.frameCallback);
+        this.summaryView.postDelayed(this.statusUpdater, STATUS_INTERVAL);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        Choreographer.getInstance().removeFrameCallback(this.frameCallback);
+        this.summaryView.removeCallbacks(this.statusUpdater);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+
+        stopReplay();
+        if (this.bleScanner != null) {
+            this.bleScanner.stop();
+        }
+
+        //Unsubscribe, the Service keeps the connections open for a while (e.g. when switching to another Activity)
+        if (this.bleConnectionService != null) {
+            unsubscribeAll();
+            this.unbindService(this.serviceConnection);
+            this.bleConnectionService = null;
+        }
+    }
+
+    /**
+     * Connection to the BleConnectionService
+     */
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            bleConnectionService = ((BleConnectionService.LocalBinder) service).getService();
+            subscribeAll();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            bleConnectionService = null;
+            isSubscribed = false;
+        }
+    };
+
+    /**
+     * Listener that is subscribed to all devices, the notifications are passed to the stream of the device they came from
+     */
+    private final BleConnectionService.Listener bleListener = new BleConnectionService.Listener() {
+        @Override
+        public void onConnectionStateChanged(BluetoothDevice device, boolean isConnected) {
+            int index = devices.indexOf(device);
+            if (index >= 0) {
+                DashboardActivity.this.isConnected[index] = isConnected;
+
+                //The Service reconnects on its own, the graph shows the time without samples as a gap
+                if (!isConnected) {
+                    streams[index].markGap();
+                }
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothDevice device, List<BluetoothGattService> services) {}
+
+        @Override
+        public void onCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+            SensorStream stream = streamsByAddress.get(device.getAddress());
+            if (stream != null) {
+                stream.onFrame(characteristic.getValue(), System.nanoTime());
+            }
+        }
+    };
+
+    /**
+     * Receives the advertisements in the connectionless mode and passes them to the stream of the device they came from
+     */
+    private final BleScanner.AdvertisementListener advertisementListener = new BleScanner.AdvertisementListener() {
+        @Override
+        public void onAdvertisement(BluetoothDevice device, int rssi, byte[] scanRecord, long receivedTime) {
+            SensorStream stream = streamsByAddress.get(device.getAddress());
+            if (stream != null) {
+                //Unlike the notifications of a connection, the scan callbacks of a device aren't always delivered on the same Binder-Thread
+                synchronized (stream) {
+                    stream.onAdvertisement(scanRecord, receivedTime);
+                }
+                isConnected[devices.indexOf(device)] = true;
+            }
+        }
+    };
+
+    /**
+     * Choreographer-Callback that is called once per frame (vsync) on the UI-Thread.
+     * Every few frames (see ConnectionGovernor.getFramesPerDrain()), drains the samples of all streams and redraws only the graphs of the
+     * devices that have sent new samples.
+     */
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            //Graphs don't need to move with every frame
+            if (--framesUntilDrain <= 0) {
+                framesUntilDrain = ConnectionGovernor.getFramesPerDrain(ConnectionGovernor.PROFILE_GRAPH);
+                long start = System.nanoTime();
+                for (int i = 0; i < streams.length; i++) {
+                    if (streams[i].drain() > 0) {
+                        graphViews[i].onDataChanged(false, false);
+                    }
+                }
+                drainTime += System.nanoTime() - start;
+                drainFrameCount++;
+            }
+
+            //Re-register for the next frame
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    };
+
+    /**
+     * Updates the throughput of every device and the summary once per second
+     */
+    private final Runnable statusUpdater = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            double totalThroughput = 0;
+            for (int i = 0; i < streams.length; i++) {
+                SensorStream stream = streams[i];
+                stream.updateThroughput(now);
+                totalThroughput += stream.getSampleThroughput();
+                statusViews[i].setText(getStatus(stream, replay != null || isConnected[i]));
+            }
+
+            summaryView.setText(String.format(Locale.US, "%d devices, %.0f samples/s, UI: %.1f µs per drain",
+                    streams.length, totalThroughput, drainFrameCount == 0 ? 0 : drainTime / 1000d / drainFrameCount));
+            drainTime = 0;
+            drainFrameCount = 0;
+
+            summaryView.postDelayed(this, STATUS_INTERVAL);
+        }
+    };
+
+    /**
+     * @return A single line with the throughput and the losses of a stream
+     */
+    private static String getStatus(SensorStream stream, boolean isConnected) {
+        SensorIngest ingest = stream.getPipeline().getIngest();
+        return String.format(Locale.US, "%s%s: %.0f samples/s, %.1f notifications/s, lost %.1f %%, dropped (UI) %d",
+                stream.getName(), isConnected ? "" : " (disconnected)", stream.getSampleThroughput(), stream.getNotificationThroughput(),
+                ingest.getLossRate() * 100, stream.getDroppedCount());
+    }
+
+    /**
+     * Adds the state of every stream to 'adb shell dumpsys activity de.hdmstuttgart.blueiot/.DashboardActivity'
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        for (int i = 0; i < this.streams.length; i++) {
+            SensorStream stream = this.streams[i];
+            SensorIngest ingest = stream.getPipeline().getIngest();
+            writer.println(prefix + getStatus(stream, this.replay != null || this.isConnected[i]));
+            writer.println(String.format(Locale.US, "%s  notifications: %d, received: %d, lost: %d, duplicates: %d, out of order: %d, malformed: %d",
+                    prefix, stream.getNotificationCount(), ingest.getReceivedCount(), ingest.getLostCount(), ingest.getDuplicateCount(),
+                    ingest.getOutOfOrderCount(), stream.getPipeline().getMalformedCount()));
+
+            ConnectionNegotiator negotiator = this.bleConnectionService != null && !this.isConnectionless && this.replay == null
+                    ? this.bleConnectionService.getConnectionNegotiator(this.devices.get(i)) : null;
+            if (negotiator != null) {
+                writer.println(prefix + "  " + negotiator.getSummary());
+                writer.println(prefix + "  " + this.bleConnectionService.getConnectionGovernor(this.devices.get(i)).getSummary());
+                writer.println(prefix + "  " + this.bleConnectionService.getReconnectPolicy(this.devices.get(i)).getSummary());
+            }
+        }
+    }
+
+    /**
+     * Subscribes to all devices via the BleConnectionService (connecting to them, if necessary)
+     */
+    private void subscribeAll() {
+        if (!this.isSubscribed && this.bleConnectionService != null) {
+            for (BluetoothDevice device : this.devices) {
+                this.bleConnectionService.subscribe(device, this.bleListener);
+            }
+            this.isSubscribed = true;
+        }
+    }
+
+    /**
+     * Unsubscribes from all devices, the Service closes the connections once nobody else is using them
+     */
+    private void unsubscribeAll() {
+        if (this.isSubscribed && this.bleConnectionService != null) {
+            for (BluetoothDevice device : this.devices) {
+                this.bleConnectionService.unsubscribe(device, this.bleListener);
+            }
+            this.isSubscribed = false;
+        }
+    }
+
+    /**
+     * Scans for the advertisements of the devices (connectionless mode): only blueIOTs, as often as possible and without batching
+     */
+    private void startAdvertisementScan() {
+        BluetoothManager bluetoothManager = (BluetoothManager) this.getSystemService(Context.BLUETOOTH_SERVICE);
+        BluetoothAdapter bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
+        if (bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            Toast.makeText(this, "Bluetooth is not enabled", Toast.LENGTH_LONG).show();
+            return;
+        }
+
+        if (this.bleScanner == null) {
+            this.bleScanner = BleScanner.create(bluetoothAdapter, new Handler());
+            this.bleScanner.setScanMode(BleScanner.SCAN_MODE_LOW_LATENCY);
+            this.bleScanner.setFilterEnabled(true);
+            this.bleScanner.setReportDelay(0);
+            this.bleScanner.setAdvertisementListener(this.advertisementListener);
+        }
+        this.bleScanner.start(null);
+    }
+
+    /**
+     * Starts one replay per simulated device, each on its own thread
+     */
+    private void startReplay() {
+        for (int i = 0; i < this.streams.length; i++) {
+            if (this.replayEngines[i] == null) {
+                try {
+                    this.replayEngines[i] = ReplayEngine.create(this.replay, this.replaySpeed, this.streams[i]);
+                    this.replayEngines[i].start();
+                } catch (IOException | IllegalArgumentException ex) {
+                    Toast.makeText(this, "Can't replay " + this.replay + ": " + ex.getMessage(), Toast.LENGTH_LONG).show();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops all replays
+     */
+    private void stopReplay() {
+        for (int i = 0; i < this.replayEngines.length; i++) {
+            if (this.replayEngines[i] != null) {
+                this.replayEngines[i].stop();
+                this.replayEngines[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Creates the graph of a device, showing the same series as the DetailActivity
+     * @param store The store containing the samples of the device
+     * @param isLegendVisible Whether to display the legend (only for the first graph)
+     */
+    private GraphView createGraphView(SensorSeriesStore store, boolean isLegendVisible) {
+        GraphView graphView = new GraphView(this);
+
+        final SensorLineGraphSeries[] series = {
+                new SensorLineGraphSeries(store, 0), new SensorLineGraphSeries(store, 1),
+                new SensorLineGraphSeries(store, 2), new SensorLineGraphSeries(store, 3)
+        };
+        String[] titles = { "X-Axis", "Y-Axis", "Z-Axis", "Height" };
+        int[] colors = { Color.BLACK, Color.BLUE, Color.RED, Color.GREEN };
+        for (int channel = 0; channel < series.length; channel++) {
+            series[channel].setTitle(titles[channel]);
+            series[channel].setColor(colors[channel]);
+            graphView.addSeries(series[channel]);
+        }
+
+        if (isLegendVisible) {
+            graphView.getLegendRenderer().setVisible(true);
+            graphView.getLegendRenderer().setTextSize(20);
+            graphView.getLegendRenderer().setAlign(LegendRenderer.LegendAlign.TOP);
+        }
+
+        //Draw at most one bucket per pixel, so the cost of a redraw does not depend on the length of the history
+        graphView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View view, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                for (SensorLineGraphSeries channelSeries : series) {
+                    channelSeries.setMaxPointCount(right - left);
+                }
+            }
+        });
+        return graphView;
+    }
+}
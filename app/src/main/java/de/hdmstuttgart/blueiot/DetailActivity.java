@@ -1,27 +1,35 @@
 package de.hdmstuttgart.blueiot;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.support.v7.app.ActionBarActivity;
+import android.view.Choreographer;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.TextView;
+import android.widget.Toast;
 
-import com.jjoe64.graphview.GraphView;
 import com.jjoe64.graphview.LegendRenderer;
-import com.jjoe64.graphview.series.DataPoint;
-import com.jjoe64.graphview.series.LineGraphSeries;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
-import java.util.UUID;
+import java.util.Locale;
 
 /**
  * Activity used for displaying the sensor-values in a line chart.
@@ -31,37 +39,124 @@ import java.util.UUID;
  */
 public class DetailActivity extends ActionBarActivity {
     private BluetoothDevice device;
-    private BluetoothGatt bluetoothGatt;
 
-    private boolean isConnected;
+    //Shared connection to blueIOT, available while the Activity is bound to the Service
+    private BleConnectionService bleConnectionService;
 
-    //X-Axis-Value used to put new values into the graph
-    private int x_Axis_Value = 0;
+    //Indicates whether the sensor values should be drawn (i.e. whether we are subscribed to blueIOT)
+    private boolean isDrawing = true;
+    private boolean isSubscribed;
+
+    //Time and number of received samples when subscribing, for the effective throughput of the connection
+    private long subscribeTime;
+    private long subscribeReceivedCount;
+
+    //Number of samples that are kept in full resolution (~40 seconds at 100 Hz)
+    private static final int SERIES_CAPACITY = 4096;
+
+    //Levels of the min/max-summary of older samples, each level with buckets 4 times as large (level 6: ~46 hours at 100 Hz)
+    private static final int HISTORY_LEVELS = 6;
+    private static final int HISTORY_FAN_OUT = 4;
+
+    /*
+     *    Samples displayed in the GraphView, stored in primitive columns (timestamps and one column per sensor-value)
+     *    The X-Axis shows the time of measurement in seconds, so lost samples leave a gap instead of compressing the time axis
+     *    Long ranges are drawn from the min/max-summary, so a redraw never draws more points than the GraphView is wide
+     */
+    private final SensorSeriesStore seriesStore = new SensorSeriesStore(SERIES_CAPACITY, SensorFrame.CHANNELS, HISTORY_LEVELS, HISTORY_FAN_OUT);
+    private TimedGraphView graphView;
+
+    /*
+     *    Alternative to the GraphView: the samples are drained, stored and drawn by a background-thread (see SensorPlotThread)
+     *    While enabled, that thread is the consumer of the ring buffer and the GraphView doesn't receive any samples
+     */
+    private SensorPlotView plotView;
+    private volatile boolean isPlotEngineEnabled;
 
     //Series used for displaying an individual value from the blueIOT-Sensors
-    private List<LineGraphSeries<DataPoint>> seriesCollection = new ArrayList<>();
-    private LineGraphSeries<DataPoint> series_X;
-    private LineGraphSeries<DataPoint> series_Y;
-    private LineGraphSeries<DataPoint> series_Z;
-    private LineGraphSeries<DataPoint> series_Height;
+    private SensorLineGraphSeries series_X;
+    private SensorLineGraphSeries series_Y;
+    private SensorLineGraphSeries series_Z;
+    private SensorLineGraphSeries series_Height;
+
+    //Decodes and ingests every notification, only ever accessed from the Binder-Thread delivering onCharacteristicChanged() (or the replay thread)
+    private SensorPipeline pipeline;
+
+    /*
+     *    Replay instead of blueIOT (intent extras "replay" and "replaySpeed"):
+     *    ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording, replayed through the same pipeline as the notifications
+     *    Speed 1 is real-time, 0 is as fast as possible
+     */
+    private String replay;
+    private float replaySpeed;
+    private ReplayEngine replayEngine;
+
+    /*
+     *    Update mode for the UI:
+     *    Batched (default): the Binder-Thread writes each sample into the ring buffer, the UI-Thread drains it every few frames (vsync),
+     *    as often as ConnectionGovernor.getFramesPerDrain() suggests for a graph
+     *    Not batched: every notification posts its own Runnable to the UI-Thread (previous behaviour, kept for comparison)
+     */
+    private volatile boolean isBatchingEnabled = true;
+    private boolean isFrameCallbackPosted;
+    private int framesUntilDrain;
+
+    //Hand-over between the Binder-Thread and the UI-Thread (~5 seconds at 100 Hz)
+    private final SensorRingBuffer ringBuffer = new SensorRingBuffer(512, SensorFrame.CHANNELS);
+
+    //Persists every received sample while recording is enabled (null otherwise), buffers ~40 seconds at 100 Hz
+    private static final int RECORDER_BUFFER_CAPACITY = 4096;
+    private volatile SensorRecorder recorder;
+
+    //Shows the latencies measured by the LatencyTracer of the pipeline while tracing is enabled, updated once per second
+    private static final long LATENCY_OVERLAY_INTERVAL = 1000;
+    private TextView latencyOverlay;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_detail);
 
+        //Setup processing of the notifications (the sink is not yet initialized when the fields are)
+        this.pipeline = new SensorPipeline(this.sampleSink);
+
         //Setup Series
         initializeSeries();
 
         //Setup GraphView
         initializeGraphView();
 
+        //Setup the alternative to the GraphView
+        initializePlotView();
+
+        this.latencyOverlay = (TextView) this.findViewById(R.id.latencyOverlay);
+
         //Initialize BluetoothDevice
         this.device = this.getIntent().getParcelableExtra("device");
 
-        //Initiate connection process
-        if (this.device != null && !this.isConnected) {
-            connectToBlueIOT();
+        //Initialize replay (if requested)
+        this.replay = this.getIntent().getStringExtra("replay");
+        this.replaySpeed = this.getIntent().getFloatExtra("replaySpeed", 1);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        //Replay without blueIOT or bind to the Service owning the connection, the connection process is initiated once the Service is available
+        if (this.replay != null) {
+            if (this.isDrawing) {
+                startReplay();
+            }
+        }
+        else if (this.device != null) {
+            if (this.bleConnectionService == null) {
+                this.bindService(new Intent(this, BleConnectionService.class), this.serviceConnection, Context.BIND_AUTO_CREATE);
+            }
+            else if (this.isSubscribed) {
+                //Has kept recording in the background, the graph is visible again
+                this.bleConnectionService.setProfile(this.device, this.bleListener, ConnectionGovernor.PROFILE_GRAPH);
+            }
         }
     }
 
@@ -70,6 +165,11 @@ public class DetailActivity extends ActionBarActivity {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_detail, menu);
 
+        menu.findItem(R.id.action_batchUpdates).setChecked(this.isBatchingEnabled);
+        menu.findItem(R.id.action_plotEngine).setChecked(this.isPlotEngineEnabled);
+        menu.findItem(R.id.action_record).setChecked(this.recorder != null);
+        menu.findItem(R.id.action_latencyTracing).setChecked(this.pipeline.getTracer().isEnabled());
+
         return true;
     }
 
@@ -78,18 +178,30 @@ public class DetailActivity extends ActionBarActivity {
         int id = item.getItemId();
         switch (id) {
             case R.id.action_startStopDrawing:
-                if (this.isConnected) {
-                    //Disconnect and show 'Play'-Icon
-                    if (this.device != null && this.bluetoothGatt != null) {
-                        disconnectFromBlueIOT();
+                if (this.isDrawing) {
+                    //Disconnect (or pause the replay) and show 'Play'-Icon
+                    if (this.device != null || this.replay != null) {
+                        this.isDrawing = false;
+                        if (this.replay != null) {
+                            stopReplay();
+                        }
+                        else {
+                            disconnectFromBlueIOT();
+                        }
                         item.setTitle(R.string.action_detailActivity_startDrawing);
                         item.setIcon(R.drawable.ic_action_play_over_video);
                     }
                 }
                 else {
-                    //Connect and show 'Pause'-Icon
-                    if (this.device != null && this.bluetoothGatt != null) {
-                        connectToBlueIOT();
+                    //Connect (or restart the replay) and show 'Pause'-Icon
+                    if (this.device != null || this.replay != null) {
+                        this.isDrawing = true;
+                        if (this.replay != null) {
+                            startReplay();
+                        }
+                        else {
+                            connectToBlueIOT();
+                        }
                         item.setTitle(R.string.action_detailActivity_stopDrawing);
                         item.setIcon(R.drawable.ic_action_pause_over_video);
                     }
@@ -99,279 +211,493 @@ public class DetailActivity extends ActionBarActivity {
             case R.id.action_clearData:
                 clearGraphViewData();
                 return true;
+            case R.id.action_streamStatistics:
+                //Show the quality of the received stream
+                SensorIngest ingest = this.pipeline.getIngest();
+                String statistics = String.format(Locale.US, "Received: %d, Lost: %d (%.1f %%), Duplicates: %d, Out of order: %d, Dropped (UI): %d",
+                        ingest.getReceivedCount(), ingest.getLostCount(), ingest.getLossRate() * 100,
+                        ingest.getDuplicateCount(), ingest.getOutOfOrderCount(), this.ringBuffer.getDroppedCount());
+
+                //Negotiated connection parameters and the throughput they achieve
+                ConnectionNegotiator negotiator = this.bleConnectionService != null && this.device != null
+                        ? this.bleConnectionService.getConnectionNegotiator(this.device) : null;
+                if (negotiator != null && this.isSubscribed) {
+                    double seconds = (System.nanoTime() - this.subscribeTime) / 1000000000d;
+                    statistics += String.format(Locale.US, "\n%s, Throughput: %.0f samples/s",
+                            negotiator.getSummary(), seconds > 0 ? (ingest.getReceivedCount() - this.subscribeReceivedCount) / seconds : 0);
+                    statistics += "\n" + this.bleConnectionService.getConnectionGovernor(this.device).getSummary();
+                    statistics += "\n" + this.bleConnectionService.getReconnectPolicy(this.device).getSummary();
+                }
+
+                //Time per frame of both ways to draw the graph, the GraphView blocks the UI-Thread for that long
+                statistics += "\nFrame time: GraphView (UI-Thread) " + this.graphView.getFrameStatistics().getSummary()
+                        + ", Plot engine (background) " + this.plotView.getFrameStatistics().getSummary();
+
+                ReplayEngine currentReplay = this.replayEngine;
+                if (currentReplay != null) {
+                    statistics += String.format(Locale.US, "\nReplay: %.0f samples/s, Lateness: %.2f ms (max. %.2f ms), Processing: %.1f µs (max. %.1f µs)",
+                            currentReplay.getSampleThroughput(), currentReplay.getAverageLatenessMillis(), currentReplay.getMaxLatenessMillis(),
+                            currentReplay.getAverageProcessingMicros(), currentReplay.getMaxProcessingMicros());
+                }
+                Toast.makeText(this, statistics, Toast.LENGTH_LONG).show();
+                return true;
+            case R.id.action_record:
+                if (this.recorder == null) {
+                    startRecording();
+                }
+                else {
+                    stopRecording();
+                }
+                item.setChecked(this.recorder != null);
+                return true;
+            case R.id.action_latencyTracing:
+                //Measure the latency from the notification to the screen and show it below the graph
+                setLatencyTracingEnabled(!this.pipeline.getTracer().isEnabled());
+                item.setChecked(this.pipeline.getTracer().isEnabled());
+                return true;
+            case R.id.action_batchUpdates:
+                //Switch between batched (once per frame) and immediate (once per notification) UI-updates
+                this.isBatchingEnabled = !this.isBatchingEnabled;
+                item.setChecked(this.isBatchingEnabled);
+                if (this.isPlotEngineEnabled) {
+                    //The plot engine always drains the ring buffer, the mode only applies to the GraphView
+                    return true;
+                }
+                if (this.isBatchingEnabled) {
+                    this.ringBuffer.clear();
+                    startFrameCallback();
+                }
+                else {
+                    stopFrameCallback();
+                }
+                return true;
+            case R.id.action_plotEngine:
+                //Switch between the GraphView (drawn on the UI-Thread) and the plot engine (drawn on a background-thread)
+                setPlotEngineEnabled(!this.isPlotEngineEnabled);
+                item.setChecked(this.isPlotEngineEnabled);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        //Start draining the ring buffer once per frame (the plot engine drains it on its own, as soon as its surface is available)
+        if (this.isBatchingEnabled && !this.isPlotEngineEnabled) {
+            this.ringBuffer.clear();
+            startFrameCallback();
+        }
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
 
-        if (this.bluetoothGatt != null && this.isConnected) {
-            try {
-                disconnectFromBlueIOT();
-            } catch (Exception ex) {}
-        }
+        stopFrameCallback();
     }
 
     @Override
     protected void onStop() {
         super.onStop();
 
-        if (this.bluetoothGatt != null && this.isConnected) {
-            try {
-                disconnectFromBlueIOT();
-            } catch (Exception ex) {}
+        //Stop the replay, it is restarted with onStart()
+        stopReplay();
+
+        if (this.recorder != null && this.isSubscribed && this.bleConnectionService != null) {
+            //Keep recording in the background, without a visible graph the connection can save as much energy as possible
+            this.bleConnectionService.setProfile(this.device, this.bleListener, ConnectionGovernor.PROFILE_BACKGROUND);
+        }
+        else {
+            //No more samples are received, close the recording
+            if (this.recorder != null) {
+                stopRecording();
+                supportInvalidateOptionsMenu();
+            }
+            releaseBlueIOT();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        //End of a recording in the background
+        if (this.recorder != null) {
+            stopRecording();
+        }
+        releaseBlueIOT();
+    }
+
+    /**
+     * Unsubscribes and unbinds from the Service, which keeps the connection open for a while (e.g. when switching to another Activity)
+     */
+    private void releaseBlueIOT() {
+        if (this.bleConnectionService != null) {
+            disconnectFromBlueIOT();
+            this.unbindService(this.serviceConnection);
+            this.bleConnectionService = null;
         }
     }
 
     /**
-     * BluetoothGattCallback that is used to connect to a remote BLE-Device.
-     * Defines callback-methods that are used for each step in the process of connecting/reading/writing for that device.
+     * Connection to the BleConnectionService
      */
-    private BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            //super.onConnectionStateChange(gatt, status, newState);
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            bleConnectionService = ((BleConnectionService.LocalBinder) service).getService();
 
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                //Start discovering all Services on the BLE-Remote-Device (i.e. blueIOT)
-                gatt.discoverServices();
+            //Initiate connection process
+            if (isDrawing) {
+                connectToBlueIOT();
             }
         }
 
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            //super.onServicesDiscovered(gatt, status);
-
-            //Find the correct Service on blueIOT
-            BluetoothGattService gattService = gatt.getService(UUID.fromString(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE_UUID));
-            if (gattService != null) {
-                //Find the correct Characteristic where we can set a notification for ourselves
-                BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(UUID.fromString(BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION_UUID));
-                if (characteristic != null) {
-                    //Enable local notifications (i.e. Android-Application)
-                    gatt.setCharacteristicNotification(characteristic, true);
-
-                    //Enable remote notifications on the BLE-Server (i.e. blueIOT)
-                    BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(BlueIOTHelper.BLUEIOT_DESCRIPTOR_NOTIFICATION_UUID));
-                    if (descriptor != null) {
-                        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                        gatt.writeDescriptor(descriptor);
-
-                        /*
-                         *   After both types of notifications have been set, the BLE-Remote-Device will continuously push new values
-                         *   into the Android-App. These push notifications will be dealt with inside regular calls to onCharacteristicChanged()
-                         */
-                    }
-                }
-            }
+        public void onServiceDisconnected(ComponentName name) {
+            bleConnectionService = null;
+            isSubscribed = false;
         }
+    };
 
+    /**
+     * Listener that is subscribed to blueIOT via the BleConnectionService.
+     * Receives every notification containing the sensor-values.
+     */
+    private final BleConnectionService.Listener bleListener = new BleConnectionService.Listener() {
         @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
+        public void onConnectionStateChanged(BluetoothDevice device, boolean isConnected) {
+            //The Service reconnects on its own and enables the notifications again, the samples just continue afterwards
+            if (!isConnected) {
+                markGap();
+                getSupportActionBar().setSubtitle(R.string.subtitle_detailActivity_reconnecting);
+            }
+            else {
+                getSupportActionBar().setSubtitle(null);
+            }
         }
 
         @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
+        public void onServicesDiscovered(BluetoothDevice device, List<BluetoothGattService> services) {}
+
+        @Override
+        public void onCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {
+            /*
+             *    The Value contains X,Y and Z from the Accelerometer and the Altitude from the Barometer, either as comma-separated String
+             *    or as packed binary frame with several samples (see SensorFrameFormat). The format is negotiated when connecting.
+             *    The raw bytes are decoded directly, without creating any objects (this is called for every single notification)
+             *    The samples are numbered and timestamped, duplicates are skipped (lost samples leave a gap in the sample index)
+             */
+            pipeline.onFrame(characteristic.getValue(), System.nanoTime());
         }
+    };
 
+    /**
+     * Hands over the samples to the recording (if enabled) and to the UI-Thread
+     */
+    private final SensorIngest.Sink sampleSink = new SensorIngest.Sink() {
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            //super.onCharacteristicChanged(gatt, characteristic);
+        public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+            //Never blocks, the samples are written by the recorder's own thread
+            SensorRecorder currentRecorder = recorder;
+            if (currentRecorder != null) {
+                currentRecorder.record(sampleIndex, timestamp, values, offset);
+            }
 
-            //Read the String value from the Characteristic with Offset = 0
-            String value = characteristic.getStringValue(0);
-            try {
-                /*
-                 *    The Value will be one String, containing X,Y and Z from the Accelerometer and the Altitude from the Barometer
-                 *    All Values will be separated by a comma (",") in the above mentioned order
-                 */
-
-                String[] values = value.split(",");
-                if (values.length == 4) {
-                    //Parse values
-                    final float x = Float.parseFloat(values[0].trim());
-                    final float y = Float.parseFloat(values[1].trim());
-                    final float z = Float.parseFloat(values[2].trim());
-                    final float height = Float.parseFloat(values[3].trim());
-
-                    //Update UI with new Sensor-Values
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            series_X.appendData(new DataPoint(x_Axis_Value, x), false, 50);
-                            series_Y.appendData(new DataPoint(x_Axis_Value, y), false, 50);
-                            series_Z.appendData(new DataPoint(x_Axis_Value, z), false, 50);
-                            series_Height.appendData(new DataPoint(x_Axis_Value, height), false, 50);
-                            x_Axis_Value = x_Axis_Value + 1;
-                        }
-                    });
-                }
+            if (isPlotEngineEnabled) {
+                //The background-thread of the plot engine picks up the samples with its next frame
+                ringBuffer.offer(sampleIndex, timestamp, values, offset);
+                plotView.onSamplesAvailable();
+            }
+            else if (isBatchingEnabled) {
+                //Batched mode: the UI-Thread picks up the samples with the next frame
+                ringBuffer.offer(sampleIndex, timestamp, values, offset);
+            }
+            else {
+                uiThreadSink.onSample(sampleIndex, timestamp, values, offset);
             }
-            catch (Exception ex) {}
         }
+    };
 
+    /**
+     * Not batched: posts a Runnable to the UI-Thread for every sample
+     */
+    private final SensorIngest.Sink uiThreadSink = new SensorIngest.Sink() {
         @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorRead(gatt, descriptor, status);
+        public void onSample(long sampleIndex, final long timestamp, float[] values, int offset) {
+            final float[] sample = Arrays.copyOfRange(values, offset, offset + SensorFrame.CHANNELS);
+
+            //Update UI with new Sensor-Values
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    pipeline.getTracer().recordPending(LatencyTracer.STAGE_DRAIN);
+                    appendToSeries(timestamp, sample, 0);
+                    graphView.onDataChanged(false, false);
+                }
+            });
         }
+    };
 
+    /**
+     * Choreographer-Callback that is called once per frame (vsync) on the UI-Thread.
+     * Drains all samples that have been received since the last frame and adds them to the series as one batch.
+     */
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
+        public void doFrame(long frameTimeNanos) {
+            //Redraw the GraphView once for all new samples, a graph doesn't need to move with every frame
+            if (--framesUntilDrain <= 0) {
+                framesUntilDrain = ConnectionGovernor.getFramesPerDrain(ConnectionGovernor.PROFILE_GRAPH);
+                if (ringBuffer.drain(seriesAppender) > 0) {
+                    pipeline.getTracer().recordPending(LatencyTracer.STAGE_DRAIN);
+                    graphView.onDataChanged(false, false);
+                }
+            }
+
+            //Re-register for the next frame
+            Choreographer.getInstance().postFrameCallback(this);
         }
+    };
 
+    /**
+     * Called right before the view tree is drawn: the samples added to the series so far are being drawn now.
+     * The GraphView is rendered by the hardware renderer afterwards, so STAGE_POST is not measured here.
+     */
+    private final ViewTreeObserver.OnDrawListener drawListener = new ViewTreeObserver.OnDrawListener() {
         @Override
-        public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-            super.onReliableWriteCompleted(gatt, status);
+        public void onDraw() {
+            pipeline.getTracer().completePending(LatencyTracer.STAGE_DRAW);
         }
+    };
 
+    /**
+     * Refreshes the latency overlay while tracing is enabled
+     */
+    private final Runnable latencyOverlayUpdater = new Runnable() {
         @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            super.onReadRemoteRssi(gatt, rssi, status);
+        public void run() {
+            if (pipeline.getTracer().isEnabled()) {
+                latencyOverlay.setText(pipeline.getTracer().getSummary());
+                latencyOverlay.postDelayed(this, LATENCY_OVERLAY_INTERVAL);
+            }
         }
+    };
 
-        /*
-        * Requires higher API-Level ...
+    /**
+     * Appends the drained samples to the series
+     */
+    private final SensorRingBuffer.Consumer seriesAppender = new SensorRingBuffer.Consumer() {
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
+        public void onSample(long sampleIndex, long timestamp, float[] values) {
+            appendToSeries(timestamp, values, 0);
         }
-        */
     };
 
-    /*
-    //BluetoothGattCallback that can be used to read a single value from blueIOT once
-    public void readOnce(View view) {
-        if (this.device != null) {
-            BluetoothGattCallback cb = new BluetoothGattCallback() {
-                @Override
-                public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                    //super.onConnectionStateChange(gatt, status, newState);
+    /**
+     * Appends a sample to the series, the position on the X-Axis is given by its timestamp
+     */
+    private void appendToSeries(long timestamp, float[] values, int offset) {
+        if (this.seriesStore.size() == 0) {
+            //The first sample is drawn at x = 0
+            this.seriesStore.setTimeOrigin(timestamp);
+        }
+        else if (timestamp <= this.seriesStore.getTimestamp(this.seriesStore.size() - 1)) {
+            //The timestamps have to be increasing (e.g. Runnables still pending after switching the update mode)
+            return;
+        }
 
-                    if (newState == BluetoothProfile.STATE_CONNECTED) {
-                        boolean success = gatt.discoverServices();
-                    }
-                }
+        this.seriesStore.append(timestamp, values, offset);
+    }
 
-                @Override
-                public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                    //super.onServicesDiscovered(gatt, status);
-
-                    BluetoothGattService gattService = gatt.getService(UUID.fromString("06CCE3A0-AF8C-11E3-A5E2-0800200C9A66"));
-                    if (gattService != null) {
-                        BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(UUID.fromString("06CCE3A2-AF8C-11E3-A5E2-0800200C9A66"));
-                        if (characteristic != null) {
-                            gatt.readCharacteristic(characteristic);
-                        }
-                    }
-                }
+    /**
+     * Interrupts the lines of the graph after the samples received so far, so the time without connection is shown as a gap.
+     * The samples missed in the meantime are counted as lost (blueIOT keeps counting while nobody listens).
+     */
+    private void markGap() {
+        if (this.isPlotEngineEnabled) {
+            this.plotView.markGap();
+            return;
+        }
 
-                @Override
-                public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                    //super.onCharacteristicRead(gatt, characteristic, status);
+        if (this.isBatchingEnabled) {
+            this.ringBuffer.drain(this.seriesAppender);
+        }
+        this.seriesStore.appendGap();
+        this.graphView.onDataChanged(false, false);
+    }
 
-                    String value = characteristic.getStringValue(0);
-                }
-            };
+    /**
+     * Registers the frame callback, if it isn't already registered
+     */
+    private void startFrameCallback() {
+        if (!this.isFrameCallbackPosted) {
+            Choreographer.getInstance().postFrameCallback(this.frameCallback);
+            this.isFrameCallbackPosted = true;
+        }
+    }
+
+    /**
+     * Removes the frame callback
+     */
+    private void stopFrameCallback() {
+        Choreographer.getInstance().removeFrameCallback(this.frameCallback);
+        this.isFrameCallbackPosted = false;
+    }
 
-            this.device.connectGatt(this, false, cb);
+    /**
+     * Enables or disables the LatencyTracer and its overlay, the latencies are measured anew each time
+     */
+    private void setLatencyTracingEnabled(boolean isEnabled) {
+        LatencyTracer tracer = this.pipeline.getTracer();
+        this.latencyOverlay.removeCallbacks(this.latencyOverlayUpdater);
+        if (isEnabled) {
+            tracer.reset();
+            tracer.setEnabled(true);
+            this.graphView.getViewTreeObserver().addOnDrawListener(this.drawListener);
+            this.latencyOverlay.setText("");
+            this.latencyOverlay.setVisibility(View.VISIBLE);
+            this.latencyOverlay.postDelayed(this.latencyOverlayUpdater, LATENCY_OVERLAY_INTERVAL);
+        }
+        else {
+            tracer.setEnabled(false);
+            this.graphView.getViewTreeObserver().removeOnDrawListener(this.drawListener);
+            this.latencyOverlay.setVisibility(View.GONE);
         }
     }
-    */
 
-    /*
-    //BluetoothGattCallback that can be used to write a value to blueIOT
-    public void writeToBlueIOT(View view) {
-        if (this.device != null) {
-            BluetoothGattCallback cb = new BluetoothGattCallback() {
-                @Override
-                public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-                    //super.onConnectionStateChange(gatt, status, newState);
+    /**
+     * Adds the measured latencies to 'adb shell dumpsys activity de.hdmstuttgart.blueiot/.DetailActivity'
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        this.pipeline.getTracer().dump(prefix, writer);
+    }
 
-                    if (newState == BluetoothProfile.STATE_CONNECTED) {
-                        boolean success = gatt.discoverServices();
-                    }
-                }
+    /**
+     * Starts recording the received samples into a new directory (one per recording, named after the current time)
+     */
+    private void startRecording() {
+        File baseDirectory = this.getExternalFilesDir("recordings");
+        if (baseDirectory == null) {
+            baseDirectory = new File(this.getFilesDir(), "recordings");
+        }
+        File directory = new File(baseDirectory, new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date()));
+
+        try {
+            SensorRecorder newRecorder = new SensorRecorder(directory, SensorFrame.CHANNELS, RECORDER_BUFFER_CAPACITY);
+            newRecorder.start();
+            this.recorder = newRecorder;
+        } catch (IOException ex) {
+            Toast.makeText(this, "Can't record: " + ex.getMessage(), Toast.LENGTH_LONG).show();
+        }
+    }
 
-                @Override
-                public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-                    //super.onServicesDiscovered(gatt, status);
-
-                    BluetoothGattService gattService = gatt.getService(UUID.fromString("06CCE3A0-AF8C-11E3-A5E2-0800200C9A66"));
-                    if (gattService != null) {
-                        BluetoothGattCharacteristic characteristic = gattService.getCharacteristic(UUID.fromString("06CCE3A3-AF8C-11E3-A5E2-0800200C9A66"));
-                        if (characteristic != null) {
-                            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-                            characteristic.setValue(17, BluetoothGattCharacteristic.FORMAT_UINT8, 0);
-                            gatt.writeCharacteristic(characteristic);
-                        }
-                    }
+    /**
+     * Stops recording, the buffered samples are written in the background and the result is shown once the log has been closed
+     */
+    private void stopRecording() {
+        SensorRecorder stoppedRecorder = this.recorder;
+        this.recorder = null;
+
+        //The Activity might be gone by then (e.g. stopped from onDestroy())
+        final Context applicationContext = this.getApplicationContext();
+        stoppedRecorder.stop(new SensorRecorder.Listener() {
+            @Override
+            public void onRecordingStopped(SensorRecorder recorder) {
+                final String message;
+                if (recorder.getError() != null) {
+                    message = "Recording failed: " + recorder.getError().getMessage();
+                }
+                else {
+                    message = String.format(Locale.US, "Recorded %d samples (%d dropped) to %s",
+                            recorder.getRecordedCount(), recorder.getDroppedCount(), recorder.getDirectory());
                 }
 
-                @Override
-                public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-                    //super.onCharacteristicWrite(gatt, characteristic, status);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(applicationContext, message, Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+        });
+    }
 
-                    //Do something, once the value is written
-                }
-            };
+    /**
+     * Starts replaying the notifications (from the beginning of the recording) instead of receiving them from blueIOT
+     */
+    private void startReplay() {
+        if (this.replayEngine == null) {
+            try {
+                this.pipeline.getIngest().requestResync();
+                this.replayEngine = ReplayEngine.create(this.replay, this.replaySpeed, this.pipeline);
+                this.replayEngine.start();
+            } catch (IOException | IllegalArgumentException ex) {
+                Toast.makeText(this, "Can't replay " + this.replay + ": " + ex.getMessage(), Toast.LENGTH_LONG).show();
+            }
+        }
+    }
 
-            this.device.connectGatt(this, false, cb);
+    /**
+     * Stops the replay, waits until the replay thread has delivered its last notification
+     */
+    private void stopReplay() {
+        if (this.replayEngine != null) {
+            this.replayEngine.stop();
+            this.replayEngine = null;
         }
     }
-    */
 
     /**
-     * Connects to the blueIOT with the predefined BluetoothGattCallback
+     * Subscribes to blueIOT via the BleConnectionService (connecting to it, if necessary)
      */
     private void connectToBlueIOT() {
-        if (!this.isConnected) {
-            this.bluetoothGatt = this.device.connectGatt(this, false, this.gattCallback);
-            this.isConnected = true;
+        if (!this.isSubscribed && this.bleConnectionService != null) {
+            //Samples missed while not subscribed are not lost
+            this.pipeline.getIngest().requestResync();
+            this.subscribeTime = System.nanoTime();
+            this.subscribeReceivedCount = this.pipeline.getIngest().getReceivedCount();
+            this.bleConnectionService.subscribe(this.device, this.bleListener);
+            this.isSubscribed = true;
         }
     }
 
     /**
-     * Disconnects from blueIOT
+     * Unsubscribes from blueIOT, the Service closes the connection once nobody else is using it
      */
     private void disconnectFromBlueIOT() {
-        if (this.isConnected && this.bluetoothGatt != null) {
-            this.bluetoothGatt.disconnect();
-            this.isConnected = false;
+        if (this.isSubscribed && this.bleConnectionService != null) {
+            this.bleConnectionService.unsubscribe(this.device, this.bleListener);
+            this.isSubscribed = false;
         }
     }
 
     /**
      * Initializes all of the series.
-     * Sets the title and the color of each series and instantiates them as LineGraphSeries-Objects
+     * Sets the title and the color of each series and instantiates them as SensorLineGraphSeries-Objects, which display one column of the series store
      */
     private void initializeSeries() {
         //Series configuration
-        this.series_X = new LineGraphSeries<>();
+        this.series_X = new SensorLineGraphSeries(this.seriesStore, 0);
         this.series_X.setTitle("X-Axis");
         this.series_X.setColor(Color.BLACK);
 
-        this.series_Y = new LineGraphSeries<>();
+        this.series_Y = new SensorLineGraphSeries(this.seriesStore, 1);
         this.series_Y.setTitle("Y-Axis");
         this.series_Y.setColor(Color.BLUE);
 
-        this.series_Z = new LineGraphSeries<>();
+        this.series_Z = new SensorLineGraphSeries(this.seriesStore, 2);
         this.series_Z.setTitle("Z-Axis");
         this.series_Z.setColor(Color.RED);
 
-        this.series_Height = new LineGraphSeries<>();
+        this.series_Height = new SensorLineGraphSeries(this.seriesStore, 3);
         this.series_Height.setTitle("Height");
         this.series_Height.setColor(Color.GREEN);
-
-        this.seriesCollection.add(this.series_X);
-        this.seriesCollection.add(this.series_Y);
-        this.seriesCollection.add(this.series_Z);
-        this.seriesCollection.add(this.series_Height);
     }
 
     /**
@@ -380,41 +706,94 @@ public class DetailActivity extends ActionBarActivity {
      */
     private void initializeGraphView() {
         //Setup GraphView
-        GraphView graphView = (GraphView) this.findViewById(R.id.graph);
+        this.graphView = (TimedGraphView) this.findViewById(R.id.graph);
 
         //Add Series
-        graphView.addSeries(this.series_X);
-        graphView.addSeries(this.series_Y);
-        graphView.addSeries(this.series_Z);
-        graphView.addSeries(this.series_Height);
+        this.graphView.addSeries(this.series_X);
+        this.graphView.addSeries(this.series_Y);
+        this.graphView.addSeries(this.series_Z);
+        this.graphView.addSeries(this.series_Height);
 
         //Display Legend
-        graphView.getLegendRenderer().setVisible(true);
-        graphView.getLegendRenderer().setTextSize(20);
-        graphView.getLegendRenderer().setAlign(LegendRenderer.LegendAlign.TOP);
+        this.graphView.getLegendRenderer().setVisible(true);
+        this.graphView.getLegendRenderer().setTextSize(20);
+        this.graphView.getLegendRenderer().setAlign(LegendRenderer.LegendAlign.TOP);
+
+        //Allow zooming into and scrolling through the history
+        this.graphView.getViewport().setScalable(true);
+        this.graphView.getViewport().setScrollable(true);
+
+        //Draw at most one bucket per pixel
+        this.graphView.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View view, int left, int top, int right, int bottom, int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                int width = right - left;
+                series_X.setMaxPointCount(width);
+                series_Y.setMaxPointCount(width);
+                series_Z.setMaxPointCount(width);
+                series_Height.setMaxPointCount(width);
+            }
+        });
     }
 
     /**
      * Clears the GraphView data.
-     * Retrieves the last point that was previously added for each series and starts anew with that Y-value from x = 0
+     * Keeps the last sample that was previously added and starts anew with its Y-values from x = 0.
+     * The series store only resets its bounds and re-adds the kept sample to its MinMaxPyramid, without allocating.
      */
     private void clearGraphViewData() {
-        //Reset the values for each of the series shown in the GraphView (--> Start from x = 0 again)
-        for (LineGraphSeries<DataPoint> series : this.seriesCollection) {
-            Iterator<DataPoint> iterator = series.getValues(this.x_Axis_Value - 1, this.x_Axis_Value);
-            DataPoint dataPoint = null;
-            while (iterator.hasNext()) {
-                dataPoint = iterator.next();
-            }
+        int size = this.seriesStore.size();
+        if (size > 0) {
+            this.seriesStore.setTimeOrigin(this.seriesStore.getTimestamp(size - 1));
+        }
+        this.seriesStore.clear(1);
+        this.plotView.clear();
 
-            if (dataPoint != null) {
-                series.resetData(new DataPoint[] { new DataPoint(0, dataPoint.getY()) });
+        this.graphView.onDataChanged(false, false);
+    }
+
+    /**
+     * Initializes the SensorPlotView with the same titles and colors as the series of the GraphView
+     */
+    private void initializePlotView() {
+        this.plotView = (SensorPlotView) this.findViewById(R.id.plot);
+        this.plotView.initialize(this.ringBuffer, this.pipeline.getTracer(),
+                new String[] { this.series_X.getTitle(), this.series_Y.getTitle(), this.series_Z.getTitle(), this.series_Height.getTitle() },
+                new int[] { this.series_X.getColor(), this.series_Y.getColor(), this.series_Z.getColor(), this.series_Height.getColor() });
+    }
+
+    /**
+     * Switches between the GraphView and the plot engine.
+     * The ring buffer must only be drained by one thread at a time: the frame callback is stopped before the plot engine becomes visible
+     * (its thread starts with the surface), and the thread of the plot engine is stopped before the frame callback is started again.
+     * @param isEnabled true to draw with the plot engine, false to draw with the GraphView
+     */
+    private void setPlotEngineEnabled(boolean isEnabled) {
+        if (isEnabled == this.isPlotEngineEnabled) {
+            return;
+        }
+
+        if (isEnabled) {
+            stopFrameCallback();
+            this.isPlotEngineEnabled = true;
+            this.graphView.setVisibility(View.GONE);
+            this.plotView.setVisibility(View.VISIBLE);
+        }
+        else {
+            this.plotView.stopThread();
+            this.isPlotEngineEnabled = false;
+            this.plotView.setVisibility(View.GONE);
+            this.graphView.setVisibility(View.VISIBLE);
+
+            //The samples drawn by the plot engine are missing in the GraphView
+            this.seriesStore.appendGap();
+            this.graphView.onDataChanged(false, false);
+            if (this.isBatchingEnabled) {
+                startFrameCallback();
             }
             else {
-                series.resetData(new DataPoint[] { new DataPoint(0, 0) });
+                this.ringBuffer.clear();
             }
         }
-
-        this.x_Axis_Value = 1;
     }
-}
\ No newline at end of file
+}
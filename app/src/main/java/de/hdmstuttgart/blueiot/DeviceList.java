@@ -0,0 +1,363 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Table of the devices found by a scan, nearest device first. Every device is only contained once.
+ * The devices are indexed by a key (i.e. the MAC-Address), so an advertisement of a known device is an O(1) lookup and update, independent of
+ * the number of devices nearby. Along with the device, its RSSI (raw and smoothed), the time it has been seen last and its last advertisement
+ * data are kept.
+ *
+ * Ordering: the devices are sorted by their smoothed RSSI (strongest first). After an update the device is moved past the neighbours it is
+ * more than REORDER_HYSTERESIS stronger or weaker than, which usually takes none or a single step. Devices with about the same RSSI keep their
+ * order, so they don't swap back and forth with every advertisement.
+ * Aging: devices that haven't been seen for the time to live are removed by expire(). Each device is put into the slot of a timer wheel that
+ * corresponds to its expiry when it is added. Updates don't touch the wheel; when a slot comes due, its devices that have been seen in the
+ * meantime are moved to the slot of their new expiry and the others are removed. expire() therefore only looks at the devices that could expire.
+ *
+ * Changes are tracked until clearChanges() is called, so the UI only needs to update the affected rows (see BleDeviceListAdapter):
+ * moved devices count as changed, only added and removed devices change the number of rows.
+ * Independent of the Android framework, so it can be benchmarked on the JVM. Not synchronized, only to be used from the main thread.
+ * @param <T> Type of the devices, i.e. BluetoothDevice
+ */
+public class DeviceList<T> {
+    //Weight of a new RSSI value (exponential moving average), the RSSI of BLE-Advertisements fluctuates by several dBm
+    private static final float RSSI_SMOOTHING = 0.25f;
+
+    //Difference of the smoothed RSSI (in dBm) a device has to exceed to move past its neighbour
+    public static final float REORDER_HYSTERESIS = 3;
+
+    /**
+     * A single device and what is known about it
+     * @param <T> Type of the device
+     */
+    public static final class Entry<T> {
+        private final String key;
+        private final long id;
+        private int position;
+        private T device;
+        private int rssi;
+        private float smoothedRssi;
+        private long lastSeen;
+        private byte[] scanRecord;
+        private long advertisementCount;
+
+        //true while the entry is in the list of changed entries
+        private boolean isChanged;
+
+        private Entry(String key, long id) {
+            this.key = key;
+            this.id = id;
+        }
+
+        public String getKey() {
+            return this.key;
+        }
+
+        /**
+         * @return An ID that is unique within the DeviceList and never changes
+         */
+        public long getId() {
+            return this.id;
+        }
+
+        /**
+         * @return The current position in the list, -1 if the device has been removed
+         */
+        public int getPosition() {
+            return this.position;
+        }
+
+        public T getDevice() {
+            return this.device;
+        }
+
+        /**
+         * @return The signal strength of the last advertisement in dBm
+         */
+        public int getRssi() {
+            return this.rssi;
+        }
+
+        /**
+         * @return The average signal strength of the recent advertisements in dBm
+         */
+        public float getSmoothedRssi() {
+            return this.smoothedRssi;
+        }
+
+        /**
+         * @return The time of the last advertisement, as passed to update()
+         */
+        public long getLastSeen() {
+            return this.lastSeen;
+        }
+
+        /**
+         * @return The raw data of the last advertisement (may be null)
+         */
+        public byte[] getScanRecord() {
+            return this.scanRecord;
+        }
+
+        /**
+         * @return The number of advertisements received from the device
+         */
+        public long getAdvertisementCount() {
+            return this.advertisementCount;
+        }
+    }
+
+    //Index by key
+    private final HashMap<String, Entry<T>> entries = new HashMap<>();
+
+    //Entries, nearest (i.e. strongest smoothed RSSI) first
+    private final ArrayList<Entry<T>> order = new ArrayList<>();
+
+    //Timer wheel, one slot per tick (no aging if the time to live is 0)
+    private final long timeToLive;
+    private final long tickDuration;
+    private final ArrayList<ArrayList<Entry<T>>> wheel = new ArrayList<>();
+    private ArrayList<Entry<T>> dueEntries = new ArrayList<>();
+    private long currentTick = -1;
+
+    //Changes since the last call of clearChanges()
+    private final ArrayList<Entry<T>> changedEntries = new ArrayList<>();
+    private boolean isCountChanged;
+
+    private long nextId;
+
+    /**
+     * Constructor, the devices are never removed by expire()
+     */
+    public DeviceList() {
+        this(0, 1);
+    }
+
+    /**
+     * Constructor
+     * @param timeToLive Time after which a device that hasn't been seen is removed by expire() (same unit as the times passed to update())
+     * @param tickDuration Resolution of the expiry, i.e. devices are removed up to one tick later
+     */
+    public DeviceList(long timeToLive, long tickDuration) {
+        this.timeToLive = timeToLive;
+        this.tickDuration = tickDuration;
+        if (timeToLive > 0) {
+            //Enough slots for the longest time until an expiry, so a slot never contains devices of different rounds of the wheel
+            long slotCount = (timeToLive + tickDuration - 1) / tickDuration + 2;
+            for (int i = 0; i < slotCount; i++) {
+                this.wheel.add(new ArrayList<Entry<T>>());
+            }
+        }
+    }
+
+    /**
+     * Adds a device or updates it, if its key is already contained
+     * @param key The key of the device (i.e. its MAC-Address)
+     * @param device The device
+     * @param rssi Signal strength of the advertisement in dBm
+     * @param scanRecord Raw data of the advertisement (may be null), is not copied
+     * @param time Time of the advertisement (must not decrease)
+     * @return true if the device has been added, false if it was already contained and has been updated
+     */
+    public boolean update(String key, T device, int rssi, byte[] scanRecord, long time) {
+        Entry<T> entry = this.entries.get(key);
+        boolean isAdded = entry == null;
+        if (isAdded) {
+            entry = new Entry<>(key, this.nextId++);
+            entry.smoothedRssi = rssi;
+            entry.position = this.order.size();
+            this.entries.put(key, entry);
+            this.order.add(entry);
+            this.isCountChanged = true;
+        }
+        else {
+            entry.smoothedRssi += RSSI_SMOOTHING * (rssi - entry.smoothedRssi);
+            markChanged(entry);
+        }
+
+        entry.device = device;
+        entry.rssi = rssi;
+        entry.scanRecord = scanRecord;
+        entry.lastSeen = time;
+        entry.advertisementCount++;
+
+        if (isAdded) {
+            schedule(entry);
+        }
+        reorder(entry);
+        return isAdded;
+    }
+
+    private void markChanged(Entry<T> entry) {
+        if (!entry.isChanged) {
+            entry.isChanged = true;
+            this.changedEntries.add(entry);
+        }
+    }
+
+    /**
+     * Moves an entry past the neighbours whose smoothed RSSI differs by more than REORDER_HYSTERESIS in the wrong direction
+     */
+    private void reorder(Entry<T> entry) {
+        int position = entry.position;
+        while (position > 0 && this.order.get(position - 1).smoothedRssi + REORDER_HYSTERESIS < entry.smoothedRssi) {
+            swap(position - 1, position);
+            position--;
+        }
+        while (position < this.order.size() - 1 && this.order.get(position + 1).smoothedRssi > entry.smoothedRssi + REORDER_HYSTERESIS) {
+            swap(position, position + 1);
+            position++;
+        }
+    }
+
+    /**
+     * Swaps two entries, both are now shown in another row and therefore changed
+     */
+    private void swap(int first, int second) {
+        Entry<T> firstEntry = this.order.get(first);
+        Entry<T> secondEntry = this.order.get(second);
+        this.order.set(first, secondEntry);
+        this.order.set(second, firstEntry);
+        secondEntry.position = first;
+        firstEntry.position = second;
+        markChanged(firstEntry);
+        markChanged(secondEntry);
+    }
+
+    /**
+     * Puts an entry into the slot of the wheel corresponding to its expiry
+     */
+    private void schedule(Entry<T> entry) {
+        if (this.timeToLive > 0) {
+            long expiryTick = (entry.lastSeen + this.timeToLive + this.tickDuration - 1) / this.tickDuration;
+            if (this.currentTick >= 0 && expiryTick <= this.currentTick) {
+                expiryTick = this.currentTick + 1;
+            }
+            this.wheel.get((int) (expiryTick % this.wheel.size())).add(entry);
+        }
+    }
+
+    /**
+     * Removes all devices that haven't been seen for the time to live
+     * @param now Current time (same unit as the times passed to update())
+     * @return The number of devices that have been removed
+     */
+    public int expire(long now) {
+        if (this.timeToLive <= 0) {
+            return 0;
+        }
+
+        long nowTick = now / this.tickDuration;
+        if (this.currentTick < 0 || nowTick - this.currentTick > this.wheel.size()) {
+            //First call or not called for a whole round of the wheel: every slot is due once
+            this.currentTick = Math.max(-1, nowTick - this.wheel.size());
+        }
+
+        int removedCount = 0;
+        while (this.currentTick < nowTick) {
+            this.currentTick++;
+
+            //Swap the slot with the (empty) scratch list, so the due entries can be rescheduled into the wheel
+            int slot = (int) (this.currentTick % this.wheel.size());
+            ArrayList<Entry<T>> due = this.wheel.get(slot);
+            this.wheel.set(slot, this.dueEntries);
+            this.dueEntries = due;
+
+            for (int i = 0; i < due.size(); i++) {
+                Entry<T> entry = due.get(i);
+                if (now - entry.lastSeen >= this.timeToLive) {
+                    remove(entry);
+                    removedCount++;
+                }
+                else {
+                    //Seen since it has been scheduled
+                    schedule(entry);
+                }
+            }
+            due.clear();
+        }
+        return removedCount;
+    }
+
+    /**
+     * Removes an entry from the index and the order (the positions of the following entries are decreased)
+     */
+    private void remove(Entry<T> entry) {
+        this.entries.remove(entry.key);
+        this.order.remove(entry.position);
+        for (int i = entry.position; i < this.order.size(); i++) {
+            this.order.get(i).position = i;
+        }
+        entry.position = -1;
+        this.isCountChanged = true;
+    }
+
+    /**
+     * @param position The position in the list
+     * @return The device at the specified position
+     */
+    public T get(int position) {
+        return this.order.get(position).device;
+    }
+
+    /**
+     * @param position The position in the list
+     * @return The entry at the specified position
+     */
+    public Entry<T> getEntry(int position) {
+        return this.order.get(position);
+    }
+
+    /**
+     * @param key The key of the device
+     * @return The entry of the device, null if it isn't contained
+     */
+    public Entry<T> getEntry(String key) {
+        return this.entries.get(key);
+    }
+
+    public int size() {
+        return this.order.size();
+    }
+
+    /**
+     * @return true if devices have been added or removed since the last call of clearChanges()
+     */
+    public boolean isCountChanged() {
+        return this.isCountChanged;
+    }
+
+    /**
+     * @return The devices that have been updated or moved since the last call of clearChanges(), each only once (may contain removed devices)
+     */
+    public ArrayList<Entry<T>> getChangedEntries() {
+        return this.changedEntries;
+    }
+
+    /**
+     * Forgets the changes, e.g. after the UI has been updated
+     */
+    public void clearChanges() {
+        for (int i = 0; i < this.changedEntries.size(); i++) {
+            this.changedEntries.get(i).isChanged = false;
+        }
+        this.changedEntries.clear();
+        this.isCountChanged = false;
+    }
+
+    public void clear() {
+        this.entries.clear();
+        for (Entry<T> entry : this.order) {
+            entry.position = -1;
+        }
+        this.order.clear();
+        for (ArrayList<Entry<T>> slot : this.wheel) {
+            slot.clear();
+        }
+        this.currentTick = -1;
+        this.changedEntries.clear();
+        this.isCountChanged = true;
+    }
+}
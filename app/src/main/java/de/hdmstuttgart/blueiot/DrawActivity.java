@@ -1,30 +1,54 @@
 package de.hdmstuttgart.blueiot;
 
+import android.app.ActivityManager;
 import android.bluetooth.BluetoothDevice;
+import android.content.Context;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Locale;
 
 /**
  * Activity with the only UI-Component being a custom SurfaceView that can be drawn onto.
+ * The ball is drawn with a Canvas by default, the ActionBar allows switching to OpenGL ES (see AccelerationGLSurfaceView).
  */
 public class DrawActivity extends ActionBarActivity {
     //Custom Surface View that can be drawn onto
     private AccelerationSurfaceView accelerationSurfaceView;
 
+    //Alternative drawn with OpenGL ES, created when it is selected for the first time
+    private AccelerationGLSurfaceView accelerationGLSurfaceView;
+    private boolean isGLRendererEnabled;
+
+    //CPU time per frame of both renderers, kept while switching between them
+    private final FrameTimeStatistics canvasCpuStatistics = new FrameTimeStatistics();
+    private final FrameTimeStatistics glCpuStatistics = new FrameTimeStatistics();
+
+    private BluetoothDevice device;
+    private String replay;
+    private float replaySpeed;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
         //Initialize BluetoothDevice
-        BluetoothDevice device = this.getIntent().getParcelableExtra("device");
+        this.device = this.getIntent().getParcelableExtra("device");
+
+        //Initialize replay (ReplayEngine.SOURCE_SYNTHETIC or the directory of a recording), replaces the BluetoothDevice
+        this.replay = this.getIntent().getStringExtra("replay");
+        this.replaySpeed = this.getIntent().getFloatExtra("replaySpeed", 1);
 
         //Instantiate new SurfaceView
         this.accelerationSurfaceView = new AccelerationSurfaceView(this);
-        if (device != null) {
-            //Pass over the BluetoothDevice and start the Drawing-Thread
-            this.accelerationSurfaceView.initialize(device);
+        if (this.device != null || this.replay != null) {
+            //Pass over the BluetoothDevice (or the replay) and start the Drawing-Thread
+            this.accelerationSurfaceView.initialize(this.device, this.replay, this.replaySpeed, this.canvasCpuStatistics);
         }
 
         //Display the SurfaceView
@@ -36,6 +60,8 @@ public class DrawActivity extends ActionBarActivity {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_draw, menu);
 
+        menu.findItem(R.id.action_glRenderer).setChecked(this.isGLRendererEnabled);
+
         return true;
     }
 
@@ -47,19 +73,128 @@ public class DrawActivity extends ActionBarActivity {
                 return true;
             case R.id.action_setFadingEnabled:
                 //Enable/Disable the fading-effect
-                this.accelerationSurfaceView.getThread().setFadingEnabled();
+                if (this.isGLRendererEnabled) {
+                    this.accelerationGLSurfaceView.setFadingEnabled();
+                }
+                else if (this.accelerationSurfaceView.getThread() != null) {
+                    this.accelerationSurfaceView.getThread().setFadingEnabled();
+                }
+                return true;
+            case R.id.action_renderStatistics:
+                //Show how many frames have been drawn|skipped and how long it takes to draw them
+                String statistics = "";
+                AccelerationSurfaceThread thread = this.accelerationSurfaceView.getThread();
+                if (!this.isGLRendererEnabled && thread != null) {
+                    RenderScheduler scheduler = thread.getRenderScheduler();
+                    statistics = String.format(Locale.US, "Rendered: %d, Skipped: %d, Avg. frame time: %.2f ms\n",
+                            scheduler.getFramesRendered(), scheduler.getFramesSkipped(), scheduler.getAverageFrameTimeMillis());
+                }
+
+                //CPU time of the drawing thread per frame, the OpenGL ES renderer leaves filling and blending to the GPU
+                statistics += "CPU time per frame: Canvas " + this.canvasCpuStatistics.getSummary() + ", OpenGL ES " + this.glCpuStatistics.getSummary();
+                Toast.makeText(this, statistics, Toast.LENGTH_LONG).show();
+                return true;
+            case R.id.action_latencyTracing:
+                //Measure the latency from the notification to the posted frame and show it on top of the ball (Canvas only, see dump() otherwise)
+                LatencyTracer tracer = getTracer();
+                if (tracer != null) {
+                    if (!tracer.isEnabled()) {
+                        tracer.reset();
+                    }
+                    tracer.setEnabled(!tracer.isEnabled());
+                    item.setChecked(tracer.isEnabled());
+
+                    AccelerationSurfaceThread tracedThread = this.accelerationSurfaceView.getThread();
+                    if (!this.isGLRendererEnabled && tracedThread != null) {
+                        tracedThread.getRenderScheduler().requestRender();
+                    }
+                }
+                return true;
+            case R.id.action_glRenderer:
+                //Switch between drawing with a Canvas and with OpenGL ES
+                setGLRendererEnabled(!this.isGLRendererEnabled);
+                item.setChecked(this.isGLRendererEnabled);
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        //The GLSurfaceView has to be told about the lifecycle
+        if (this.isGLRendererEnabled) {
+            this.accelerationGLSurfaceView.onResume();
+        }
+    }
+
     @Override
     protected void onPause() {
         super.onPause();
 
-        //Stop the Thread that's drawing continuously onto the SurfaceView
-        //--> onSurfaceDestroyed-Callback is already too late to join the Thread
-        this.accelerationSurfaceView.getThread().setRunning(false);
+        if (this.isGLRendererEnabled) {
+            this.accelerationGLSurfaceView.onPause();
+        }
+        else if (this.accelerationSurfaceView.getThread() != null) {
+            //Stop the Thread that's drawing continuously onto the SurfaceView
+            //--> onSurfaceDestroyed-Callback is already too late to join the Thread
+            this.accelerationSurfaceView.getThread().setRunning(false);
+        }
+    }
+
+    /**
+     * Replaces the SurfaceView by the GLSurfaceView or vice versa.
+     * Removing the SurfaceView destroys its surface, which stops its Drawing-Thread (and so its subscription); it is started again once it is displayed.
+     * @param isEnabled true to draw with OpenGL ES, false to draw with a Canvas
+     */
+    private void setGLRendererEnabled(boolean isEnabled) {
+        if (isEnabled) {
+            //Every device with Android 2.2 or later should support OpenGL ES 2.0, but it isn't required by the manifest
+            ActivityManager activityManager = (ActivityManager) this.getSystemService(Context.ACTIVITY_SERVICE);
+            if (activityManager.getDeviceConfigurationInfo().reqGlEsVersion < 0x20000) {
+                Toast.makeText(this, "OpenGL ES 2.0 is not supported", Toast.LENGTH_LONG).show();
+                return;
+            }
+
+            if (this.accelerationGLSurfaceView == null) {
+                this.accelerationGLSurfaceView = new AccelerationGLSurfaceView(this);
+                this.accelerationGLSurfaceView.initialize(this.device, this.replay, this.replaySpeed, this.glCpuStatistics);
+            }
+            this.isGLRendererEnabled = true;
+            setContentView(this.accelerationGLSurfaceView);
+            this.accelerationGLSurfaceView.onResume();
+        }
+        else {
+            this.accelerationGLSurfaceView.onPause();
+            this.isGLRendererEnabled = false;
+            setContentView(this.accelerationSurfaceView);
+        }
+    }
+
+    /**
+     * @return The LatencyTracer of the current renderer (null if the Drawing-Thread isn't running)
+     */
+    private LatencyTracer getTracer() {
+        if (this.isGLRendererEnabled) {
+            return this.accelerationGLSurfaceView.getTracer();
+        }
+        AccelerationSurfaceThread thread = this.accelerationSurfaceView.getThread();
+        return thread != null ? thread.getTracer() : null;
+    }
+
+    /**
+     * Adds the measured latencies to 'adb shell dumpsys activity de.hdmstuttgart.blueiot/.DrawActivity'
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+
+        LatencyTracer tracer = getTracer();
+        if (tracer != null) {
+            tracer.dump(prefix, writer);
+        }
     }
 
     @Override
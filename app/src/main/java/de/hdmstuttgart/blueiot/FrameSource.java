@@ -0,0 +1,17 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Source of notification payloads for a ReplayEngine, e.g. a recording or a synthetic generator.
+ * Frames are returned in the order they would have been received, each with the time it would have been received.
+ */
+public interface FrameSource {
+    /**
+     * @return The payload of the next notification (the array may be reused for the following frames) or null, if there are no more frames
+     */
+    byte[] nextFrame();
+
+    /**
+     * @return The time the frame returned last would have been received in nanoseconds (the origin is arbitrary)
+     */
+    long getFrameTime();
+}
@@ -0,0 +1,60 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Locale;
+
+/**
+ * Average and maximum time it takes to render a frame, used for comparing the different ways of drawing the graph
+ * (see TimedGraphView and SensorPlotThread). Frames can be recorded on any thread, the statistics can be read from any thread.
+ */
+public final class FrameTimeStatistics {
+    private long frameCount;
+    private long totalFrameTimeNanos;
+    private long maxFrameTimeNanos;
+
+    /**
+     * Has to be called after a frame has been rendered
+     * @param frameTimeNanos The time it took to render the frame
+     */
+    public synchronized void record(long frameTimeNanos) {
+        this.frameCount++;
+        this.totalFrameTimeNanos += frameTimeNanos;
+        this.maxFrameTimeNanos = Math.max(this.maxFrameTimeNanos, frameTimeNanos);
+    }
+
+    /**
+     * Forgets all frames recorded so far
+     */
+    public synchronized void reset() {
+        this.frameCount = 0;
+        this.totalFrameTimeNanos = 0;
+        this.maxFrameTimeNanos = 0;
+    }
+
+    /**
+     * @return The number of frames that have been rendered
+     */
+    public synchronized long getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @return The average time it took to render a frame in milliseconds
+     */
+    public synchronized double getAverageFrameTimeMillis() {
+        return this.frameCount > 0 ? this.totalFrameTimeNanos / (double) this.frameCount / 1000000.0 : 0;
+    }
+
+    /**
+     * @return The longest time it took to render a frame in milliseconds
+     */
+    public synchronized double getMaxFrameTimeMillis() {
+        return this.maxFrameTimeNanos / 1000000.0;
+    }
+
+    /**
+     * @return A short description of the frame times, e.g. for the statistics
+     */
+    public synchronized String getSummary() {
+        return String.format(Locale.US, "%.2f ms (max. %.2f ms, %d frames)", getAverageFrameTimeMillis(), getMaxFrameTimeMillis(), this.frameCount);
+    }
+}
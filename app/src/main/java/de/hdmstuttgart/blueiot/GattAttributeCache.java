@@ -0,0 +1,83 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.List;
+
+/**
+ * Persistent cache of the attribute layout (services, characteristics and descriptors) of each remote device, keyed by its MAC-address.
+ * The layout is stored as a compact signature in the SharedPreferences, so it survives restarts of the app.
+ * It is used to decide whether the service discovery can be skipped on a reconnect and to detect firmware changes:
+ * if a discovery delivers a different layout than the one that has been stored, all cached handles of the device are invalid.
+ */
+public class GattAttributeCache {
+    private static final String PREFERENCES_NAME = "gatt_attribute_cache";
+
+    private final SharedPreferences preferences;
+
+    /**
+     * Constructor
+     * @param context Context used to access the SharedPreferences
+     */
+    public GattAttributeCache(Context context) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Checks whether the given services match the layout that has been stored for the device
+     * @param address MAC-address of the device
+     * @param services The services currently known for the device
+     * @return true if a layout has been stored and it matches the services
+     */
+    public boolean matches(String address, List<BluetoothGattService> services) {
+        String layout = this.preferences.getString(address, null);
+        return layout != null && !services.isEmpty() && layout.equals(buildSignature(services));
+    }
+
+    /**
+     * Stores the layout of a device after a service discovery
+     * @param address MAC-address of the device
+     * @param services The services that have been discovered
+     * @return true if the layout has changed (or was unknown), i.e. all cached handles of the device have to be resolved again
+     */
+    public boolean update(String address, List<BluetoothGattService> services) {
+        String signature = buildSignature(services);
+        if (signature.equals(this.preferences.getString(address, null))) {
+            return false;
+        }
+
+        this.preferences.edit().putString(address, signature).apply();
+        return true;
+    }
+
+    /**
+     * Removes the stored layout of a device (e.g. because the firmware has been updated), forcing a full discovery on the next connect
+     * @param address MAC-address of the device
+     */
+    public void invalidate(String address) {
+        this.preferences.edit().remove(address).apply();
+    }
+
+    /**
+     * Builds a signature describing the attribute layout, e.g. "serviceUUID{characteristicUUID[descriptorUUID]}"
+     */
+    static String buildSignature(List<BluetoothGattService> services) {
+        StringBuilder builder = new StringBuilder();
+        for (BluetoothGattService service : services) {
+            builder.append(service.getUuid()).append('{');
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                builder.append(characteristic.getUuid()).append(':').append(characteristic.getProperties()).append('[');
+                for (BluetoothGattDescriptor descriptor : characteristic.getDescriptors()) {
+                    builder.append(descriptor.getUuid()).append(',');
+                }
+                builder.append(']');
+            }
+            builder.append('}');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.UUID;
+
+/**
+ * Abstraction over the operations of a connected GATT client (i.e. android.bluetooth.BluetoothGatt).
+ * Attributes are addressed by their UUIDs, so code working with a GattClient does not depend on the Android framework
+ * and can be used on the JVM with a fake implementation.
+ * Every method only initiates the operation and returns whether it was accepted, the result is reported asynchronously.
+ */
+public interface GattClient {
+    //Status codes (same values as in android.bluetooth.BluetoothGatt)
+    int GATT_SUCCESS = 0;
+    int GATT_FAILURE = 0x101;
+
+    //Write types (same values as in android.bluetooth.BluetoothGattCharacteristic)
+    int WRITE_TYPE_NO_RESPONSE = 1;
+    int WRITE_TYPE_DEFAULT = 2;
+
+    //Connection priorities (same values as in android.bluetooth.BluetoothGatt)
+    int CONNECTION_PRIORITY_BALANCED = 0;
+    int CONNECTION_PRIORITY_HIGH = 1;
+    int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    /**
+     * Initiates reading the value of a characteristic
+     */
+    boolean readCharacteristic(UUID service, UUID characteristic);
+
+    /**
+     * Initiates writing the value of a characteristic
+     * @param withResponse true for WRITE_TYPE_DEFAULT, false for WRITE_TYPE_NO_RESPONSE
+     */
+    boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse);
+
+    /**
+     * Initiates writing the value of a descriptor
+     */
+    boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value);
+
+    /**
+     * Enables or disables local notifications for a characteristic (completes immediately)
+     */
+    boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable);
+
+    /**
+     * Requests a different MTU for the connection
+     */
+    boolean requestMtu(int mtu);
+
+    /**
+     * Requests a different connection priority (completes immediately, there is no callback for it)
+     */
+    boolean requestConnectionPriority(int priority);
+}
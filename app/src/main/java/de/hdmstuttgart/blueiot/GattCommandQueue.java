@@ -0,0 +1,405 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queue that executes GATT operations strictly one after another.
+ * Android only permits one outstanding GATT operation per connection, any further operation is rejected until the
+ * previous one has completed. Reads, writes, descriptor writes, MTU and priority requests are therefore enqueued here
+ * and the next one is only started once the GATT callback reports the completion of the current one (see onCommandCompleted()).
+ * Each command has a timeout and is retried a limited number of times if it is rejected, fails or times out.
+ * Writes without response are no exception: Android keeps the stack busy until onCharacteristicWrite() reports that the value has been sent,
+ * they only save waiting for the acknowledgement of the peripheral. Only the local operations without a callback (connection priority,
+ * local notifications) are pipelined: they complete as soon as the stack has accepted them, so they can be sent back to back.
+ */
+public final class GattCommandQueue {
+    //Command types, used to match the GATT callbacks to the current command
+    public static final int TYPE_READ = 0;
+    public static final int TYPE_WRITE = 1;
+    public static final int TYPE_WRITE_NO_RESPONSE = 2;
+    public static final int TYPE_WRITE_DESCRIPTOR = 3;
+    public static final int TYPE_NOTIFICATION = 4;
+    public static final int TYPE_MTU = 5;
+    public static final int TYPE_CONNECTION_PRIORITY = 6;
+
+    //Additional status codes reported to the callbacks
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_REJECTED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    //Defaults
+    public static final long DEFAULT_TIMEOUT = 3000;
+    public static final int DEFAULT_RETRIES = 2;
+    private static final long RETRY_DELAY = 50;
+
+    /**
+     * Callback that is informed once a command has completed (successfully or not)
+     */
+    public interface Callback {
+        /**
+         * @param command The command that has completed
+         * @param status GattClient.GATT_SUCCESS or an error status (GATT status, STATUS_TIMEOUT, STATUS_REJECTED, STATUS_CANCELLED)
+         * @param value The value that has been read (only for TYPE_READ) or null
+         */
+        void onCommandCompleted(Command command, int status, byte[] value);
+    }
+
+    /**
+     * A single GATT operation
+     */
+    public static final class Command {
+        private final int type;
+        private final UUID service;
+        private final UUID characteristic;
+        private final UUID descriptor;
+        private final byte[] value;
+        private final int parameter;
+
+        private long timeout = DEFAULT_TIMEOUT;
+        private int retries = DEFAULT_RETRIES;
+        private Callback callback;
+
+        //Number of times the command has been started
+        private int attempts;
+
+        private Command(int type, UUID service, UUID characteristic, UUID descriptor, byte[] value, int parameter) {
+            this.type = type;
+            this.service = service;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+            this.parameter = parameter;
+        }
+
+        public static Command read(UUID service, UUID characteristic) {
+            return new Command(TYPE_READ, service, characteristic, null, null, 0);
+        }
+
+        public static Command write(UUID service, UUID characteristic, byte[] value) {
+            return new Command(TYPE_WRITE, service, characteristic, null, value, 0);
+        }
+
+        public static Command writeNoResponse(UUID service, UUID characteristic, byte[] value) {
+            return new Command(TYPE_WRITE_NO_RESPONSE, service, characteristic, null, value, 0);
+        }
+
+        public static Command writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            return new Command(TYPE_WRITE_DESCRIPTOR, service, characteristic, descriptor, value, 0);
+        }
+
+        public static Command setNotification(UUID service, UUID characteristic, boolean enable) {
+            return new Command(TYPE_NOTIFICATION, service, characteristic, null, null, enable ? 1 : 0);
+        }
+
+        public static Command requestMtu(int mtu) {
+            return new Command(TYPE_MTU, null, null, null, null, mtu);
+        }
+
+        public static Command requestConnectionPriority(int priority) {
+            return new Command(TYPE_CONNECTION_PRIORITY, null, null, null, null, priority);
+        }
+
+        /**
+         * @param timeout Time in milliseconds to wait for the completion of a single attempt
+         */
+        public Command setTimeout(long timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * @param retries Number of additional attempts if the command is rejected, fails or times out
+         */
+        public Command setRetries(int retries) {
+            this.retries = retries;
+            return this;
+        }
+
+        public Command setCallback(Callback callback) {
+            this.callback = callback;
+            return this;
+        }
+
+        public int getType() {
+            return this.type;
+        }
+
+        public UUID getCharacteristic() {
+            return this.characteristic;
+        }
+
+        public int getParameter() {
+            return this.parameter;
+        }
+
+        /**
+         * @return true if the command completes as soon as it has been accepted by the stack (local operation without a callback)
+         */
+        boolean isPipelined() {
+            return this.type == TYPE_NOTIFICATION || this.type == TYPE_CONNECTION_PRIORITY;
+        }
+
+        /**
+         * Starts the operation
+         * @return true if the operation has been accepted
+         */
+        boolean execute(GattClient client) {
+            switch (this.type) {
+                case TYPE_READ:
+                    return client.readCharacteristic(this.service, this.characteristic);
+                case TYPE_WRITE:
+                    return client.writeCharacteristic(this.service, this.characteristic, this.value, true);
+                case TYPE_WRITE_NO_RESPONSE:
+                    return client.writeCharacteristic(this.service, this.characteristic, this.value, false);
+                case TYPE_WRITE_DESCRIPTOR:
+                    return client.writeDescriptor(this.service, this.characteristic, this.descriptor, this.value);
+                case TYPE_NOTIFICATION:
+                    return client.setCharacteristicNotification(this.service, this.characteristic, this.parameter != 0);
+                case TYPE_MTU:
+                    return client.requestMtu(this.parameter);
+                case TYPE_CONNECTION_PRIORITY:
+                    return client.requestConnectionPriority(this.parameter);
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Command[type=" + this.type + ", characteristic=" + this.characteristic + ", descriptor=" + this.descriptor + "]";
+        }
+    }
+
+    private final GattClient client;
+    private final ScheduledExecutorService scheduler;
+
+    //State, guarded by this
+    private final ArrayDeque<Command> pending = new ArrayDeque<>();
+    private Command current;
+    private ScheduledFuture<?> timeoutFuture;
+    private boolean isWaitingForRetry;
+
+    /**
+     * Constructor
+     * @param client The GattClient executing the operations
+     * @param scheduler Used for timeouts and delayed retries
+     */
+    public GattCommandQueue(GattClient client, ScheduledExecutorService scheduler) {
+        this.client = client;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Adds a command to the end of the queue and starts it if no other command is running
+     */
+    public void enqueue(Command command) {
+        synchronized (this) {
+            this.pending.add(command);
+        }
+        executeNext();
+    }
+
+    /**
+     * Enqueues a batch of writes without response. Each write is sent as soon as the stack has reported the previous one as sent,
+     * without waiting for acknowledgements of the peripheral, so several writes fit into a single connection event.
+     */
+    public void enqueueWriteBatch(UUID service, UUID characteristic, byte[][] values, Callback callback) {
+        synchronized (this) {
+            for (byte[] value : values) {
+                this.pending.add(Command.writeNoResponse(service, characteristic, value).setCallback(callback));
+            }
+        }
+        executeNext();
+    }
+
+    /**
+     * Maps the write type of the characteristic reported to onCharacteristicWrite() to the type of the command that has completed
+     * @param writeType GattClient.WRITE_TYPE_DEFAULT or GattClient.WRITE_TYPE_NO_RESPONSE
+     * @return TYPE_WRITE or TYPE_WRITE_NO_RESPONSE
+     */
+    public static int getWriteCommandType(int writeType) {
+        return writeType == GattClient.WRITE_TYPE_NO_RESPONSE ? TYPE_WRITE_NO_RESPONSE : TYPE_WRITE;
+    }
+
+    /**
+     * Has to be called from the GATT callback whenever an operation has completed
+     * @param type The type of the operation that has completed (one of the TYPE-constants)
+     * @param characteristic The characteristic the operation was performed on (null for MTU requests)
+     * @param status The status reported by the GATT callback
+     * @param value The value that has been read or null
+     */
+    public void onCommandCompleted(int type, UUID characteristic, int status, byte[] value) {
+        Command completed;
+        synchronized (this) {
+            Command command = this.current;
+            if (command == null || this.isWaitingForRetry || command.isPipelined() || command.type != type
+                    || (command.characteristic != null && !command.characteristic.equals(characteristic))) {
+                //Callback for an operation that has not been started by this queue or has already been given up
+                return;
+            }
+
+            cancelTimeout();
+            if (status != GattClient.GATT_SUCCESS && command.attempts <= command.retries) {
+                scheduleRetry();
+                return;
+            }
+
+            completed = command;
+            this.current = null;
+        }
+
+        notifyCompleted(completed, status, value);
+        executeNext();
+    }
+
+    /**
+     * Cancels all pending commands, e.g. when the connection has been lost
+     */
+    public void clear() {
+        ArrayDeque<Command> cancelled;
+        synchronized (this) {
+            cancelTimeout();
+            cancelled = new ArrayDeque<>(this.pending);
+            if (this.current != null) {
+                cancelled.addFirst(this.current);
+            }
+            this.pending.clear();
+            this.current = null;
+            this.isWaitingForRetry = false;
+        }
+
+        for (Command command : cancelled) {
+            notifyCompleted(command, STATUS_CANCELLED, null);
+        }
+    }
+
+    /**
+     * @return The number of commands that are waiting or running
+     */
+    public synchronized int size() {
+        return this.pending.size() + (this.current != null ? 1 : 0);
+    }
+
+    /**
+     * Starts the next command(s), as long as no command is waiting for its completion
+     */
+    private void executeNext() {
+        while (true) {
+            Command command;
+            synchronized (this) {
+                if (this.current != null || this.pending.isEmpty()) {
+                    return;
+                }
+                command = this.pending.poll();
+                this.current = command;
+            }
+
+            if (!start(command)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Starts the current command
+     * @return true if the command has already completed and the next one can be started
+     */
+    private boolean start(Command command) {
+        command.attempts++;
+        boolean isAccepted = command.execute(this.client);
+
+        synchronized (this) {
+            if (this.current != command) {
+                //Cleared in the meantime
+                return false;
+            }
+
+            if (!isAccepted) {
+                if (command.attempts <= command.retries) {
+                    //The stack is busy (e.g. with operations of another app), try again shortly
+                    scheduleRetry();
+                    return false;
+                }
+                this.current = null;
+            }
+            else if (!command.isPipelined()) {
+                //Wait for the GATT callback
+                scheduleTimeout(command);
+                return false;
+            }
+            else {
+                this.current = null;
+            }
+        }
+
+        notifyCompleted(command, isAccepted ? GattClient.GATT_SUCCESS : STATUS_REJECTED, null);
+        return true;
+    }
+
+    private void scheduleTimeout(final Command command) {
+        this.timeoutFuture = this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(command);
+            }
+        }, command.timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelTimeout() {
+        if (this.timeoutFuture != null) {
+            this.timeoutFuture.cancel(false);
+            this.timeoutFuture = null;
+        }
+    }
+
+    /**
+     * Retries the current command after a short delay. Must be called while holding the lock.
+     */
+    private void scheduleRetry() {
+        final Command command = this.current;
+        this.isWaitingForRetry = true;
+        this.scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GattCommandQueue.this) {
+                    if (current != command) {
+                        return;
+                    }
+                    isWaitingForRetry = false;
+                }
+
+                if (start(command)) {
+                    executeNext();
+                }
+            }
+        }, RETRY_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void onTimeout(Command command) {
+        synchronized (this) {
+            if (this.current != command || this.isWaitingForRetry) {
+                return;
+            }
+
+            this.timeoutFuture = null;
+            if (command.attempts <= command.retries) {
+                scheduleRetry();
+                return;
+            }
+            this.current = null;
+        }
+
+        notifyCompleted(command, STATUS_TIMEOUT, null);
+        executeNext();
+    }
+
+    private static void notifyCompleted(Command command, int status, byte[] value) {
+        if (command.callback != null) {
+            command.callback.onCommandCompleted(command, status, value);
+        }
+    }
+}
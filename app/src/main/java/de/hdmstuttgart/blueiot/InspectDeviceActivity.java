@@ -1,25 +1,30 @@
 package de.hdmstuttgart.blueiot;
 
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.IBinder;
 import android.support.v7.app.ActionBarActivity;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.ExpandableListView;
 
+import java.util.List;
+
 /**
  * This Activity is used to display information that has been gathered on a remote BluetoothDevice.
  * It will display an ExpandableListView containing every BluetoothGattService and its associated BluetoothGattCharacteristics
  */
 public class InspectDeviceActivity extends ActionBarActivity {
     private BluetoothDevice device;
-    private BluetoothGatt bluetoothGatt;
+
+    //Shared connection to the remote device, available while the Activity is bound to the Service
+    private BleConnectionService bleConnectionService;
 
     //Custom ListAdapter used for the ExpandableListView
     private BleExpandableListAdapter listAdapter;
@@ -46,11 +51,16 @@ public class InspectDeviceActivity extends ActionBarActivity {
             else {
                 this.setTitle(this.device.getAddress());
             }
+        }
+    }
 
-            //Initiate connection process
-            if (!this.isConnected) {
-                connectToBleDevice();
-            }
+    @Override
+    protected void onStart() {
+        super.onStart();
+
+        //Bind to the Service owning the connection, the connection process is initiated once the Service is available
+        if (this.device != null) {
+            this.bindService(new Intent(this, BleConnectionService.class), this.serviceConnection, Context.BIND_AUTO_CREATE);
         }
     }
 
@@ -75,124 +85,80 @@ public class InspectDeviceActivity extends ActionBarActivity {
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-
-        //Clear the ListView and disconnect from the remote device
-        this.listAdapter.clear();
-        if (this.bluetoothGatt != null && this.isConnected) {
-            try {
-                disconnectFromBleDevice();
-            } catch (Exception ex) {}
-        }
-    }
-
     @Override
     protected void onStop() {
         super.onStop();
 
-        //Clear the ListView and disconnect from the remote device
+        //Clear the ListView, it is populated again once the services are delivered after subscribing again
         this.listAdapter.clear();
-        if (this.bluetoothGatt != null && this.isConnected) {
-            try {
-                disconnectFromBleDevice();
-            } catch (Exception ex) {}
+        this.listAdapter.notifyDataSetChanged();
+
+        //Unsubscribe from the remote device, the Service closes the connection once nobody else is using it
+        if (this.bleConnectionService != null) {
+            disconnectFromBleDevice();
+            this.unbindService(this.serviceConnection);
+            this.bleConnectionService = null;
         }
     }
 
     /**
-     * BluetoothGattCallback that is used to connect to a remote BLE-Device.
-     * Defines callback-methods that are used for each step in the process of connecting/reading/writing for that device.
+     * Connection to the BleConnectionService
      */
-    private BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            //super.onConnectionStateChange(gatt, status, newState);
-
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                //Start discovering all Services on the BLE-Remote-Device
-                gatt.discoverServices();
-            }
-        }
-
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            //super.onServicesDiscovered(gatt, status);
-
-            //Iterate all services & save the service itself and all of the characteristics included into the adapter
-            for (final BluetoothGattService service : gatt.getServices()) {
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        listAdapter.addService(service);
-                        listAdapter.addCharacteristics(service, service.getCharacteristics());
-                        listAdapter.notifyDataSetChanged();
-                    }
-                });
-            }
-        }
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            bleConnectionService = ((BleConnectionService.LocalBinder) service).getService();
 
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicRead(gatt, characteristic, status);
-        }
-
-        @Override
-        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-            super.onCharacteristicWrite(gatt, characteristic, status);
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            super.onCharacteristicChanged(gatt, characteristic);
-        }
-
-        @Override
-        public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorRead(gatt, descriptor, status);
+            //Initiate connection process
+            connectToBleDevice();
         }
 
         @Override
-        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
-            super.onDescriptorWrite(gatt, descriptor, status);
+        public void onServiceDisconnected(ComponentName name) {
+            bleConnectionService = null;
+            isConnected = false;
         }
+    };
 
+    /**
+     * Listener that is subscribed to the remote device via the BleConnectionService.
+     * Populates the ExpandableListView once the services are known.
+     */
+    private final BleConnectionService.Listener bleListener = new BleConnectionService.Listener() {
         @Override
-        public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
-            super.onReliableWriteCompleted(gatt, status);
-        }
+        public void onConnectionStateChanged(BluetoothDevice device, boolean isConnected) {}
 
         @Override
-        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
-            super.onReadRemoteRssi(gatt, rssi, status);
+        public void onServicesDiscovered(BluetoothDevice device, List<BluetoothGattService> services) {
+            //Called on the main thread: save the service itself and all of the characteristics included into the adapter
+            for (BluetoothGattService service : services) {
+                listAdapter.addService(service);
+                listAdapter.addCharacteristics(service, service.getCharacteristics());
+            }
+            listAdapter.notifyDataSetChanged();
         }
 
-        /*
         @Override
-        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
-            super.onMtuChanged(gatt, mtu, status);
-        }
-        */
+        public void onCharacteristicChanged(BluetoothDevice device, BluetoothGattCharacteristic characteristic) {}
     };
 
     /**
-     * Connects to a remote BLE-Device using the predefined BluetoothGattCallback
+     * Subscribes to the remote BLE-Device via the BleConnectionService (connecting to it, if necessary)
      */
     private void connectToBleDevice() {
-        if (!this.isConnected) {
-            this.bluetoothGatt = this.device.connectGatt(this, false, this.gattCallback);
+        if (!this.isConnected && this.bleConnectionService != null) {
+            this.bleConnectionService.subscribe(this.device, this.bleListener);
             this.isConnected = true;
         }
     }
 
     /**
-     * Disconnects from a remote BLE-Device
+     * Unsubscribes from the remote BLE-Device
      */
     private void disconnectFromBleDevice() {
-        if (this.isConnected && this.bluetoothGatt != null) {
-            this.bluetoothGatt.disconnect();
+        if (this.isConnected && this.bleConnectionService != null) {
+            this.bleConnectionService.unsubscribe(this.device, this.bleListener);
             this.isConnected = false;
         }
     }
-}
\ No newline at end of file
+}
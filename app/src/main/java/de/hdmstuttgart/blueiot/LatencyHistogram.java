@@ -0,0 +1,159 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Histogram of latencies in nanoseconds with logarithmic buckets (like an HdrHistogram with ~3 % precision).
+ * Every power of two is divided into 32 linear sub-buckets, so recording is a few shifts and an increment, without allocations.
+ * Values from 0 up to ~18 minutes are distinguished, larger values are counted in the last bucket.
+ * Must only be recorded by a single thread. Other threads may read at any time, the results are then approximate.
+ * Other threads may also request a reset, which the recording thread performs before it records the next value.
+ */
+public final class LatencyHistogram {
+    //Sub-buckets per power of two (2^SUB_BUCKET_BITS)
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    //Largest value that is distinguished (2^40 ns)
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << MAX_EXPONENT) - 1;
+
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+
+    private volatile long count;
+    private long sum;
+    private long maximum;
+
+    //Resets requested by any thread and the ones performed by the recording thread, a reset is pending while they differ
+    private final AtomicInteger requestedResets = new AtomicInteger();
+    private volatile int performedResets;
+
+    /**
+     * Counts a latency
+     * @param value The latency in nanoseconds (negative values are counted as 0)
+     */
+    public void record(long value) {
+        int requested = this.requestedResets.get();
+        if (requested != this.performedResets) {
+            clear();
+            this.performedResets = requested;
+        }
+
+        if (value < 0) {
+            value = 0;
+        }
+        else if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+
+        this.counts[indexOf(value)]++;
+        this.sum += value;
+        if (value > this.maximum) {
+            this.maximum = value;
+        }
+        this.count = this.count + 1;
+    }
+
+    /**
+     * Discards all values with the next call of record(), may be called by any thread. Until then, the histogram reads as empty.
+     */
+    public void reset() {
+        this.requestedResets.incrementAndGet();
+    }
+
+    /**
+     * @return true if a reset has been requested, but not yet been performed by the recording thread
+     */
+    private boolean isResetPending() {
+        return this.requestedResets.get() != this.performedResets;
+    }
+
+    /**
+     * Discards all values (on the recording thread)
+     */
+    private void clear() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            this.counts[i] = 0;
+        }
+        this.sum = 0;
+        this.maximum = 0;
+        this.count = 0;
+    }
+
+    public long getCount() {
+        return isResetPending() ? 0 : this.count;
+    }
+
+    /**
+     * @return The average latency in nanoseconds
+     */
+    public double getMean() {
+        long total = getCount();
+        return total == 0 ? 0 : this.sum / (double) total;
+    }
+
+    /**
+     * @return The largest latency in nanoseconds
+     */
+    public long getMaximum() {
+        return isResetPending() ? 0 : this.maximum;
+    }
+
+    /**
+     * @param percentile The percentile (0 to 100)
+     * @return The latency in nanoseconds the given share of the values is lower than or equal to (upper bound of its bucket)
+     */
+    public long getPercentile(double percentile) {
+        if (isResetPending()) {
+            return 0;
+        }
+
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += this.counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += this.counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), this.maximum);
+            }
+        }
+        return this.maximum;
+    }
+
+    /**
+     * @return The index of the bucket a value is counted in
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return The largest value that is counted in a bucket
+     */
+    static long highestValueOf(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (long) (SUB_BUCKET_COUNT + subBucket) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
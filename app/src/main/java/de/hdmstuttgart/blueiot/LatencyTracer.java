@@ -0,0 +1,183 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long the sensor values take from the notification to the screen, with one LatencyHistogram per stage.
+ * All stages are measured from the time the notification has been received, so each histogram shows the total latency up to that stage:
+ * PARSE (decoded) --> ENQUEUE (handed over to the UI) --> DRAIN (picked up for drawing) --> DRAW (drawn) --> POST (posted to the display).
+ * NOTIFY is the exception: it holds the time between two notifications, i.e. how long a sample may wait on blueIOT and in the stack.
+ *
+ * The stages after the hand-over are measured for the oldest notification that has not been drawn yet, i.e. they show the worst latency
+ * of every frame. The recording thread of each stage has to stay the same (e.g. PARSE and ENQUEUE on the Binder-Thread, the others on the
+ * drawing thread). While disabled, every call only reads a volatile flag.
+ * Enabling and resetting may be done by any thread (e.g. the UI-Thread): they only leave requests, the recording threads clear their own
+ * state before they record the next value.
+ */
+public final class LatencyTracer {
+    //Stages
+    public static final int STAGE_NOTIFY = 0;
+    public static final int STAGE_PARSE = 1;
+    public static final int STAGE_ENQUEUE = 2;
+    public static final int STAGE_DRAIN = 3;
+    public static final int STAGE_DRAW = 4;
+    public static final int STAGE_POST = 5;
+    public static final int STAGE_COUNT = 6;
+
+    private static final String[] STAGE_NAMES = { "notify", "parse", "enqueue", "drain", "draw", "post" };
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_COUNT];
+
+    private volatile boolean isEnabled;
+
+    //Receive time of the oldest notification that has not been drawn yet (0 if there is none)
+    private final AtomicLong pendingSince = new AtomicLong();
+
+    //Receive time of the previous notification, only accessed by the thread receiving the notifications
+    private long lastNotification;
+
+    //Number of calls of setEnabled() and the number the thread receiving the notifications has seen (it then forgets lastNotification)
+    private final AtomicInteger toggleCount = new AtomicInteger();
+    private int seenToggleCount;
+
+    /**
+     * Constructor
+     */
+    public LatencyTracer() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            this.histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts or stops measuring, the histograms are kept. The time between two notifications is not measured across the time measuring was stopped.
+     */
+    public void setEnabled(boolean isEnabled) {
+        this.toggleCount.incrementAndGet();
+        this.pendingSince.set(0);
+        this.isEnabled = isEnabled;
+    }
+
+    public boolean isEnabled() {
+        return this.isEnabled;
+    }
+
+    /**
+     * Records the arrival of a notification (on the thread receiving the notifications)
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     */
+    public void onNotification(long receivedTime) {
+        if (this.isEnabled) {
+            int toggleCount = this.toggleCount.get();
+            if (toggleCount != this.seenToggleCount) {
+                this.seenToggleCount = toggleCount;
+                this.lastNotification = 0;
+            }
+            if (this.lastNotification != 0) {
+                this.histograms[STAGE_NOTIFY].record(receivedTime - this.lastNotification);
+            }
+            this.lastNotification = receivedTime;
+        }
+    }
+
+    /**
+     * Records that a stage has been reached for a notification
+     * @param stage One of the STAGE-constants
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     */
+    public void record(int stage, long receivedTime) {
+        if (this.isEnabled) {
+            this.histograms[stage].record(System.nanoTime() - receivedTime);
+        }
+    }
+
+    /**
+     * Records that samples of a notification have been handed over to the drawing thread (STAGE_ENQUEUE)
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     */
+    public void onEnqueued(long receivedTime) {
+        if (this.isEnabled) {
+            this.histograms[STAGE_ENQUEUE].record(System.nanoTime() - receivedTime);
+            this.pendingSince.compareAndSet(0, receivedTime);
+        }
+    }
+
+    /**
+     * Records that a stage has been reached for the oldest notification that has not been drawn yet (on the drawing thread)
+     * @param stage One of the STAGE-constants
+     */
+    public void recordPending(int stage) {
+        if (this.isEnabled) {
+            long since = this.pendingSince.get();
+            if (since != 0) {
+                this.histograms[stage].record(System.nanoTime() - since);
+            }
+        }
+    }
+
+    /**
+     * Records the last stage for the oldest notification that has not been drawn yet, the next notification becomes the oldest one
+     * @param stage One of the STAGE-constants
+     */
+    public void completePending(int stage) {
+        if (this.isEnabled) {
+            long since = this.pendingSince.getAndSet(0);
+            if (since != 0) {
+                this.histograms[stage].record(System.nanoTime() - since);
+            }
+        }
+    }
+
+    public LatencyHistogram getHistogram(int stage) {
+        return this.histograms[stage];
+    }
+
+    /**
+     * Discards all measured latencies, each histogram is cleared by its recording thread (see LatencyHistogram.reset())
+     */
+    public void reset() {
+        for (LatencyHistogram histogram : this.histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * @return A single line per stage with count, median, 99th percentile and maximum in milliseconds (for the overlay)
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            LatencyHistogram histogram = this.histograms[stage];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            if (summary.length() > 0) {
+                summary.append('\n');
+            }
+            summary.append(String.format(Locale.US, "%-7s p50 %7.2f  p99 %7.2f  max %7.2f ms",
+                    STAGE_NAMES[stage], histogram.getPercentile(50) / 1000000d, histogram.getPercentile(99) / 1000000d, histogram.getMaximum() / 1000000d));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes all stages with their percentiles (e.g. for 'adb shell dumpsys activity')
+     * @param prefix Written in front of every line
+     * @param writer Destination
+     */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Latency (ms from the notification, notify: ms between notifications)" + (this.isEnabled ? "" : " [disabled]"));
+        writer.println(String.format(Locale.US, "%s%-7s %9s %9s %9s %9s %9s %9s %9s",
+                prefix, "stage", "count", "mean", "p50", "p90", "p99", "p99.9", "max"));
+        for (int stage = 0; stage < STAGE_COUNT; stage++) {
+            LatencyHistogram histogram = this.histograms[stage];
+            writer.println(String.format(Locale.US, "%s%-7s %9d %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f",
+                    prefix, STAGE_NAMES[stage], histogram.getCount(), histogram.getMean() / 1000000d,
+                    histogram.getPercentile(50) / 1000000d, histogram.getPercentile(90) / 1000000d, histogram.getPercentile(99) / 1000000d,
+                    histogram.getPercentile(99.9) / 1000000d, histogram.getMaximum() / 1000000d));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package de.hdmstuttgart.blueiot;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+
+/**
+ * BleScanner for KitKat, based on the deprecated BluetoothAdapter.startLeScan().
+ * Every advertisement wakes up the application, so the results are filtered and batched in software. The scan mode is ignored.
+ */
+public class LegacyBleScanner extends BleScanner {
+    /**
+     * Constructor
+     * @param bluetoothAdapter The BluetoothAdapter of the device
+     * @param handler Handler of the main thread
+     */
+    public LegacyBleScanner(BluetoothAdapter bluetoothAdapter, Handler handler) {
+        super(bluetoothAdapter, handler);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void startScan() {
+        this.bluetoothAdapter.startLeScan(this.leScanCallback);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    protected void stopScan() {
+        this.bluetoothAdapter.stopLeScan(this.leScanCallback);
+    }
+
+    @Override
+    protected boolean isHardwareBatching() {
+        return false;
+    }
+
+    /**
+     * Called on a Binder-Thread for every single advertisement
+     */
+    @SuppressWarnings("deprecation")
+    private final BluetoothAdapter.LeScanCallback leScanCallback = new BluetoothAdapter.LeScanCallback() {
+        @Override
+        public void onLeScan(BluetoothDevice device, int rssi, byte[] scanRecord) {
+            onWakeup(1);
+
+            //startLeScan(UUID[]) only matches complete lists of 128 bit UUIDs on some devices, so the filter is applied here
+            if (!isFilterEnabled || BlueIOTHelper.isBlueIOT(device.getName(), device.getAddress())) {
+                onDeviceFound(device, rssi, scanRecord);
+            }
+        }
+    };
+}
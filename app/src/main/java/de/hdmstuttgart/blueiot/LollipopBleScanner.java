@@ -0,0 +1,118 @@
+package de.hdmstuttgart.blueiot;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.os.Build;
+import android.os.Handler;
+import android.os.ParcelUuid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BleScanner for Lollipop and above, based on BluetoothLeScanner.
+ * The blueIOT-Filters are passed to the Bluetooth controller as ScanFilters (each of them matches: service UUID, address, name),
+ * so other advertisements don't wake up the application. If the controller supports batching, the results are collected for the report delay
+ * by the controller and delivered with a single onBatchScanResults(), otherwise they are batched in software.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class LollipopBleScanner extends BleScanner {
+    //Scanner used for the current scan (null if not scanning)
+    private BluetoothLeScanner scanner;
+    private boolean isHardwareBatching;
+
+    /**
+     * Constructor
+     * @param bluetoothAdapter The BluetoothAdapter of the device
+     * @param handler Handler of the main thread
+     */
+    public LollipopBleScanner(BluetoothAdapter bluetoothAdapter, Handler handler) {
+        super(bluetoothAdapter, handler);
+    }
+
+    @Override
+    protected void startScan() {
+        //Not available while Bluetooth is turned off
+        this.scanner = this.bluetoothAdapter.getBluetoothLeScanner();
+        if (this.scanner == null) {
+            return;
+        }
+
+        ScanSettings.Builder settings = new ScanSettings.Builder().setScanMode(toScanSettingsMode(this.scanMode));
+        this.isHardwareBatching = this.reportDelay > 0 && this.bluetoothAdapter.isOffloadedScanBatchingSupported();
+        if (this.isHardwareBatching) {
+            settings.setReportDelay(this.reportDelay);
+        }
+
+        List<ScanFilter> filters = null;
+        if (this.isFilterEnabled) {
+            filters = new ArrayList<>();
+            filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE)).build());
+            filters.add(new ScanFilter.Builder().setDeviceAddress(BlueIOTHelper.BLUEIOT_DEVICE_ADDRESS).build());
+            filters.add(new ScanFilter.Builder().setDeviceName(BlueIOTHelper.BLUEIOT_DEVICE_NAME).build());
+        }
+
+        this.scanner.startScan(filters, settings.build(), this.scanCallback);
+    }
+
+    @Override
+    protected void stopScan() {
+        if (this.scanner != null) {
+            //Throws if Bluetooth has been turned off in the meantime
+            if (this.bluetoothAdapter.isEnabled()) {
+                //Deliver what the controller has batched so far (e.g. at the end of a scan window)
+                if (this.isHardwareBatching) {
+                    this.scanner.flushPendingScanResults(this.scanCallback);
+                }
+                this.scanner.stopScan(this.scanCallback);
+            }
+            this.scanner = null;
+        }
+    }
+
+    @Override
+    protected boolean isHardwareBatching() {
+        return this.isHardwareBatching;
+    }
+
+    private static int toScanSettingsMode(int scanMode) {
+        switch (scanMode) {
+            case SCAN_MODE_LOW_POWER:
+                return ScanSettings.SCAN_MODE_LOW_POWER;
+            case SCAN_MODE_BALANCED:
+                return ScanSettings.SCAN_MODE_BALANCED;
+            default:
+                return ScanSettings.SCAN_MODE_LOW_LATENCY;
+        }
+    }
+
+    /**
+     * Receives the results, either one by one or batched by the controller
+     */
+    private final ScanCallback scanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            onWakeup(1);
+            onResult(result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            onWakeup(results.size());
+            for (ScanResult result : results) {
+                onResult(result);
+            }
+        }
+    };
+
+    private void onResult(ScanResult result) {
+        ScanRecord scanRecord = result.getScanRecord();
+        onDeviceFound(result.getDevice(), result.getRssi(), scanRecord != null ? scanRecord.getBytes() : null);
+    }
+}
@@ -17,6 +17,9 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
+import java.util.Locale;
+
 /**
  * The MainActivity is the Activity that is shown when the application is started.
  * It uses a ListView in order to display BluetoothDevices that were found while scanning.
@@ -38,10 +41,26 @@ public class MainActivity extends ActionBarActivity {
     //BluetoothAdapter of the device
     private BluetoothAdapter bluetoothAdapter;
 
+    //Scans for BLE-Devices, delivers the devices found in batches (see BleScanner)
+    private BleScanner bleScanner;
+
+    /*
+     *    Continuous scan: scans until it is stopped (or the Activity is paused), only for CONTINUOUS_SCAN_WINDOW of every CONTINUOUS_SCAN_INTERVAL
+     *    Devices that are gone are removed by the BleDeviceListAdapter after a while, so the list is kept when the Activity is paused
+     *    Otherwise a single scan stops after SINGLE_SCAN_PERIOD
+     */
+    private static final long SINGLE_SCAN_PERIOD = 5000;
+    private static final long CONTINUOUS_SCAN_WINDOW = 4000;
+    private static final long CONTINUOUS_SCAN_INTERVAL = 10000;
+    private boolean isContinuousScanEnabled;
+
     //Context Menu IDs
     private static final int CONTEXT_MENU_INSPECT = 0;
     private static final int CONTEXT_MENU_BALANCE = 1;
 
+    //Number of simulated devices shown by the replay dashboard
+    private static final int REPLAY_DASHBOARD_DEVICES = 4;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -49,7 +68,7 @@ public class MainActivity extends ActionBarActivity {
 
         //Setup for the ListView and its Adapter
         ListView listView = (ListView) this.findViewById(R.id.listView);
-        this.bleDeviceListAdapter = new BleDeviceListAdapter(this);
+        this.bleDeviceListAdapter = new BleDeviceListAdapter(this, listView);
         listView.setAdapter(this.bleDeviceListAdapter);
 
         //Used for asynchronous tasks
@@ -60,6 +79,9 @@ public class MainActivity extends ActionBarActivity {
         if (bluetoothManager != null) {
             this.bluetoothAdapter = bluetoothManager.getAdapter();
         }
+        if (this.bluetoothAdapter != null) {
+            this.bleScanner = BleScanner.create(this.bluetoothAdapter, this.handler);
+        }
 
         //Check if Bluetooth is supported on the device
         if (this.bluetoothAdapter != null) {
@@ -82,7 +104,7 @@ public class MainActivity extends ActionBarActivity {
 
                 BluetoothDevice device = bleDeviceListAdapter.getDevice(position);
                 if (device != null) {
-                    if ((device.getName() != null && device.getName().contains(BlueIOTHelper.BLUEIOT_DEVICE_NAME)) || device.getAddress().equals(BlueIOTHelper.BLUEIOT_DEVICE_ADDRESS)) {
+                    if (BlueIOTHelper.isBlueIOT(device.getName(), device.getAddress())) {
                         //Pass over the BluetoothDevice to the new Activity using the Intent
                         Intent intent = new Intent(MainActivity.this, DetailActivity.class);
                         intent.putExtra("device", device);
@@ -108,6 +130,23 @@ public class MainActivity extends ActionBarActivity {
         // Inflate the menu; this adds items to the action bar if it is present.
         getMenuInflater().inflate(R.menu.menu_main, menu);
 
+        //Show the current scan settings
+        if (this.bleScanner != null) {
+            menu.findItem(R.id.action_scanFilter).setChecked(this.bleScanner.isFilterEnabled());
+            menu.findItem(R.id.action_continuousScan).setChecked(this.isContinuousScanEnabled);
+            switch (this.bleScanner.getScanMode()) {
+                case BleScanner.SCAN_MODE_LOW_POWER:
+                    menu.findItem(R.id.action_scanModeLowPower).setChecked(true);
+                    break;
+                case BleScanner.SCAN_MODE_BALANCED:
+                    menu.findItem(R.id.action_scanModeBalanced).setChecked(true);
+                    break;
+                default:
+                    menu.findItem(R.id.action_scanModeLowLatency).setChecked(true);
+                    break;
+            }
+        }
+
         return true;
     }
 
@@ -120,6 +159,82 @@ public class MainActivity extends ActionBarActivity {
         switch (id) {
             case R.id.action_settings:
                 return true;
+            case R.id.action_replayDemo:
+                //Show a synthetic sensor stream in real-time, no blueIOT required
+                Intent replayIntent = new Intent(this, DetailActivity.class);
+                replayIntent.putExtra("replay", ReplayEngine.SOURCE_SYNTHETIC);
+                replayIntent.putExtra("replaySpeed", 1f);
+                this.startActivity(replayIntent);
+                return true;
+            case R.id.action_scanModeLowPower:
+            case R.id.action_scanModeBalanced:
+            case R.id.action_scanModeLowLatency:
+                //Applied with the next scan
+                if (this.bleScanner != null) {
+                    this.bleScanner.setScanMode(id == R.id.action_scanModeLowPower ? BleScanner.SCAN_MODE_LOW_POWER
+                            : id == R.id.action_scanModeBalanced ? BleScanner.SCAN_MODE_BALANCED : BleScanner.SCAN_MODE_LOW_LATENCY);
+                    item.setChecked(true);
+                }
+                return true;
+            case R.id.action_scanFilter:
+                //Only report blueIOTs, applied with the next scan
+                if (this.bleScanner != null) {
+                    this.bleScanner.setFilterEnabled(!this.bleScanner.isFilterEnabled());
+                    item.setChecked(this.bleScanner.isFilterEnabled());
+                }
+                return true;
+            case R.id.action_continuousScan:
+                //Switching the mode restarts a running scan
+                this.isContinuousScanEnabled = !this.isContinuousScanEnabled;
+                item.setChecked(this.isContinuousScanEnabled);
+                if (this.isScanning) {
+                    scanLeDevice(false);
+                    scanLeDevice(true);
+                }
+                return true;
+            case R.id.action_scanStatistics:
+                //Show how often the scan has woken up the application
+                if (this.bleScanner != null) {
+                    Toast.makeText(this, String.format(Locale.US, "Wakeups: %d (%.0f per minute), Advertisements: %d, UI-Updates: %d",
+                            this.bleScanner.getWakeupCount(), this.bleScanner.getWakeupsPerMinute(), this.bleScanner.getResultCount(),
+                            this.bleScanner.getDeliveryCount()), Toast.LENGTH_LONG).show();
+                }
+                return true;
+            case R.id.action_dashboard:
+            case R.id.action_advertisementDashboard: {
+                //Stream from all blueIOTs that have been found at once (connected or from their advertisements)
+                if (this.isScanning) {
+                    scanLeDevice(false);
+                }
+
+                ArrayList<BluetoothDevice> blueIOTs = new ArrayList<>();
+                for (int i = 0; i < this.bleDeviceListAdapter.getCount(); i++) {
+                    BluetoothDevice device = this.bleDeviceListAdapter.getDevice(i);
+                    if (BlueIOTHelper.isBlueIOT(device.getName(), device.getAddress())) {
+                        blueIOTs.add(device);
+                    }
+                }
+
+                if (blueIOTs.isEmpty()) {
+                    Toast.makeText(this, "No blueIOT found. Start a scan first...", Toast.LENGTH_LONG).show();
+                }
+                else {
+                    Intent dashboardIntent = new Intent(this, DashboardActivity.class);
+                    dashboardIntent.putParcelableArrayListExtra("devices", blueIOTs);
+                    dashboardIntent.putExtra("connectionless", item.getItemId() == R.id.action_advertisementDashboard);
+                    this.startActivity(dashboardIntent);
+                }
+                return true;
+            }
+            case R.id.action_replayDashboard: {
+                //Show several synthetic sensor streams at once, no blueIOT required
+                Intent dashboardIntent = new Intent(this, DashboardActivity.class);
+                dashboardIntent.putExtra("replay", ReplayEngine.SOURCE_SYNTHETIC);
+                dashboardIntent.putExtra("replaySpeed", 1f);
+                dashboardIntent.putExtra("replayCount", REPLAY_DASHBOARD_DEVICES);
+                this.startActivity(dashboardIntent);
+                return true;
+            }
             case R.id.action_scan:
                 //Check if Bluetooth is supported on the device
                 if (this.isBluetoothSupported) {
@@ -155,9 +270,9 @@ public class MainActivity extends ActionBarActivity {
     protected void onPause() {
         super.onPause();
 
-        //Stop scanning and clear any data from the Adapter
+        //Stop scanning, the devices are kept (and removed once they haven't been seen for a while)
         scanLeDevice(false);
-        this.bleDeviceListAdapter.clear();
+        this.bleDeviceListAdapter.pause();
     }
 
     @Override
@@ -229,7 +344,7 @@ public class MainActivity extends ActionBarActivity {
                 BluetoothDevice device = this.bleDeviceListAdapter.getDevice(acmi.position);
                 if (device != null) {
                     //Allow blueIOT ONLY!
-                    if ((device.getName() != null && device.getName().contains(BlueIOTHelper.BLUEIOT_DEVICE_NAME)) || device.getAddress().equals(BlueIOTHelper.BLUEIOT_DEVICE_ADDRESS)) {
+                    if (BlueIOTHelper.isBlueIOT(device.getName(), device.getAddress())) {
                         //Start new Activity to start drawing
                         Intent intent = new Intent(this, DrawActivity.class);
                         intent.putExtra("device", device);
@@ -253,54 +368,69 @@ public class MainActivity extends ActionBarActivity {
     protected void onResume() {
         super.onResume();
 
-        //Delete previously added devices when resuming --> forces a new scan
-        if (this.bleDeviceListAdapter != null) {
-            this.bleDeviceListAdapter.clear();
-            this.bleDeviceListAdapter.notifyDataSetChanged();
+        //Remove the devices that haven't been seen while paused, keep the others
+        this.bleDeviceListAdapter.resume();
+
+        //Resume a continuous scan (if Bluetooth is still enabled)
+        if (this.isContinuousScanEnabled && this.bluetoothAdapter != null && this.bluetoothAdapter.isEnabled()) {
+            scanLeDevice(true);
         }
     }
 
     /**
-     * Device Scan Callback adding detected BluetoothDevices into the ListAdapter.
+     * Scan Callback adding the detected BluetoothDevices into the ListAdapter, called on the main thread once per batch
      */
-    private BluetoothAdapter.LeScanCallback leScanCallback = new BluetoothAdapter.LeScanCallback() {
+    private final BleScanner.Callback scanCallback = new BleScanner.Callback() {
         @Override
-        public void onLeScan(final BluetoothDevice device, int rssi, byte[] scanRecord) {
-            //Update the UI with all BLE-Devices that were found
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    bleDeviceListAdapter.addDevice(device);
-                    bleDeviceListAdapter.notifyDataSetChanged();
-                }
-            });
+        public void onScanResults(ArrayList<BleScanner.Result> results) {
+            //The ListAdapter updates the UI with the next frame
+            for (int i = 0; i < results.size(); i++) {
+                bleDeviceListAdapter.update(results.get(i));
+            }
         }
     };
 
     /**
-     * Initiates/Terminates a Scan for BluetoothDevices with the previously defined LeScanCallback
-     * For higher API-Levels, don't use the deprecated methods
+     * Initiates/Terminates a Scan for BluetoothDevices with the previously defined Callback
+     * The BleScanner uses the BluetoothLeScanner on Lollipop and above, the deprecated methods only on KitKat
      * @param enable Indicates whether to start|stop the Scan-Process
      */
     private void scanLeDevice(final boolean enable) {
+        if (this.bleScanner == null) {
+            return;
+        }
+
         if (enable) {
-            //Stops scanning after a defined scan period
-            handler.postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    isScanning = false;
-                    bluetoothAdapter.stopLeScan(leScanCallback);
-                }
-            }, 5000);
+            if (this.isContinuousScanEnabled) {
+                //Scans until stopped, with pauses in between
+                this.bleScanner.setDutyCycle(CONTINUOUS_SCAN_WINDOW, CONTINUOUS_SCAN_INTERVAL);
+            }
+            else {
+                //Stops scanning after a defined scan period
+                this.bleScanner.setDutyCycle(0, 0);
+                handler.postDelayed(this.stopScanRunnable, SINGLE_SCAN_PERIOD);
+            }
 
             //Start scanning for BLE-Devices
             isScanning = true;
-            bluetoothAdapter.startLeScan(leScanCallback);
+            this.bleScanner.start(this.scanCallback);
         }
         else {
             //Stop scanning immediately
+            handler.removeCallbacks(this.stopScanRunnable);
             isScanning = false;
-            bluetoothAdapter.stopLeScan(leScanCallback);
+            this.bleScanner.stop();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Stops scanning once the scan period is over
+     */
+    private final Runnable stopScanRunnable = new Runnable() {
+        @Override
+        public void run() {
+            isScanning = false;
+            bleScanner.stop();
+        }
+    };
+}
@@ -0,0 +1,228 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Multi-resolution summary of a sensor stream for drawing long histories.
+ * Level l (0 to levelCount - 1) divides the stream into buckets of fanOut^(l + 1) consecutive samples and keeps the minimum and maximum
+ * of every channel per bucket, along with the timestamps of the first and the last sample of the bucket.
+ * Every level is a fixed-capacity circular buffer, so coarser levels reach further back into the past
+ * (e.g. 4096 buckets with a fan-out of 4 cover ~46 hours at 100 Hz on level 6).
+ * When drawing, the finest level with at most one bucket per pixel is chosen, so the work depends on the width of the view
+ * instead of the length of the history. The newest bucket of each level is updated with every sample (i.e. it may be incomplete).
+ * An interruption of the stream (see appendGap()) ends the newest bucket of every level and is flagged on it, so buckets never span a gap
+ * and the line can be interrupted after them.
+ * Not thread-safe, like SensorSeriesStore.
+ */
+public final class MinMaxPyramid {
+    private final Level[] levels;
+
+    /**
+     * Constructor
+     * @param capacity Minimum number of buckets per level, will be rounded up to the next power of two
+     * @param channelCount Number of values per sample
+     * @param levelCount Number of levels
+     * @param fanOut Factor between the bucket sizes of two adjacent levels
+     */
+    public MinMaxPyramid(int capacity, int channelCount, int levelCount, int fanOut) {
+        if (capacity <= 0 || channelCount <= 0 || levelCount <= 0 || fanOut < 2) {
+            throw new IllegalArgumentException("Invalid dimensions");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.levels = new Level[levelCount];
+        long bucketSize = 1;
+        for (int level = 0; level < levelCount; level++) {
+            bucketSize *= fanOut;
+            this.levels[level] = new Level(size, channelCount, bucketSize);
+        }
+    }
+
+    /**
+     * Adds a sample to the newest bucket of every level
+     * @param timestamp Time of measurement, has to be larger than the timestamp of the previous sample
+     * @param values Array containing the values of the sample, one per channel
+     * @param offset Index of the value of the first channel
+     */
+    public void append(long timestamp, float[] values, int offset) {
+        for (Level level : this.levels) {
+            level.append(timestamp, values, offset);
+        }
+    }
+
+    /**
+     * Ends the newest bucket of every level and flags that the stream has been interrupted after it.
+     * The next sample starts a new bucket, even if the newest one is incomplete. Nothing happens if the pyramid is empty.
+     */
+    public void appendGap() {
+        for (Level level : this.levels) {
+            level.appendGap();
+        }
+    }
+
+    /**
+     * Discards all buckets
+     */
+    public void clear() {
+        for (Level level : this.levels) {
+            level.clear();
+        }
+    }
+
+    public int getLevelCount() {
+        return this.levels.length;
+    }
+
+    /**
+     * @param level Index of the level (0 is the finest level, i.e. buckets of fanOut samples)
+     */
+    public Level getLevel(int level) {
+        return this.levels[level];
+    }
+
+    /**
+     * A single resolution of the pyramid. Buckets are addressed by their position, 0 being the oldest one that is still stored.
+     */
+    public static final class Level {
+        private final int mask;
+        private final long bucketSize;
+        private final long[] startTimestamps;
+        private final long[] endTimestamps;
+        private final float[][] minimums;
+        private final float[][] maximums;
+
+        //true for the buckets after which the stream has been interrupted
+        private final boolean[] gaps;
+
+        //Number of buckets ever started, number of stored buckets and number of samples in the newest bucket
+        private long head;
+        private int size;
+        private long samplesInNewest;
+
+        private Level(int capacity, int channelCount, long bucketSize) {
+            this.mask = capacity - 1;
+            this.bucketSize = bucketSize;
+            this.startTimestamps = new long[capacity];
+            this.endTimestamps = new long[capacity];
+            this.minimums = new float[channelCount][capacity];
+            this.maximums = new float[channelCount][capacity];
+            this.gaps = new boolean[capacity];
+        }
+
+        private void append(long timestamp, float[] values, int offset) {
+            if (this.size == 0 || this.samplesInNewest >= this.bucketSize) {
+                //Start a new bucket, overwriting the oldest one if the level is full
+                int index = (int) (this.head & this.mask);
+                this.startTimestamps[index] = timestamp;
+                this.endTimestamps[index] = timestamp;
+                this.gaps[index] = false;
+                for (int channel = 0; channel < this.minimums.length; channel++) {
+                    this.minimums[channel][index] = values[offset + channel];
+                    this.maximums[channel][index] = values[offset + channel];
+                }
+
+                this.head++;
+                if (this.size <= this.mask) {
+                    this.size++;
+                }
+                this.samplesInNewest = 1;
+                return;
+            }
+
+            int index = (int) ((this.head - 1) & this.mask);
+            this.endTimestamps[index] = timestamp;
+            for (int channel = 0; channel < this.minimums.length; channel++) {
+                float value = values[offset + channel];
+                if (value < this.minimums[channel][index]) {
+                    this.minimums[channel][index] = value;
+                }
+                if (value > this.maximums[channel][index]) {
+                    this.maximums[channel][index] = value;
+                }
+            }
+            this.samplesInNewest++;
+        }
+
+        private void appendGap() {
+            if (this.size > 0) {
+                this.gaps[(int) ((this.head - 1) & this.mask)] = true;
+                this.samplesInNewest = this.bucketSize;
+            }
+        }
+
+        private void clear() {
+            this.head = 0;
+            this.size = 0;
+            this.samplesInNewest = 0;
+        }
+
+        /**
+         * @return The number of stored buckets
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * @return true if buckets have been overwritten, i.e. the level does not reach back to the first sample
+         */
+        public boolean isTruncated() {
+            return this.head > this.size;
+        }
+
+        /**
+         * @return The maximum number of samples summarized by a bucket (buckets ended by a gap may contain less)
+         */
+        public long getBucketSize() {
+            return this.bucketSize;
+        }
+
+        public long getStartTimestamp(int position) {
+            return this.startTimestamps[toIndex(position)];
+        }
+
+        public long getEndTimestamp(int position) {
+            return this.endTimestamps[toIndex(position)];
+        }
+
+        public float getMinimum(int channel, int position) {
+            return this.minimums[channel][toIndex(position)];
+        }
+
+        public float getMaximum(int channel, int position) {
+            return this.maximums[channel][toIndex(position)];
+        }
+
+        /**
+         * @return true if the stream has been interrupted after the bucket, i.e. it must not be connected to the next one
+         */
+        public boolean isFollowedByGap(int position) {
+            return this.gaps[toIndex(position)];
+        }
+
+        /**
+         * Looks up the first bucket that ends at or after the given time (binary search)
+         * @return The position of the bucket or size(), if all buckets are older
+         */
+        public int positionOf(long timestamp) {
+            int low = 0;
+            int high = this.size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (getEndTimestamp(middle) < timestamp) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private int toIndex(int position) {
+            return (int) ((this.head - this.size + position) & this.mask);
+        }
+    }
+}
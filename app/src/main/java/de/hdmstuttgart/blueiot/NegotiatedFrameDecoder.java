@@ -0,0 +1,70 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Decoder that selects the actual decoder based on the format negotiated with blueIOT.
+ * The format is detected from the first byte of every notification (a few comparisons), so the decoder is switched with the very first
+ * notification after the firmware changed its format (e.g. after CONTROL_SET_FORMAT) instead of dropping notifications of the new format.
+ * If several notifications in a row aren't recognised by any decoder, the negotiated format is forgotten.
+ * ASCII is always supported as a fallback for firmware that doesn't know the binary format.
+ */
+public final class NegotiatedFrameDecoder implements SensorFrameDecoder {
+    //Number of consecutive unrecognised notifications before the negotiated format is forgotten
+    private static final int MAX_CONSECUTIVE_ERRORS = 3;
+
+    private final AsciiFrameDecoder asciiDecoder = new AsciiFrameDecoder();
+    private final BinaryFrameDecoder binaryDecoder = new BinaryFrameDecoder();
+
+    private SensorFrameDecoder decoder;
+    private int consecutiveErrors;
+
+    @Override
+    public boolean decode(byte[] data, SensorFrame frame) {
+        int format = SensorFrameFormat.detect(data);
+        if (format == SensorFrameFormat.FORMAT_UNKNOWN) {
+            if (++this.consecutiveErrors >= MAX_CONSECUTIVE_ERRORS) {
+                //Negotiate again with the next valid notification
+                this.decoder = null;
+                this.consecutiveErrors = 0;
+            }
+            frame.clear();
+            return false;
+        }
+        this.consecutiveErrors = 0;
+
+        //The firmware switched to another format (or this is the first valid notification)
+        if (this.decoder == null || this.decoder.getFormat() != format) {
+            this.decoder = select(format);
+        }
+
+        //A malformed notification of a known format doesn't change the format
+        return this.decoder.decode(data, frame);
+    }
+
+    /**
+     * @return The format that has been negotiated or SensorFrameFormat.FORMAT_UNKNOWN, if no valid notification has been received yet
+     */
+    @Override
+    public int getFormat() {
+        SensorFrameDecoder current = this.decoder;
+        return current != null ? current.getFormat() : SensorFrameFormat.FORMAT_UNKNOWN;
+    }
+
+    /**
+     * Forgets the negotiated format, e.g. after a reconnect
+     */
+    public void reset() {
+        this.decoder = null;
+        this.consecutiveErrors = 0;
+    }
+
+    private SensorFrameDecoder select(int format) {
+        switch (format) {
+            case SensorFrameFormat.FORMAT_ASCII:
+                return this.asciiDecoder;
+            case SensorFrameFormat.FORMAT_BINARY_V1:
+                return this.binaryDecoder;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * State machine deciding when to (re-)connect to blueIOT after the connection has been lost (e.g. blueIOT is out of range),
+ * and measuring how long it takes until the samples are streaming again (time to first sample).
+ * - STATE_IDLE: nobody wants a connection, no attempts are made
+ * - STATE_WAITING: the next attempt is due after the delay returned by start() or onDisconnected()
+ * - STATE_CONNECTING: an attempt is in progress (it ends with onConnected() or onDisconnected())
+ * - STATE_CONNECTED: the link is up, the notifications are being enabled
+ * - STATE_STREAMING: the first sample has arrived
+ * The first attempt after a loss is made right away and is the fast path (see isFastPath()): the BluetoothGatt is reused, so the attribute
+ * table is kept and the service discovery can be skipped (see GattAttributeCache). Every further attempt starts over with a new connection,
+ * after an exponentially increasing delay with random jitter (between half and all of BASE_DELAY * 2^(attempt - 1), at most MAX_DELAY),
+ * so several phones losing blueIOT at the same time don't retry in lockstep, and a device that is gone for longer isn't polled all the time.
+ * The backoff only starts over once samples have been received again, a link that drops during the setup counts as a failed attempt.
+ * All times are in milliseconds. Independent of the Android framework, the attempts are executed by the caller.
+ */
+public final class ReconnectPolicy {
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_WAITING = 1;
+    public static final int STATE_CONNECTING = 2;
+    public static final int STATE_CONNECTED = 3;
+    public static final int STATE_STREAMING = 4;
+
+    private static final String[] STATE_NAMES = { "idle", "waiting", "connecting", "connected", "streaming" };
+
+    //Delay before the second attempt, doubled for every further attempt up to MAX_DELAY
+    public static final long BASE_DELAY = 500;
+    public static final long MAX_DELAY = 30000;
+
+    //An attempt that hasn't succeeded within this time is given up (Android only reports a failed direct connection after ~30 seconds)
+    public static final long FAST_PATH_TIMEOUT = 5000;
+    public static final long CONNECT_TIMEOUT = 10000;
+
+    private final Random random;
+
+    //State, guarded by this (state is also read without the lock for every notification)
+    private volatile int state = STATE_IDLE;
+    private int attempt;
+    private long startTime;
+    private long connectedTime;
+
+    //Statistics
+    private long attemptCount;
+    private long connectCount;
+    private long lastTimeToFirstSample = -1;
+    private long lastSetupTime;
+    private long totalTimeToFirstSample;
+    private long maxTimeToFirstSample;
+
+    /**
+     * Constructor
+     * @param random Source of the jitter (seeded for reproducible tests)
+     */
+    public ReconnectPolicy(Random random) {
+        this.random = random;
+    }
+
+    /**
+     * A connection is wanted (e.g. the first subscriber), the first attempt is due right away
+     * @param now Current time in milliseconds
+     * @return The delay until the first attempt (always 0)
+     */
+    public synchronized long start(long now) {
+        this.state = STATE_WAITING;
+        this.attempt = 0;
+        this.startTime = now;
+        return 0;
+    }
+
+    /**
+     * Nobody wants the connection anymore (e.g. it has been closed), no further attempts are made
+     */
+    public synchronized void stop() {
+        this.state = STATE_IDLE;
+    }
+
+    /**
+     * Called when an attempt is started
+     * @param now Current time in milliseconds
+     * @return The time after which the attempt should be given up (see onAttemptTimeout())
+     */
+    public synchronized long onAttemptStarted(long now) {
+        this.state = STATE_CONNECTING;
+        this.attemptCount++;
+        return this.attempt == 0 ? FAST_PATH_TIMEOUT : CONNECT_TIMEOUT;
+    }
+
+    /**
+     * @return true if the current (or next) attempt is the first one after a loss, which should reuse the previous connection
+     */
+    public synchronized boolean isFastPath() {
+        return this.attempt == 0;
+    }
+
+    /**
+     * Called when the link has been established
+     * @param now Current time in milliseconds
+     */
+    public synchronized void onConnected(long now) {
+        if (this.state != STATE_IDLE) {
+            this.state = STATE_CONNECTED;
+            this.connectedTime = now;
+        }
+    }
+
+    /**
+     * Called for every notification, on the thread delivering them. Only the first one after connecting is measured.
+     * @param now Current time in milliseconds
+     */
+    public void onNotification(long now) {
+        if (this.state == STATE_CONNECTED) {
+            onFirstSample(now);
+        }
+    }
+
+    private synchronized void onFirstSample(long now) {
+        if (this.state != STATE_CONNECTED) {
+            return;
+        }
+
+        this.state = STATE_STREAMING;
+        this.lastTimeToFirstSample = now - this.startTime;
+        this.lastSetupTime = now - this.connectedTime;
+        this.totalTimeToFirstSample += this.lastTimeToFirstSample;
+        this.maxTimeToFirstSample = Math.max(this.maxTimeToFirstSample, this.lastTimeToFirstSample);
+        this.connectCount++;
+
+        //Working again --> the next loss starts with the fast path
+        this.attempt = 0;
+    }
+
+    /**
+     * Called when the link has been lost or an attempt has failed
+     * @param now Current time in milliseconds
+     * @return The delay until the next attempt, -1 if no attempt should be made (STATE_IDLE)
+     */
+    public synchronized long onDisconnected(long now) {
+        if (this.state == STATE_IDLE) {
+            return -1;
+        }
+
+        if (this.state == STATE_STREAMING) {
+            //Lost while streaming --> try the fast path right away
+            return start(now);
+        }
+
+        //Failed attempt (or the link dropped before the first sample) --> back off
+        this.state = STATE_WAITING;
+        this.attempt++;
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(this.attempt - 1, 20));
+        return delay / 2 + (long) (this.random.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Called when the timeout returned by onAttemptStarted() has expired
+     * @param now Current time in milliseconds
+     * @return The delay until the next attempt, -1 if the attempt isn't in progress anymore (it has succeeded in the meantime)
+     */
+    public synchronized long onAttemptTimeout(long now) {
+        return this.state == STATE_CONNECTING ? onDisconnected(now) : -1;
+    }
+
+    public int getState() {
+        return this.state;
+    }
+
+    /**
+     * @return The number of consecutive failed attempts since the last loss
+     */
+    public synchronized int getAttempt() {
+        return this.attempt;
+    }
+
+    /**
+     * @return The number of attempts that have been started
+     */
+    public synchronized long getAttemptCount() {
+        return this.attemptCount;
+    }
+
+    /**
+     * @return The number of times the samples have been streaming after a start or a loss
+     */
+    public synchronized long getConnectCount() {
+        return this.connectCount;
+    }
+
+    /**
+     * @return The time from the last loss (or start) until the first sample in milliseconds, -1 if not measured yet
+     */
+    public synchronized long getLastTimeToFirstSample() {
+        return this.lastTimeToFirstSample;
+    }
+
+    /**
+     * @return The part of the last time to first sample after the link had been established (enabling the notifications etc.)
+     */
+    public synchronized long getLastSetupTime() {
+        return this.lastSetupTime;
+    }
+
+    public synchronized double getAverageTimeToFirstSample() {
+        return this.connectCount > 0 ? (double) this.totalTimeToFirstSample / this.connectCount : 0;
+    }
+
+    public synchronized long getMaxTimeToFirstSample() {
+        return this.maxTimeToFirstSample;
+    }
+
+    /**
+     * @return A single line describing the reconnects, e.g. for the statistics
+     */
+    public synchronized String getSummary() {
+        return String.format(Locale.US, "Connection: %s, Connects: %d (%d attempts), Time to first sample: %d ms (setup %d ms), avg. %.0f ms, max. %d ms",
+                STATE_NAMES[this.state], this.connectCount, this.attemptCount, Math.max(0, this.lastTimeToFirstSample), this.lastSetupTime,
+                getAverageTimeToFirstSample(), this.maxTimeToFirstSample);
+    }
+}
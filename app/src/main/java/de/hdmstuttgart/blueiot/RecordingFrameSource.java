@@ -0,0 +1,62 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Arrays;
+
+/**
+ * Turns a recording (see SensorLogReader) back into notifications in the binary format.
+ * Consecutive samples are packed into one notification as long as they fit into the payload and there is no gap between their
+ * sample indices, so losses that happened during the recording are reproduced as such. Each notification is received at the
+ * recorded timestamp of its last sample.
+ */
+public final class RecordingFrameSource implements FrameSource {
+    private final SensorLogReader.Cursor cursor;
+    private final int samplesPerFrame;
+    private final byte[] payload;
+    private final float[] values;
+
+    //The record the cursor points to has not been packed yet
+    private boolean hasPending;
+    private long frameTime;
+
+    /**
+     * Constructor
+     * @param reader The recording
+     * @param payloadSize Size of a notification, determines the maximum number of samples per notification
+     */
+    public RecordingFrameSource(SensorLogReader reader, int payloadSize) {
+        if (reader.getChannelCount() != SensorFrame.CHANNELS) {
+            throw new IllegalArgumentException("Recording has " + reader.getChannelCount() + " channels");
+        }
+
+        this.cursor = reader.scan();
+        this.samplesPerFrame = Math.max(1, SensorFrameFormat.getMaxBinarySamples(payloadSize));
+        this.payload = new byte[Math.max(payloadSize, SensorFrameFormat.BINARY_V1_HEADER_SIZE + SensorFrameFormat.BINARY_V1_SAMPLE_SIZE)];
+        this.values = new float[this.samplesPerFrame * SensorFrame.CHANNELS];
+        this.hasPending = this.cursor.next();
+    }
+
+    @Override
+    public byte[] nextFrame() {
+        if (!this.hasPending) {
+            return null;
+        }
+
+        long firstIndex = this.cursor.getSampleIndex();
+        int count = 0;
+        do {
+            this.cursor.getValues(this.values, count * SensorFrame.CHANNELS);
+            this.frameTime = this.cursor.getTimestamp();
+            count++;
+            this.hasPending = this.cursor.next();
+        } while (this.hasPending && count < this.samplesPerFrame && this.cursor.getSampleIndex() == firstIndex + count);
+
+        Arrays.fill(this.payload, (byte) 0);
+        SensorFrameFormat.encodeBinary(this.values, 0, count, (int) (firstIndex & (SensorFrame.SEQUENCE_MODULUS - 1)), this.payload);
+        return this.payload;
+    }
+
+    @Override
+    public long getFrameTime() {
+        return this.frameTime;
+    }
+}
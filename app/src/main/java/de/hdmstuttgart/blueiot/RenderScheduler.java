@@ -0,0 +1,152 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Decides when a render thread has to draw a new frame.
+ * Instead of redrawing continuously, the render thread blocks in awaitFrame() until a redraw has been requested
+ * (e.g. because a new sensor value has arrived) or a fade step is still pending. Frames are never started more often
+ * than the display refresh rate allows, several requests within the same frame interval are merged into one frame.
+ */
+public final class RenderScheduler {
+    private final Object lock = new Object();
+
+    //Minimum time between the start of two frames
+    private final long frameIntervalNanos;
+
+    //State, guarded by lock
+    private boolean isDirty = true;
+    private int pendingFadeSteps;
+    private boolean isStopped;
+    private long lastFrameStartNanos;
+
+    //Statistics, guarded by lock
+    private long framesRendered;
+    private long framesSkipped;
+    private long totalFrameTimeNanos;
+
+    /**
+     * Constructor
+     * @param refreshRate Refresh rate of the display in frames per second (e.g. Display.getRefreshRate())
+     */
+    public RenderScheduler(float refreshRate) {
+        if (refreshRate <= 0) {
+            refreshRate = 60;
+        }
+        this.frameIntervalNanos = (long) (1000000000L / refreshRate);
+        this.lastFrameStartNanos = System.nanoTime() - this.frameIntervalNanos;
+    }
+
+    /**
+     * Requests a new frame, e.g. because a new sensor value has arrived. Can be called from any thread.
+     * If a frame has already been requested, but not yet been drawn, the request is counted as skipped frame.
+     */
+    public void requestRender() {
+        synchronized (this.lock) {
+            if (this.isDirty) {
+                this.framesSkipped++;
+            }
+            this.isDirty = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Requests a number of additional frames that are drawn even if nothing changes (e.g. to let a trail fade out)
+     * @param steps The number of frames that are still required
+     */
+    public void requestFadeSteps(int steps) {
+        synchronized (this.lock) {
+            if (steps > this.pendingFadeSteps) {
+                this.pendingFadeSteps = steps;
+                this.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Blocks the calling render thread until the next frame has to be drawn.
+     * Sleeps while there is nothing to draw and waits for the remaining frame interval, if the last frame was started too recently.
+     * @return true if a frame should be drawn now, false if the scheduler has been stopped
+     * @throws InterruptedException If the render thread is interrupted while waiting
+     */
+    public boolean awaitFrame() throws InterruptedException {
+        synchronized (this.lock) {
+            while (true) {
+                //Sleep until there is something to draw
+                while (!this.isStopped && !this.isDirty && this.pendingFadeSteps == 0) {
+                    this.lock.wait();
+                }
+                if (this.isStopped) {
+                    return false;
+                }
+
+                //Don't exceed the refresh rate of the display
+                long remainingNanos = this.lastFrameStartNanos + this.frameIntervalNanos - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    break;
+                }
+                this.lock.wait(remainingNanos / 1000000L, (int) (remainingNanos % 1000000L));
+            }
+
+            this.lastFrameStartNanos = System.nanoTime();
+            if (this.isDirty) {
+                this.isDirty = false;
+            }
+            else {
+                this.pendingFadeSteps--;
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Has to be called by the render thread after a frame has been drawn
+     * @param frameTimeNanos The time it took to draw and post the frame
+     */
+    public void onFrameRendered(long frameTimeNanos) {
+        synchronized (this.lock) {
+            this.framesRendered++;
+            this.totalFrameTimeNanos += frameTimeNanos;
+        }
+    }
+
+    /**
+     * Stops the scheduler, any thread waiting in awaitFrame() returns immediately
+     */
+    public void stop() {
+        synchronized (this.lock) {
+            this.isStopped = true;
+            this.lock.notifyAll();
+        }
+    }
+
+    /**
+     * @return The number of frames that have been drawn
+     */
+    public long getFramesRendered() {
+        synchronized (this.lock) {
+            return this.framesRendered;
+        }
+    }
+
+    /**
+     * @return The number of render requests that were merged into an already pending frame
+     */
+    public long getFramesSkipped() {
+        synchronized (this.lock) {
+            return this.framesSkipped;
+        }
+    }
+
+    /**
+     * @return The average time it took to draw a frame in milliseconds
+     */
+    public double getAverageFrameTimeMillis() {
+        synchronized (this.lock) {
+            if (this.framesRendered == 0) {
+                return 0;
+            }
+            return this.totalFrameTimeNanos / (double) this.framesRendered / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the notifications of a FrameSource (a recording or a synthetic generator) into a FrameListener, which is normally the
+ * SensorPipeline that onCharacteristicChanged() would have been used otherwise. Activities can be driven without a blueIOT this way,
+ * and the JVM (benchmarks, soak runs) can run the same processing path headless.
+ * The notifications are delivered in real-time (with the timing of the source), accelerated by a given factor or as fast as possible.
+ * Besides the throughput, the engine measures how late notifications have been delivered compared to the schedule and how long
+ * the listener took to process them.
+ */
+public final class ReplayEngine {
+    //Modes
+    public static final int MODE_REAL_TIME = 0;
+    public static final int MODE_ACCELERATED = 1;
+    public static final int MODE_AS_FAST_AS_POSSIBLE = 2;
+
+    //Value of the intent extra "replay" for a synthetic stream
+    public static final String SOURCE_SYNTHETIC = "synthetic";
+
+    //Parameters of the synthetic stream used by create()
+    private static final double SYNTHETIC_SAMPLE_RATE = 100;
+    private static final double SYNTHETIC_LOSS_RATE = 0.01;
+    private static final long SYNTHETIC_SEED = 42;
+
+    /**
+     * Receives the notifications, see SensorPipeline
+     */
+    public interface FrameListener {
+        /**
+         * @param data The raw value of the characteristic (only valid during the call)
+         * @param receivedTime Time the notification has been delivered (System.nanoTime())
+         * @return The number of samples that have been processed
+         */
+        int onFrame(byte[] data, long receivedTime);
+    }
+
+    private final FrameSource source;
+    private final FrameListener listener;
+    private final int mode;
+    private final double speed;
+
+    private volatile boolean isRunning;
+    private Thread replayThread;
+
+    //Statistics, only written by the thread running the replay
+    private volatile long frameCount;
+    private volatile long sampleCount;
+    private volatile long startTime;
+    private volatile long endTime;
+    private volatile long totalLateness;
+    private volatile long maxLateness;
+    private volatile long totalProcessingTime;
+    private volatile long maxProcessingTime;
+
+    /**
+     * Constructor
+     * @param source The notifications to replay
+     * @param listener Receives the notifications
+     * @param mode One of the MODE-constants
+     * @param speed Factor the timing of the source is accelerated by (only used in MODE_ACCELERATED)
+     */
+    public ReplayEngine(FrameSource source, FrameListener listener, int mode, double speed) {
+        if (mode == MODE_ACCELERATED && speed <= 0) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+
+        this.source = source;
+        this.listener = listener;
+        this.mode = mode;
+        this.speed = mode == MODE_REAL_TIME ? 1 : speed;
+    }
+
+    /**
+     * Creates an engine for the intent extras of an Activity
+     * @param replay SOURCE_SYNTHETIC or the directory of a recording
+     * @param speed 1 for real-time, 0 for as fast as possible, any other value accelerates (or slows down) the replay
+     * @param listener Receives the notifications
+     */
+    public static ReplayEngine create(String replay, float speed, FrameListener listener) throws IOException {
+        FrameSource source;
+        if (SOURCE_SYNTHETIC.equals(replay)) {
+            source = new SyntheticFrameSource(SYNTHETIC_SAMPLE_RATE, SensorFrameFormat.DEFAULT_PAYLOAD_SIZE, 0, SYNTHETIC_LOSS_RATE, SYNTHETIC_SEED);
+        }
+        else {
+            //The reader keeps the segments mapped until the process ends, mappings are released by the garbage collector
+            source = new RecordingFrameSource(new SensorLogReader(new File(replay)), SensorFrameFormat.DEFAULT_PAYLOAD_SIZE);
+        }
+
+        if (speed <= 0) {
+            return new ReplayEngine(source, listener, MODE_AS_FAST_AS_POSSIBLE, 0);
+        }
+        else if (speed == 1) {
+            return new ReplayEngine(source, listener, MODE_REAL_TIME, 1);
+        }
+        else {
+            return new ReplayEngine(source, listener, MODE_ACCELERATED, speed);
+        }
+    }
+
+    /**
+     * Starts the replay on a separate thread
+     */
+    public synchronized void start() {
+        if (this.replayThread != null) {
+            throw new IllegalStateException("Already started");
+        }
+
+        this.isRunning = true;
+        this.replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, "ReplayEngine");
+        this.replayThread.start();
+    }
+
+    /**
+     * Runs the replay on the calling thread until the source is exhausted or stop() is called (i.e. for headless runs)
+     */
+    public void run() {
+        this.isRunning = true;
+        replay();
+    }
+
+    /**
+     * Stops the replay (waits for the replay thread, if it has been started)
+     */
+    public void stop() {
+        this.isRunning = false;
+
+        Thread thread;
+        synchronized (this) {
+            thread = this.replayThread;
+        }
+
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+
+            boolean isInterrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException ex) {
+                    isInterrupted = true;
+                }
+            }
+
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return this.isRunning;
+    }
+
+    private void replay() {
+        this.startTime = System.nanoTime();
+
+        long firstFrameTime = 0;
+        boolean isFirstFrame = true;
+
+        byte[] frame;
+        while (this.isRunning && (frame = this.source.nextFrame()) != null) {
+            long scheduledTime = System.nanoTime();
+            if (isFirstFrame) {
+                firstFrameTime = this.source.getFrameTime();
+                isFirstFrame = false;
+            }
+
+            if (this.mode != MODE_AS_FAST_AS_POSSIBLE) {
+                scheduledTime = this.startTime + (long) ((this.source.getFrameTime() - firstFrameTime) / this.speed);
+
+                long delay;
+                while (this.isRunning && (delay = scheduledTime - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                if (!this.isRunning) {
+                    break;
+                }
+            }
+
+            long deliveryTime = System.nanoTime();
+            int samples = this.listener.onFrame(frame, deliveryTime);
+            long processedTime = System.nanoTime();
+
+            long lateness = deliveryTime - scheduledTime;
+            long processingTime = processedTime - deliveryTime;
+
+            this.frameCount = this.frameCount + 1;
+            this.sampleCount = this.sampleCount + samples;
+            this.totalLateness = this.totalLateness + lateness;
+            this.maxLateness = Math.max(this.maxLateness, lateness);
+            this.totalProcessingTime = this.totalProcessingTime + processingTime;
+            this.maxProcessingTime = Math.max(this.maxProcessingTime, processingTime);
+            this.endTime = processedTime;
+        }
+
+        this.isRunning = false;
+    }
+
+    /**
+     * @return The number of notifications that have been delivered
+     */
+    public long getFrameCount() {
+        return this.frameCount;
+    }
+
+    /**
+     * @return The number of samples the listener has processed
+     */
+    public long getSampleCount() {
+        return this.sampleCount;
+    }
+
+    /**
+     * @return Time between the start and the last delivered notification in milliseconds
+     */
+    public double getElapsedMillis() {
+        return this.frameCount == 0 ? 0 : (this.endTime - this.startTime) / 1000000d;
+    }
+
+    /**
+     * @return Processed samples per second
+     */
+    public double getSampleThroughput() {
+        double elapsed = getElapsedMillis();
+        return elapsed == 0 ? 0 : this.sampleCount * 1000 / elapsed;
+    }
+
+    /**
+     * @return Average time notifications have been delivered after their scheduled time in milliseconds (0 if as fast as possible)
+     */
+    public double getAverageLatenessMillis() {
+        long frames = this.frameCount;
+        return frames == 0 ? 0 : this.totalLateness / (double) frames / 1000000d;
+    }
+
+    public double getMaxLatenessMillis() {
+        return this.maxLateness / 1000000d;
+    }
+
+    /**
+     * @return Average time the listener took to process a notification in microseconds
+     */
+    public double getAverageProcessingMicros() {
+        long frames = this.frameCount;
+        return frames == 0 ? 0 : this.totalProcessingTime / (double) frames / 1000d;
+    }
+
+    public double getMaxProcessingMicros() {
+        return this.maxProcessingTime / 1000d;
+    }
+}
@@ -0,0 +1,47 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Reusable container for the samples contained in a single notification.
+ * The values are stored interleaved (X, Y, Z, Height of the first sample, then X, Y, Z, Height of the second sample, ...),
+ * so decoding a notification into a SensorFrame does not allocate anything.
+ */
+public final class SensorFrame {
+    //Number of values per sample (X, Y, Z, Height)
+    public static final int CHANNELS = SensorFrameParser.VALUE_COUNT;
+
+    //The sample counter is 16 bit wide and wraps around
+    public static final int SEQUENCE_MODULUS = 1 << 16;
+
+    //Sequence number (sample counter) of the first sample or NO_SEQUENCE, if the format does not provide one
+    public static final int NO_SEQUENCE = -1;
+    public int sequence = NO_SEQUENCE;
+
+    //Number of valid samples in values
+    public int sampleCount;
+
+    //Interleaved values of all samples
+    public final float[] values;
+
+    /**
+     * Constructor
+     * @param maxSamples Maximum number of samples a single notification can contain
+     */
+    public SensorFrame(int maxSamples) {
+        this.values = new float[maxSamples * CHANNELS];
+    }
+
+    /**
+     * @return The maximum number of samples this frame can hold
+     */
+    public int getMaxSamples() {
+        return this.values.length / CHANNELS;
+    }
+
+    /**
+     * Resets the frame before decoding a new notification
+     */
+    public void clear() {
+        this.sequence = NO_SEQUENCE;
+        this.sampleCount = 0;
+    }
+}
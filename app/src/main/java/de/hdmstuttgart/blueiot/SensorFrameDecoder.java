@@ -0,0 +1,19 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Decodes the payload of a notification into a SensorFrame.
+ * Implementations must not allocate memory or throw exceptions for malformed payloads.
+ */
+public interface SensorFrameDecoder {
+    /**
+     * @param data The raw value of the characteristic
+     * @param frame The frame receiving the decoded samples
+     * @return true if the payload has been decoded, false if it is malformed (the contents of the frame are undefined in this case)
+     */
+    boolean decode(byte[] data, SensorFrame frame);
+
+    /**
+     * @return The format handled by this decoder (one of the FORMAT-constants in SensorFrameFormat)
+     */
+    int getFormat();
+}
@@ -0,0 +1,162 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Definition of the payload formats blueIOT can use for its sensor notifications.
+ *
+ * FORMAT_ASCII: "X,Y,Z,Height" as comma-separated decimal numbers, one sample per notification (original firmware).
+ *     Batched variant: "#Sequence:X,Y,Z,Height;X,Y,Z,Height;..." with the sample counter of the first sample (decimal, wraps around
+ *     like the binary sample counter) and several samples separated by semicolons.
+ *
+ * FORMAT_BINARY_V1: packed little endian frame, several samples per notification:
+ *     Byte 0:     Magic/version (0xB1)
+ *     Byte 1:     Number of samples N in this notification
+ *     Byte 2-3:   Sample counter of the first sample (uint16, wraps around)
+ *     Byte 4-...: N samples with 4 x int16 each: X, Y, Z (1/100 units) and Height (1/10 units)
+ * A 20 Byte payload (default MTU) carries 2 samples, a larger MTU allows more samples per notification.
+ *
+ * The app requests the binary format on connect by writing CONTROL_SET_FORMAT to the control characteristic.
+ * Firmware that does not know the command keeps sending ASCII, which is why the format of the notifications is detected as well.
+ * CONTROL_SET_BATCH limits the samples per binary notification (the default is as many as fit into the payload), see ConnectionGovernor.
+ *
+ * Advertisements: firmware with the advertisement mode puts its latest sample into the manufacturer specific data of its advertisements
+ * (AD type 0xFF, company ID ADVERTISEMENT_COMPANY_ID), followed by a FORMAT_BINARY_V1 frame with a single sample (16 Bytes of the 31 Bytes).
+ * The same sample is advertised until the next one is measured, the sample counter tells them apart (see AdvertisementParser).
+ */
+public final class SensorFrameFormat {
+    public static final int FORMAT_UNKNOWN = 0;
+    public static final int FORMAT_ASCII = 1;
+    public static final int FORMAT_BINARY_V1 = 2;
+
+    //Binary format, version 1
+    public static final byte BINARY_V1_MAGIC = (byte) 0xB1;
+    public static final int BINARY_V1_HEADER_SIZE = 4;
+    public static final int BINARY_V1_SAMPLE_SIZE = 8;
+    public static final float BINARY_V1_AXIS_SCALE = 100f;
+    public static final float BINARY_V1_HEIGHT_SCALE = 10f;
+
+    //ASCII format, batched variant
+    public static final byte ASCII_SEQUENCE_PREFIX = '#';
+    public static final byte ASCII_SEQUENCE_SEPARATOR = ':';
+    public static final byte ASCII_SAMPLE_SEPARATOR = ';';
+
+    //Command written to the control characteristic: [CONTROL_SET_FORMAT, format]
+    public static final byte CONTROL_SET_FORMAT = 0x01;
+
+    //Command written to the control characteristic: [CONTROL_SET_BATCH, maximum number of samples per binary notification (1-255)]
+    public static final byte CONTROL_SET_BATCH = 0x02;
+
+    //Usable payload of a notification with the default MTU (23 Bytes - 3 Bytes ATT-header)
+    public static final int DEFAULT_PAYLOAD_SIZE = 20;
+
+    //Maximum length of a characteristic value (ATT), i.e. the largest notification that can ever be delivered
+    public static final int MAX_PAYLOAD_SIZE = 512;
+
+    //Company ID of the manufacturer specific data carrying a sample in an advertisement (0xFFFF: reserved for internal use)
+    public static final int ADVERTISEMENT_COMPANY_ID = 0xFFFF;
+
+    private SensorFrameFormat() {}
+
+    /**
+     * Detects the format of a notification by looking at its first byte
+     * @param data The raw value of the characteristic
+     * @return One of the FORMAT-constants
+     */
+    public static int detect(byte[] data) {
+        if (data == null || data.length == 0) {
+            return FORMAT_UNKNOWN;
+        }
+
+        byte first = data[0];
+        if (first == BINARY_V1_MAGIC) {
+            return FORMAT_BINARY_V1;
+        }
+        if ((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.' || first == ' '
+                || first == ASCII_SEQUENCE_PREFIX) {
+            return FORMAT_ASCII;
+        }
+        return FORMAT_UNKNOWN;
+    }
+
+    /**
+     * Reads the number of samples of a notification without decoding it
+     * @param data The raw value of the characteristic
+     * @return The number of samples (1 for ASCII, 0 if the format is unknown)
+     */
+    public static int getSampleCount(byte[] data) {
+        switch (detect(data)) {
+            case FORMAT_BINARY_V1:
+                return data.length > 1 ? data[1] & 0xFF : 0;
+            case FORMAT_ASCII:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param payloadSize Usable payload of a notification (MTU - 3)
+     * @return The number of samples that fit into a single binary notification
+     */
+    public static int getMaxBinarySamples(int payloadSize) {
+        return Math.min(255, Math.max(0, (payloadSize - BINARY_V1_HEADER_SIZE) / BINARY_V1_SAMPLE_SIZE));
+    }
+
+    /**
+     * Creates the value that is written to the control characteristic in order to request a format
+     */
+    public static byte[] createSetFormatCommand(int format) {
+        return new byte[] { CONTROL_SET_FORMAT, (byte) format };
+    }
+
+    /**
+     * Creates the value that is written to the control characteristic in order to limit the samples per notification.
+     * blueIOT sends a notification as soon as this many samples have been measured (or the payload is full), so fewer samples per
+     * notification mean a lower latency and more notifications.
+     * @param maxSamples Maximum number of samples per binary notification
+     */
+    public static byte[] createSetBatchCommand(int maxSamples) {
+        return new byte[] { CONTROL_SET_BATCH, (byte) Math.max(1, Math.min(255, maxSamples)) };
+    }
+
+    /**
+     * Encodes samples into the binary format (used e.g. by simulations and benchmarks)
+     * @param values Interleaved values (X, Y, Z, Height per sample)
+     * @param offset Index of the first value of the first sample
+     * @param sampleCount Number of samples to encode
+     * @param sequence Sample counter of the first sample
+     * @param out Destination, must hold BINARY_V1_HEADER_SIZE + sampleCount * BINARY_V1_SAMPLE_SIZE bytes
+     * @return The number of bytes written
+     */
+    public static int encodeBinary(float[] values, int offset, int sampleCount, int sequence, byte[] out) {
+        out[0] = BINARY_V1_MAGIC;
+        out[1] = (byte) sampleCount;
+        out[2] = (byte) sequence;
+        out[3] = (byte) (sequence >> 8);
+
+        int position = BINARY_V1_HEADER_SIZE;
+        int index = offset;
+        for (int sample = 0; sample < sampleCount; sample++) {
+            writeInt16(out, position, values[index++] * BINARY_V1_AXIS_SCALE);
+            writeInt16(out, position + 2, values[index++] * BINARY_V1_AXIS_SCALE);
+            writeInt16(out, position + 4, values[index++] * BINARY_V1_AXIS_SCALE);
+            writeInt16(out, position + 6, values[index++] * BINARY_V1_HEIGHT_SCALE);
+            position += BINARY_V1_SAMPLE_SIZE;
+        }
+        return position;
+    }
+
+    /**
+     * Writes a scaled value as signed 16 bit value (little endian), saturating at the limits
+     */
+    private static void writeInt16(byte[] out, int position, float value) {
+        int fixed = Math.round(value);
+        if (fixed > Short.MAX_VALUE) {
+            fixed = Short.MAX_VALUE;
+        }
+        else if (fixed < Short.MIN_VALUE) {
+            fixed = Short.MIN_VALUE;
+        }
+        out[position] = (byte) fixed;
+        out[position + 1] = (byte) (fixed >> 8);
+    }
+}
@@ -0,0 +1,225 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Allocation-free parser for the comma-separated ASCII frames that blueIOT pushes via notifications.
+ * A frame looks like "0.12,-0.98,9.81,123.4" (X, Y and Z from the Accelerometer and the Altitude from the Barometer).
+ * The raw bytes from BluetoothGattCharacteristic.getValue() are decoded directly into a float-array,
+ * without creating any intermediate Strings, arrays or exceptions. Malformed frames are rejected by the return value.
+ */
+public final class SensorFrameParser {
+    //Number of values contained in a single frame (X, Y, Z, Height)
+    public static final int VALUE_COUNT = 4;
+
+    //Return value for frames that could not be parsed
+    public static final int INVALID_FRAME = -1;
+
+    //More digits than this can't be represented exactly in the long-mantissa and are ignored (they are far beyond float-precision anyway)
+    private static final int MAX_SIGNIFICANT_DIGITS = 18;
+
+    //Powers of ten used for scaling the parsed mantissa
+    private static final double[] POWERS_OF_TEN = new double[] {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9,
+            1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19,
+            1e20, 1e21, 1e22
+    };
+
+    private SensorFrameParser() {}
+
+    /**
+     * Parses a complete frame
+     * @param frame The raw value of the characteristic
+     * @param values Destination for the parsed values, must be able to hold VALUE_COUNT values (contents are undefined for rejected frames)
+     * @return The number of values that were parsed (i.e. VALUE_COUNT) or INVALID_FRAME
+     */
+    public static int parse(byte[] frame, float[] values) {
+        if (frame == null) {
+            return INVALID_FRAME;
+        }
+
+        return parse(frame, 0, frame.length, values);
+    }
+
+    /**
+     * Parses a frame from a region of a byte-array
+     * @param frame The raw value of the characteristic
+     * @param offset Index of the first byte of the frame
+     * @param length Number of bytes belonging to the frame
+     * @param values Destination for the parsed values, must be able to hold VALUE_COUNT values
+     * @return The number of values that were parsed (i.e. VALUE_COUNT) or INVALID_FRAME
+     */
+    public static int parse(byte[] frame, int offset, int length, float[] values) {
+        return parse(frame, offset, length, values, 0);
+    }
+
+    /**
+     * Parses a frame from a region of a byte-array into a region of the destination (e.g. one sample of a multi-sample frame)
+     * @param frame The raw value of the characteristic
+     * @param offset Index of the first byte of the frame
+     * @param length Number of bytes belonging to the frame
+     * @param values Destination for the parsed values
+     * @param valuesOffset Index in values receiving the first parsed value, values must be able to hold VALUE_COUNT values from there on
+     * @return The number of values that were parsed (i.e. VALUE_COUNT) or INVALID_FRAME
+     */
+    public static int parse(byte[] frame, int offset, int length, float[] values, int valuesOffset) {
+        if (frame == null || values == null || valuesOffset < 0 || values.length - valuesOffset < VALUE_COUNT
+                || offset < 0 || length < 0 || offset + length > frame.length) {
+            return INVALID_FRAME;
+        }
+
+        int end = offset + length;
+
+        //The firmware pads the 20 Byte payload with zeros --> ignore everything after the first NUL-character
+        for (int i = offset; i < end; i++) {
+            if (frame[i] == 0) {
+                end = i;
+                break;
+            }
+        }
+
+        int position = offset;
+        int count = 0;
+        while (count < VALUE_COUNT) {
+            int next = parseValue(frame, position, end, values, valuesOffset + count);
+            if (next < 0) {
+                return INVALID_FRAME;
+            }
+            count++;
+
+            //Values have to be separated by a comma, the last value has to be followed by the end of the frame
+            if (count < VALUE_COUNT) {
+                if (next >= end || frame[next] != ',') {
+                    return INVALID_FRAME;
+                }
+                position = next + 1;
+            }
+            else {
+                if (next != end) {
+                    return INVALID_FRAME;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Parses a single decimal value (surrounding whitespace allowed, e.g. " -12.5 ") and stores it into values[index]
+     * @return The position right after the value (and its trailing whitespace) or INVALID_FRAME
+     */
+    static int parseValue(byte[] frame, int position, int end, float[] values, int index) {
+        position = skipWhitespace(frame, position, end);
+
+        boolean negative = false;
+        if (position < end && (frame[position] == '-' || frame[position] == '+')) {
+            negative = frame[position] == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean hasDigits = false;
+
+        //Integer part
+        while (position < end && isDigit(frame[position])) {
+            hasDigits = true;
+            if (significantDigits < MAX_SIGNIFICANT_DIGITS) {
+                mantissa = mantissa * 10 + (frame[position] - '0');
+                if (mantissa != 0) {
+                    significantDigits++;
+                }
+            }
+            else {
+                exponent++;
+            }
+            position++;
+        }
+
+        //Fractional part
+        if (position < end && frame[position] == '.') {
+            position++;
+            while (position < end && isDigit(frame[position])) {
+                hasDigits = true;
+                if (significantDigits < MAX_SIGNIFICANT_DIGITS) {
+                    mantissa = mantissa * 10 + (frame[position] - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                    exponent--;
+                }
+                position++;
+            }
+        }
+
+        if (!hasDigits) {
+            return INVALID_FRAME;
+        }
+
+        //Optional exponent (e.g. "1.5e-3")
+        if (position < end && (frame[position] == 'e' || frame[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < end && (frame[position] == '-' || frame[position] == '+')) {
+                negativeExponent = frame[position] == '-';
+                position++;
+            }
+
+            int explicitExponent = 0;
+            boolean hasExponentDigits = false;
+            while (position < end && isDigit(frame[position])) {
+                hasExponentDigits = true;
+                if (explicitExponent < 1000) {
+                    explicitExponent = explicitExponent * 10 + (frame[position] - '0');
+                }
+                position++;
+            }
+
+            if (!hasExponentDigits) {
+                return INVALID_FRAME;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        values[index] = toFloat(mantissa, exponent, negative);
+
+        return skipWhitespace(frame, position, end);
+    }
+
+    /**
+     * Scales the mantissa by the given power of ten
+     */
+    private static float toFloat(long mantissa, int exponent, boolean negative) {
+        double value = mantissa;
+        if (mantissa != 0) {
+            if (exponent < 0) {
+                int scale = -exponent;
+                while (scale > 22) {
+                    value /= 1e22;
+                    scale -= 22;
+                }
+                value /= POWERS_OF_TEN[scale];
+            }
+            else {
+                int scale = exponent;
+                while (scale > 22) {
+                    value *= 1e22;
+                    scale -= 22;
+                }
+                value *= POWERS_OF_TEN[scale];
+            }
+        }
+
+        return (float) (negative ? -value : value);
+    }
+
+    private static int skipWhitespace(byte[] frame, int position, int end) {
+        while (position < end && (frame[position] == ' ' || frame[position] == '\t' || frame[position] == '\r' || frame[position] == '\n')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
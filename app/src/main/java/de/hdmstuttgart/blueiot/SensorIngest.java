@@ -0,0 +1,216 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Ingest stage between the decoder and the consumers of the samples.
+ * Every decoded SensorFrame (one notification, possibly several samples) is passed to ingest(), which
+ * - expands the 16 bit sample counter into a continuous sample index, so lost samples leave a gap instead of compressing the time axis,
+ * - detects lost, duplicate and out-of-order samples by means of the sample counter,
+ * - timestamps each sample, assuming the last sample of a notification has been measured right before it was received.
+ * Only samples that are new and in order are handed over to the Sink, so the sample indices passed to it are strictly increasing.
+ * Frames without a sample counter (original ASCII format) are numbered consecutively, losses can't be detected for them.
+ * ingest() must only be called from a single thread (i.e. the Binder-Thread delivering onCharacteristicChanged()),
+ * the metrics can be read from any thread.
+ */
+public final class SensorIngest {
+    //Expected time between two samples in nanoseconds (blueIOT sends ~100 samples per second)
+    public static final long DEFAULT_SAMPLE_PERIOD = 10000000;
+
+    //Number of recently received sample counters remembered for telling duplicates from late samples
+    private static final int HISTORY_SIZE = 64;
+
+    //Sample counter jumps further back than this are treated as a restart of blueIOT
+    private static final int MAX_REORDER_DISTANCE = HISTORY_SIZE;
+
+    //Weight of a new measurement of the sample period (exponential moving average)
+    private static final double PERIOD_SMOOTHING = 0.1;
+
+    /**
+     * Receives the accepted samples
+     */
+    public interface Sink {
+        /**
+         * @param sampleIndex Continuous index of the sample (gaps correspond to lost samples)
+         * @param timestamp Estimated time of measurement (System.nanoTime()-base)
+         * @param values Interleaved values of the frame (must not be kept)
+         * @param offset Index of the first value of this sample in values
+         */
+        void onSample(long sampleIndex, long timestamp, float[] values, int offset);
+    }
+
+    //State, only accessed by the ingesting thread
+    private boolean isSynchronized;
+    private int expectedSequence;
+    private long nextSampleIndex;
+    private long receivedHistory;
+    private double samplePeriod;
+    private long lastReceivedTime;
+    private long lastSampleIndex = -1;
+    private long lastTimestamp;
+
+    //Set by other threads, handled with the next frame
+    private volatile boolean isResyncRequested;
+
+    //Metrics, only written by the ingesting thread
+    private volatile long receivedCount;
+    private volatile long lostCount;
+    private volatile long duplicateCount;
+    private volatile long outOfOrderCount;
+
+    /**
+     * Constructor
+     * @param nominalSamplePeriod Expected time between two samples in nanoseconds, used until the actual period has been measured
+     */
+    public SensorIngest(long nominalSamplePeriod) {
+        this.samplePeriod = nominalSamplePeriod;
+    }
+
+    /**
+     * Processes the samples of a single notification
+     * @param frame The decoded notification
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     * @param sink Receives the samples that are new and in order
+     * @return The number of samples handed over to the sink
+     */
+    public int ingest(SensorFrame frame, long receivedTime, Sink sink) {
+        if (this.isResyncRequested) {
+            this.isResyncRequested = false;
+            this.isSynchronized = false;
+        }
+
+        int count = frame.sampleCount;
+        if (count == 0) {
+            return 0;
+        }
+
+        if (frame.sequence == SensorFrame.NO_SEQUENCE) {
+            this.isSynchronized = false;
+            long firstIndex = this.nextSampleIndex;
+            this.nextSampleIndex += count;
+            this.receivedCount = this.receivedCount + count;
+            return deliver(frame, 0, count, firstIndex, receivedTime, sink);
+        }
+
+        //Signed distance between the expected and the received sample counter (taking the wrap-around into account)
+        int distance = (short) (frame.sequence - this.expectedSequence);
+        if (!this.isSynchronized || distance < -MAX_REORDER_DISTANCE) {
+            //First frame or blueIOT has been restarted --> start counting from here, without reporting a loss
+            this.isSynchronized = true;
+            this.receivedHistory = 0;
+            distance = 0;
+        }
+        else if (distance > 0) {
+            //Samples in between have been lost, keep their place on the time axis
+            this.lostCount = this.lostCount + distance;
+            this.nextSampleIndex += distance;
+            this.receivedHistory = distance >= HISTORY_SIZE ? 0 : this.receivedHistory << distance;
+        }
+
+        //Samples older than expected (retransmitted or delayed) are counted, but not delivered
+        int skipped = 0;
+        while (skipped < count && distance + skipped < 0) {
+            int age = -(distance + skipped);
+            long bit = 1L << (age - 1);
+            if ((this.receivedHistory & bit) != 0) {
+                this.duplicateCount = this.duplicateCount + 1;
+            }
+            else {
+                //Arrived late, it has been counted as lost before
+                this.receivedHistory |= bit;
+                this.outOfOrderCount = this.outOfOrderCount + 1;
+                this.lostCount = this.lostCount - 1;
+            }
+            skipped++;
+        }
+
+        int accepted = count - skipped;
+        if (accepted == 0) {
+            return 0;
+        }
+
+        long firstIndex = this.nextSampleIndex;
+        this.nextSampleIndex += accepted;
+        this.expectedSequence = (frame.sequence + count) & (SensorFrame.SEQUENCE_MODULUS - 1);
+        this.receivedHistory = accepted >= HISTORY_SIZE ? -1L : (this.receivedHistory << accepted) | ((1L << accepted) - 1);
+        this.receivedCount = this.receivedCount + accepted;
+
+        return deliver(frame, skipped, accepted, firstIndex, receivedTime, sink);
+    }
+
+    /**
+     * Timestamps the samples and hands them over to the sink
+     */
+    private int deliver(SensorFrame frame, int firstSample, int count, long firstIndex, long receivedTime, Sink sink) {
+        long lastIndex = firstIndex + count - 1;
+
+        //Measure the sample period, the advance of the index includes lost samples
+        if (this.lastSampleIndex >= 0 && lastIndex > this.lastSampleIndex && receivedTime > this.lastReceivedTime) {
+            double period = (double) (receivedTime - this.lastReceivedTime) / (lastIndex - this.lastSampleIndex);
+            this.samplePeriod += PERIOD_SMOOTHING * (period - this.samplePeriod);
+        }
+        this.lastSampleIndex = lastIndex;
+        this.lastReceivedTime = receivedTime;
+
+        for (int sample = 0; sample < count; sample++) {
+            long timestamp = receivedTime - (long) ((count - 1 - sample) * this.samplePeriod);
+            if (timestamp <= this.lastTimestamp) {
+                timestamp = this.lastTimestamp + 1;
+            }
+            this.lastTimestamp = timestamp;
+
+            sink.onSample(firstIndex + sample, timestamp, frame.values, (firstSample + sample) * SensorFrame.CHANNELS);
+        }
+        return count;
+    }
+
+    /**
+     * Starts counting anew with the next frame without reporting the samples in between as lost, e.g. after re-subscribing.
+     * Can be called from any thread, the sample indices keep increasing.
+     */
+    public void requestResync() {
+        this.isResyncRequested = true;
+    }
+
+    /**
+     * @return The number of samples that have been handed over to the sink
+     */
+    public long getReceivedCount() {
+        return this.receivedCount;
+    }
+
+    /**
+     * @return The number of samples that have never been received
+     */
+    public long getLostCount() {
+        return this.lostCount;
+    }
+
+    /**
+     * @return The number of samples that have been received more than once
+     */
+    public long getDuplicateCount() {
+        return this.duplicateCount;
+    }
+
+    /**
+     * @return The number of samples that have been received after a newer sample (not handed over to the sink)
+     */
+    public long getOutOfOrderCount() {
+        return this.outOfOrderCount;
+    }
+
+    /**
+     * @return The share of samples that have been lost (0 to 1)
+     */
+    public double getLossRate() {
+        long lost = this.lostCount;
+        long total = this.receivedCount + this.outOfOrderCount + lost;
+        return total > 0 ? (double) lost / total : 0;
+    }
+
+    /**
+     * @return The measured time between two samples in milliseconds
+     */
+    public double getSamplePeriodMillis() {
+        return this.samplePeriod / 1000000d;
+    }
+}
@@ -0,0 +1,275 @@
+package de.hdmstuttgart.blueiot;
+
+import com.jjoe64.graphview.series.DataPointInterface;
+import com.jjoe64.graphview.series.LineGraphSeries;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * LineGraphSeries that displays one channel of a SensorSeriesStore.
+ * Instead of keeping a list of DataPoint-Objects, the values are read directly from the primitive columns of the store,
+ * so appending a sample does not allocate anything and the series can hold thousands of points.
+ * The X-Value of a point is its time in seconds relative to the time origin of the store.
+ * If the store maintains a MinMaxPyramid and the visible range contains more samples than there are pixels, the minimum and maximum
+ * of each bucket of the finest suitable level are drawn instead of the samples (level of detail). The number of drawn points therefore
+ * depends on the width of the view and not on the length of the history, while peaks remain visible.
+ * Gap markers of the store (NaN) interrupt the line of the samples, buckets followed by a gap interrupt the line of the buckets.
+ * After changing the store, GraphView.onDataChanged() has to be called to redraw the graph.
+ */
+public class SensorLineGraphSeries extends LineGraphSeries<DataPointInterface> {
+    private final SensorSeriesStore store;
+    private final int channel;
+
+    //Maximum number of buckets drawn (i.e. the width of the graph in pixels)
+    private int maxPointCount = 1024;
+
+    //Range of the Y-Values, cached until the store changes
+    private int cachedModificationCount = -1;
+    private double lowestValueY;
+    private double highestValueY;
+
+    /**
+     * Constructor
+     * @param store The store containing the samples
+     * @param channel Index of the channel that is displayed by this series
+     */
+    public SensorLineGraphSeries(SensorSeriesStore store, int channel) {
+        this.store = store;
+        this.channel = channel;
+    }
+
+    /**
+     * @param maxPointCount Maximum number of buckets to draw, usually the width of the graph in pixels
+     */
+    public void setMaxPointCount(int maxPointCount) {
+        this.maxPointCount = Math.max(1, maxPointCount);
+    }
+
+    /**
+     * Returns the points between from and until, including one point before and after the range (like BaseSeries),
+     * so the lines are drawn up to the edges of the viewport
+     */
+    @Override
+    public Iterator<DataPointInterface> getValues(double from, double until) {
+        long fromTimestamp = this.store.toTimestamp(from);
+        long untilTimestamp = this.store.toTimestamp(until);
+
+        //Draw the samples themselves, if they reach back far enough and there aren't more than two per pixel
+        int size = this.store.size();
+        int start = this.store.positionOf(fromTimestamp);
+        int end = this.store.positionOf(untilTimestamp + 1);
+        MinMaxPyramid pyramid = this.store.getPyramid();
+        boolean isCovered = !this.store.isTruncated() || (size > 0 && this.store.getTimestamp(0) <= fromTimestamp);
+        if (pyramid == null || (isCovered && end - start <= 2 * this.maxPointCount)) {
+            return new SampleIterator(Math.max(0, start - 1), Math.min(size, end + 1));
+        }
+
+        //Otherwise the finest level with at most one bucket per pixel (the coarsest level, if the range is too long for all of them)
+        MinMaxPyramid.Level level = null;
+        for (int index = 0; index < pyramid.getLevelCount(); index++) {
+            level = pyramid.getLevel(index);
+            start = level.positionOf(fromTimestamp);
+            end = level.positionOf(untilTimestamp + 1);
+            isCovered = !level.isTruncated() || (level.size() > 0 && level.getStartTimestamp(0) <= fromTimestamp);
+            if (isCovered && end - start <= this.maxPointCount) {
+                break;
+            }
+        }
+        return new BucketIterator(level, Math.max(0, start - 1), Math.min(level.size(), end + 1));
+    }
+
+    @Override
+    public double getLowestValueX() {
+        MinMaxPyramid.Level level = getCoarsestLevel();
+        if (level != null && level.size() > 0) {
+            return (level.getStartTimestamp(0) - this.store.getTimeOrigin()) / 1000000000d;
+        }
+        return this.store.size() > 0 ? this.store.getX(0) : 0;
+    }
+
+    @Override
+    public double getHighestValueX() {
+        int size = this.store.size();
+        return size > 0 ? this.store.getX(size - 1) : 0;
+    }
+
+    @Override
+    public double getLowestValueY() {
+        updateRangeY();
+        return this.lowestValueY;
+    }
+
+    @Override
+    public double getHighestValueY() {
+        updateRangeY();
+        return this.highestValueY;
+    }
+
+    public boolean isEmpty() {
+        return this.store.size() == 0;
+    }
+
+    /**
+     * @return The level of the pyramid reaching back the furthest or null, if the store has no pyramid
+     */
+    private MinMaxPyramid.Level getCoarsestLevel() {
+        MinMaxPyramid pyramid = this.store.getPyramid();
+        return pyramid != null ? pyramid.getLevel(pyramid.getLevelCount() - 1) : null;
+    }
+
+    /**
+     * Scans the stored values (or the buckets of the coarsest level, which cover the whole history) for the range of the Y-Values,
+     * if the store has been changed since the last scan
+     */
+    private void updateRangeY() {
+        int modificationCount = this.store.getModificationCount();
+        if (modificationCount == this.cachedModificationCount) {
+            return;
+        }
+
+        MinMaxPyramid.Level level = getCoarsestLevel();
+        int size = level != null ? level.size() : this.store.size();
+        float lowest = 0;
+        float highest = 0;
+        if (size > 0) {
+            lowest = Float.MAX_VALUE;
+            highest = -Float.MAX_VALUE;
+            for (int position = 0; position < size; position++) {
+                float minimum = level != null ? level.getMinimum(this.channel, position) : this.store.getValue(this.channel, position);
+                float maximum = level != null ? level.getMaximum(this.channel, position) : minimum;
+                if (minimum < lowest) {
+                    lowest = minimum;
+                }
+                if (maximum > highest) {
+                    highest = maximum;
+                }
+            }
+        }
+
+        this.lowestValueY = lowest;
+        this.highestValueY = highest;
+        this.cachedModificationCount = modificationCount;
+    }
+
+    /**
+     * Iterates over a range of the store, reusing a single point (GraphView only reads the coordinates while drawing)
+     */
+    private final class SampleIterator implements Iterator<DataPointInterface>, DataPointInterface {
+        private final int end;
+        private int position;
+        private double x;
+        private double y;
+
+        SampleIterator(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.position < this.end;
+        }
+
+        @Override
+        public DataPointInterface next() {
+            if (this.position >= this.end) {
+                throw new NoSuchElementException();
+            }
+
+            this.x = store.getX(this.position);
+            this.y = store.getValue(channel, this.position);
+            this.position++;
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double getX() {
+            return this.x;
+        }
+
+        @Override
+        public double getY() {
+            return this.y;
+        }
+    }
+
+    /**
+     * Iterates over a range of buckets of a pyramid level, reusing a single point.
+     * Each bucket results in two points at its start and its end: the extreme closer to the previous point first, then the other one,
+     * so the line covers the whole range of values within the bucket. A bucket followed by a gap results in a third point without value (NaN),
+     * like a gap marker of the store.
+     */
+    private final class BucketIterator implements Iterator<DataPointInterface>, DataPointInterface {
+        private final MinMaxPyramid.Level level;
+        private final int end;
+        private int position;
+        private boolean isSecondPoint;
+        private boolean isGapPending;
+        private double x;
+        private double y;
+
+        BucketIterator(MinMaxPyramid.Level level, int start, int end) {
+            this.level = level;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.position < this.end;
+        }
+
+        @Override
+        public DataPointInterface next() {
+            if (this.position >= this.end) {
+                throw new NoSuchElementException();
+            }
+
+            long origin = store.getTimeOrigin();
+            if (this.isGapPending) {
+                //Point without value right after the previous bucket, so it isn't connected to the next one
+                this.x = (this.level.getEndTimestamp(this.position - 1) + 1 - origin) / 1000000000d;
+                this.y = Double.NaN;
+                this.isGapPending = false;
+                return this;
+            }
+
+            float minimum = this.level.getMinimum(channel, this.position);
+            float maximum = this.level.getMaximum(channel, this.position);
+            if (!this.isSecondPoint) {
+                this.x = (this.level.getStartTimestamp(this.position) - origin) / 1000000000d;
+                this.y = Math.abs(this.y - minimum) <= Math.abs(this.y - maximum) ? minimum : maximum;
+                this.isSecondPoint = true;
+            }
+            else {
+                this.x = (this.level.getEndTimestamp(this.position) - origin) / 1000000000d;
+                this.y = this.y == minimum ? maximum : minimum;
+                this.isSecondPoint = false;
+                this.isGapPending = this.level.isFollowedByGap(this.position) && this.position < this.end - 1;
+                this.position++;
+            }
+            return this;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public double getX() {
+            return this.x;
+        }
+
+        @Override
+        public double getY() {
+            return this.y;
+        }
+    }
+}
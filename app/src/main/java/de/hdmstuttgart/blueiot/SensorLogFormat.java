@@ -0,0 +1,49 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Definition of the binary log used for recording sensor streams (see SensorLogWriter and SensorLogReader).
+ *
+ * A recording is a directory containing numbered segment files ("segment-00000.bin", "segment-00001.bin", ...).
+ * Each segment has a fixed size and consists of a header followed by fixed-width records (all values big endian):
+ *     Header (HEADER_SIZE Bytes):
+ *         Byte 0-3:    Magic ("BIOT")
+ *         Byte 4-7:    Version
+ *         Byte 8-11:   Record size in Bytes
+ *         Byte 12-15:  Number of channels
+ *         Byte 16-23:  Number of committed records (updated whenever the segment is forced to the storage)
+ *     Record (RECORD_HEADER_SIZE + 4 Bytes per channel):
+ *         Byte 0-7:    Sample index (see SensorIngest)
+ *         Byte 8-15:   Timestamp (nanoseconds)
+ *         Byte 16-...: One float per channel
+ * Records are appended in the order of their timestamps, so a recording can be searched by timestamp.
+ */
+public final class SensorLogFormat {
+    public static final int MAGIC = 0x42494F54;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 32;
+    public static final int HEADER_OFFSET_RECORD_COUNT = 16;
+    public static final int RECORD_HEADER_SIZE = 16;
+
+    //Number of records per segment (~2 MB or ~11 minutes at 100 Hz with 4 channels)
+    public static final int RECORDS_PER_SEGMENT = 65536;
+
+    private SensorLogFormat() {}
+
+    /**
+     * @return The size of a single record in Bytes
+     */
+    public static int getRecordSize(int channelCount) {
+        return RECORD_HEADER_SIZE + channelCount * 4;
+    }
+
+    /**
+     * @return The file of the segment with the given number
+     */
+    public static File getSegmentFile(File directory, int segment) {
+        return new File(directory, String.format(Locale.US, "segment-%05d.bin", segment));
+    }
+}
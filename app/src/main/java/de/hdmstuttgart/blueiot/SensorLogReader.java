@@ -0,0 +1,209 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reader for a recording in the binary sensor log format (see SensorLogFormat).
+ * All committed records of all segments are memory-mapped read-only and can be scanned and searched by timestamp (e.g. for replaying,
+ * see RecordingFrameSource).
+ * Records are addressed by their position within the recording (0 being the first record of the first segment).
+ */
+public final class SensorLogReader implements Closeable {
+    private final int channelCount;
+    private final int recordSize;
+
+    //Committed records of the segments and the position of the first record of each segment
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final List<Long> segmentStarts = new ArrayList<>();
+    private long recordCount;
+
+    /**
+     * Constructor
+     * @param directory Directory of the recording
+     */
+    public SensorLogReader(File directory) throws IOException {
+        int channelCount = -1;
+        int segment = 0;
+        File file = SensorLogFormat.getSegmentFile(directory, segment);
+        while (file.isFile()) {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SensorLogFormat.HEADER_SIZE);
+                if (header.getInt(0) != SensorLogFormat.MAGIC || header.getInt(4) != SensorLogFormat.VERSION) {
+                    throw new IOException("Unsupported segment " + file);
+                }
+                if (channelCount != -1 && header.getInt(12) != channelCount) {
+                    throw new IOException("Inconsistent segment " + file);
+                }
+                channelCount = header.getInt(12);
+
+                long count = header.getLong(SensorLogFormat.HEADER_OFFSET_RECORD_COUNT);
+                long size = SensorLogFormat.HEADER_SIZE + count * header.getInt(8);
+                if (count < 0 || size > channel.size()) {
+                    throw new IOException("Corrupt segment " + file);
+                }
+
+                this.segments.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+                this.segmentStarts.add(this.recordCount);
+                this.recordCount += count;
+            }
+            finally {
+                randomAccessFile.close();
+            }
+
+            segment++;
+            file = SensorLogFormat.getSegmentFile(directory, segment);
+        }
+
+        this.channelCount = Math.max(0, channelCount);
+        this.recordSize = SensorLogFormat.getRecordSize(this.channelCount);
+    }
+
+    /**
+     * @return The number of committed records in all segments
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    public int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    public int getChannelCount() {
+        return this.channelCount;
+    }
+
+    /**
+     * @return A cursor positioned before the first record
+     */
+    public Cursor scan() {
+        return new Cursor(0);
+    }
+
+    /**
+     * Looks up the first record that has been measured at or after the given time (binary search)
+     * @return A cursor positioned before that record (i.e. the next call of next() moves to it)
+     */
+    public Cursor seek(long timestamp) {
+        long low = 0;
+        long high = this.recordCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return new Cursor(low);
+    }
+
+    /**
+     * Releases the segments (the mappings are released by the garbage collector)
+     */
+    @Override
+    public void close() {
+        this.segments.clear();
+        this.segmentStarts.clear();
+        this.recordCount = 0;
+    }
+
+    private long getTimestamp(long position) {
+        int segment = findSegment(position);
+        return this.segments.get(segment).getLong(getOffset(segment, position) + 8);
+    }
+
+    /**
+     * @return The segment containing the record at the given position (binary search)
+     */
+    private int findSegment(long position) {
+        int low = 0;
+        int high = this.segmentStarts.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (this.segmentStarts.get(middle) <= position) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The offset of a record within its segment
+     */
+    private int getOffset(int segment, long position) {
+        return SensorLogFormat.HEADER_SIZE + (int) (position - this.segmentStarts.get(segment)) * this.recordSize;
+    }
+
+    /**
+     * Iterates over the records, starting at a given position
+     */
+    public final class Cursor {
+        private long nextPosition;
+        private MappedByteBuffer buffer;
+        private int offset;
+
+        private Cursor(long position) {
+            this.nextPosition = position;
+        }
+
+        /**
+         * Moves to the next record
+         * @return false if there are no more records
+         */
+        public boolean next() {
+            if (this.nextPosition >= recordCount) {
+                this.buffer = null;
+                return false;
+            }
+
+            int segment = findSegment(this.nextPosition);
+            this.buffer = segments.get(segment);
+            this.offset = getOffset(segment, this.nextPosition);
+            this.nextPosition++;
+            return true;
+        }
+
+        /**
+         * @return The position of the current record within the recording
+         */
+        public long getPosition() {
+            return this.nextPosition - 1;
+        }
+
+        public long getSampleIndex() {
+            return this.buffer.getLong(this.offset);
+        }
+
+        public long getTimestamp() {
+            return this.buffer.getLong(this.offset + 8);
+        }
+
+        public float getValue(int channel) {
+            return this.buffer.getFloat(this.offset + SensorLogFormat.RECORD_HEADER_SIZE + channel * 4);
+        }
+
+        /**
+         * Copies the values of the current record
+         * @param values Destination, must be able to hold one value per channel from offset on
+         */
+        public void getValues(float[] values, int offset) {
+            for (int channel = 0; channel < channelCount; channel++) {
+                values[offset + channel] = getValue(channel);
+            }
+        }
+    }
+}
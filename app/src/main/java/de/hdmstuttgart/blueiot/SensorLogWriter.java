@@ -0,0 +1,130 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only writer for the binary sensor log (see SensorLogFormat).
+ * The current segment is memory-mapped, so appending a record is a plain memory write without a system call.
+ * The data is forced to the storage by flush() and whenever a segment is full, which also commits the record count in the header.
+ * Records that have been appended after the last flush() may be lost if the process is killed.
+ * Not thread-safe, meant to be used by a single writer thread (see SensorRecorder).
+ */
+public final class SensorLogWriter implements Closeable {
+    private final File directory;
+    private final int channelCount;
+    private final int recordSize;
+
+    private MappedByteBuffer segmentBuffer;
+    private int segment = -1;
+    private int segmentRecordCount;
+    private volatile long recordCount;
+
+    /**
+     * Constructor
+     * @param directory Directory of the recording, will be created if it doesn't exist (existing segments are deleted)
+     * @param channelCount Number of values per sample
+     */
+    public SensorLogWriter(File directory, int channelCount) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+
+        //Remove a previous recording in the same directory
+        int segment = 0;
+        while (SensorLogFormat.getSegmentFile(directory, segment).delete()) {
+            segment++;
+        }
+
+        this.directory = directory;
+        this.channelCount = channelCount;
+        this.recordSize = SensorLogFormat.getRecordSize(channelCount);
+    }
+
+    /**
+     * Appends a record
+     * @param sampleIndex Index of the sample
+     * @param timestamp Time of measurement
+     * @param values Array containing the values of the sample, one per channel
+     * @param offset Index of the value of the first channel
+     */
+    public void append(long sampleIndex, long timestamp, float[] values, int offset) throws IOException {
+        if (this.segmentBuffer == null || this.segmentRecordCount == SensorLogFormat.RECORDS_PER_SEGMENT) {
+            nextSegment();
+        }
+
+        MappedByteBuffer buffer = this.segmentBuffer;
+        int position = SensorLogFormat.HEADER_SIZE + this.segmentRecordCount * this.recordSize;
+        buffer.putLong(position, sampleIndex);
+        buffer.putLong(position + 8, timestamp);
+        position += SensorLogFormat.RECORD_HEADER_SIZE;
+        for (int channel = 0; channel < this.channelCount; channel++) {
+            buffer.putFloat(position, values[offset + channel]);
+            position += 4;
+        }
+
+        this.segmentRecordCount++;
+        this.recordCount++;
+    }
+
+    /**
+     * Commits the appended records: updates the record count of the current segment and forces the segment to the storage
+     */
+    public void flush() {
+        if (this.segmentBuffer != null) {
+            this.segmentBuffer.putLong(SensorLogFormat.HEADER_OFFSET_RECORD_COUNT, this.segmentRecordCount);
+            this.segmentBuffer.force();
+        }
+    }
+
+    /**
+     * @return The number of records that have been appended
+     */
+    public long getRecordCount() {
+        return this.recordCount;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Commits the appended records and releases the current segment
+     */
+    @Override
+    public void close() {
+        flush();
+        this.segmentBuffer = null;
+    }
+
+    /**
+     * Commits the current segment and maps the next one
+     */
+    private void nextSegment() throws IOException {
+        flush();
+
+        this.segment++;
+        this.segmentRecordCount = 0;
+
+        long size = SensorLogFormat.HEADER_SIZE + (long) SensorLogFormat.RECORDS_PER_SEGMENT * this.recordSize;
+        RandomAccessFile file = new RandomAccessFile(SensorLogFormat.getSegmentFile(this.directory, this.segment), "rw");
+        try {
+            //The mapping stays valid after the file has been closed
+            file.setLength(size);
+            this.segmentBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        finally {
+            file.close();
+        }
+
+        this.segmentBuffer.putInt(0, SensorLogFormat.MAGIC);
+        this.segmentBuffer.putInt(4, SensorLogFormat.VERSION);
+        this.segmentBuffer.putInt(8, this.recordSize);
+        this.segmentBuffer.putInt(12, this.channelCount);
+        this.segmentBuffer.putLong(SensorLogFormat.HEADER_OFFSET_RECORD_COUNT, 0);
+    }
+}
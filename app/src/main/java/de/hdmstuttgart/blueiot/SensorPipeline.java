@@ -0,0 +1,104 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Processing path of a single notification: decoding (format negotiated with the first notification) and ingest
+ * (sample index, timestamps, loss detection), ending in a Sink that receives the samples.
+ * onCharacteristicChanged() passes the raw value of every notification to onFrame(); a ReplayEngine does the same with recorded
+ * or synthetic notifications, so both run through exactly the same code.
+ * In the connectionless mode the samples are read from the advertisements instead (onAdvertisement(), see SensorFrameFormat), they run through
+ * the same ingest, so advertisements repeating a sample are counted as duplicates and samples that were never advertised as lost.
+ * onFrame() and onAdvertisement() must only be called from a single thread (i.e. the Binder-Thread or the replay thread), nothing is allocated.
+ */
+public final class SensorPipeline implements ReplayEngine.FrameListener {
+    private final NegotiatedFrameDecoder decoder = new NegotiatedFrameDecoder();
+    private final AdvertisementParser advertisementParser = new AdvertisementParser();
+    private final BinaryFrameDecoder advertisementDecoder = new BinaryFrameDecoder();
+    private final SensorFrame frame = new SensorFrame(SensorFrameFormat.getMaxBinarySamples(SensorFrameFormat.MAX_PAYLOAD_SIZE));
+    private final SensorIngest ingest = new SensorIngest(SensorIngest.DEFAULT_SAMPLE_PERIOD);
+    private final SensorIngest.Sink sink;
+
+    //Measures the latency of the stages (disabled by default), the consumer records the stages after the hand-over
+    private final LatencyTracer tracer = new LatencyTracer();
+
+    //Only written by the processing thread
+    private volatile long malformedCount;
+
+    /**
+     * Constructor
+     * @param sink Receives the samples that are new and in order
+     */
+    public SensorPipeline(SensorIngest.Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Processes the raw value of a notification
+     * @param data The raw value of the characteristic
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     * @return The number of samples handed over to the sink
+     */
+    @Override
+    public int onFrame(byte[] data, long receivedTime) {
+        this.tracer.onNotification(receivedTime);
+        if (!this.decoder.decode(data, this.frame)) {
+            this.malformedCount = this.malformedCount + 1;
+            return 0;
+        }
+        this.tracer.record(LatencyTracer.STAGE_PARSE, receivedTime);
+        return ingest(receivedTime);
+    }
+
+    /**
+     * Processes the scan record of an advertisement, e.g. as passed to LeScanCallback.onLeScan()
+     * @param scanRecord The raw advertisement data
+     * @param receivedTime Time the advertisement has been received (System.nanoTime())
+     * @return The number of samples handed over to the sink (0 if the advertisement doesn't contain a new sample)
+     */
+    public int onAdvertisement(byte[] scanRecord, long receivedTime) {
+        this.tracer.onNotification(receivedTime);
+        this.advertisementParser.parse(scanRecord);
+        if (!this.advertisementParser.hasSensorFrame()) {
+            return 0;
+        }
+        if (!this.advertisementDecoder.decode(scanRecord, this.advertisementParser.getSensorFrameOffset(),
+                this.advertisementParser.getSensorFrameLength(), this.frame)) {
+            this.malformedCount = this.malformedCount + 1;
+            return 0;
+        }
+        this.tracer.record(LatencyTracer.STAGE_PARSE, receivedTime);
+        return ingest(receivedTime);
+    }
+
+    /**
+     * Hands over the decoded frame to the ingest
+     */
+    private int ingest(long receivedTime) {
+        int count = this.ingest.ingest(this.frame, receivedTime, this.sink);
+        if (count > 0) {
+            this.tracer.onEnqueued(receivedTime);
+        }
+        return count;
+    }
+
+    public SensorIngest getIngest() {
+        return this.ingest;
+    }
+
+    public LatencyTracer getTracer() {
+        return this.tracer;
+    }
+
+    /**
+     * @return The negotiated format (one of the FORMAT-constants in SensorFrameFormat)
+     */
+    public int getFormat() {
+        return this.decoder.getFormat();
+    }
+
+    /**
+     * @return The number of notifications (or sensor frames of advertisements) that could not be decoded
+     */
+    public long getMalformedCount() {
+        return this.malformedCount;
+    }
+}
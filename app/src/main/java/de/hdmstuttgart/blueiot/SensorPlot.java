@@ -0,0 +1,226 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Converts the newest samples of a SensorSeriesStore into line segments in pixel coordinates, one array per channel,
+ * laid out as expected by Canvas.drawLines() (x0, y0, x1, y1, x0, y1, ...), so a whole channel is drawn with a single call.
+ * The arrays are allocated once per surface size, update() only overwrites them.
+ * The X-Axis shows the last 'window' nanoseconds, the Y-Axis is shared by all channels and fitted to the visible values (as the GraphView does).
+ * If several samples fall onto the same pixel column, the column is drawn as a vertical line from the smallest to the largest value,
+ * so a frame never contains more than two segments per column and channel, no matter how many samples are visible.
+ * Gap markers (see SensorSeriesStore.appendGap()) interrupt the lines.
+ * Independent of the Android framework, the segments are drawn by SensorPlotThread.
+ */
+public final class SensorPlot {
+    //Space above the largest and below the smallest value, relative to the visible range
+    private static final float MARGIN = 0.05f;
+
+    private final int channelCount;
+
+    private int width;
+    private int height;
+
+    //Line segments of each channel (4 floats per segment) and the number of floats that are used
+    private float[][] lines;
+    private final int[] lineLengths;
+
+    //Range of the Y-Axis and number of samples of the last update
+    private float minimum;
+    private float maximum;
+    private int visibleCount;
+
+    //Pixel column that is being collected, only used within update()
+    private int column;
+    private int columnCount;
+    private float columnFirst;
+    private float columnLast;
+    private float columnMin;
+    private float columnMax;
+    private float previousX;
+    private float previousY;
+
+    /**
+     * Constructor
+     * @param channelCount Number of values per sample
+     */
+    public SensorPlot(int channelCount) {
+        this.channelCount = channelCount;
+        this.lines = new float[channelCount][0];
+        this.lineLengths = new int[channelCount];
+    }
+
+    /**
+     * Sets the size of the plot, the segment arrays are only reallocated if the width changes
+     * @param width Width of the plot in pixels
+     * @param height Height of the plot in pixels
+     */
+    public void setSize(int width, int height) {
+        if (width != this.width) {
+            //At most two segments per pixel column
+            for (int channel = 0; channel < this.channelCount; channel++) {
+                this.lines[channel] = new float[8 * (width + 1)];
+                this.lineLengths[channel] = 0;
+            }
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Builds the line segments for the newest samples of the store
+     * @param store The samples to draw
+     * @param window The time span shown on the X-Axis in nanoseconds, ending with the newest sample
+     */
+    public void update(SensorSeriesStore store, long window) {
+        for (int channel = 0; channel < this.channelCount; channel++) {
+            this.lineLengths[channel] = 0;
+        }
+
+        int size = store.size();
+        this.visibleCount = 0;
+        if (size == 0 || this.width <= 0 || this.height <= 0) {
+            return;
+        }
+
+        long end = store.getTimestamp(size - 1);
+        long start = end - window;
+        int first = store.positionOf(start);
+        this.visibleCount = size - first;
+
+        //Shared range of the Y-Axis
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int channel = 0; channel < this.channelCount; channel++) {
+            for (int position = first; position < size; position++) {
+                float value = store.getValue(channel, position);
+                if (value < min) {
+                    min = value;
+                }
+                if (value > max) {
+                    max = value;
+                }
+            }
+        }
+        if (min > max) {
+            //Only gap markers
+            return;
+        }
+        float margin = Math.max(max - min, 1f) * MARGIN;
+        this.minimum = min - margin;
+        this.maximum = max + margin;
+
+        float scaleX = this.width / (float) window;
+        float scaleY = this.height / (this.maximum - this.minimum);
+        for (int channel = 0; channel < this.channelCount; channel++) {
+            this.column = -1;
+            this.previousY = Float.NaN;
+            for (int position = first; position < size; position++) {
+                float value = store.getValue(channel, position);
+                if (Float.isNaN(value)) {
+                    //Gap marker --> don't connect to the next sample
+                    flushColumn(channel);
+                    this.column = -1;
+                    this.previousY = Float.NaN;
+                    continue;
+                }
+
+                int x = Math.min(this.width, (int) ((store.getTimestamp(position) - start) * scaleX));
+                float y = this.height - (value - this.minimum) * scaleY;
+                if (x != this.column) {
+                    flushColumn(channel);
+                    this.column = x;
+                    this.columnCount = 1;
+                    this.columnFirst = y;
+                    this.columnLast = y;
+                    this.columnMin = y;
+                    this.columnMax = y;
+                }
+                else {
+                    this.columnCount++;
+                    this.columnLast = y;
+                    this.columnMin = Math.min(this.columnMin, y);
+                    this.columnMax = Math.max(this.columnMax, y);
+                }
+            }
+            flushColumn(channel);
+        }
+    }
+
+    /**
+     * Adds the segments of the collected pixel column: from the previous column to its first sample and from its smallest to its largest value
+     */
+    private void flushColumn(int channel) {
+        if (this.column < 0) {
+            return;
+        }
+
+        float[] segments = this.lines[channel];
+        int length = this.lineLengths[channel];
+        if (length + 8 > segments.length) {
+            //A column can only be visited twice if a gap marker lies within it, drop the segments rather than allocating
+            this.column = -1;
+            return;
+        }
+        if (!Float.isNaN(this.previousY)) {
+            segments[length++] = this.previousX;
+            segments[length++] = this.previousY;
+            segments[length++] = this.column;
+            segments[length++] = this.columnFirst;
+        }
+        if (this.columnCount > 1 && this.columnMin != this.columnMax) {
+            segments[length++] = this.column;
+            segments[length++] = this.columnMin;
+            segments[length++] = this.column;
+            segments[length++] = this.columnMax;
+        }
+        this.lineLengths[channel] = length;
+
+        this.previousX = this.column;
+        this.previousY = this.columnLast;
+        this.column = -1;
+    }
+
+    /**
+     * @param channel Index of the channel
+     * @return The line segments of the channel (x0, y0, x1, y1, ...), only the first getLineLength() floats are valid
+     */
+    public float[] getLines(int channel) {
+        return this.lines[channel];
+    }
+
+    /**
+     * @param channel Index of the channel
+     * @return The number of valid floats in getLines() (4 per segment)
+     */
+    public int getLineLength(int channel) {
+        return this.lineLengths[channel];
+    }
+
+    /**
+     * @return The value at the bottom of the plot
+     */
+    public float getMinimum() {
+        return this.minimum;
+    }
+
+    /**
+     * @return The value at the top of the plot
+     */
+    public float getMaximum() {
+        return this.maximum;
+    }
+
+    /**
+     * @return The number of samples (and gap markers) within the window of the last update
+     */
+    public int getVisibleCount() {
+        return this.visibleCount;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+}
@@ -0,0 +1,274 @@
+package de.hdmstuttgart.blueiot;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.SurfaceHolder;
+import android.view.WindowManager;
+
+import java.util.Locale;
+
+/**
+ * Custom Thread-Class that draws the line chart of the sensor-values onto a SensorPlotView, as an alternative to the GraphView.
+ * The Thread is the consumer of the SensorRingBuffer: it drains the new samples into its own SensorSeriesStore, converts the visible ones
+ * into line segments (see SensorPlot) and draws each channel with a single Canvas.drawLines()-call, all without allocating anything.
+ * So neither decoding, nor storing, nor drawing the samples takes any time on the UI-Thread.
+ * Frames are drawn as often as ConnectionGovernor.getFramesPerDrain() suggests for a graph, and only if new samples have arrived.
+ */
+public class SensorPlotThread extends Thread {
+    //Time span shown on the X-Axis
+    private static final long WINDOW = 10000000000L;
+
+    private final SurfaceHolder surfaceHolder;
+
+    //Hand-over of the samples (this Thread is the consumer) and the samples that are drawn, owned by this Thread while it is running
+    private final SensorRingBuffer ringBuffer;
+    private final SensorSeriesStore store;
+
+    private final SensorPlot plot;
+    private final LatencyTracer tracer;
+    private final FrameTimeStatistics frameStatistics;
+
+    //Paint-Objects used to draw the lines (one per channel), the legend and the labels of the Y-Axis
+    private final Paint[] linePaints;
+    private final Paint textPaint = new Paint();
+    private final Paint gridPaint = new Paint();
+    private final String[] titles;
+
+    //Labels of the Y-Axis, only formatted anew if the range has changed (only accessed by this Thread)
+    private float labelMinimum = Float.NaN;
+    private float labelMaximum = Float.NaN;
+    private String minimumLabel = "";
+    private String maximumLabel = "";
+
+    private volatile boolean run = false;
+
+    //Set by the producer, so that it only has to request a frame once per frame
+    private volatile boolean isRenderRequested;
+
+    //Changes of the samples requested by the UI-Thread, carried out by this Thread before the next frame
+    private volatile boolean isGapRequested;
+    private volatile boolean isClearRequested;
+
+    //Decides when a new frame has to be drawn
+    private final RenderScheduler renderScheduler;
+    public RenderScheduler getRenderScheduler() {
+        return this.renderScheduler;
+    }
+
+    /**
+     * Constructor
+     * @param surfaceHolder The SurfaceHolder that encapsulates the underlying Canvas-Element
+     * @param context The Context used to look up the refresh rate of the display
+     * @param ringBuffer The buffer the samples are drained from, must not be drained by any other thread while this Thread is running
+     * @param store The samples drawn so far, must not be accessed by any other thread while this Thread is running
+     * @param tracer The LatencyTracer of the pipeline delivering the samples
+     * @param frameStatistics Records the time it takes to draw each frame
+     * @param titles The title of each channel, shown in the legend
+     * @param colors The color of each channel
+     */
+    public SensorPlotThread(SurfaceHolder surfaceHolder, Context context, SensorRingBuffer ringBuffer, SensorSeriesStore store,
+                            LatencyTracer tracer, FrameTimeStatistics frameStatistics, String[] titles, int[] colors) {
+        this.surfaceHolder = surfaceHolder;
+        this.ringBuffer = ringBuffer;
+        this.store = store;
+        this.tracer = tracer;
+        this.frameStatistics = frameStatistics;
+        this.titles = titles;
+        this.plot = new SensorPlot(store.getChannelCount());
+
+        this.linePaints = new Paint[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            this.linePaints[i] = new Paint();
+            this.linePaints[i].setColor(colors[i]);
+            this.linePaints[i].setStrokeWidth(3);
+            this.linePaints[i].setAntiAlias(true);
+            this.linePaints[i].setTextSize(24);
+        }
+
+        this.textPaint.setColor(Color.DKGRAY);
+        this.textPaint.setTextSize(24);
+        this.textPaint.setAntiAlias(true);
+
+        this.gridPaint.setColor(Color.LTGRAY);
+        this.gridPaint.setStrokeWidth(1);
+
+        //A graph doesn't need to move with every frame
+        WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        this.renderScheduler = new RenderScheduler(windowManager.getDefaultDisplay().getRefreshRate()
+                / ConnectionGovernor.getFramesPerDrain(ConnectionGovernor.PROFILE_GRAPH));
+    }
+
+    /**
+     * Is called continuously while the Thread is running.
+     * A frame is only drawn if the RenderScheduler requests it (i.e. new samples have arrived or the surface has changed), otherwise the Thread sleeps.
+     */
+    @Override
+    public void run() {
+        super.run();
+
+        //Infinite loop until the Thread is being stopped
+        while (this.run) {
+            try {
+                if (!this.renderScheduler.awaitFrame()) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                break;
+            }
+
+            long frameStart = System.nanoTime();
+
+            //Samples offered from now on request the next frame
+            this.isRenderRequested = false;
+            if (this.isClearRequested) {
+                this.isClearRequested = false;
+                this.store.clear(1);
+            }
+            if (this.ringBuffer.drain(this.storeAppender) > 0) {
+                this.tracer.recordPending(LatencyTracer.STAGE_DRAIN);
+            }
+            if (this.isGapRequested) {
+                this.isGapRequested = false;
+                this.store.appendGap();
+            }
+
+            Canvas canvas = null;
+            try {
+                //Lock the Canvas, then draw onto it
+                canvas = this.surfaceHolder.lockCanvas();
+                if (canvas != null) {
+                    synchronized (this.surfaceHolder) {
+                        this.plot.update(this.store, WINDOW);
+                        doDraw(canvas);
+                    }
+                    this.tracer.recordPending(LatencyTracer.STAGE_DRAW);
+                }
+            }
+            finally {
+                //Unlock Canvas and post it back
+                if (canvas != null) {
+                    this.surfaceHolder.unlockCanvasAndPost(canvas);
+                    this.tracer.completePending(LatencyTracer.STAGE_POST);
+                }
+            }
+
+            if (canvas != null) {
+                long frameTime = System.nanoTime() - frameStart;
+                this.renderScheduler.onFrameRendered(frameTime);
+                this.frameStatistics.record(frameTime);
+            }
+        }
+    }
+
+    /**
+     * Draws onto the Canvas
+     * @param canvas The Canvas to draw onto
+     */
+    private void doDraw(Canvas canvas) {
+        canvas.drawColor(Color.WHITE);
+
+        //Draw the grid and the range of the Y-Axis
+        float width = this.plot.getWidth();
+        float height = this.plot.getHeight();
+        canvas.drawLine(0, 0, width, 0, this.gridPaint);
+        canvas.drawLine(0, height / 2, width, height / 2, this.gridPaint);
+        canvas.drawLine(0, height - 1, width, height - 1, this.gridPaint);
+        if (this.plot.getVisibleCount() > 0) {
+            updateLabels();
+            canvas.drawText(this.maximumLabel, 4, this.textPaint.getTextSize(), this.textPaint);
+            canvas.drawText(this.minimumLabel, 4, height - 4, this.textPaint);
+        }
+
+        //Draw each channel with a single call
+        for (int channel = 0; channel < this.linePaints.length; channel++) {
+            canvas.drawLines(this.plot.getLines(channel), 0, this.plot.getLineLength(channel), this.linePaints[channel]);
+        }
+
+        //Draw the legend in the top right
+        float x = width;
+        for (int channel = this.titles.length - 1; channel >= 0; channel--) {
+            x -= this.textPaint.measureText(this.titles[channel]) + 16;
+            canvas.drawText(this.titles[channel], x, this.textPaint.getTextSize(), this.linePaints[channel]);
+        }
+    }
+
+    /**
+     * Formats the labels of the Y-Axis, if the range has changed since the last frame
+     */
+    private void updateLabels() {
+        if (this.plot.getMinimum() != this.labelMinimum || this.plot.getMaximum() != this.labelMaximum) {
+            this.labelMinimum = this.plot.getMinimum();
+            this.labelMaximum = this.plot.getMaximum();
+            this.minimumLabel = String.format(Locale.US, "%.1f", this.labelMinimum);
+            this.maximumLabel = String.format(Locale.US, "%.1f", this.labelMaximum);
+        }
+    }
+
+    /**
+     * Appends the drained samples to the store, the timestamps have to be increasing
+     */
+    private final SensorRingBuffer.Consumer storeAppender = new SensorRingBuffer.Consumer() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values) {
+            int size = store.size();
+            if (size == 0 || timestamp > store.getTimestamp(size - 1)) {
+                store.append(timestamp, values, 0);
+            }
+        }
+    };
+
+    /**
+     * Has to be called by the producer after offering samples to the ring buffer, can be called from any thread
+     */
+    public void onSamplesAvailable() {
+        //Only the first call per frame has to take the lock of the RenderScheduler
+        if (!this.isRenderRequested) {
+            this.isRenderRequested = true;
+            this.renderScheduler.requestRender();
+        }
+    }
+
+    /**
+     * Interrupts the lines after the samples received so far (e.g. the connection has been lost), can be called from any thread
+     */
+    public void requestGap() {
+        this.isGapRequested = true;
+        this.renderScheduler.requestRender();
+    }
+
+    /**
+     * Discards all samples except for the newest one, can be called from any thread
+     */
+    public void requestClear() {
+        this.isClearRequested = true;
+        this.renderScheduler.requestRender();
+    }
+
+    /**
+     * Called when the surface size of the display changes (e.g. orientation of the device)
+     * @param width Pixel Width of the Surface
+     * @param height Pixel Height of the Surface
+     */
+    public void setSurfaceSize(int width, int height) {
+        synchronized (this.surfaceHolder) {
+            this.plot.setSize(width, height);
+        }
+
+        this.renderScheduler.requestRender();
+    }
+
+    /**
+     * Start/Stop the Thread
+     * @param doRun Boolean value indicating whether to start|stop the Thread
+     */
+    public void setRunning(boolean doRun) {
+        this.run = doRun;
+
+        //Wake up the Thread, so it can terminate
+        if (!doRun) {
+            this.renderScheduler.stop();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package de.hdmstuttgart.blueiot;
+
+import android.content.Context;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * Custom View-Class that displays the line chart of the sensor-values, drawn by a separate background-thread (see SensorPlotThread).
+ * The samples drawn so far are kept by the View, so they survive the Thread (which only lives as long as the surface).
+ */
+public class SensorPlotView extends SurfaceView {
+    //Number of samples that are kept (~20 seconds at 100 Hz, the plot shows the last 10 seconds)
+    private static final int STORE_CAPACITY = 2048;
+
+    private final SensorSeriesStore store = new SensorSeriesStore(STORE_CAPACITY, SensorFrame.CHANNELS);
+    private final FrameTimeStatistics frameStatistics = new FrameTimeStatistics();
+
+    //Read by the thread delivering the samples
+    private volatile SensorPlotThread thread;
+    public SensorPlotThread getThread() {
+        return this.thread;
+    }
+
+    /**
+     * @return The time it takes the background-thread to drain, draw and post a frame
+     */
+    public FrameTimeStatistics getFrameStatistics() {
+        return this.frameStatistics;
+    }
+
+    /**
+     * Constructor
+     * @param context ApplicationContext used to inflate layout components
+     */
+    public SensorPlotView(Context context) {
+        super(context);
+    }
+
+    /**
+     * Constructor used when inflating the View from a layout
+     * @param context ApplicationContext used to inflate layout components
+     * @param attributes The attributes of the View in the layout
+     */
+    public SensorPlotView(Context context, AttributeSet attributes) {
+        super(context, attributes);
+    }
+
+    /**
+     * Initializes the SurfaceView by implementing all of its lifecycle-callback-methods that are used in order to draw (surfaceCreated|surfaceChanged|surfaceDestroyed)
+     * The background-thread is started whenever the surface is created, i.e. when the View becomes visible.
+     * @param ringBuffer The buffer the samples are drained from, the background-thread is its only consumer while it is running
+     * @param tracer The LatencyTracer of the pipeline delivering the samples
+     * @param titles The title of each channel, shown in the legend
+     * @param colors The color of each channel
+     */
+    public void initialize(final SensorRingBuffer ringBuffer, final LatencyTracer tracer, final String[] titles, final int[] colors) {
+        SurfaceHolder surfaceHolder = this.getHolder();
+        surfaceHolder.addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                //Start new 'Drawing'-Thread, it takes over the ring buffer and the samples drawn so far
+                SensorPlotThread newThread = new SensorPlotThread(holder, getContext(), ringBuffer, store, tracer, frameStatistics, titles, colors);
+                newThread.setRunning(true);
+                newThread.start();
+                thread = newThread;
+            }
+
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+                //Update the Surface Size
+                SensorPlotThread currentThread = thread;
+                if (currentThread != null) {
+                    currentThread.setSurfaceSize(width, height);
+                }
+            }
+
+            @Override
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                stopThread();
+            }
+        });
+    }
+
+    /**
+     * Stops the background-thread and waits until it has terminated, afterwards the ring buffer can be drained by another thread again
+     */
+    public void stopThread() {
+        SensorPlotThread stoppedThread = this.thread;
+        if (stoppedThread == null) {
+            return;
+        }
+        this.thread = null;
+
+        boolean retry = true;
+        stoppedThread.setRunning(false);
+        while (retry) {
+            try {
+                stoppedThread.join();
+                retry = false;
+            } catch (InterruptedException ex) {}
+        }
+    }
+
+    /**
+     * Has to be called after samples have been offered to the ring buffer, can be called from any thread
+     */
+    public void onSamplesAvailable() {
+        SensorPlotThread currentThread = this.thread;
+        if (currentThread != null) {
+            currentThread.onSamplesAvailable();
+        }
+    }
+
+    /**
+     * Interrupts the lines after the samples received so far (e.g. the connection has been lost). Must be called from the UI-Thread.
+     */
+    public void markGap() {
+        SensorPlotThread currentThread = this.thread;
+        if (currentThread != null) {
+            currentThread.requestGap();
+        }
+        else {
+            this.store.appendGap();
+        }
+    }
+
+    /**
+     * Discards all samples except for the newest one. Must be called from the UI-Thread.
+     */
+    public void clear() {
+        SensorPlotThread currentThread = this.thread;
+        if (currentThread != null) {
+            currentThread.requestClear();
+        }
+        else {
+            this.store.clear(1);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package de.hdmstuttgart.blueiot;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records a sensor stream into the binary sensor log (see SensorLogWriter).
+ * The producer (i.e. the Binder-Thread delivering onCharacteristicChanged()) only hands over the samples through a lock-free
+ * ring buffer, so it is never blocked by the storage. A separate writer thread drains the ring buffer into the memory-mapped log
+ * and forces the log to the storage periodically. If the writer falls behind, samples are dropped and counted.
+ * Stopping doesn't block either: the writer thread writes the remaining samples, closes the log and then informs a Listener.
+ * Only the DetailActivity records, the recordings are read back by the ReplayEngine (see SensorLogReader).
+ */
+public final class SensorRecorder {
+    //Time between two drains of the ring buffer in milliseconds
+    private static final long DRAIN_INTERVAL = 20;
+
+    //Time between two flushes of the log in milliseconds
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * Informed once a stopped recording has been completely written
+     */
+    public interface Listener {
+        /**
+         * Called on the writer thread after the log has been closed
+         * @param recorder The stopped recorder, its counters and error are final now
+         */
+        void onRecordingStopped(SensorRecorder recorder);
+    }
+
+    private final SensorLogWriter writer;
+    private final SensorRingBuffer ringBuffer;
+    private final Thread writerThread;
+
+    private volatile boolean isRunning;
+
+    //Set by the producer while it hands over a sample, the final drain waits until the sample is in the ring buffer
+    private volatile boolean isOffering;
+
+    //Samples offered after recording has stopped, only written by the producer
+    private volatile long lateCount;
+
+    //Listener passed to stop(), guarded by this
+    private Listener stopListener;
+    private boolean isClosed;
+
+    //First error of the writer thread, recording stops afterwards
+    private volatile IOException error;
+
+    //Error of an append, only accessed from the writer thread (SensorRingBuffer.Consumer can't throw checked exceptions)
+    private IOException appendError;
+
+    /**
+     * Constructor
+     * @param directory Directory of the recording (see SensorLogWriter)
+     * @param channelCount Number of values per sample
+     * @param bufferCapacity Number of samples that can be buffered while the writer thread is busy
+     */
+    public SensorRecorder(File directory, int channelCount, int bufferCapacity) throws IOException {
+        this.writer = new SensorLogWriter(directory, channelCount);
+        this.ringBuffer = new SensorRingBuffer(bufferCapacity, channelCount);
+        this.writerThread = new Thread(this.writerLoop, "SensorRecorder");
+    }
+
+    /**
+     * Starts the writer thread
+     */
+    public void start() {
+        this.isRunning = true;
+        this.writerThread.start();
+    }
+
+    /**
+     * Hands over a sample to the writer thread. Must only be called from a single producer thread, never blocks.
+     * @return true if the sample has been buffered, false if the buffer was full or recording has stopped (the sample is counted as dropped)
+     */
+    public boolean record(long sampleIndex, long timestamp, float[] values, int offset) {
+        this.isOffering = true;
+        boolean isBuffered;
+        if (this.isRunning) {
+            isBuffered = this.ringBuffer.offer(sampleIndex, timestamp, values, offset);
+        }
+        else {
+            //Too late for the final drain
+            this.lateCount = this.lateCount + 1;
+            isBuffered = false;
+        }
+        this.isOffering = false;
+        return isBuffered;
+    }
+
+    /**
+     * Stops recording without waiting for the writer thread, which writes all buffered samples and closes the log
+     * @param listener Informed on the writer thread once the log has been closed (right away if it already is), can be null
+     */
+    public void stop(Listener listener) {
+        boolean isAlreadyClosed;
+        synchronized (this) {
+            isAlreadyClosed = this.isClosed;
+            this.stopListener = listener;
+        }
+
+        //Not interrupted: an interrupt during a write would close the FileChannel of the log (ClosedByInterruptException)
+        this.isRunning = false;
+        LockSupport.unpark(this.writerThread);
+
+        if (isAlreadyClosed && listener != null) {
+            //Stopped by an error before
+            listener.onRecordingStopped(this);
+        }
+    }
+
+    /**
+     * @return The number of samples that have been written to the log
+     */
+    public long getRecordedCount() {
+        return this.writer.getRecordCount();
+    }
+
+    /**
+     * @return The number of samples that have been dropped because the writer thread fell behind or recording had already stopped
+     */
+    public long getDroppedCount() {
+        return this.ringBuffer.getDroppedCount() + this.lateCount;
+    }
+
+    /**
+     * @return The error that stopped the recording or null
+     */
+    public IOException getError() {
+        return this.error;
+    }
+
+    public File getDirectory() {
+        return this.writer.getDirectory();
+    }
+
+    /**
+     * Drains the ring buffer into the log until recording is stopped
+     */
+    private final Runnable writerLoop = new Runnable() {
+        @Override
+        public void run() {
+            long lastFlush = System.nanoTime();
+            try {
+                while (isRunning) {
+                    if (ringBuffer.drain(logAppender) == 0) {
+                        //Woken up early by stop()
+                        LockSupport.parkNanos(DRAIN_INTERVAL * 1000000);
+                    }
+                    throwPendingError();
+
+                    long now = System.nanoTime();
+                    if (now - lastFlush >= FLUSH_INTERVAL * 1000000) {
+                        writer.flush();
+                        lastFlush = now;
+                    }
+                }
+
+                //A sample that is being handed over right now might have seen isRunning before it was reset, so it has to be written as well
+                while (isOffering) {
+                    Thread.yield();
+                }
+                ringBuffer.drain(logAppender);
+                throwPendingError();
+            } catch (IOException ex) {
+                error = ex;
+                isRunning = false;
+            }
+            finally {
+                writer.close();
+                onClosed();
+            }
+        }
+    };
+
+    /**
+     * Appends the drained samples to the log (on the writer thread)
+     */
+    private final SensorRingBuffer.Consumer logAppender = new SensorRingBuffer.Consumer() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values) {
+            if (appendError == null) {
+                try {
+                    writer.append(sampleIndex, timestamp, values, 0);
+                } catch (IOException ex) {
+                    appendError = ex;
+                }
+            }
+        }
+    };
+
+    /**
+     * Informs the listener passed to stop() (on the writer thread)
+     */
+    private void onClosed() {
+        Listener listener;
+        synchronized (this) {
+            this.isClosed = true;
+            listener = this.stopListener;
+        }
+
+        if (listener != null) {
+            listener.onRecordingStopped(this);
+        }
+    }
+
+    private void throwPendingError() throws IOException {
+        if (this.appendError != null) {
+            throw this.appendError;
+        }
+    }
+}
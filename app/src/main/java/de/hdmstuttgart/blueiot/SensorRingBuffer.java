@@ -0,0 +1,143 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring buffer for sensor samples.
+ * Each channel (e.g. X, Y, Z and Height) is stored in its own primitive float-array, as are the sample indices and the timestamps,
+ * so handing over a sample does not allocate anything.
+ * The producer (i.e. the Binder-Thread delivering onCharacteristicChanged()) calls offer(), the consumer (i.e. the UI-Thread) calls drain().
+ * If the consumer falls behind and the buffer is full, new samples are dropped and counted.
+ */
+public final class SensorRingBuffer {
+    private final int channelCount;
+    private final int mask;
+    private final float[][] channels;
+    private final long[] sampleIndices;
+    private final long[] timestamps;
+
+    //Sequence of the next sample to be written (only advanced by the producer)
+    private final AtomicLong writeSequence = new AtomicLong();
+
+    //Sequence of the next sample to be read (only advanced by the consumer)
+    private final AtomicLong readSequence = new AtomicLong();
+
+    //Only written by the producer
+    private volatile long droppedCount;
+
+    //Scratch-array handed over to the consumer, only accessed from the consumer thread
+    private final float[] drainValues;
+
+    /**
+     * Callback used to hand over samples to the consumer
+     */
+    public interface Consumer {
+        /**
+         * Called for each sample that is drained from the buffer
+         * @param sampleIndex Index of the sample, as passed to offer()
+         * @param timestamp Timestamp of the sample, as passed to offer()
+         * @param values The values of the sample, one per channel. The array is reused and must not be kept.
+         */
+        void onSample(long sampleIndex, long timestamp, float[] values);
+    }
+
+    /**
+     * Constructor
+     * @param capacity Minimum number of samples the buffer can hold, will be rounded up to the next power of two
+     * @param channelCount Number of values per sample
+     */
+    public SensorRingBuffer(int capacity, int channelCount) {
+        if (capacity <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Capacity and channel count have to be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.channelCount = channelCount;
+        this.mask = size - 1;
+        this.channels = new float[channelCount][size];
+        this.sampleIndices = new long[size];
+        this.timestamps = new long[size];
+        this.drainValues = new float[channelCount];
+    }
+
+    /**
+     * Adds a sample to the buffer. Must only be called from the producer thread.
+     * @param sampleIndex Index of the sample (see SensorIngest)
+     * @param timestamp Time of measurement of the sample
+     * @param values Array containing the values of the sample, one per channel
+     * @param offset Index of the value of the first channel (e.g. for interleaved values of several samples)
+     * @return true if the sample was added, false if the buffer was full and the sample has been dropped
+     */
+    public boolean offer(long sampleIndex, long timestamp, float[] values, int offset) {
+        long write = this.writeSequence.get();
+        if (write - this.readSequence.get() > this.mask) {
+            this.droppedCount = this.droppedCount + 1;
+            return false;
+        }
+
+        int index = (int) (write & this.mask);
+        for (int channel = 0; channel < this.channelCount; channel++) {
+            this.channels[channel][index] = values[offset + channel];
+        }
+        this.sampleIndices[index] = sampleIndex;
+        this.timestamps[index] = timestamp;
+
+        //Publish the sample (release-store, the consumer will see all of the values written above)
+        this.writeSequence.lazySet(write + 1);
+        return true;
+    }
+
+    /**
+     * Hands over all samples that are currently available to the consumer. Must only be called from the consumer thread.
+     * @param consumer The Consumer receiving the samples
+     * @return The number of samples that were drained
+     */
+    public int drain(Consumer consumer) {
+        long read = this.readSequence.get();
+        long write = this.writeSequence.get();
+
+        for (long sequence = read; sequence < write; sequence++) {
+            int index = (int) (sequence & this.mask);
+            for (int channel = 0; channel < this.channelCount; channel++) {
+                this.drainValues[channel] = this.channels[channel][index];
+            }
+            consumer.onSample(this.sampleIndices[index], this.timestamps[index], this.drainValues);
+        }
+
+        //Free the slots for the producer
+        this.readSequence.lazySet(write);
+        return (int) (write - read);
+    }
+
+    /**
+     * Discards all samples that have not been drained yet. Must only be called from the consumer thread.
+     */
+    public void clear() {
+        this.readSequence.lazySet(this.writeSequence.get());
+    }
+
+    /**
+     * @return The number of samples that are currently waiting to be drained
+     */
+    public int size() {
+        return (int) (this.writeSequence.get() - this.readSequence.get());
+    }
+
+    /**
+     * @return The maximum number of samples the buffer can hold
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * @return The number of samples that were dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return this.droppedCount;
+    }
+}
@@ -0,0 +1,256 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Fixed-capacity circular store for the most recent samples of a sensor stream.
+ * The data is kept in columns: one long-array with the timestamps, shared by all channels, and one float-array per channel
+ * (e.g. X, Y, Z and Height). Appending a sample only copies primitives, once the store is full the oldest sample is overwritten.
+ * Samples are addressed by their position, 0 being the oldest sample that is still stored. The timestamps have to be increasing,
+ * which allows looking up the visible range by binary search.
+ * Optionally, the store maintains a MinMaxPyramid, which summarizes a much longer history than the store itself can hold.
+ * Interruptions of the stream (e.g. a lost connection) are stored as gap markers: samples whose values are all NaN.
+ * Not thread-safe, the store is meant to be filled and read on the UI-Thread.
+ */
+public final class SensorSeriesStore {
+    private final int mask;
+    private final long[] timestamps;
+    private final float[][] channels;
+    private final MinMaxPyramid pyramid;
+
+    //Values of a single sample, used to re-add the kept samples to the pyramid when clearing (null without a pyramid)
+    private final float[] row;
+
+    //Position of the next sample to be written (counting every sample ever appended) and number of stored samples
+    private long head;
+    private int size;
+
+    //Position of the first sample appended after the last clear (older samples are not part of the history)
+    private long first;
+
+    //Timestamp that is displayed at x = 0
+    private long timeOrigin;
+
+    //Incremented with every change, allows the readers to cache values derived from the contents
+    private int modificationCount;
+
+    /**
+     * Constructor
+     * @param capacity Minimum number of samples the store can hold, will be rounded up to the next power of two
+     * @param channelCount Number of values per sample
+     */
+    public SensorSeriesStore(int capacity, int channelCount) {
+        this(capacity, channelCount, 0, 0);
+    }
+
+    /**
+     * Constructor
+     * @param capacity Minimum number of samples the store can hold, will be rounded up to the next power of two
+     * @param channelCount Number of values per sample
+     * @param levelCount Number of levels of the MinMaxPyramid (0 for none), each level holds as many buckets as the store holds samples
+     * @param fanOut Factor between the bucket sizes of two adjacent levels of the MinMaxPyramid
+     */
+    public SensorSeriesStore(int capacity, int channelCount, int levelCount, int fanOut) {
+        if (capacity <= 0 || channelCount <= 0) {
+            throw new IllegalArgumentException("Capacity and channel count have to be positive");
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.mask = size - 1;
+        this.timestamps = new long[size];
+        this.channels = new float[channelCount][size];
+        this.pyramid = levelCount > 0 ? new MinMaxPyramid(size, channelCount, levelCount, fanOut) : null;
+        this.row = levelCount > 0 ? new float[channelCount] : null;
+    }
+
+    /**
+     * Appends a sample, overwriting the oldest sample if the store is full
+     * @param timestamp Time of measurement, has to be larger than the timestamp of the previous sample
+     * @param values Array containing the values of the sample, one per channel
+     * @param offset Index of the value of the first channel
+     */
+    public void append(long timestamp, float[] values, int offset) {
+        int index = (int) (this.head & this.mask);
+        this.timestamps[index] = timestamp;
+        for (int channel = 0; channel < this.channels.length; channel++) {
+            this.channels[channel][index] = values[offset + channel];
+        }
+
+        this.head++;
+        if (this.size <= this.mask) {
+            this.size++;
+        }
+
+        if (this.pyramid != null) {
+            this.pyramid.append(timestamp, values, offset);
+        }
+        this.modificationCount++;
+    }
+
+    /**
+     * Appends a gap marker right after the newest sample, so the line is interrupted instead of connecting the last sample before
+     * and the first sample after the gap (Canvas doesn't draw segments with NaN-coordinates). The newest buckets of the MinMaxPyramid
+     * are ended and flagged as well, so the gap remains visible when zoomed out.
+     * Nothing is appended if the store is empty or already ends with a gap marker.
+     */
+    public void appendGap() {
+        if (this.size == 0 || isGap(this.size - 1)) {
+            return;
+        }
+
+        int index = (int) (this.head & this.mask);
+        this.timestamps[index] = getTimestamp(this.size - 1) + 1;
+        for (float[] channel : this.channels) {
+            channel[index] = Float.NaN;
+        }
+
+        this.head++;
+        if (this.size <= this.mask) {
+            this.size++;
+        }
+
+        if (this.pyramid != null) {
+            this.pyramid.appendGap();
+        }
+        this.modificationCount++;
+    }
+
+    /**
+     * @param position Position of the sample, 0 being the oldest one
+     * @return true if the sample is a gap marker (see appendGap())
+     */
+    public boolean isGap(int position) {
+        return Float.isNaN(this.channels[0][toIndex(position)]);
+    }
+
+    /**
+     * Discards the stored samples, except for the newest ones
+     * @param keep Number of the newest samples to keep (e.g. 1 to continue the lines from the last value)
+     */
+    public void clear(int keep) {
+        this.size = Math.max(0, Math.min(keep, this.size));
+        this.first = this.head - this.size;
+
+        //Start the summarized history with the kept samples
+        if (this.pyramid != null) {
+            this.pyramid.clear();
+            for (int position = 0; position < this.size; position++) {
+                if (isGap(position)) {
+                    this.pyramid.appendGap();
+                    continue;
+                }
+                int index = toIndex(position);
+                for (int channel = 0; channel < this.channels.length; channel++) {
+                    this.row[channel] = this.channels[channel][index];
+                }
+                this.pyramid.append(this.timestamps[index], this.row, 0);
+            }
+        }
+        this.modificationCount++;
+    }
+
+    /**
+     * @return The number of stored samples
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The maximum number of samples that can be stored
+     */
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    public int getChannelCount() {
+        return this.channels.length;
+    }
+
+    /**
+     * @return true if samples have been overwritten, i.e. the store does not reach back to the first sample
+     */
+    public boolean isTruncated() {
+        return this.head - this.size > this.first;
+    }
+
+    /**
+     * @return The MinMaxPyramid summarizing the history or null, if the store has been created without one
+     */
+    public MinMaxPyramid getPyramid() {
+        return this.pyramid;
+    }
+
+    /**
+     * @param position Position of the sample, 0 being the oldest one
+     */
+    public long getTimestamp(int position) {
+        return this.timestamps[toIndex(position)];
+    }
+
+    /**
+     * @param channel Index of the channel
+     * @param position Position of the sample, 0 being the oldest one
+     */
+    public float getValue(int channel, int position) {
+        return this.channels[channel][toIndex(position)];
+    }
+
+    /**
+     * Looks up the first sample that has been measured at or after the given time (binary search)
+     * @return The position of the sample or size(), if all samples are older
+     */
+    public int positionOf(long timestamp) {
+        int low = 0;
+        int high = this.size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getTimestamp(middle) < timestamp) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param timeOrigin Timestamp that is displayed at x = 0
+     */
+    public void setTimeOrigin(long timeOrigin) {
+        this.timeOrigin = timeOrigin;
+        this.modificationCount++;
+    }
+
+    public long getTimeOrigin() {
+        return this.timeOrigin;
+    }
+
+    /**
+     * @return The time of a sample in seconds relative to the time origin (i.e. its X-Value)
+     */
+    public double getX(int position) {
+        return (getTimestamp(position) - this.timeOrigin) / 1000000000d;
+    }
+
+    /**
+     * @return The timestamp corresponding to the given X-Value
+     */
+    public long toTimestamp(double x) {
+        return this.timeOrigin + (long) (x * 1000000000d);
+    }
+
+    /**
+     * @return A counter that changes whenever the contents of the store change
+     */
+    public int getModificationCount() {
+        return this.modificationCount;
+    }
+
+    private int toIndex(int position) {
+        return (int) ((this.head - this.size + position) & this.mask);
+    }
+}
@@ -0,0 +1,169 @@
+package de.hdmstuttgart.blueiot;
+
+/**
+ * Everything that belongs to the stream of a single blueIOT on the dashboard (see DashboardActivity):
+ * its own SensorPipeline (decoder and ingest), a SensorRingBuffer handing over the samples and a SensorSeriesStore holding them for the graph.
+ * Several streams don't share any state, so the notifications of every device are processed on their own Binder-Thread without locking.
+ * onFrame() and onAdvertisement() must only be called by the thread delivering the notifications (or advertisements) of this device,
+ * drain(), markGap() and updateThroughput() by the UI-Thread.
+ */
+public final class SensorStream implements ReplayEngine.FrameListener {
+    //Hand-over between the Binder-Thread and the UI-Thread (~5 seconds at 100 Hz)
+    private static final int RING_BUFFER_CAPACITY = 512;
+
+    //Weight of a new throughput measurement (exponential moving average)
+    private static final double THROUGHPUT_SMOOTHING = 0.5;
+
+    private final String name;
+    private final SensorPipeline pipeline;
+    private final SensorRingBuffer ringBuffer = new SensorRingBuffer(RING_BUFFER_CAPACITY, SensorFrame.CHANNELS);
+    private final SensorSeriesStore seriesStore;
+
+    //Only written by the thread delivering the notifications
+    private volatile long notificationCount;
+
+    //Throughput, only accessed by the UI-Thread
+    private long lastUpdateTime;
+    private long lastSampleCount;
+    private long lastNotificationCount;
+    private double sampleThroughput;
+    private double notificationThroughput;
+
+    /**
+     * Constructor
+     * @param name Displayed name of the stream (e.g. the address of the device)
+     * @param seriesStore Store the drained samples are appended to
+     */
+    public SensorStream(String name, SensorSeriesStore seriesStore) {
+        this.name = name;
+        this.seriesStore = seriesStore;
+        this.pipeline = new SensorPipeline(new SensorIngest.Sink() {
+            @Override
+            public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+                ringBuffer.offer(sampleIndex, timestamp, values, offset);
+            }
+        });
+    }
+
+    /**
+     * Processes the raw value of a notification of this device
+     * @param data The raw value of the characteristic
+     * @param receivedTime Time the notification has been received (System.nanoTime())
+     * @return The number of samples handed over to the UI-Thread
+     */
+    @Override
+    public int onFrame(byte[] data, long receivedTime) {
+        this.notificationCount = this.notificationCount + 1;
+        return this.pipeline.onFrame(data, receivedTime);
+    }
+
+    /**
+     * Processes an advertisement of this device (connectionless mode), counted like a notification
+     * @param scanRecord The raw advertisement data
+     * @param receivedTime Time the advertisement has been received (System.nanoTime())
+     * @return The number of samples handed over to the UI-Thread
+     */
+    public int onAdvertisement(byte[] scanRecord, long receivedTime) {
+        this.notificationCount = this.notificationCount + 1;
+        return this.pipeline.onAdvertisement(scanRecord, receivedTime);
+    }
+
+    /**
+     * Appends all samples received since the last call to the series store
+     * @return The number of samples that were appended
+     */
+    public int drain() {
+        return this.ringBuffer.drain(this.seriesAppender);
+    }
+
+    /**
+     * Interrupts the line of the graph, e.g. when the connection has been lost (the samples received before are appended first)
+     */
+    public void markGap() {
+        drain();
+        this.seriesStore.appendGap();
+    }
+
+    /**
+     * Appends the drained samples to the store, the first sample is drawn at x = 0
+     */
+    private final SensorRingBuffer.Consumer seriesAppender = new SensorRingBuffer.Consumer() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values) {
+            if (seriesStore.size() == 0) {
+                seriesStore.setTimeOrigin(timestamp);
+            }
+            seriesStore.append(timestamp, values, 0);
+        }
+    };
+
+    /**
+     * Measures the throughput since the previous call, should be called in regular intervals (e.g. once per second)
+     * @param now Current time (System.nanoTime())
+     */
+    public void updateThroughput(long now) {
+        long sampleCount = this.pipeline.getIngest().getReceivedCount();
+        long notifications = this.notificationCount;
+
+        if (this.lastUpdateTime != 0 && now > this.lastUpdateTime) {
+            double seconds = (now - this.lastUpdateTime) / 1000000000d;
+            this.sampleThroughput += THROUGHPUT_SMOOTHING * ((sampleCount - this.lastSampleCount) / seconds - this.sampleThroughput);
+            this.notificationThroughput += THROUGHPUT_SMOOTHING * ((notifications - this.lastNotificationCount) / seconds - this.notificationThroughput);
+        }
+
+        this.lastUpdateTime = now;
+        this.lastSampleCount = sampleCount;
+        this.lastNotificationCount = notifications;
+    }
+
+    /**
+     * Starts counting anew with the next notification (e.g. after (re-)subscribing), the throughput is measured anew
+     */
+    public void reset() {
+        this.pipeline.getIngest().requestResync();
+        this.ringBuffer.clear();
+        this.lastUpdateTime = 0;
+        this.sampleThroughput = 0;
+        this.notificationThroughput = 0;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public SensorPipeline getPipeline() {
+        return this.pipeline;
+    }
+
+    public SensorSeriesStore getSeriesStore() {
+        return this.seriesStore;
+    }
+
+    /**
+     * @return The number of notifications (or advertisements) that have been received
+     */
+    public long getNotificationCount() {
+        return this.notificationCount;
+    }
+
+    /**
+     * @return The number of samples that were dropped because the UI-Thread fell behind
+     */
+    public long getDroppedCount() {
+        return this.ringBuffer.getDroppedCount();
+    }
+
+    /**
+     * @return The received samples per second, as measured by updateThroughput()
+     */
+    public double getSampleThroughput() {
+        return this.sampleThroughput;
+    }
+
+    /**
+     * @return The received notifications per second, as measured by updateThroughput()
+     */
+    public double getNotificationThroughput() {
+        return this.notificationThroughput;
+    }
+}
@@ -0,0 +1,608 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-process blueIOT for the JVM, used for load and soak tests without hardware.
+ * Implements the layout of BlueIOTHelper: the primary service with the notification characteristic (and its client configuration
+ * descriptor) and the control characteristic. Behaves like the firmware: it starts with comma-separated Strings, switches to the
+ * binary format when asked to via the control characteristic, and only sends notifications while they are enabled with the descriptor.
+ * Like Android, only a single operation with a callback may be outstanding at a time, all further ones are rejected until it has completed.
+ * Writes without response count as such an operation as well, their callback reports that the value has been sent.
+ *
+ * Notifications are sent on their own thread (like the Binder-Thread delivering onCharacteristicChanged()), so a slow consumer delays
+ * the following notifications, which shows up in the lateness. The rate, the jitter, the loss rate and periodic disconnects can be configured.
+ * After a disconnect, blueIOT is out of range for a while and the central has to connect again with connect() (see ReconnectPolicy).
+ * Like a direct connection on Android, an attempt stays pending until blueIOT is in range again, or fails after MAX_CONNECT_TIME.
+ * With the same configuration and seed, the same samples are generated and the same notifications are lost.
+ */
+public final class SimulatedPeripheral implements GattClient {
+    //Time it takes to complete an operation with a callback in milliseconds
+    private static final long OPERATION_LATENCY = 5;
+
+    //Time it takes to establish a connection once blueIOT is in range in milliseconds
+    private static final long CONNECT_LATENCY = 30;
+
+    //Android gives up a direct connection after ~30 seconds (and reports status 133)
+    private static final long MAX_CONNECT_TIME = 30000;
+
+    //Default values of the client configuration descriptor
+    private static final byte[] ENABLE_NOTIFICATION_VALUE = { 0x01, 0x00 };
+
+    //Largest MTU that can be negotiated
+    private static final int MAX_MTU = SensorFrameFormat.MAX_PAYLOAD_SIZE + 3;
+
+    /**
+     * Receives the results of the operations and the notifications (equivalent to BluetoothGattCallback)
+     */
+    public interface Callback {
+        void onConnectionStateChanged(boolean isConnected);
+
+        void onCharacteristicRead(UUID characteristic, int status, byte[] value);
+
+        /**
+         * @param writeType GattClient.WRITE_TYPE_DEFAULT or GattClient.WRITE_TYPE_NO_RESPONSE (like BluetoothGattCharacteristic.getWriteType())
+         */
+        void onCharacteristicWrite(UUID characteristic, int writeType, int status);
+
+        void onDescriptorWrite(UUID characteristic, int status);
+
+        void onMtuChanged(int mtu, int status);
+
+        /**
+         * @param value The payload of the notification (only valid during the call)
+         */
+        void onCharacteristicChanged(UUID characteristic, byte[] value);
+    }
+
+    //Configuration
+    private long samplePeriod = SensorIngest.DEFAULT_SAMPLE_PERIOD;
+    private long jitter;
+    private double lossRate;
+    private long disconnectInterval;
+    private long outage = 500;
+    private boolean isBinarySupported = true;
+    private long seed = 42;
+
+    private Callback callback;
+    private ScheduledExecutorService executor;
+    private Thread notificationThread;
+    private volatile boolean isRunning;
+
+    //State of the simulated connection
+    private volatile boolean isConnected;
+    private volatile boolean isConnecting;
+    private volatile long reachableTime;
+    private ScheduledFuture<?> pendingConnect;
+    private volatile boolean isOperationPending;
+    private volatile boolean isLocalNotificationEnabled;
+    private volatile boolean isRemoteNotificationEnabled;
+    private volatile int format = SensorFrameFormat.FORMAT_ASCII;
+    private volatile int payloadSize = SensorFrameFormat.DEFAULT_PAYLOAD_SIZE;
+    private volatile int maxBatch = 255;
+
+    //Last notification, returned when the notification characteristic is read (only written by the notification thread)
+    private volatile byte[] lastValue = new byte[0];
+
+    //Statistics, only written by the notification thread
+    private volatile long sentNotificationCount;
+    private volatile long sentSampleCount;
+    private volatile long lostNotificationCount;
+    private volatile long lostSampleCount;
+    private volatile long disconnectCount;
+    private volatile long totalLateness;
+    private volatile long maxLateness;
+
+    /**
+     * @param sampleRate Samples per second (e.g. 1000 to run 10 times as fast as blueIOT)
+     */
+    public SimulatedPeripheral setSampleRate(double sampleRate) {
+        this.samplePeriod = (long) (1000000000d / sampleRate);
+        return this;
+    }
+
+    /**
+     * @param jitter Maximum random delay of a notification in milliseconds (connection events are missed, the radio is busy...)
+     */
+    public SimulatedPeripheral setJitter(double jitter) {
+        this.jitter = (long) (jitter * 1000000);
+        return this;
+    }
+
+    /**
+     * @param lossRate Share of the notifications that are lost on the air (0 to 1)
+     */
+    public SimulatedPeripheral setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * @param disconnectInterval Average time between two connection losses in milliseconds (0 to stay connected)
+     * @param outage Time blueIOT stays out of range after a connection loss in milliseconds
+     */
+    public SimulatedPeripheral setDisconnects(long disconnectInterval, long outage) {
+        this.disconnectInterval = disconnectInterval;
+        this.outage = outage;
+        return this;
+    }
+
+    /**
+     * @param isBinarySupported false to simulate old firmware, which ignores the control characteristic and only sends Strings
+     */
+    public SimulatedPeripheral setBinarySupported(boolean isBinarySupported) {
+        this.isBinarySupported = isBinarySupported;
+        return this;
+    }
+
+    public SimulatedPeripheral setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Starts sampling and establishes the connection (reported to the callback)
+     * @param callback Receives the results of the operations and the notifications
+     */
+    public synchronized void start(Callback callback) {
+        if (this.isRunning) {
+            throw new IllegalStateException("Already started");
+        }
+
+        this.callback = callback;
+        this.isRunning = true;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SimulatedPeripheral-Gatt");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.notificationThread = new Thread(this.notificationLoop, "SimulatedPeripheral");
+        this.notificationThread.setDaemon(true);
+
+        connect();
+        this.notificationThread.start();
+    }
+
+    /**
+     * Stops sampling and the connection (waits for the notification thread, no more callbacks afterwards)
+     */
+    public void stop() {
+        Thread thread;
+        ScheduledExecutorService currentExecutor;
+        synchronized (this) {
+            if (!this.isRunning) {
+                return;
+            }
+            this.isRunning = false;
+            thread = this.notificationThread;
+            currentExecutor = this.executor;
+        }
+
+        thread.interrupt();
+        currentExecutor.shutdownNow();
+        try {
+            thread.join();
+            currentExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        this.isConnected = false;
+    }
+
+    public boolean isConnected() {
+        return this.isConnected;
+    }
+
+    @Override
+    public boolean readCharacteristic(UUID service, UUID characteristic) {
+        if (!isKnown(service, characteristic) || !beginOperation()) {
+            return false;
+        }
+
+        final UUID uuid = characteristic;
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                byte[] value;
+                if (BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL.equals(uuid)) {
+                    value = new byte[] { (byte) format };
+                }
+                else {
+                    value = lastValue.clone();
+                }
+                callback.onCharacteristicRead(uuid, GATT_SUCCESS, value);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeCharacteristic(UUID service, UUID characteristic, final byte[] value, final boolean withResponse) {
+        if (!isKnown(service, characteristic) || !beginOperation()) {
+            return false;
+        }
+
+        //The notification characteristic is read-only
+        final UUID uuid = characteristic;
+        final byte[] written = value.clone();
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                int status = BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL.equals(uuid) ? onControlWritten(written) : GATT_FAILURE;
+                if (withResponse) {
+                    callback.onCharacteristicWrite(uuid, WRITE_TYPE_DEFAULT, status);
+                }
+                else {
+                    //Only reports that the value has been sent, the result on the peripheral is unknown
+                    callback.onCharacteristicWrite(uuid, WRITE_TYPE_NO_RESPONSE, GATT_SUCCESS);
+                }
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+        if (!BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE.equals(service) || !BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION.equals(characteristic)
+                || !BlueIOTHelper.BLUEIOT_DESCRIPTOR_NOTIFICATION.equals(descriptor) || !beginOperation()) {
+            return false;
+        }
+
+        final boolean enable = Arrays.equals(value, ENABLE_NOTIFICATION_VALUE);
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                isRemoteNotificationEnabled = enable;
+                callback.onDescriptorWrite(BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+        if (!BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE.equals(service) || !BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION.equals(characteristic)) {
+            return false;
+        }
+
+        //Local only, also possible while disconnected
+        this.isLocalNotificationEnabled = enable;
+        return true;
+    }
+
+    @Override
+    public boolean requestMtu(int mtu) {
+        if (!beginOperation()) {
+            return false;
+        }
+
+        final int negotiated = Math.max(SensorFrameFormat.DEFAULT_PAYLOAD_SIZE + 3, Math.min(mtu, MAX_MTU));
+        complete(new Runnable() {
+            @Override
+            public void run() {
+                payloadSize = negotiated - 3;
+                callback.onMtuChanged(negotiated, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean requestConnectionPriority(int priority) {
+        return this.isConnected;
+    }
+
+    /**
+     * @return The number of notifications that have been delivered to the callback
+     */
+    public long getSentNotificationCount() {
+        return this.sentNotificationCount;
+    }
+
+    /**
+     * @return The number of samples contained in the delivered notifications
+     */
+    public long getSentSampleCount() {
+        return this.sentSampleCount;
+    }
+
+    /**
+     * @return The number of notifications that have been lost on purpose (see setLossRate())
+     */
+    public long getLostNotificationCount() {
+        return this.lostNotificationCount;
+    }
+
+    public long getLostSampleCount() {
+        return this.lostSampleCount;
+    }
+
+    public long getDisconnectCount() {
+        return this.disconnectCount;
+    }
+
+    /**
+     * @return Average time notifications have been delivered after their scheduled time (which already contains the jitter) in milliseconds
+     */
+    public double getAverageLatenessMillis() {
+        long notifications = this.sentNotificationCount;
+        return notifications == 0 ? 0 : this.totalLateness / (double) notifications / 1000000d;
+    }
+
+    public double getMaxLatenessMillis() {
+        return this.maxLateness / 1000000d;
+    }
+
+    /**
+     * Generates the samples and sends the notifications, one notification per connection interval
+     */
+    private final Runnable notificationLoop = new Runnable() {
+        @Override
+        public void run() {
+            Random random = new Random(seed);
+            byte[] payload = new byte[SensorFrameFormat.MAX_PAYLOAD_SIZE];
+            float[] values = new float[SensorFrameFormat.getMaxBinarySamples(SensorFrameFormat.MAX_PAYLOAD_SIZE) * SensorFrame.CHANNELS];
+            StringBuilder text = new StringBuilder(SensorFrameFormat.MAX_PAYLOAD_SIZE);
+
+            long sampleIndex = 0;
+            long nextTime = System.nanoTime();
+            long nextDisconnect = nextDisconnectTime(random, nextTime);
+
+            while (isRunning) {
+                //Binary notifications carry as many samples as fit into the payload, Strings only a single one
+                boolean isBinary = format == SensorFrameFormat.FORMAT_BINARY_V1;
+                int sampleCount = isBinary ? Math.max(1, Math.min(maxBatch, SensorFrameFormat.getMaxBinarySamples(payloadSize))) : 1;
+
+                for (int sample = 0; sample < sampleCount; sample++) {
+                    SyntheticFrameSource.generate(sampleIndex + sample, samplePeriod, random, values, sample * SensorFrame.CHANNELS);
+                }
+
+                //The notification is sent with the next connection event after the last sample, possibly delayed
+                nextTime += sampleCount * samplePeriod;
+                long scheduledTime = nextTime + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+                boolean isLost = random.nextDouble() < lossRate;
+
+                long delay;
+                while (isRunning && (delay = scheduledTime - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                if (!isRunning) {
+                    break;
+                }
+
+                if (nextDisconnect != 0 && scheduledTime >= nextDisconnect) {
+                    disconnect();
+                    nextDisconnect = nextDisconnectTime(random, scheduledTime + outage * 1000000);
+                }
+
+                if (isConnected && isRemoteNotificationEnabled) {
+                    int length;
+                    Arrays.fill(payload, 0, payloadSize, (byte) 0);
+                    if (isBinary) {
+                        length = SensorFrameFormat.encodeBinary(values, 0, sampleCount, (int) (sampleIndex & (SensorFrame.SEQUENCE_MODULUS - 1)), payload);
+                    }
+                    else {
+                        length = encodeAscii(values, text, payload, payloadSize);
+                    }
+
+                    if (isLost) {
+                        lostNotificationCount = lostNotificationCount + 1;
+                        lostSampleCount = lostSampleCount + sampleCount;
+                    }
+                    else {
+                        long lateness = System.nanoTime() - scheduledTime;
+                        totalLateness = totalLateness + lateness;
+                        maxLateness = Math.max(maxLateness, lateness);
+
+                        byte[] value = Arrays.copyOf(payload, length);
+                        lastValue = value;
+                        if (isLocalNotificationEnabled) {
+                            callback.onCharacteristicChanged(BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION, value);
+                        }
+                        sentNotificationCount = sentNotificationCount + 1;
+                        sentSampleCount = sentSampleCount + sampleCount;
+                    }
+                }
+
+                //blueIOT keeps sampling while nobody listens
+                sampleIndex += sampleCount;
+            }
+        }
+    };
+
+    /**
+     * Initiates a connection (like BluetoothGatt.connect()), the firmware starts with its defaults.
+     * The result is reported to the callback: connected once blueIOT is in range, disconnected if it hasn't been within MAX_CONNECT_TIME
+     * (or if it has gone out of range again in the meantime).
+     * @return false if already connected or connecting
+     */
+    public synchronized boolean connect() {
+        if (!this.isRunning || this.isConnected || this.isConnecting) {
+            return false;
+        }
+
+        long delay = Math.max(0, this.reachableTime - System.nanoTime()) / 1000000 + CONNECT_LATENCY;
+        this.isConnecting = true;
+        this.pendingConnect = this.executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                isConnecting = false;
+                if (!isRunning) {
+                    return;
+                }
+
+                isConnected = System.nanoTime() >= reachableTime;
+                callback.onConnectionStateChanged(isConnected);
+            }
+        }, Math.min(delay, MAX_CONNECT_TIME), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Cancels a pending connection attempt (like BluetoothGatt.disconnect() before the connection has been established), nothing is reported
+     */
+    public synchronized void cancelConnect() {
+        if (this.pendingConnect != null && this.pendingConnect.cancel(false)) {
+            this.isConnecting = false;
+        }
+    }
+
+    /**
+     * Simulates a connection loss: the remote state is reset and blueIOT is out of range for the outage
+     */
+    private void disconnect() {
+        this.reachableTime = System.nanoTime() + this.outage * 1000000;
+        if (!this.isConnected) {
+            //Out of range once more, the attempts in the meantime fail
+            return;
+        }
+
+        this.isConnected = false;
+        this.isOperationPending = false;
+        this.isRemoteNotificationEnabled = false;
+        this.format = SensorFrameFormat.FORMAT_ASCII;
+        this.payloadSize = SensorFrameFormat.DEFAULT_PAYLOAD_SIZE;
+        this.maxBatch = 255;
+        this.disconnectCount = this.disconnectCount + 1;
+
+        this.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onConnectionStateChanged(false);
+            }
+        });
+    }
+
+    /**
+     * @return The time of the next connection loss (0 if there are none), randomly between half and one and a half of the interval
+     */
+    private long nextDisconnectTime(Random random, long now) {
+        if (this.disconnectInterval <= 0) {
+            return 0;
+        }
+        return now + (long) (this.disconnectInterval * (0.5 + random.nextDouble()) * 1000000);
+    }
+
+    /**
+     * Handles a value written to the control characteristic
+     * @return The status of the write
+     */
+    private int onControlWritten(byte[] value) {
+        if (value.length != 2 || (value[0] != SensorFrameFormat.CONTROL_SET_FORMAT && value[0] != SensorFrameFormat.CONTROL_SET_BATCH)) {
+            return GATT_FAILURE;
+        }
+        if (!this.isBinarySupported) {
+            //Old firmware: the write succeeds, but nothing changes
+            return GATT_SUCCESS;
+        }
+        if (value[0] == SensorFrameFormat.CONTROL_SET_BATCH) {
+            this.maxBatch = Math.max(1, value[1] & 0xFF);
+            return GATT_SUCCESS;
+        }
+        if (value[1] != SensorFrameFormat.FORMAT_ASCII && value[1] != SensorFrameFormat.FORMAT_BINARY_V1) {
+            return GATT_FAILURE;
+        }
+
+        this.format = value[1];
+        return GATT_SUCCESS;
+    }
+
+    private static boolean isKnown(UUID service, UUID characteristic) {
+        return BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE.equals(service)
+                && (BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION.equals(characteristic) || BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL.equals(characteristic));
+    }
+
+    /**
+     * Marks an operation with a callback as outstanding
+     * @return false if not connected or another operation is still outstanding (the operation is rejected)
+     */
+    private synchronized boolean beginOperation() {
+        if (!this.isConnected || this.isOperationPending) {
+            return false;
+        }
+        this.isOperationPending = true;
+        return true;
+    }
+
+    /**
+     * Completes the outstanding operation after the operation latency
+     */
+    private void complete(final Runnable completion) {
+        this.executor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (SimulatedPeripheral.this) {
+                    if (!isOperationPending || !isConnected) {
+                        //Lost with the connection, there is no callback
+                        return;
+                    }
+                    isOperationPending = false;
+                }
+                completion.run();
+            }
+        }, OPERATION_LATENCY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a sample as comma-separated String (X,Y,Z,Height), with fewer decimals if it would not fit into the payload
+     * @return The length of the String
+     */
+    private static int encodeAscii(float[] values, StringBuilder text, byte[] payload, int payloadSize) {
+        int length = 0;
+        for (int decimals = 2; decimals >= 0; decimals--) {
+            text.setLength(0);
+            for (int channel = 0; channel < SensorFrame.CHANNELS; channel++) {
+                if (channel > 0) {
+                    text.append(',');
+                }
+                appendFixed(text, values[channel], decimals);
+            }
+
+            length = Math.min(text.length(), payloadSize);
+            if (text.length() <= payloadSize) {
+                break;
+            }
+        }
+
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) text.charAt(i);
+        }
+        return length;
+    }
+
+    /**
+     * Appends a value with a fixed number of decimals, without the allocations of String.format()
+     */
+    private static void appendFixed(StringBuilder text, float value, int decimals) {
+        int scale = 1;
+        for (int i = 0; i < decimals; i++) {
+            scale *= 10;
+        }
+
+        long fixed = Math.round((double) value * scale);
+        if (fixed < 0) {
+            text.append('-');
+            fixed = -fixed;
+        }
+
+        text.append(fixed / scale);
+        if (decimals > 0) {
+            text.append('.');
+            long fraction = fixed % scale;
+            for (int divisor = scale / 10; divisor > 0; divisor /= 10) {
+                text.append((char) ('0' + (fraction / divisor) % 10));
+            }
+        }
+    }
+}
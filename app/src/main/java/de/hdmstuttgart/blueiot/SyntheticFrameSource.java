@@ -0,0 +1,102 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Deterministic generator of blueIOT notifications in the binary format.
+ * The board is simulated as being tilted back and forth slowly (X and Y follow sine waves, Z the remaining part of gravity)
+ * while being lifted up and down (Height), with some sensor noise on top. With the same parameters and seed,
+ * exactly the same notifications are produced, including the notifications that are left out to simulate losses.
+ */
+public final class SyntheticFrameSource implements FrameSource {
+    private static final float GRAVITY = 9.81f;
+
+    private final long samplePeriod;
+    private final int samplesPerFrame;
+    private final long sampleCount;
+    private final double lossRate;
+    private final Random random;
+
+    private final byte[] payload;
+    private final float[] values;
+
+    private long sampleIndex;
+    private long frameTime;
+
+    /**
+     * Constructor
+     * @param sampleRate Samples per second
+     * @param payloadSize Size of a notification, determines the number of samples per notification
+     * @param sampleCount Number of samples to generate (0 for an endless stream)
+     * @param lossRate Share of the notifications that are left out (0 to 1)
+     * @param seed Seed for the noise and the losses
+     */
+    public SyntheticFrameSource(double sampleRate, int payloadSize, long sampleCount, double lossRate, long seed) {
+        this.samplePeriod = (long) (1000000000d / sampleRate);
+        this.samplesPerFrame = Math.max(1, SensorFrameFormat.getMaxBinarySamples(payloadSize));
+        this.sampleCount = sampleCount;
+        this.lossRate = lossRate;
+        this.random = new Random(seed);
+
+        this.payload = new byte[Math.max(payloadSize, SensorFrameFormat.BINARY_V1_HEADER_SIZE + SensorFrameFormat.BINARY_V1_SAMPLE_SIZE)];
+        this.values = new float[this.samplesPerFrame * SensorFrame.CHANNELS];
+    }
+
+    @Override
+    public byte[] nextFrame() {
+        while (this.sampleCount == 0 || this.sampleIndex < this.sampleCount) {
+            int count = this.samplesPerFrame;
+            if (this.sampleCount != 0) {
+                count = (int) Math.min(count, this.sampleCount - this.sampleIndex);
+            }
+
+            long firstIndex = this.sampleIndex;
+            for (int sample = 0; sample < count; sample++) {
+                generate(firstIndex + sample, this.samplePeriod, this.random, this.values, sample * SensorFrame.CHANNELS);
+            }
+            this.sampleIndex += count;
+
+            //The notification is sent right after its last sample has been measured
+            this.frameTime = (this.sampleIndex - 1) * this.samplePeriod;
+
+            if (this.random.nextDouble() < this.lossRate) {
+                //Lost on the air
+                continue;
+            }
+
+            Arrays.fill(this.payload, (byte) 0);
+            SensorFrameFormat.encodeBinary(this.values, 0, count, (int) (firstIndex & (SensorFrame.SEQUENCE_MODULUS - 1)), this.payload);
+            return this.payload;
+        }
+        return null;
+    }
+
+    @Override
+    public long getFrameTime() {
+        return this.frameTime;
+    }
+
+    /**
+     * Computes the values of a sample (shared with SimulatedPeripheral)
+     * @param index Sample index, determines the position of the board
+     * @param samplePeriod Time between two samples in nanoseconds
+     * @param random Source of the sensor noise
+     * @param values Destination of X, Y, Z and Height
+     * @param offset Index of X in values
+     */
+    static void generate(long index, long samplePeriod, Random random, float[] values, int offset) {
+        double time = index * samplePeriod / 1000000000d;
+        float tiltX = (float) Math.sin(2 * Math.PI * 0.25 * time);
+        float tiltY = (float) Math.sin(2 * Math.PI * 0.1 * time);
+
+        values[offset] = GRAVITY * tiltX * 0.5f + noise(random);
+        values[offset + 1] = GRAVITY * tiltY * 0.5f + noise(random);
+        values[offset + 2] = GRAVITY * (1 - 0.25f * (tiltX * tiltX + tiltY * tiltY)) + noise(random);
+        values[offset + 3] = (float) (1.5 * Math.sin(2 * Math.PI * 0.05 * time)) + noise(random);
+    }
+
+    private static float noise(Random random) {
+        return (float) (random.nextGaussian() * 0.05);
+    }
+}
@@ -0,0 +1,46 @@
+package de.hdmstuttgart.blueiot;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.util.AttributeSet;
+
+import com.jjoe64.graphview.GraphView;
+
+/**
+ * GraphView that measures how long it takes to draw itself on the UI-Thread, for comparing it with the SensorPlotView.
+ * With hardware acceleration, onDraw() only records the drawing commands; this is the time the GraphView blocks the UI-Thread per frame.
+ */
+public class TimedGraphView extends GraphView {
+    private final FrameTimeStatistics frameStatistics = new FrameTimeStatistics();
+
+    /**
+     * Constructor
+     * @param context ApplicationContext used to inflate layout components
+     */
+    public TimedGraphView(Context context) {
+        super(context);
+    }
+
+    /**
+     * Constructor used when inflating the View from a layout
+     * @param context ApplicationContext used to inflate layout components
+     * @param attributes The attributes of the View in the layout
+     */
+    public TimedGraphView(Context context, AttributeSet attributes) {
+        super(context, attributes);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
+        super.onDraw(canvas);
+        this.frameStatistics.record(System.nanoTime() - start);
+    }
+
+    /**
+     * @return The time it takes to draw the GraphView
+     */
+    public FrameTimeStatistics getFrameStatistics() {
+        return this.frameStatistics;
+    }
+}
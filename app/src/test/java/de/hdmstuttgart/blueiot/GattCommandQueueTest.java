@@ -0,0 +1,346 @@
+package de.hdmstuttgart.blueiot;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * JVM tests of the GattCommandQueue against a fake GattClient, time is controlled by a ManualScheduler
+ */
+public class GattCommandQueueTest {
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID SENSOR = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final UUID CONTROL = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+    private static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    private FakeGattClient client;
+    private ManualScheduler scheduler;
+    private GattCommandQueue queue;
+    private RecordingCallback callback;
+
+    @Before
+    public void setUp() {
+        this.client = new FakeGattClient();
+        this.scheduler = new ManualScheduler();
+        this.queue = new GattCommandQueue(this.client, this.scheduler);
+        this.callback = new RecordingCallback();
+    }
+
+    @Test
+    public void executesCommandsStrictlyOneAfterAnother() {
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.writeDescriptor(SERVICE, SENSOR, CCCD, new byte[] { 1, 0 }).setCallback(this.callback));
+
+        //Only the first command is started until its callback arrives
+        assertEquals(Arrays.asList("read " + SENSOR), this.client.calls);
+        assertEquals(3, this.queue.size());
+
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, SENSOR, GattClient.GATT_SUCCESS, new byte[] { 42 });
+        assertEquals(Arrays.asList("read " + SENSOR, "write " + CONTROL), this.client.calls);
+        assertArrayEquals(new byte[] { 42 }, this.callback.values.get(0));
+
+        //A callback of another type doesn't complete the running write
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, CONTROL, GattClient.GATT_SUCCESS, null);
+        assertEquals(2, this.client.calls.size());
+
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_WRITE_DESCRIPTOR, SENSOR, GattClient.GATT_SUCCESS, null);
+
+        assertEquals(Arrays.asList("read " + SENSOR, "write " + CONTROL, "descriptor " + SENSOR), this.client.calls);
+        assertEquals(Arrays.asList(GattCommandQueue.TYPE_READ, GattCommandQueue.TYPE_WRITE, GattCommandQueue.TYPE_WRITE_DESCRIPTOR), this.callback.types());
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS, GattClient.GATT_SUCCESS, GattClient.GATT_SUCCESS), this.callback.statuses);
+        assertEquals(0, this.queue.size());
+
+        //No timeout is left behind
+        assertEquals(0, this.scheduler.getPendingCount());
+    }
+
+    @Test
+    public void retriesAfterTimeout() {
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setTimeout(100).setRetries(1).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setCallback(this.callback));
+
+        this.scheduler.advance(99);
+        assertEquals(1, this.client.calls.size());
+
+        //Timed out --> retried after a short delay
+        this.scheduler.advance(1);
+        assertEquals(1, this.client.calls.size());
+        this.scheduler.advance(100);
+        assertEquals(Arrays.asList("read " + SENSOR, "read " + SENSOR), this.client.calls);
+        assertEquals(0, this.callback.statuses.size());
+
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, SENSOR, GattClient.GATT_SUCCESS, null);
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS), this.callback.statuses);
+        assertEquals("write " + CONTROL, this.client.calls.get(2));
+    }
+
+    @Test
+    public void retriesAfterRejection() {
+        this.client.results.add(false);
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setRetries(1).setCallback(this.callback));
+        assertEquals(1, this.client.calls.size());
+
+        //The stack was busy --> tried again shortly
+        this.scheduler.advance(100);
+        assertEquals(2, this.client.calls.size());
+
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS), this.callback.statuses);
+    }
+
+    @Test
+    public void retriesAfterFailure() {
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setRetries(1).setCallback(this.callback));
+        onCharacteristicWrite(CONTROL, GattClient.GATT_FAILURE);
+        assertEquals(0, this.callback.statuses.size());
+
+        this.scheduler.advance(100);
+        assertEquals(2, this.client.calls.size());
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS), this.callback.statuses);
+    }
+
+    @Test
+    public void reportsRejectionOnceRetriesAreExhausted() {
+        this.client.results.addAll(Arrays.asList(false, false, false));
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setRetries(2).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setCallback(this.callback));
+
+        this.scheduler.advance(1000);
+
+        //1 attempt + 2 retries, then the next command is started
+        assertEquals(Arrays.asList("write " + CONTROL, "write " + CONTROL, "write " + CONTROL, "read " + SENSOR), this.client.calls);
+        assertEquals(Arrays.asList(GattCommandQueue.STATUS_REJECTED), this.callback.statuses);
+        assertEquals(1, this.queue.size());
+    }
+
+    @Test
+    public void reportsTimeoutOnceRetriesAreExhausted() {
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setTimeout(100).setRetries(1).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, CONTROL).setCallback(this.callback));
+
+        this.scheduler.advance(1000);
+
+        assertEquals(Arrays.asList("read " + SENSOR, "read " + SENSOR, "read " + CONTROL), this.client.calls);
+        assertEquals(Arrays.asList(GattCommandQueue.STATUS_TIMEOUT), this.callback.statuses);
+
+        //A late callback of the given up command doesn't complete the next one
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, SENSOR, GattClient.GATT_SUCCESS, null);
+        assertEquals(1, this.callback.statuses.size());
+    }
+
+    @Test
+    public void clearCancelsRunningAndPendingCommands() {
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setTimeout(100).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.requestMtu(247).setCallback(this.callback));
+
+        this.queue.clear();
+
+        assertEquals(Arrays.asList(GattCommandQueue.TYPE_READ, GattCommandQueue.TYPE_WRITE, GattCommandQueue.TYPE_MTU), this.callback.types());
+        assertEquals(Arrays.asList(GattCommandQueue.STATUS_CANCELLED, GattCommandQueue.STATUS_CANCELLED, GattCommandQueue.STATUS_CANCELLED),
+                this.callback.statuses);
+        assertEquals(0, this.queue.size());
+
+        //Neither the timeout nor a late callback of the cancelled command has any effect
+        this.scheduler.advance(1000);
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, SENSOR, GattClient.GATT_SUCCESS, null);
+        assertEquals(3, this.callback.statuses.size());
+        assertEquals(1, this.client.calls.size());
+
+        //The queue is usable again afterwards
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, CONTROL).setCallback(this.callback));
+        assertEquals("read " + CONTROL, this.client.calls.get(1));
+    }
+
+    @Test
+    public void clearCancelsCommandWaitingForRetry() {
+        this.client.results.add(false);
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setCallback(this.callback));
+
+        this.queue.clear();
+        this.scheduler.advance(1000);
+
+        //The scheduled retry doesn't start the cancelled command again
+        assertEquals(1, this.client.calls.size());
+        assertEquals(Arrays.asList(GattCommandQueue.STATUS_CANCELLED), this.callback.statuses);
+    }
+
+    @Test
+    public void writesWithoutResponseWaitForTheirCallback() {
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setCallback(this.callback));
+        this.queue.enqueueWriteBatch(SERVICE, CONTROL, new byte[][] { { 1 }, { 2 }, { 3 } }, this.callback);
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 4 }).setCallback(this.callback));
+
+        //The batch waits for the running read
+        assertEquals(1, this.client.calls.size());
+        this.queue.onCommandCompleted(GattCommandQueue.TYPE_READ, SENSOR, GattClient.GATT_SUCCESS, null);
+
+        //Android keeps the stack busy until a write without response has been sent, so every write waits for its onCharacteristicWrite()
+        for (int write = 1; write <= 3; write++) {
+            assertEquals(1 + write, this.client.calls.size());
+            assertEquals("write-no-response " + CONTROL, this.client.calls.get(write));
+            assertArrayEquals(new byte[] { (byte) write }, this.client.values.get(write));
+            onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        }
+
+        assertEquals("write " + CONTROL, this.client.calls.get(4));
+        assertEquals(Arrays.asList(GattCommandQueue.TYPE_READ, GattCommandQueue.TYPE_WRITE_NO_RESPONSE, GattCommandQueue.TYPE_WRITE_NO_RESPONSE,
+                GattCommandQueue.TYPE_WRITE_NO_RESPONSE), this.callback.types());
+        assertEquals(1, this.queue.size());
+
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        assertEquals(GattCommandQueue.TYPE_WRITE, (int) this.callback.types().get(4));
+        assertEquals(0, this.queue.size());
+    }
+
+    @Test
+    public void writeWithoutResponseTimesOut() {
+        this.queue.enqueue(GattCommandQueue.Command.writeNoResponse(SERVICE, CONTROL, new byte[] { 1 }).setTimeout(100).setRetries(0).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setCallback(this.callback));
+
+        this.scheduler.advance(100);
+        assertEquals(Arrays.asList(GattCommandQueue.STATUS_TIMEOUT), this.callback.statuses);
+        assertEquals("read " + SENSOR, this.client.calls.get(1));
+    }
+
+    @Test
+    public void callbackOfWriteWithoutResponseDoesNotCompleteWriteWithResponse() {
+        this.queue.enqueue(GattCommandQueue.Command.write(SERVICE, CONTROL, new byte[] { 1 }).setCallback(this.callback));
+
+        //Reported for the same characteristic, but with the other write type (e.g. late callback of a given up batch)
+        this.queue.onCommandCompleted(GattCommandQueue.getWriteCommandType(GattClient.WRITE_TYPE_NO_RESPONSE), CONTROL, GattClient.GATT_SUCCESS, null);
+        assertEquals(0, this.callback.statuses.size());
+        assertEquals(1, this.queue.size());
+
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS), this.callback.statuses);
+    }
+
+    @Test
+    public void localOperationsCompleteWhenAccepted() {
+        this.queue.enqueue(GattCommandQueue.Command.setNotification(SERVICE, SENSOR, true).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.requestConnectionPriority(GattClient.CONNECTION_PRIORITY_HIGH).setCallback(this.callback));
+        this.queue.enqueue(GattCommandQueue.Command.read(SERVICE, SENSOR).setCallback(this.callback));
+
+        //Neither has a callback, so both are done right away and the read is started
+        assertEquals(Arrays.asList("notification " + SENSOR, "priority " + GattClient.CONNECTION_PRIORITY_HIGH, "read " + SENSOR), this.client.calls);
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS, GattClient.GATT_SUCCESS), this.callback.statuses);
+        assertEquals(1, this.queue.size());
+    }
+
+    @Test
+    public void retriesRejectedWriteOfBatch() {
+        this.client.results.addAll(Arrays.asList(true, false, true, true));
+        this.queue.enqueueWriteBatch(SERVICE, CONTROL, new byte[][] { { 1 }, { 2 }, { 3 } }, this.callback);
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+
+        //The second write is rejected (e.g. the stack is busy with another app) and the batch stalls until it has been retried
+        assertEquals(2, this.client.calls.size());
+        this.scheduler.advance(100);
+        assertEquals(3, this.client.calls.size());
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+        onCharacteristicWrite(CONTROL, GattClient.GATT_SUCCESS);
+
+        assertEquals(4, this.client.calls.size());
+        assertArrayEquals(new byte[] { 2 }, this.client.values.get(2));
+        assertArrayEquals(new byte[] { 3 }, this.client.values.get(3));
+        assertEquals(Arrays.asList(GattClient.GATT_SUCCESS, GattClient.GATT_SUCCESS, GattClient.GATT_SUCCESS), this.callback.statuses);
+    }
+
+    /**
+     * Reports a completed write like BleConnectionService does: the command type is derived from the write type of the characteristic
+     */
+    private void onCharacteristicWrite(UUID characteristic, int status) {
+        int writeType = this.client.writeTypes.get(characteristic);
+        this.queue.onCommandCompleted(GattCommandQueue.getWriteCommandType(writeType), characteristic, status, null);
+    }
+
+    /**
+     * GattClient recording every call, accepting the operations unless told otherwise
+     */
+    private static final class FakeGattClient implements GattClient {
+        private final List<String> calls = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        //Write type of the last write per characteristic (like BluetoothGattCharacteristic.getWriteType())
+        private final Map<UUID, Integer> writeTypes = new HashMap<>();
+
+        //Results of the next calls, every call is accepted once this is empty
+        private final ArrayDeque<Boolean> results = new ArrayDeque<>();
+
+        private boolean record(String call, byte[] value) {
+            this.calls.add(call);
+            this.values.add(value);
+            Boolean result = this.results.poll();
+            return result == null || result;
+        }
+
+        @Override
+        public boolean readCharacteristic(UUID service, UUID characteristic) {
+            return record("read " + characteristic, null);
+        }
+
+        @Override
+        public boolean writeCharacteristic(UUID service, UUID characteristic, byte[] value, boolean withResponse) {
+            this.writeTypes.put(characteristic, withResponse ? WRITE_TYPE_DEFAULT : WRITE_TYPE_NO_RESPONSE);
+            return record((withResponse ? "write " : "write-no-response ") + characteristic, value);
+        }
+
+        @Override
+        public boolean writeDescriptor(UUID service, UUID characteristic, UUID descriptor, byte[] value) {
+            return record("descriptor " + characteristic, value);
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(UUID service, UUID characteristic, boolean enable) {
+            return record("notification " + characteristic, null);
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return record("mtu " + mtu, null);
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return record("priority " + priority, null);
+        }
+    }
+
+    /**
+     * Callback recording every completed command
+     */
+    private static final class RecordingCallback implements GattCommandQueue.Callback {
+        private final List<GattCommandQueue.Command> commands = new ArrayList<>();
+        private final List<Integer> statuses = new ArrayList<>();
+        private final List<byte[]> values = new ArrayList<>();
+
+        @Override
+        public void onCommandCompleted(GattCommandQueue.Command command, int status, byte[] value) {
+            this.commands.add(command);
+            this.statuses.add(status);
+            this.values.add(value);
+        }
+
+        private List<Integer> types() {
+            List<Integer> types = new ArrayList<>();
+            for (GattCommandQueue.Command command : this.commands) {
+                types.add(command.getType());
+            }
+            return types;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package de.hdmstuttgart.blueiot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScheduledExecutorService for tests whose time only moves on when advance() is called.
+ * Tasks run on the calling thread, in the order they are due (tasks due at the same time in the order they have been scheduled).
+ * Only one-shot Runnables are supported.
+ */
+final class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+    private final List<Task> tasks = new ArrayList<>();
+    private long now;
+    private long sequence;
+    private boolean isShutdown;
+
+    /**
+     * @return The current time in milliseconds
+     */
+    public long now() {
+        return this.now;
+    }
+
+    /**
+     * Moves the time forward and runs every task that is due until then (including tasks scheduled by these tasks)
+     * @param millis Time in milliseconds
+     */
+    public void advance(long millis) {
+        long until = this.now + millis;
+        while (true) {
+            Task next = null;
+            for (Task task : this.tasks) {
+                if (task.dueTime <= until && (next == null || task.compareTo(next) < 0)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+
+            this.tasks.remove(next);
+            this.now = Math.max(this.now, next.dueTime);
+            next.run();
+        }
+        this.now = until;
+    }
+
+    /**
+     * @return The number of tasks that haven't run and haven't been cancelled
+     */
+    public int getPendingCount() {
+        return this.tasks.size();
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        Task task = new Task(command, this.now + unit.toMillis(delay), this.sequence++);
+        this.tasks.add(task);
+        return task;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        schedule(command, 0, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void shutdown() {
+        this.isShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        this.isShutdown = true;
+        this.tasks.clear();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.isShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.isShutdown && this.tasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return isTerminated();
+    }
+
+    /**
+     * A scheduled Runnable
+     */
+    private final class Task implements ScheduledFuture<Object> {
+        private final Runnable command;
+        private final long dueTime;
+        private final long sequence;
+        private boolean isCancelled;
+        private boolean isDone;
+
+        private Task(Runnable command, long dueTime, long sequence) {
+            this.command = command;
+            this.dueTime = dueTime;
+            this.sequence = sequence;
+        }
+
+        private void run() {
+            this.isDone = true;
+            this.command.run();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(this.dueTime - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task task = (Task) other;
+            if (this.dueTime != task.dueTime) {
+                return this.dueTime < task.dueTime ? -1 : 1;
+            }
+            return this.sequence < task.sequence ? -1 : (this.sequence == task.sequence ? 0 : 1);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (this.isDone || this.isCancelled) {
+                return false;
+            }
+            this.isCancelled = true;
+            tasks.remove(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.isCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return this.isDone || this.isCancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package de.hdmstuttgart.blueiot;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests of the ReconnectPolicy, all times are passed explicitly
+ */
+public class ReconnectPolicyTest {
+    private final ReconnectPolicy policy = new ReconnectPolicy(new Random(42));
+
+    @Test
+    public void firstAttemptIsFastPath() {
+        assertEquals(0, this.policy.start(1000));
+        assertEquals(ReconnectPolicy.STATE_WAITING, this.policy.getState());
+        assertTrue(this.policy.isFastPath());
+
+        assertEquals(ReconnectPolicy.FAST_PATH_TIMEOUT, this.policy.onAttemptStarted(1000));
+        assertEquals(ReconnectPolicy.STATE_CONNECTING, this.policy.getState());
+
+        this.policy.onConnected(1100);
+        assertEquals(ReconnectPolicy.STATE_CONNECTED, this.policy.getState());
+        this.policy.onNotification(1150);
+        this.policy.onNotification(1200);
+
+        assertEquals(ReconnectPolicy.STATE_STREAMING, this.policy.getState());
+        assertEquals(150, this.policy.getLastTimeToFirstSample());
+        assertEquals(50, this.policy.getLastSetupTime());
+        assertEquals(1, this.policy.getConnectCount());
+        assertEquals(1, this.policy.getAttemptCount());
+
+        //Lost while streaming --> the fast path is tried again right away
+        assertEquals(0, this.policy.onDisconnected(5000));
+        assertTrue(this.policy.isFastPath());
+        assertEquals(ReconnectPolicy.FAST_PATH_TIMEOUT, this.policy.onAttemptStarted(5000));
+    }
+
+    @Test
+    public void timedOutAttemptBacksOff() {
+        this.policy.start(0);
+        long timeout = this.policy.onAttemptStarted(0);
+
+        long delay = this.policy.onAttemptTimeout(timeout);
+        assertEquals(ReconnectPolicy.STATE_WAITING, this.policy.getState());
+        assertEquals(1, this.policy.getAttempt());
+        assertBetween(ReconnectPolicy.BASE_DELAY / 2, ReconnectPolicy.BASE_DELAY, delay);
+
+        //Further attempts start over with a new connection and have more time
+        assertFalse(this.policy.isFastPath());
+        assertEquals(ReconnectPolicy.CONNECT_TIMEOUT, this.policy.onAttemptStarted(timeout + delay));
+    }
+
+    @Test
+    public void timeoutAfterSuccessIsIgnored() {
+        this.policy.start(0);
+        this.policy.onAttemptStarted(0);
+        this.policy.onConnected(100);
+
+        assertEquals(-1, this.policy.onAttemptTimeout(ReconnectPolicy.FAST_PATH_TIMEOUT));
+        assertEquals(ReconnectPolicy.STATE_CONNECTED, this.policy.getState());
+        assertEquals(0, this.policy.getAttempt());
+    }
+
+    @Test
+    public void backoffIsJitteredAndCapped() {
+        //Like the phones' unseeded Randoms, the policies mustn't use adjacent seeds (their first values are almost the same)
+        Random seeds = new Random(42);
+        Set<Long> firstDelays = new HashSet<>();
+        for (int phone = 0; phone < 50; phone++) {
+            ReconnectPolicy policy = new ReconnectPolicy(new Random(seeds.nextLong()));
+            long now = policy.start(0);
+            for (int attempt = 1; attempt <= 30; attempt++) {
+                policy.onAttemptStarted(now);
+                long delay = policy.onDisconnected(now);
+
+                long maximum = Math.min(ReconnectPolicy.MAX_DELAY, ReconnectPolicy.BASE_DELAY << Math.min(attempt - 1, 20));
+                assertBetween(maximum / 2, maximum, delay);
+                assertTrue(delay <= ReconnectPolicy.MAX_DELAY);
+                if (attempt == 1) {
+                    firstDelays.add(delay);
+                }
+                now += delay;
+            }
+        }
+
+        //Phones losing blueIOT at the same time don't retry in lockstep
+        assertTrue(firstDelays.size() > 10);
+    }
+
+    @Test
+    public void backoffOnlyResetsAfterFirstSample() {
+        this.policy.start(0);
+        this.policy.onAttemptStarted(0);
+        this.policy.onDisconnected(10);
+        this.policy.onAttemptStarted(500);
+        this.policy.onDisconnected(510);
+        assertEquals(2, this.policy.getAttempt());
+
+        //The link comes up but drops before the first sample --> still a failed attempt
+        this.policy.onAttemptStarted(2000);
+        this.policy.onConnected(2100);
+        long delay = this.policy.onDisconnected(2200);
+        assertEquals(3, this.policy.getAttempt());
+        assertBetween(ReconnectPolicy.BASE_DELAY * 2, ReconnectPolicy.BASE_DELAY * 4, delay);
+        assertEquals(0, this.policy.getConnectCount());
+
+        //Samples are streaming again --> the next loss starts with the fast path
+        this.policy.onAttemptStarted(5000);
+        this.policy.onConnected(5100);
+        this.policy.onNotification(5200);
+        assertEquals(0, this.policy.getAttempt());
+        assertEquals(5200, this.policy.getLastTimeToFirstSample());
+        assertEquals(0, this.policy.onDisconnected(9000));
+        assertTrue(this.policy.isFastPath());
+    }
+
+    @Test
+    public void stopWhileWaitingEndsAttempts() {
+        this.policy.start(0);
+        this.policy.onAttemptStarted(0);
+        this.policy.onDisconnected(10);
+        assertEquals(ReconnectPolicy.STATE_WAITING, this.policy.getState());
+
+        this.policy.stop();
+        assertEquals(ReconnectPolicy.STATE_IDLE, this.policy.getState());
+
+        //Late events of the previous attempt don't restart anything
+        assertEquals(-1, this.policy.onAttemptTimeout(ReconnectPolicy.FAST_PATH_TIMEOUT));
+        assertEquals(-1, this.policy.onDisconnected(6000));
+        this.policy.onConnected(6100);
+        this.policy.onNotification(6200);
+        assertEquals(ReconnectPolicy.STATE_IDLE, this.policy.getState());
+        assertEquals(0, this.policy.getConnectCount());
+
+        //A new start begins with the fast path
+        assertEquals(0, this.policy.start(7000));
+        assertTrue(this.policy.isFastPath());
+    }
+
+    private static void assertBetween(long minimum, long maximum, long value) {
+        assertTrue(value + " < " + minimum, value >= minimum);
+        assertTrue(value + " > " + maximum, value <= maximum);
+    }
+}
@@ -0,0 +1,179 @@
+package de.hdmstuttgart.blueiot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests of the SensorIngest: sample counter wrap-around, losses, duplicates and out-of-order frames
+ */
+public class SensorIngestTest {
+    private static final long PERIOD = SensorIngest.DEFAULT_SAMPLE_PERIOD;
+
+    private final SensorIngest ingest = new SensorIngest(PERIOD);
+    private final RecordingSink sink = new RecordingSink();
+    private long time;
+
+    @Test
+    public void numbersConsecutiveSamples() {
+        assertEquals(3, ingest(0, 3));
+        assertEquals(2, ingest(3, 2));
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), this.sink.indices);
+        assertEquals(Arrays.asList(0f, 1f, 2f, 3f, 4f), this.sink.firstValues);
+        assertEquals(5, this.ingest.getReceivedCount());
+        assertEquals(0, this.ingest.getLostCount());
+    }
+
+    @Test
+    public void continuesAcrossSequenceWrapAround() {
+        ingest(SensorFrame.SEQUENCE_MODULUS - 2, 2);
+        ingest(0, 2);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), this.sink.indices);
+        assertEquals(Arrays.asList(65534f, 65535f, 0f, 1f), this.sink.firstValues);
+        assertEquals(0, this.ingest.getLostCount());
+    }
+
+    @Test
+    public void continuesAcrossWrapAroundWithinFrame() {
+        ingest(SensorFrame.SEQUENCE_MODULUS - 2, 1);
+        ingest(SensorFrame.SEQUENCE_MODULUS - 1, 3);
+        ingest(2, 1);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), this.sink.indices);
+        assertEquals(Arrays.asList(65534f, 65535f, 0f, 1f, 2f), this.sink.firstValues);
+        assertEquals(0, this.ingest.getLostCount());
+    }
+
+    @Test
+    public void keepsPlaceOfLostSamples() {
+        ingest(SensorFrame.SEQUENCE_MODULUS - 1, 1);
+        ingest(2, 1);
+
+        //Samples 0 and 1 have been lost across the wrap-around
+        assertEquals(Arrays.asList(0L, 3L), this.sink.indices);
+        assertEquals(2, this.ingest.getLostCount());
+        assertEquals(2, this.ingest.getReceivedCount());
+        assertEquals(0.5, this.ingest.getLossRate(), 0.0001);
+    }
+
+    @Test
+    public void skipsDuplicates() {
+        ingest(10, 3);
+        assertEquals(0, ingest(10, 3));
+        assertEquals(3, this.ingest.getDuplicateCount());
+
+        //Overlapping frame: only the new samples are delivered
+        assertEquals(2, ingest(12, 3));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), this.sink.indices);
+        assertEquals(Arrays.asList(10f, 11f, 12f, 13f, 14f), this.sink.firstValues);
+        assertEquals(4, this.ingest.getDuplicateCount());
+        assertEquals(0, this.ingest.getLostCount());
+        assertEquals(0, this.ingest.getOutOfOrderCount());
+    }
+
+    @Test
+    public void countsLateSamplesAsOutOfOrder() {
+        ingest(0, 1);
+        ingest(3, 1);
+        assertEquals(2, this.ingest.getLostCount());
+
+        //Late sample: no longer lost, but not delivered either (the sink only sees increasing indices)
+        assertEquals(0, ingest(1, 1));
+        assertEquals(1, this.ingest.getOutOfOrderCount());
+        assertEquals(1, this.ingest.getLostCount());
+
+        //The same late sample once more is a duplicate
+        assertEquals(0, ingest(1, 1));
+        assertEquals(1, this.ingest.getDuplicateCount());
+        assertEquals(1, this.ingest.getOutOfOrderCount());
+
+        ingest(4, 1);
+        assertEquals(Arrays.asList(0L, 3L, 4L), this.sink.indices);
+    }
+
+    @Test
+    public void countsLateSamplesAcrossWrapAround() {
+        ingest(SensorFrame.SEQUENCE_MODULUS - 2, 1);
+        ingest(1, 1);
+        assertEquals(2, this.ingest.getLostCount());
+
+        ingest(SensorFrame.SEQUENCE_MODULUS - 1, 2);
+        assertEquals(2, this.ingest.getOutOfOrderCount());
+        assertEquals(0, this.ingest.getLostCount());
+        assertEquals(Arrays.asList(0L, 3L), this.sink.indices);
+    }
+
+    @Test
+    public void restartsCountingAfterLargeJumpBack() {
+        ingest(1000, 2);
+        ingest(5, 2);
+
+        //blueIOT has been restarted: neither a loss nor late samples
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), this.sink.indices);
+        assertEquals(0, this.ingest.getLostCount());
+        assertEquals(0, this.ingest.getOutOfOrderCount());
+        assertEquals(0, this.ingest.getDuplicateCount());
+    }
+
+    @Test
+    public void resyncDoesNotReportLoss() {
+        ingest(0, 1);
+        this.ingest.requestResync();
+        ingest(500, 1);
+
+        assertEquals(Arrays.asList(0L, 1L), this.sink.indices);
+        assertEquals(0, this.ingest.getLostCount());
+    }
+
+    @Test
+    public void timestampsAreStrictlyIncreasing() {
+        ingest(0, 4);
+        long received = this.time;
+        ingest(4, 4);
+        ingest(8, 4);
+
+        //The last sample of a notification has been measured right before it was received
+        assertEquals(received, (long) this.sink.timestamps.get(3));
+        for (int i = 1; i < this.sink.timestamps.size(); i++) {
+            assertTrue(this.sink.timestamps.get(i) > this.sink.timestamps.get(i - 1));
+        }
+    }
+
+    /**
+     * Ingests a frame with consecutive samples, the first value of each sample is its sample counter
+     */
+    private int ingest(int sequence, int count) {
+        SensorFrame frame = new SensorFrame(count);
+        frame.sequence = sequence;
+        frame.sampleCount = count;
+        for (int sample = 0; sample < count; sample++) {
+            frame.values[sample * SensorFrame.CHANNELS] = (sequence + sample) & (SensorFrame.SEQUENCE_MODULUS - 1);
+        }
+
+        this.time += count * PERIOD;
+        return this.ingest.ingest(frame, this.time, this.sink);
+    }
+
+    /**
+     * Sink recording every delivered sample
+     */
+    private static final class RecordingSink implements SensorIngest.Sink {
+        private final List<Long> indices = new ArrayList<>();
+        private final List<Long> timestamps = new ArrayList<>();
+        private final List<Float> firstValues = new ArrayList<>();
+
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+            this.indices.add(sampleIndex);
+            this.timestamps.add(timestamp);
+            this.firstValues.add(values[offset]);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.AdvertisementParser;
+import de.hdmstuttgart.blueiot.BlueIOTHelper;
+import de.hdmstuttgart.blueiot.SensorFrameFormat;
+import de.hdmstuttgart.blueiot.SensorIngest;
+import de.hdmstuttgart.blueiot.SensorPipeline;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the scan records reported by a scan (see AdvertisementParser) and the connectionless mode of the DashboardActivity.
+ * The scan record is laid out like the one of a blueIOT: advertisement with flags and iBeacon, scan response with a sensor frame and the name
+ * (62 Bytes). readSample runs every advertisement through SensorPipeline.onAdvertisement(); a new sample is advertised with every third
+ * advertisement only, as the blueIOT advertises faster than it measures, so the others are counted as duplicates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AdvertisementParserBenchmark {
+    //Advertisements per new sample
+    private static final int REPEAT_COUNT = 3;
+
+    private final byte[] scanRecord = new byte[62];
+    private int sensorFrameOffset;
+
+    private final AdvertisementParser parser = new AdvertisementParser();
+    private float checksum;
+    private int advertisementCount;
+
+    private final SensorPipeline pipeline = new SensorPipeline(new SensorIngest.Sink() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+            checksum += values[offset + 3];
+        }
+    });
+
+    @Setup
+    public void createScanRecord() {
+        int position = 0;
+
+        //Advertisement: flags, iBeacon (Apple 0x004C, type 0x02, length 0x15, UUID, major, minor, measured power)
+        position = put(position, 0x02, 0x01, 0x06);
+        position = put(position, 0x1A, 0xFF, 0x4C, 0x00, 0x02, 0x15);
+        for (int i = 0; i < 16; i++) {
+            this.scanRecord[position++] = (byte) (0xA0 + i);
+        }
+        position = put(position, 0x00, 0x01, 0x00, 0x02, 0xC5);
+        position = 31;
+
+        //Scan response: sensor frame with a single sample, complete local name
+        int frameLength = SensorFrameFormat.BINARY_V1_HEADER_SIZE + SensorFrameFormat.BINARY_V1_SAMPLE_SIZE;
+        position = put(position, frameLength + 3, 0xFF, SensorFrameFormat.ADVERTISEMENT_COMPANY_ID & 0xFF, SensorFrameFormat.ADVERTISEMENT_COMPANY_ID >> 8);
+        this.sensorFrameOffset = position;
+        byte[] frame = new byte[frameLength];
+        SensorFrameFormat.encodeBinary(new float[] { 0.1f, -0.2f, 9.81f, 312.5f }, 0, 1, 0, frame);
+        System.arraycopy(frame, 0, this.scanRecord, position, frameLength);
+        position += frameLength;
+
+        byte[] name = BlueIOTHelper.BLUEIOT_DEVICE_NAME.getBytes(Charset.forName("UTF-8"));
+        position = put(position, name.length + 1, 0x09);
+        System.arraycopy(name, 0, this.scanRecord, position, name.length);
+    }
+
+    private int put(int position, int... values) {
+        for (int value : values) {
+            this.scanRecord[position++] = (byte) value;
+        }
+        return position;
+    }
+
+    /**
+     * Locating all AD structures of a scan record, as done for every advertisement
+     */
+    @Benchmark
+    public int parse() {
+        this.parser.parse(this.scanRecord);
+        return this.parser.getIBeaconMajor() + this.parser.getSensorFrameLength();
+    }
+
+    /**
+     * Parsing, decoding and ingesting the sample of an advertisement (connectionless mode)
+     */
+    @Benchmark
+    public float readSample() {
+        int sequence = this.advertisementCount++ / REPEAT_COUNT;
+        this.scanRecord[this.sensorFrameOffset + 2] = (byte) sequence;
+        this.scanRecord[this.sensorFrameOffset + 3] = (byte) (sequence >> 8);
+        this.pipeline.onAdvertisement(this.scanRecord, System.nanoTime());
+        return this.checksum;
+    }
+}
@@ -0,0 +1,35 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.BallPhysics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving the ball of the DrawActivity with the samples of a binary notification (two samples) and keeping it on the surface
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BallPhysicsBenchmark {
+    private final BallPhysics ball = new BallPhysics();
+    private final float[] values = { -0.12f, 0.98f, 9.81f, 12.5f, 0.11f, -0.97f, 9.80f, 12.5f };
+
+    public BallPhysicsBenchmark() {
+        this.ball.setBounds(1080, 1920);
+    }
+
+    @Benchmark
+    public float integrateNotification() {
+        this.ball.integrate(this.values[0], this.values[1]);
+        this.ball.integrate(this.values[4], this.values[5]);
+        this.ball.constrain();
+        return this.ball.getX() + this.ball.getY();
+    }
+}
@@ -0,0 +1,80 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.DeviceList;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deduplication of scan results in the device list of the MainActivity (see BleDeviceListAdapter.update()).
+ * During a scan, every advertisement of every device nearby is reported again, so almost all calls update a known device.
+ * The devices are indexed by their address, so the lookup does not depend on the number of devices; moving a device to its new place
+ * in the nearest-first order only depends on how many devices have a similar (smoothed) RSSI.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DeviceListBenchmark {
+    //Number of devices nearby
+    @Param({ "5", "50", "500" })
+    public int deviceCount;
+
+    private final DeviceList<Device> deviceList = new DeviceList<>();
+    private Device[] devices;
+    private int next;
+
+    /**
+     * Stands in for BluetoothDevice, which is equal to another BluetoothDevice if the addresses are equal
+     */
+    private static final class Device {
+        private final String address;
+
+        Device(String address) {
+            this.address = address;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Device && this.address.equals(((Device) other).address);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.address.hashCode();
+        }
+    }
+
+    @Setup
+    public void createDevices() {
+        this.devices = new Device[this.deviceCount];
+        for (int i = 0; i < this.deviceCount; i++) {
+            this.devices[i] = new Device(String.format(Locale.US, "00:07:80:%02X:%02X:%02X", (i >> 16) & 0xFF, (i >> 8) & 0xFF, i & 0xFF));
+            this.deviceList.update(this.devices[i].address, this.devices[i], -60, null, 0);
+        }
+    }
+
+    /**
+     * An advertisement of a device that is already in the list (a new instance, as delivered by the scan callback)
+     */
+    @Benchmark
+    public boolean updateKnownDevice() {
+        Device known = this.devices[this.next];
+        this.next = (this.next + 1) % this.deviceCount;
+        boolean isAdded = this.deviceList.update(known.address, new Device(known.address), -60 - this.next % 10, null, this.next);
+
+        //The UI applies the changes once per frame
+        if (this.next == 0) {
+            this.deviceList.clearChanges();
+        }
+        return isAdded;
+    }
+}
@@ -0,0 +1,266 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.BlueIOTHelper;
+import de.hdmstuttgart.blueiot.ConnectionGovernor;
+import de.hdmstuttgart.blueiot.ConnectionNegotiator;
+import de.hdmstuttgart.blueiot.GattCommandQueue;
+import de.hdmstuttgart.blueiot.ReconnectPolicy;
+import de.hdmstuttgart.blueiot.SensorFrameFormat;
+import de.hdmstuttgart.blueiot.SensorIngest;
+import de.hdmstuttgart.blueiot.SensorPipeline;
+import de.hdmstuttgart.blueiot.SimulatedPeripheral;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Soak test against a SimulatedPeripheral: connects the same way BleConnectionService does (command queue, notifications, negotiation of MTU and
+ * connection priority, binary format, governor, reconnects with backoff), feeds every notification through the SensorPipeline and checks that the app side keeps up.
+ * Fails (exit code 1) if the notifications are delivered late on average, i.e. the pipeline is slower than the stream,
+ * or if samples that have been sent never arrive.
+ *
+ * Run with: ./gradlew :benchmarks:soak -Pargs="duration=600 rate=1000 loss=0.01 jitter=7.5 disconnect=30000 outage=500 profile=2"
+ * (duration in seconds, rate in samples per second, jitter, disconnect interval and outage in milliseconds, profile of ConnectionGovernor)
+ */
+public final class PeripheralSoakRunner {
+    //Received samples may only differ from the sent ones by the notifications lost while the format is switched
+    private static final double MIN_DELIVERY_RATIO = 0.99;
+
+    //Average lateness that indicates that the pipeline can't keep up, in milliseconds
+    //(measured from the time each notification was due, which already includes the jitter, see SimulatedPeripheral)
+    private static final double MAX_AVERAGE_LATENESS = 2;
+
+    private static final byte[] ENABLE_NOTIFICATION_VALUE = { 0x01, 0x00 };
+
+    private final SimulatedPeripheral peripheral;
+    private final GattCommandQueue commandQueue;
+    private final ConnectionNegotiator negotiator = new ConnectionNegotiator(true);
+    private final ConnectionGovernor governor = new ConnectionGovernor(this.negotiator);
+    private final ReconnectPolicy reconnectPolicy;
+
+    //Timeout of the attempt in progress, cancelled once it has succeeded or failed
+    private volatile ScheduledFuture<?> attemptTimeout;
+    private final SensorPipeline pipeline;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    //Only written by the notification thread
+    private volatile long deliveredSampleCount;
+
+    private PeripheralSoakRunner(SimulatedPeripheral peripheral, long seed) {
+        this.peripheral = peripheral;
+        this.reconnectPolicy = new ReconnectPolicy(new Random(seed));
+        this.commandQueue = new GattCommandQueue(peripheral, this.scheduler);
+        this.pipeline = new SensorPipeline(new SensorIngest.Sink() {
+            @Override
+            public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+                deliveredSampleCount = deliveredSampleCount + 1;
+            }
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        HashMap<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator > 0) {
+                options.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+        }
+
+        long duration = Long.parseLong(option(options, "duration", "60"));
+        double rate = Double.parseDouble(option(options, "rate", "1000"));
+        double loss = Double.parseDouble(option(options, "loss", "0.01"));
+        double jitter = Double.parseDouble(option(options, "jitter", "7.5"));
+        long disconnect = Long.parseLong(option(options, "disconnect", "30000"));
+        long outage = Long.parseLong(option(options, "outage", "500"));
+        long seed = Long.parseLong(option(options, "seed", "42"));
+        int profile = Integer.parseInt(option(options, "profile", String.valueOf(ConnectionGovernor.PROFILE_GRAPH)));
+
+        SimulatedPeripheral peripheral = new SimulatedPeripheral()
+                .setSampleRate(rate)
+                .setJitter(jitter)
+                .setLossRate(loss)
+                .setDisconnects(disconnect, outage)
+                .setSeed(seed);
+
+        System.out.println(String.format(Locale.US, "Soak test: %d s, %.0f samples/s, %.1f %% loss, %.1f ms jitter, disconnects every ~%d ms for %d ms",
+                duration, rate, loss * 100, jitter, disconnect, outage));
+
+        PeripheralSoakRunner runner = new PeripheralSoakRunner(peripheral, seed);
+        runner.governor.setProfile(profile);
+        boolean isPassed = runner.run(duration * 1000);
+        System.exit(isPassed ? 0 : 1);
+    }
+
+    private static String option(HashMap<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * Runs the soak test and prints the results
+     * @return true if all checks have passed
+     */
+    private boolean run(long duration) throws InterruptedException {
+        //The first attempt is made by the peripheral itself
+        this.reconnectPolicy.start(now());
+        this.reconnectPolicy.onAttemptStarted(now());
+        this.peripheral.start(this.gattCallback);
+
+        long start = System.nanoTime();
+        long end = start + duration * 1000000;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(10000, Math.max(1, (end - System.nanoTime()) / 1000000)));
+            printProgress(start);
+        }
+
+        this.peripheral.stop();
+        this.scheduler.shutdownNow();
+
+        SensorIngest ingest = this.pipeline.getIngest();
+        long sent = this.peripheral.getSentSampleCount();
+        long received = ingest.getReceivedCount();
+        double deliveryRatio = sent == 0 ? 0 : received / (double) sent;
+        double averageLateness = this.peripheral.getAverageLatenessMillis();
+
+        System.out.println(String.format(Locale.US, "Sent: %d samples in %d notifications, lost on purpose: %d samples, disconnects: %d",
+                sent, this.peripheral.getSentNotificationCount(), this.peripheral.getLostSampleCount(), this.peripheral.getDisconnectCount()));
+        System.out.println(String.format(Locale.US, "Received: %d samples (%.2f %%), detected as lost: %d, duplicates: %d, out of order: %d, malformed: %d",
+                received, deliveryRatio * 100, ingest.getLostCount(), ingest.getDuplicateCount(), ingest.getOutOfOrderCount(), this.pipeline.getMalformedCount()));
+        System.out.println(String.format(Locale.US, "Lateness: %.3f ms (max. %.3f ms), limit: %.3f ms",
+                averageLateness, this.peripheral.getMaxLatenessMillis(), MAX_AVERAGE_LATENESS));
+        System.out.println(this.reconnectPolicy.getSummary());
+
+        boolean isPassed = true;
+        if (deliveryRatio < MIN_DELIVERY_RATIO) {
+            System.out.println("FAILED: samples have been sent but not received");
+            isPassed = false;
+        }
+        if (averageLateness > MAX_AVERAGE_LATENESS) {
+            System.out.println("FAILED: the pipeline can't keep up with the notifications");
+            isPassed = false;
+        }
+        if (isPassed) {
+            System.out.println("PASSED");
+        }
+        return isPassed;
+    }
+
+    private void printProgress(long start) {
+        double elapsed = (System.nanoTime() - start) / 1000000000d;
+        System.out.println(String.format(Locale.US, "%6.0f s: %d samples received (%.0f samples/s), %d disconnects, %s",
+                elapsed, this.deliveredSampleCount, this.deliveredSampleCount / elapsed, this.peripheral.getDisconnectCount(), this.negotiator.getSummary()));
+        System.out.println("        " + this.governor.getSummary());
+        System.out.println("        " + this.reconnectPolicy.getSummary());
+    }
+
+    /**
+     * @return The time base of the ReconnectPolicy in milliseconds
+     */
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+    /**
+     * Makes the next attempt once it is due
+     */
+    private final Runnable attemptRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long timeout = reconnectPolicy.onAttemptStarted(now());
+            peripheral.connect();
+            attemptTimeout = scheduler.schedule(attemptTimeoutRunnable, timeout, TimeUnit.MILLISECONDS);
+        }
+    };
+
+    /**
+     * Gives up an attempt that has taken too long
+     */
+    private final Runnable attemptTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long delay = reconnectPolicy.onAttemptTimeout(now());
+            if (delay >= 0) {
+                peripheral.cancelConnect();
+                scheduler.schedule(attemptRunnable, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    };
+
+    /**
+     * Does what BleConnectionService does with the callbacks of the BluetoothGatt
+     */
+    private final SimulatedPeripheral.Callback gattCallback = new SimulatedPeripheral.Callback() {
+        @Override
+        public void onConnectionStateChanged(boolean isConnected) {
+            ScheduledFuture<?> timeout = attemptTimeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+
+            if (isConnected) {
+                reconnectPolicy.onConnected(now());
+
+                //Samples missed while disconnected are not lost
+                pipeline.getIngest().requestResync();
+
+                commandQueue.enqueue(GattCommandQueue.Command.setNotification(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION, true));
+                commandQueue.enqueue(GattCommandQueue.Command.writeDescriptor(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_NOTIFICATION,
+                        BlueIOTHelper.BLUEIOT_DESCRIPTOR_NOTIFICATION, ENABLE_NOTIFICATION_VALUE));
+                negotiator.negotiate(commandQueue);
+                commandQueue.enqueue(GattCommandQueue.Command.write(BlueIOTHelper.BLUEIOT_PRIMARY_SERVICE, BlueIOTHelper.BLUEIOT_CHARACTERISTIC_CONTROL,
+                        SensorFrameFormat.createSetFormatCommand(SensorFrameFormat.FORMAT_BINARY_V1))
+                        .setRetries(0));
+                governor.start(commandQueue, true);
+            }
+            else {
+                //Operations that are still pending can't complete anymore
+                commandQueue.clear();
+                negotiator.reset();
+                governor.stop();
+
+                //Lost or failed attempt, connect again according to the policy
+                long delay = reconnectPolicy.onDisconnected(now());
+                if (delay >= 0) {
+                    scheduler.schedule(attemptRunnable, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+
+        @Override
+        public void onCharacteristicRead(UUID characteristic, int status, byte[] value) {
+            commandQueue.onCommandCompleted(GattCommandQueue.TYPE_READ, characteristic, status, value);
+        }
+
+        @Override
+        public void onCharacteristicWrite(UUID characteristic, int writeType, int status) {
+            commandQueue.onCommandCompleted(GattCommandQueue.getWriteCommandType(writeType), characteristic, status, null);
+        }
+
+        @Override
+        public void onDescriptorWrite(UUID characteristic, int status) {
+            commandQueue.onCommandCompleted(GattCommandQueue.TYPE_WRITE_DESCRIPTOR, characteristic, status, null);
+        }
+
+        @Override
+        public void onMtuChanged(int mtu, int status) {
+            negotiator.onMtuChanged(mtu, status);
+            commandQueue.onCommandCompleted(GattCommandQueue.TYPE_MTU, null, status, null);
+        }
+
+        @Override
+        public void onCharacteristicChanged(UUID characteristic, byte[] value) {
+            long receivedTime = System.nanoTime();
+            reconnectPolicy.onNotification(receivedTime / 1000000);
+            negotiator.onNotification(receivedTime);
+            governor.onNotification(receivedTime, SensorFrameFormat.getSampleCount(value));
+            pipeline.onFrame(value, System.nanoTime());
+        }
+    };
+}
@@ -0,0 +1,56 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.AsciiFrameDecoder;
+import de.hdmstuttgart.blueiot.BinaryFrameDecoder;
+import de.hdmstuttgart.blueiot.SensorFrame;
+import de.hdmstuttgart.blueiot.SensorFrameFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding the comma-separated String format with the packed binary format.
+ * Both benchmarks report samples per second: a 20 Byte notification holds one sample as String, but two samples in the binary format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorFrameDecoderBenchmark {
+    private static final int BINARY_SAMPLES = SensorFrameFormat.getMaxBinarySamples(SensorFrameFormat.DEFAULT_PAYLOAD_SIZE);
+
+    //Typical 20 Byte payload as sent by blueIOT
+    private final byte[] asciiFrame = "-0.12,0.98,9.81,12.5".getBytes(Charset.forName("US-ASCII"));
+
+    //The same 20 Bytes, carrying two samples
+    private final byte[] binaryFrame = new byte[SensorFrameFormat.DEFAULT_PAYLOAD_SIZE];
+
+    private final AsciiFrameDecoder asciiDecoder = new AsciiFrameDecoder();
+    private final BinaryFrameDecoder binaryDecoder = new BinaryFrameDecoder();
+    private final SensorFrame frame = new SensorFrame(BINARY_SAMPLES);
+
+    public SensorFrameDecoderBenchmark() {
+        float[] values = { -0.12f, 0.98f, 9.81f, 12.5f, -0.11f, 0.97f, 9.80f, 12.5f };
+        SensorFrameFormat.encodeBinary(values, 0, BINARY_SAMPLES, 42, this.binaryFrame);
+    }
+
+    @Benchmark
+    public float ascii() {
+        this.asciiDecoder.decode(this.asciiFrame, this.frame);
+        return this.frame.values[0] + this.frame.values[3];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(2)
+    public float binary() {
+        this.binaryDecoder.decode(this.binaryFrame, this.frame);
+        return this.frame.values[0] + this.frame.values[7];
+    }
+}
@@ -0,0 +1,48 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.SensorFrameParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the allocation-free SensorFrameParser with the previous String.split()/Float.parseFloat() implementation
+ * that was used inside onCharacteristicChanged()
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorFrameParserBenchmark {
+    //Typical 20 Byte payload as sent by blueIOT
+    private final byte[] frame = "-0.12,0.98,9.81,12.5".getBytes(Charset.forName("US-ASCII"));
+
+    private final float[] values = new float[SensorFrameParser.VALUE_COUNT];
+
+    @Benchmark
+    public float sensorFrameParser() {
+        SensorFrameParser.parse(this.frame, this.values);
+        return this.values[0] + this.values[1] + this.values[2] + this.values[3];
+    }
+
+    @Benchmark
+    public float stringSplit() {
+        //Equivalent of BluetoothGattCharacteristic.getStringValue(0) followed by the former parsing code
+        String value = new String(this.frame, Charset.forName("US-ASCII"));
+        String[] values = value.split(",");
+        if (values.length == 4) {
+            float x = Float.parseFloat(values[0].trim());
+            float y = Float.parseFloat(values[1].trim());
+            float z = Float.parseFloat(values[2].trim());
+            float height = Float.parseFloat(values[3].trim());
+            return x + y + z + height;
+        }
+        return 0;
+    }
+}
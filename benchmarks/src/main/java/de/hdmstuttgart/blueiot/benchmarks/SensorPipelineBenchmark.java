@@ -0,0 +1,57 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.ReplayEngine;
+import de.hdmstuttgart.blueiot.SensorIngest;
+import de.hdmstuttgart.blueiot.SensorPipeline;
+import de.hdmstuttgart.blueiot.SyntheticFrameSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a synthetic session as fast as possible through the same pipeline onCharacteristicChanged() uses (decoding and ingest).
+ * Reports samples per second; the session has 1 % lost notifications, so the loss detection is exercised as well.
+ * replaySessionTraced measures the same with the LatencyTracer enabled (disabled, it only adds a volatile read per stage).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorPipelineBenchmark {
+    private static final int SESSION_SAMPLES = 10000;
+
+    private float checksum;
+
+    private final SensorIngest.Sink sink = new SensorIngest.Sink() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values, int offset) {
+            checksum += values[offset];
+        }
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(SESSION_SAMPLES)
+    public float replaySession() {
+        return replay(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SESSION_SAMPLES)
+    public float replaySessionTraced() {
+        return replay(true);
+    }
+
+    private float replay(boolean isTraced) {
+        SensorPipeline pipeline = new SensorPipeline(this.sink);
+        pipeline.getTracer().setEnabled(isTraced);
+        SyntheticFrameSource source = new SyntheticFrameSource(100, 20, SESSION_SAMPLES, 0.01, 42);
+        new ReplayEngine(source, pipeline, ReplayEngine.MODE_AS_FAST_AS_POSSIBLE, 0).run();
+        return this.checksum;
+    }
+}
@@ -0,0 +1,61 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.SensorFrame;
+import de.hdmstuttgart.blueiot.SensorPlot;
+import de.hdmstuttgart.blueiot.SensorSeriesStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the line segments of a frame of the plot engine (see SensorPlot), the part of SensorPlotThread's frame that doesn't depend on Android.
+ * The plot is as wide as a 1080p display in portrait mode and shows the last 10 seconds:
+ * at 100 Hz about one sample per pixel column, at 1000 Hz several samples per column (drawn as vertical min/max-lines).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorPlotBenchmark {
+    private static final long WINDOW = 10000000000L;
+
+    private final SensorSeriesStore store100Hz = new SensorSeriesStore(2048, SensorFrame.CHANNELS);
+    private final SensorSeriesStore store1000Hz = new SensorSeriesStore(16384, SensorFrame.CHANNELS);
+    private final SensorPlot plot = new SensorPlot(SensorFrame.CHANNELS);
+
+    @Setup
+    public void fill() {
+        fill(this.store100Hz, 10000000);
+        fill(this.store1000Hz, 1000000);
+        this.plot.setSize(1080, 660);
+    }
+
+    private static void fill(SensorSeriesStore store, long period) {
+        float[] sample = new float[SensorFrame.CHANNELS];
+        for (int i = 0; i < store.getCapacity(); i++) {
+            sample[0] = (float) Math.sin(i * 0.05);
+            sample[1] = (float) Math.cos(i * 0.03);
+            sample[2] = 9.81f + (float) Math.sin(i * 0.2) * 0.1f;
+            sample[3] = 12.5f + (i % 100) * 0.01f;
+            store.append((i + 1) * period, sample, 0);
+        }
+    }
+
+    @Benchmark
+    public int update100Hz() {
+        this.plot.update(this.store100Hz, WINDOW);
+        return this.plot.getLineLength(0);
+    }
+
+    @Benchmark
+    public int update1000Hz() {
+        this.plot.update(this.store1000Hz, WINDOW);
+        return this.plot.getLineLength(0);
+    }
+}
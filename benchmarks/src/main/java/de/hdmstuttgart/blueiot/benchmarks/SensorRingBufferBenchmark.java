@@ -0,0 +1,65 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.SensorFrame;
+import de.hdmstuttgart.blueiot.SensorRingBuffer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hand-over of samples from the Binder-Thread to the UI-Thread through the SensorRingBuffer.
+ * batch: one thread offers the samples of ~one frame (16) and drains them, i.e. the pure cost per sample without contention.
+ * handoff: a producer and a consumer thread run concurrently, as in DetailActivity (the producer drops samples if the buffer is full).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorRingBufferBenchmark {
+    private static final int BATCH_SIZE = 16;
+
+    private final SensorRingBuffer ringBuffer = new SensorRingBuffer(512, SensorFrame.CHANNELS);
+    private final float[] sample = { -0.12f, 0.98f, 9.81f, 12.5f };
+
+    private long sampleIndex;
+    private float checksum;
+
+    private final SensorRingBuffer.Consumer consumer = new SensorRingBuffer.Consumer() {
+        @Override
+        public void onSample(long sampleIndex, long timestamp, float[] values) {
+            checksum += values[0];
+        }
+    };
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    @Group("batch")
+    public float offerAndDrain() {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            this.ringBuffer.offer(this.sampleIndex, this.sampleIndex, this.sample, 0);
+            this.sampleIndex++;
+        }
+        this.ringBuffer.drain(this.consumer);
+        return this.checksum;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public boolean offer() {
+        this.sampleIndex++;
+        return this.ringBuffer.offer(this.sampleIndex, this.sampleIndex, this.sample, 0);
+    }
+
+    @Benchmark
+    @Group("handoff")
+    public int drain() {
+        return this.ringBuffer.drain(this.consumer);
+    }
+}
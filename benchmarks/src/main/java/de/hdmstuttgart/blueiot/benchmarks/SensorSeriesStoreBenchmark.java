@@ -0,0 +1,66 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.SensorFrame;
+import de.hdmstuttgart.blueiot.SensorSeriesStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending samples to the graph's series store once it is full, i.e. every append evicts the oldest sample.
+ * Measured with and without the min/max-summary (as configured in DetailActivity) and for clearing the graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SensorSeriesStoreBenchmark {
+    private static final int CAPACITY = 4096;
+
+    private final SensorSeriesStore plainStore = new SensorSeriesStore(CAPACITY, SensorFrame.CHANNELS);
+    private final SensorSeriesStore pyramidStore = new SensorSeriesStore(CAPACITY, SensorFrame.CHANNELS, 6, 4);
+    private final float[] sample = { -0.12f, 0.98f, 9.81f, 12.5f };
+
+    private long timestamp;
+
+    @Setup
+    public void fill() {
+        for (int i = 0; i < CAPACITY; i++) {
+            append();
+        }
+    }
+
+    @Benchmark
+    public int appendEvicting() {
+        this.timestamp += 10000000;
+        this.plainStore.append(this.timestamp, this.sample, 0);
+        return this.plainStore.size();
+    }
+
+    @Benchmark
+    public int appendEvictingWithPyramid() {
+        this.timestamp += 10000000;
+        this.pyramidStore.append(this.timestamp, this.sample, 0);
+        return this.pyramidStore.size();
+    }
+
+    @Benchmark
+    public int clearAndAppend() {
+        this.timestamp += 10000000;
+        this.plainStore.clear(1);
+        this.plainStore.append(this.timestamp, this.sample, 0);
+        return this.plainStore.size();
+    }
+
+    private void append() {
+        this.timestamp += 10000000;
+        this.plainStore.append(this.timestamp, this.sample, 0);
+        this.pyramidStore.append(this.timestamp, this.sample, 0);
+    }
+}
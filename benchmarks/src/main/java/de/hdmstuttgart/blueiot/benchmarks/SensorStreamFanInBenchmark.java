@@ -0,0 +1,70 @@
+package de.hdmstuttgart.blueiot.benchmarks;
+
+import de.hdmstuttgart.blueiot.SensorFrame;
+import de.hdmstuttgart.blueiot.SensorFrameFormat;
+import de.hdmstuttgart.blueiot.SensorSeriesStore;
+import de.hdmstuttgart.blueiot.SensorStream;
+import de.hdmstuttgart.blueiot.SyntheticFrameSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-in of several devices on the dashboard (see DashboardActivity): every device delivers one notification with two samples
+ * (~one display frame at 100 Hz), then the streams of all devices are drained into their series stores, as the UI-Thread does once per frame.
+ * Reports the time per display frame, which should grow linearly with the number of devices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SensorStreamFanInBenchmark {
+    //Distinct notifications per device, replayed over and over (the sample counter restarting is treated like a restart of blueIOT)
+    private static final int FRAME_COUNT = 1024;
+
+    @Param({ "1", "4", "8" })
+    private int deviceCount;
+
+    private SensorStream[] streams;
+    private byte[][] frames;
+    private int frameIndex;
+
+    @Setup
+    public void setUp() {
+        this.streams = new SensorStream[this.deviceCount];
+        for (int i = 0; i < this.deviceCount; i++) {
+            this.streams[i] = new SensorStream("device " + i, new SensorSeriesStore(4096, SensorFrame.CHANNELS, 6, 4));
+        }
+
+        //Binary notifications with two samples each, without losses
+        SyntheticFrameSource source = new SyntheticFrameSource(100, SensorFrameFormat.BINARY_V1_HEADER_SIZE + 2 * SensorFrameFormat.BINARY_V1_SAMPLE_SIZE, 2 * FRAME_COUNT, 0, 42);
+        this.frames = new byte[FRAME_COUNT][];
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            this.frames[i] = source.nextFrame().clone();
+        }
+    }
+
+    @Benchmark
+    public int displayFrame() {
+        byte[] frame = this.frames[this.frameIndex];
+        this.frameIndex = (this.frameIndex + 1) % FRAME_COUNT;
+
+        long now = System.nanoTime();
+        for (SensorStream stream : this.streams) {
+            stream.onFrame(frame, now);
+        }
+
+        int drained = 0;
+        for (SensorStream stream : this.streams) {
+            drained += stream.drain();
+        }
+        return drained;
+    }
+}